@@ -0,0 +1,186 @@
+/*
+ * File - BMFormat.java
+ *
+ * Description -
+ *		Ptr layout, page format version and map ordering shared
+ *		by BMPage and CBMPage (and their scans), which use the
+ *		same page layout
+ */
+package bitmap;
+
+import java.io.*;
+import global.*;
+
+/*
+ * BMFormat Class
+ *
+ * Ptr entries start right after the page metadata. Pages in the current
+ * format hold the page # & slot # of a mapping as ints; pages written
+ * before that (format version 0) held both as shorts and are still read
+ * and deleted from, but take no inserts.
+ * The format version is kept in the high byte of MAP_TYPE so that pages
+ * written by older builds (where that byte was always 0) can still be
+ * told apart without changing the metadata layout.
+ */
+final class BMFormat implements ConstPtr
+{
+	//Helper constants (in bytes)
+	private static final int SIZEOF_SHORT = 2;
+	private static final int SIZEOF_INT = 4;
+
+	//Size of each pointer set (the slot # & page # of the mapped attribute)
+	static final int MAP_START_PTR = 0;
+	static final int MAP_LENGTH 	= MAP_START_PTR + SIZEOF_SHORT;
+	static final int PAGE_PTR 		= MAP_LENGTH + SIZEOF_SHORT;
+	static final int SLOT_PTR 		= PAGE_PTR + SIZEOF_INT;
+	static final int SIZE_OF_PTR 	= SIZEOF_SHORT * 2 + SIZEOF_INT * 2;
+	//pointer layout of format version 0 pages (page # & slot # as shorts)
+	static final int LEGACY_SLOT_PTR 	= PAGE_PTR + SIZEOF_SHORT;
+	static final int LEGACY_SIZE_OF_PTR = SIZEOF_SHORT * 4;
+
+	static final int FORMAT_LEGACY = 0;
+	static final int FORMAT_WIDE_PTR = 1;
+	static final int FORMAT_CURRENT = FORMAT_WIDE_PTR;
+	private static final int FORMAT_SHIFT = 8;
+	private static final int MAP_TYPE_MASK = 0xFF;
+
+	private BMFormat()
+	{
+	}
+
+	//----------------
+	//Page Format Methods
+	//----------------
+
+	//get the type of attribute mapped in a page
+	static short getMapType( byte[] data )
+		throws IOException
+	{
+		return (short)(Convert.getShortValue(BMPage.MAP_TYPE, data) & MAP_TYPE_MASK);
+	}
+
+	//set the type of attribute mapped in a page along with its format version
+	static void setMapType( byte[] data, short type, int version )
+		throws IOException
+	{
+		Convert.setShortValue((short)(type | (version << FORMAT_SHIFT)), BMPage.MAP_TYPE, data);
+	}
+
+	//get the pointer format version of a page
+	static int getFormatVersion( byte[] data )
+		throws IOException
+	{
+		return (Convert.getShortValue(BMPage.MAP_TYPE, data) >> FORMAT_SHIFT) & MAP_TYPE_MASK;
+	}
+
+	//true if a page still uses the short page/slot pointers
+	static boolean isLegacyFormat( byte[] data )
+		throws IOException
+	{
+		return FORMAT_LEGACY == getFormatVersion(data);
+	}
+
+	//----------------
+	//Ptr Methods
+	//----------------
+
+	//byte offset of a given ptr entry, which depends on the page format
+	private static int ptrOffset( byte[] data, int ptrNo )
+		throws IOException
+	{
+		if( isLegacyFormat(data) )
+			return BMPage.METADATA_SIZE + (ptrNo * LEGACY_SIZE_OF_PTR);
+		return BMPage.METADATA_SIZE + (ptrNo * SIZE_OF_PTR);
+	}
+
+	//legacy pointers were written with a (short) cast, so read them back
+	//unsigned to recover page ids up to 65535; INVALID_PTR stays -1
+	private static int legacyPtrValue( byte[] data, int offset )
+		throws IOException
+	{
+		short val = Convert.getShortValue(offset, data);
+		if( INVALID_PTR == val )
+			return INVALID_PTR;
+		return val & 0xFFFF;
+	}
+
+	//set the values in a PTR entry to the appropriate page & slot
+	static void setPtr( byte[] data, int ptrNo, short mapStart, short mapLength, int pageNo, int slotNo )
+		throws IOException
+	{
+		int position = ptrOffset(data, ptrNo);
+		Convert.setShortValue(mapStart, position + MAP_START_PTR, data);
+		Convert.setShortValue(mapLength, position + MAP_LENGTH, data);
+		if( isLegacyFormat(data) )
+		{
+			Convert.setShortValue((short)pageNo, position + PAGE_PTR, data);
+			Convert.setShortValue((short)slotNo, position + LEGACY_SLOT_PTR, data);
+		}
+		else
+		{
+			Convert.setIntValue(pageNo, position + PAGE_PTR, data);
+			Convert.setIntValue(slotNo, position + SLOT_PTR, data);
+		}
+	}
+
+	//get the starting offset of a map
+	static short getPtrMapStart( byte[] data, int ptrNo )
+		throws IOException
+	{
+		return Convert.getShortValue(ptrOffset(data, ptrNo) + MAP_START_PTR, data);
+	}
+
+	//get the length of a mapping
+	static short getPtrMapLength( byte[] data, int ptrNo )
+		throws IOException
+	{
+		return Convert.getShortValue(ptrOffset(data, ptrNo) + MAP_LENGTH, data);
+	}
+
+	//get the Page a mapping is pointing to
+	static int getPtrPage( byte[] data, int ptrNo )
+		throws IOException
+	{
+		int position = ptrOffset(data, ptrNo) + PAGE_PTR;
+		if( isLegacyFormat(data) )
+			return legacyPtrValue(data, position);
+		return Convert.getIntValue(position, data);
+	}
+
+	//get the Slot in the Page a mapping is pointing to
+	static int getPtrSlot( byte[] data, int ptrNo )
+		throws IOException
+	{
+		if( isLegacyFormat(data) )
+			return legacyPtrValue(data, ptrOffset(data, ptrNo) + LEGACY_SLOT_PTR);
+		return Convert.getIntValue(ptrOffset(data, ptrNo) + SLOT_PTR, data);
+	}
+
+	//----------------
+	//Map Order Methods
+	//----------------
+
+	//compare 2 maps as unsigned bytes, shorter maps sort first on a tie
+	//(int maps are stored most significant byte first, so this preserves order)
+	static int compareMaps( byte[] map1, byte[] map2 )
+	{
+		int len = Math.min( map1.length, map2.length );
+		for(int i = 0; i < len; i++)
+		{
+			int diff = (map1[i] & 0xFF) - (map2[i] & 0xFF);
+			if( diff != 0 )
+				return diff;
+		}
+		return map1.length - map2.length;
+	}
+
+	//a null bound means the range is open on that side
+	static boolean inRange( byte[] map, byte[] lowKey, byte[] highKey )
+	{
+		if( (lowKey != null) && (compareMaps( map, lowKey ) < 0) )
+			return false;
+		if( (highKey != null) && (compareMaps( map, highKey ) > 0) )
+			return false;
+		return true;
+	}
+}
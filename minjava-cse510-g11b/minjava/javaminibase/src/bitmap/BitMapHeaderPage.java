@@ -134,6 +134,19 @@ public class BitMapHeaderPage extends HFPage
 		}
 	}
 	
+	private void freePage(PageId pageno)
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.freePage(pageno);
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"Heapfile.java: freePage() failed");
+		}
+	}
+	
 	//method to create a page that will exist in the DB
 	private PageId newPage(Page page, int num)
 		throws HFBufMgrException
@@ -161,6 +174,54 @@ public class BitMapHeaderPage extends HFPage
 		return getCurPage();
     }
 	
+	//true if any page in this file still uses the short page/slot
+	//pointer layout and should be rebuilt from its column
+	boolean hasLegacyPages()
+		throws HFBufMgrException, IOException
+	{
+		boolean legacyFound = false;
+		PageId currentPageId = new PageId( headBMPageId.pid );
+		BMPage currentBMPage = new BMPage();
+		
+		while( (false == legacyFound) && (INVALID_PAGE != currentPageId.pid) )
+		{
+			pinPage(currentPageId, currentBMPage, false/*read disk*/);
+			legacyFound = currentBMPage.isLegacyFormat();
+			PageId nextPageId = currentBMPage.getNextPage();
+			unpinPage(currentPageId, false /*not DIRTY*/);
+			currentPageId.pid = nextPageId.pid;
+		}
+		
+		return legacyFound;
+	}
+	
+	//free every page in the list after the head one, used when a file is
+	//rebuilt; the head page is also the file's header page, see freeHeaderPage()
+	void freeMapPages()
+		throws HFBufMgrException, IOException
+	{
+		BMPage currentBMPage = new BMPage();
+		pinPage(headBMPageId, currentBMPage, false/*read disk*/);
+		PageId currentPageId = new PageId( currentBMPage.getNextPage().pid );
+		unpinPage(headBMPageId, false /*not DIRTY*/);
+		
+		while( INVALID_PAGE != currentPageId.pid )
+		{
+			pinPage(currentPageId, currentBMPage, false/*read disk*/);
+			PageId nextPageId = new PageId( currentBMPage.getNextPage().pid );
+			unpinPage(currentPageId, false /*not DIRTY*/);
+			freePage(currentPageId);
+			currentPageId = nextPageId;
+		}
+	}
+	
+	//free the head page of the list, which is also the file's header page
+	void freeHeaderPage()
+		throws HFBufMgrException
+	{
+		freePage(headBMPageId);
+	}
+	
 	//----------------
 	//Functional Methods
 	//----------------
@@ -169,7 +230,7 @@ public class BitMapHeaderPage extends HFPage
 	//	1) Check if this pageNo/slotNo are already in the BitMap File (on any page)
 	//	2) If not present, look for a page with space to do the insert
 	//	3) If no page has space, make a new page to insert the mapping
-	public boolean insertMap( ValueClass value, short pageNo, short slotNo )
+	public boolean insertMap( ValueClass value, int pageNo, int slotNo )
 		throws HFException, HFBufMgrException, IOException
 	{
 		boolean successfulInsert = false;
@@ -291,7 +352,7 @@ public class BitMapHeaderPage extends HFPage
 	//Remove the map pointers for a given page/slot in the columnar
 	//to effectively "delete" the mapping inthe Bitmap file
 	//If the pageNo/slotNo pair aren't mapped then nothing occurs
-	public boolean deleteMap( short pageNo, short slotNo )
+	public boolean deleteMap( int pageNo, int slotNo )
 		throws HFBufMgrException, IOException,
 				InvalidSlotNumberException
 	{
@@ -11,6 +11,7 @@ import heap.*;
 import btree.*;
 import diskmgr.*;
 import bufmgr.*;
+import columnar.DeletionBitmap;
 
 /**
  * BMFileScan implements a search/iterate interface to B+ tree 
@@ -18,7 +19,7 @@ import bufmgr.*;
  * class IndexFileScan.  
  */
 public class CBMFileScan  extends IndexFileScan
-             implements  GlobalConst
+             implements  GlobalConst, ConstPtr
 {
 	CBitMapFile bmfile; 
 	String bmFilename;     // Bitmap we're scanning
@@ -37,6 +38,13 @@ public class CBMFileScan  extends IndexFileScan
 	int keyType;
 	int maxKeysize;
 	
+	//deleted rows of the source table, null when the scan was opened
+	//without knowing its columnar file
+	DeletionBitmap deleted;
+	Heapfile columnHeap;
+	//data page id -> position of slot 0, built on the first deleted check
+	private java.util.HashMap<Integer, Integer> positionBases;
+	
 	//-----------------
 	//Buffer support methods
 	//-----------------
@@ -77,88 +85,67 @@ public class CBMFileScan  extends IndexFileScan
 		throws ScanIteratorException
 	{
 		KeyDataEntry entry = null;
-		PageId nextpage;
 		
 		try
 		{
-			if( curPage != null )
+			//keep going until a match is found or the page list runs out
+			while( (entry == null) && (curPage != null) && (INVALID_PAGE != curPageId.pid) )
 			{
-				boolean inRange = false;
-				while( inRange )
+				//pin page to read
+				pinPage( curPageId, curPage, false );
+				
+				//get the number of maps on this page
+				int mapCount = curPage.getMapCnt();
+				//iterate from last slot to check to end of page
+				for(int map = curSlot; (entry == null) && (map < mapCount); map++)
 				{
-					//pin page to read
-					pinPage( curPageId, curPage, false );
+					//skip ptrs freed by a delete
+					if( INVALID_PTR == curPage.getPtrPage(map) )
+						continue;
 					
-					//get the number of maps on this page
-					int mapCount = (int)curPage.getMapCnt();
-					//iterate from last slot to check to end of page
-					for(int map = curSlot; map < mapCount; map++)
+					byte[] nextMap = curPage.getMapAtSlot( map );
+					//check if the checked map is in search range of scan
+					if( BMFormat.inRange( nextMap, lowKey, highKey ) && !isDeleted( curPage.getPtrPage(map), curPage.getPtrSlot(map) ) )
 					{
-						//assume true until proven out of range
-						boolean nextMatch = true;
-						byte[] nextMap = curPage.getMapAtSlot( map );
-						//check each compnent of the map is in range
-						for(int i = 0; i < nextMap.length; i++)
+						//set the current RID of the match
+						curRid = new RID( new PageId(curPage.getPtrPage(map)), curPage.getPtrSlot(map) );
+						//get the mapped value and store it in the returned KeyEntry
+						if( AttrType.attrString == keyType )
 						{
-							//because string maps are variable length, we need to
-							//check comparison maps are still in range
-							if( i < lowKey.length )
-							{
-								//check if this component is less than the min bound
-								if( nextMap[i] < lowKey[i] )
-									nextMatch = false;
-							}
-							if( i < lowKey.length )
-							{
-								//check if this component is less than the min bound
-								if( nextMap[i] > highKey[i] )
-									nextMatch = false;
-							}
+							String tmpString = curPage.convertMapToString( nextMap );
+							entry = new KeyDataEntry( tmpString, curRid );
 						}
-						//check if the checked map is in search range of scan
-						if( nextMatch )
+						else if( AttrType.attrReal == keyType )
 						{
-							inRange = true;
-							//set the current RID of the match
-							curRid = new RID( new PageId(curPage.getPtrPage(map)), curPage.getPtrSlot(map) );
-							//get the mapped value and store it in the returned KeyEntry
-							if( (int)AttrType.attrString == keyType )
-							{
-								String tmpString = curPage.convertMapToString( nextMap );
-								entry = new KeyDataEntry( tmpString, curRid );
-							}
-							else
-							{
-								int tmpInt = curPage.convertMapToInt( nextMap );
-								entry = new KeyDataEntry( tmpInt, curRid );
-							}
-							//set the "curSlot" to the next slot for subsequent
-							//call of get_next()
-							curSlot = map + 1;
-							//quick exit map loop
-							map = mapCount;
+							float tmpFloat = curPage.convertMapToFloat( nextMap );
+							entry = new KeyDataEntry( new RealKey(tmpFloat), curRid );
 						}
-					}
-					//if inRange is still false by here, we'll need to get the next page
-					if( false == inRange )
-					{
-						PageId nextPageId = curPage.getNextPage();
-						//if we reach the end of the list, exit
-						if( -1 == nextPageId.pid )
+						else
 						{
-							inRange = true;
+							int tmpInt = curPage.convertMapToInt( nextMap );
+							entry = new KeyDataEntry( tmpInt, curRid );
 						}
-						unpinPage(curPageId, false /*not DIRTY*/);
-						curPageId = nextPageId;
-						//reset curSlot to 0 for new page
-						curSlot = 0;
-					}
-					else
-					{
-						//else unpin page and be prepared to return the value
-						unpinPage(curPageId, false /*not DIRTY*/);
+						//set the "curSlot" to the next slot for subsequent
+						//call of get_next()
+						curSlot = map + 1;
 					}
 				}
+				
+				//nothing left on this page, move to the next one
+				if( entry == null )
+				{
+					//copy the id, getNextPage() hands back the page's own PageId object
+					PageId nextPageId = new PageId( curPage.getNextPage().pid );
+					unpinPage(curPageId, false /*not DIRTY*/);
+					curPageId = nextPageId;
+					//reset curSlot to 0 for new page
+					curSlot = 0;
+				}
+				else
+				{
+					//else unpin page and be prepared to return the value
+					unpinPage(curPageId, false /*not DIRTY*/);
+				}
 			}
 		}
 		catch ( Exception e )
@@ -170,6 +157,18 @@ public class CBMFileScan  extends IndexFileScan
 		return entry;
 	}
 	
+	//true if the mapped row was logically deleted in the columnar file
+	private boolean isDeleted( int pageNo, int slotNo )
+		throws Exception
+	{
+		if( (deleted == null) || (deleted.count() == 0) )
+			return false;
+		if( positionBases == null )
+			positionBases = columnHeap.getPositionBases();
+		Integer base = positionBases.get( pageNo );
+		return (base != null) && deleted.isDeleted( base.intValue() + slotNo );
+	}
+	
 	/** 
 	 * Delete the current record.
 	 * @exception ScanDeleteException delete current record failed
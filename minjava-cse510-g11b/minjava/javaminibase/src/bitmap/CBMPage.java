@@ -17,15 +17,6 @@ import diskmgr.*;
 import btree.*; //for exceptions
 import heap.*; //for exceptions
 
- /*
-  * Define constant values for INVALID_SLOT and EMPTY_SLOT
-  */
-interface ConstPtr
-{
-	short INVALID_PTR =  -1;
-	short EMPTY_PTR = -1;
-}
-
 /*=======================
  * CBMPage Class
  *=======================
@@ -48,11 +39,11 @@ interface ConstPtr
  *	 _______________________________________________
  *	|				[page metadata here]			|
  *	| Ptr 0: offset_ptr0 (short) && length (short)	|
- *	|		&& slot # && page # (short)				|
+ *	|		&& page # && slot # (int)				|
  *	| Ptr 1: offset_ptr0 (short) && length (short)	|
- *	|		&& slot # && page # (short)				|
+ *	|		&& page # && slot # (int)				|
  *	| Ptr 2: offset_ptr0 (short) && length (short)	|
- *	|		&& slot # && page # (short)				|
+ *	|		&& page # && slot # (int)				|
  *	|					...							|
  *	| BM 2: Bitmap of column attribute				| [starts at MAX_SPACE - offset_ptr2 in buffer]
  *	| BM 1: Bitmap of column attribute				| [starts at MAX_SPACE - offset_ptr1 in buffer]
@@ -67,6 +58,9 @@ interface ConstPtr
  * Similar to a HFPage, we will keep track of where certain maps are stored in memory through
  * offsets and lengths. All integer values will have the same length, but string inputs may
  * vary from 1-50 characters.
+ * Page & slot numbers are stored as full ints so column Heapfiles larger than 32K pages
+ * are addressed correctly. Pages written before this change (format version 0) stored
+ * both as shorts; they are still readable and deletable, see BMFormat.
  * On Deletes we will remove the bitmap, compact the data that surrounded the removed map, and then
  * update the Ptr values to the new positions in memory. The Ptr to the deleted map will have INVALID
  * set for all its values to indicate it is allocated but unused.
@@ -94,7 +88,7 @@ interface ConstPtr
  * fact that only 1 bit will be set in each part and compress the representation to jsut track which bit is set in
  * the range [0, 255] (or a single ubyte). That compresses the bitmap in memory down to a mere 4 bytes.
  * 
- * Combined with the size of the pointer we should require 8 bytes to store each mapping.
+ * Combined with the size of the pointer we should require 16 bytes to store each mapping.
  * 
  * -----
  * 
@@ -140,11 +134,8 @@ public class CBMPage extends Page
 	private static final int INT_MIN = -2147483647;
 	
 	//Size of each pointer set (the slot # & page # of the mapped attribute)
-	public static final int MAP_START_PTR = 0;
-	public static final int MAP_LENGTH 	= MAP_START_PTR + SIZEOF_SHORT;
-	public static final int PAGE_PTR 	= MAP_LENGTH + SIZEOF_SHORT;
-	public static final int SLOT_PTR 	= PAGE_PTR + SIZEOF_SHORT;
-	public static final int SIZE_OF_PTR = SIZEOF_SHORT * 4;
+	//and the page format versions are defined in BMFormat
+	public static final int SIZE_OF_PTR = BMFormat.SIZE_OF_PTR;
 	//Size of each bitmapping (the 4 bytes to hold the map)
 	public static final int SIZE_OF_INTEGER_MAP = SIZEOF_BYTE * 4;
 	
@@ -217,7 +208,7 @@ public class CBMPage extends Page
 		
 		//default all maps to int tracking, differences have another method to update it
 		mapType = AttrType.attrInteger;
-		Convert.setShortValue(mapType, MAP_TYPE, data);
+		BMFormat.setMapType(data, mapType, BMFormat.FORMAT_CURRENT);
 		
 		//start location of the free space in the buffer (we put the bitmaps at
 		//the end of the buffer and grow towards the slots)
@@ -305,16 +296,31 @@ public class CBMPage extends Page
 	public short getMapType()
 		throws IOException
 	{
-		mapType = Convert.getShortValue(MAP_TYPE, data);
+		mapType = BMFormat.getMapType(data);
 		return mapType;
 	}
 	
 	//update the type specifier for this bitmap
+	//the format version of the page is left as is
 	public void setMapType( short type )
 		throws IOException
 	{
 		mapType = type;
-		Convert.setShortValue(mapType, MAP_TYPE, data);
+		BMFormat.setMapType(data, mapType, getFormatVersion());
+	}
+	
+	//get the pointer format version of this page
+	public int getFormatVersion()
+		throws IOException
+	{
+		return BMFormat.getFormatVersion(data);
+	}
+	
+	//true if this page still uses the short page/slot pointers
+	public boolean isLegacyFormat()
+		throws IOException
+	{
+		return BMFormat.isLegacyFormat(data);
 	}
 	
 	//----------------
@@ -322,58 +328,46 @@ public class CBMPage extends Page
 	//----------------
 	
 	//set the values in a PTR entry to the appropriate page & slot
-	public void setPtr(int ptrNo, short mapStart, short mapLength, short pageNo, short slotNo)
+	public void setPtr(int ptrNo, short mapStart, short mapLength, int pageNo, int slotNo)
 		throws IOException
     {
-		int position = METADATA_SIZE + (ptrNo * SIZE_OF_PTR);
-		Convert.setShortValue(mapStart, position + MAP_START_PTR, data);
-		Convert.setShortValue(mapLength, position + MAP_LENGTH, data);
-		Convert.setShortValue(pageNo, position + PAGE_PTR, data);
-		Convert.setShortValue(slotNo, position + SLOT_PTR, data);
+		BMFormat.setPtr(data, ptrNo, mapStart, mapLength, pageNo, slotNo);
     }
 	
 	//get the starting offset of this map
 	public short getPtrMapStart(int ptrNo)
 		throws IOException
     {
-		int position = METADATA_SIZE + (ptrNo * SIZE_OF_PTR) + MAP_START_PTR;
-		short val= Convert.getShortValue(position, data);
-		return val;
+		return BMFormat.getPtrMapStart(data, ptrNo);
     }
 	
 	//get the length of this mapping
 	public short getPtrMapLength(int ptrNo)
 		throws IOException
     {
-		int position = METADATA_SIZE + (ptrNo * SIZE_OF_PTR) + MAP_LENGTH;
-		short val= Convert.getShortValue(position, data);
-		return val;
+		return BMFormat.getPtrMapLength(data, ptrNo);
     }
 	
 	//get the Page the mapping is pointing to
 	//this is the pointer to the PageId containing the data
-	public short getPtrPage(int ptrNo)
+	public int getPtrPage(int ptrNo)
 		throws IOException
     {
-		int position = METADATA_SIZE + (ptrNo * SIZE_OF_PTR) + PAGE_PTR;
-		short val= Convert.getShortValue(position, data);
-		return val;
+		return BMFormat.getPtrPage(data, ptrNo);
     }
 	
 	//get the Slot in the Page the mapping is pointing to
 	//this pointer is to the slot in the Heapfile page
-	public short getPtrSlot(int ptrNo)
+	public int getPtrSlot(int ptrNo)
 		throws IOException
     {
-		int position = METADATA_SIZE + (ptrNo * SIZE_OF_PTR) + SLOT_PTR;
-		short val= Convert.getShortValue(position, data);
-		return val;
+		return BMFormat.getPtrSlot(data, ptrNo);
     }
 	
 	//checks the page to see if it already maps a given value
 	//at a passed page/slot number & returns the ptr count
 	//if it exists, else returns -1
-	public int checkPairExistence( short pageNo, short slotNo )
+	public int checkPairExistence( int pageNo, int slotNo )
 		throws IOException
 	{
 		int indexOfMatch = INVALID_PTR;
@@ -435,6 +429,11 @@ public class CBMPage extends Page
 			String tmpString = Convert.getStrValue( 0, valToMatch.getClassValue(), valToMatch.getValueLength() );
 			mapCheck = convertStringToMap( tmpString );
 		}
+		else if( AttrType.attrReal == valToMatch.getType() )
+		{
+			float tmpFloat = Convert.getFloValue( 0, valToMatch.getClassValue() );
+			mapCheck = convertFloatToMap( tmpFloat );
+		}
 		else
 		{
 			int tmpInt =  Convert.getIntValue( 0, valToMatch.getClassValue() );
@@ -535,6 +534,19 @@ public class CBMPage extends Page
 		return result;
 	}
 	
+	//convert a float into an int mapping that keeps float order, so
+	//float maps compare like int maps (see RealKey.toSortableInt)
+	public byte[] convertFloatToMap( float input )
+	{
+		return convertIntToMap( RealKey.toSortableInt(input) );
+	}
+	
+	//convert a mapped value back to a float
+	public float convertMapToFloat( byte[] input )
+	{
+		return RealKey.fromSortableInt( convertMapToInt(input) );
+	}
+	
 	//----------------
 	//Functional Methods
 	//----------------
@@ -542,13 +554,18 @@ public class CBMPage extends Page
 	//Insert a Mapping for a given attribute if there is sufficient
 	//space in this BMPage to allocate the sized mapping
 	//returns the ptr entry where the mapping was stored
-	public int insertRecord ( ValueClass value, short pageNo, short slotNo )
+	public int insertRecord ( ValueClass value, int pageNo, int slotNo )
 		throws IOException
     {
 		//initiate to failure and update return on successful
 		//insertion (failure is -1)
 		int ptrSlotInserted = INVALID_PTR;
 		
+		//legacy pages cannot hold page numbers above 32K, new maps
+		//always go to pages in the current format
+		if( isLegacyFormat() )
+			return ptrSlotInserted;
+		
 		int recordSize = 0;
 		//Based on value class, get the size of the record needed to map
 		switch( value.getType() )
@@ -626,6 +643,13 @@ public class CBMPage extends Page
 				newMap = convertStringToMap( someStringToConvert );
 				System.arraycopy(newMap, 0, data, emptyPtr, recordSize);
 			}
+			else if( AttrType.attrReal == getMapType() )
+			{
+				float someFloatToConvert = Convert.getFloValue( 0, value.getClassValue() );
+				byte[] newMap = new byte[recordSize];
+				newMap = convertFloatToMap( someFloatToConvert );
+				System.arraycopy(newMap, 0, data, emptyPtr, recordSize);
+			}
 			else
 			{
 				int someIntToConvert = Convert.getIntValue( 0, value.getClassValue() );
@@ -643,11 +667,13 @@ public class CBMPage extends Page
 	//the slot pointing to that mapping, shifts the remaining bytes
 	// in memory over to stay compact, & then updates pointers
 	//to those maps
-	public boolean deleteRecord( short pageNo, short slotNo )
+	public boolean deleteRecord( int pageNo, int slotNo )
 		throws IOException, InvalidSlotNumberException
     {
 		boolean successfulDelete = false;
 		mapCnt = Convert.getShortValue(MAP_COUNT, data);
+		emptyPtr = Convert.getShortValue(NEXT_EMPTY, data);
+		freeSpace = Convert.getShortValue(FREE_SPACE, data);
 		
 		// first check if the record being deleted is actually valid
 		int indexToDelete = checkPairExistence( pageNo, slotNo );
@@ -673,7 +699,7 @@ public class CBMPage extends Page
 				//ie, if we delete 5 bytes of map, then this map starts 5 bytes higher in
 				//the buffer, but only if it was lower in the buffer than the deleted map
 				short thisMapStart = getPtrMapStart(i);
-				if( thisMapStart > deleteStart )
+				if( (INVALID_PTR != getPtrPage(i)) && (thisMapStart < deleteStart) )
 				{
 					short newStart = (short)(thisMapStart + deleteSize);
 					setPtr( i, newStart, getPtrMapLength(i), getPtrPage(i), getPtrSlot(i) );
@@ -697,6 +723,10 @@ public class CBMPage extends Page
 	{
 		boolean canInsert = false;
 		
+		//legacy pages are read/delete only
+		if( isLegacyFormat() )
+			return canInsert;
+		
 		int recordSize = 0;
 		//Based on value class, get the size of the record needed to map
 		switch( value.getType() )
@@ -766,6 +796,11 @@ public class CBMPage extends Page
 				int mappedValue = convertMapToInt( getMapAtSlot(mapping) );
 				System.out.println(mappedValue);
 			}
+			else if( AttrType.attrReal == getMapType() )
+			{
+				float mappedValue = convertMapToFloat( getMapAtSlot(mapping) );
+				System.out.println(mappedValue);
+			}
 		}
 	}
 
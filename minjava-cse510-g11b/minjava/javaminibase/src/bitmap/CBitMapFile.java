@@ -20,12 +20,14 @@ import columnar.*;
  * CBitMapFile Class
  */
 public class CBitMapFile extends IndexFile
-	implements GlobalConst
+	implements GlobalConst, ConstPtr
 {
 	//----------------
 	//Class Variables
 	//----------------
 	private Columnarfile srcColumnar;
+	//name of the columnar file mapped, when known
+	private String srcRelName;
 	private CBitMapHeaderPage headerPage;
 	private PageId  headerPageId;
 	private String  dbname;
@@ -56,6 +58,19 @@ public class CBitMapFile extends IndexFile
 		dbname = new String(filename);
 	}
 	
+	//CBitMapFile class; opens an existing index file mapping
+	//column ColumnNo of the columnar file relName, so that scans
+	//can skip the rows deleted from it
+	public CBitMapFile( String filename, String relName, int ColumnNo )
+		throws GetFileEntryException,  
+		   PinPageException, 
+		   ConstructPageException    
+	{
+		this( filename );
+		srcRelName = relName;
+		columnMap = ColumnNo;
+	}
+	
 	//CBitMapFile class
 	//Takes a columnar file, a column to map, and the ValueClass type to map
 	//Checks if the passed filename exists to open, else makes a new one
@@ -65,20 +80,38 @@ public class CBitMapFile extends IndexFile
 						int ColumnNo, ValueClass value )
 		throws GetFileEntryException, ConstructPageException,
 				IOException, AddFileEntryException, HFBufMgrException,
-				HFException, HFDiskMgrException
+				HFException, HFDiskMgrException, DeleteFileEntryException
 	{
 		//get the id of the page for the passed filename
 		headerPageId = get_file_entry(filename);
+		
+		//assocaite the columnarfile input
+		srcColumnar = columnfile;
+		srcRelName = columnfile.get_fileName();
+		//store the column count
+		columnMap = ColumnNo;
+		//get the type of map this is (string/int)
+		mapType = value.getType();
+		
+		if( headerPageId != null )
+		{
+			headerPage = new CBitMapHeaderPage( headerPageId );
+			unpinPage(headerPageId, true);
+			
+			//files written before page numbers were widened to ints cannot address
+			//column pages above 32K; drop them and rebuild from the column instead
+			if( headerPage.hasLegacyPages() )
+			{
+				headerPage.freeMapPages();
+				headerPage.freeHeaderPage();
+				delete_file_entry(filename);
+				headerPageId = null;
+			}
+		}
+		
 		//file not exist, create one
 		if( headerPageId == null )
 		{
-			//assocaite the columnarfile input
-			srcColumnar = columnfile;
-			//store the column count
-			columnMap = ColumnNo;
-			//get the type of map this is (string/int)
-			mapType = value.getType();
-			
 			//define a Bitmap Header page
 			headerPage = new CBitMapHeaderPage(); 
 			headerPage.init( value );
@@ -112,7 +145,14 @@ public class CBitMapFile extends IndexFile
 						int intValue = Convert.getIntValue(0, tuple.getTupleByteArray());
 						IntegerValueClass tmpValueClass = new IntegerValueClass( intValue );
 						//insert the value, and a pointer back to the space in the Heapfile mapped
-						headerPage.insertMap(tmpValueClass, (short)rid.pageNo.pid, (short)rid.slotNo);
+						headerPage.insertMap(tmpValueClass, rid.pageNo.pid, rid.slotNo);
+					}
+					if (columnfile.type[columnMap - 1].attrType == AttrType.attrReal)
+					{
+						float floatValue = Convert.getFloValue(0, tuple.getTupleByteArray());
+						FloatValueClass tmpValueClass = new FloatValueClass( floatValue );
+						//insert the value, and a pointer back to the space in the Heapfile mapped
+						headerPage.insertMap(tmpValueClass, rid.pageNo.pid, rid.slotNo);
 					}
 					if (columnfile.type[columnMap - 1].attrType == AttrType.attrString)
 					{
@@ -120,7 +160,7 @@ public class CBitMapFile extends IndexFile
 						String stringValue = Convert.getStrValue(0, byteArr, byteArr.length);
 						StringValueClass tmpValueClass = new StringValueClass( stringValue );
 						//insert the value, and a pointer back to the space in the Heapfile mapped
-						headerPage.insertMap(tmpValueClass, (short)rid.pageNo.pid, (short)rid.slotNo);
+						headerPage.insertMap(tmpValueClass, rid.pageNo.pid, rid.slotNo);
 					}
 					//get next entry in scan
 					tuple = scan.getNext(rid);
@@ -131,12 +171,6 @@ public class CBitMapFile extends IndexFile
 				e.printStackTrace();
 			}
 		}
-		else //else opening existing file
-		{
-			System.out.println("\tDEBUG -- open existing");
-			headerPage = new CBitMapHeaderPage( headerPageId );
-			unpinPage(headerPageId, true);
-		}
 		
 		dbname = new String(filename);
 	}
@@ -356,13 +390,19 @@ public class CBitMapFile extends IndexFile
 		{
 			String tmpString = Convert.getStrValue( offsetOfData, curHFPage.getHFpageArray(), lengthOfData );
 			StringValueClass tmpValueClass = new StringValueClass( tmpString );
-			successfulInsert = headerPage.insertMap( tmpValueClass, (short)pageMatch.pid, (short)slotEntryInPage );
+			successfulInsert = headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
+		}
+		else if( AttrType.attrReal == mapType )
+		{
+			float tmpFloat = Convert.getFloValue( offsetOfData, curHFPage.getHFpageArray() );
+			FloatValueClass tmpValueClass = new FloatValueClass( tmpFloat );
+			successfulInsert = headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
 		}
 		else //default to int
 		{
 			int tmpInt = Convert.getIntValue( offsetOfData, curHFPage.getHFpageArray() );
 			IntegerValueClass tmpValueClass = new IntegerValueClass( tmpInt );
-			successfulInsert = headerPage.insertMap( tmpValueClass, (short)pageMatch.pid, (short)slotEntryInPage );
+			successfulInsert = headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
 		}
 		
 		//unpin the page at completion of operation
@@ -397,11 +437,71 @@ public class CBitMapFile extends IndexFile
 		int slotEntryInPage = positionRID.slotNo;
 		
 		//using the page # & slot #, find and delete the coresponding bitmap entry
-		successfulDelete = headerPage.deleteMap( (short)pageMatch.pid, (short)slotEntryInPage );
+		successfulDelete = headerPage.deleteMap( pageMatch.pid, slotEntryInPage );
 		
 		return successfulDelete;
 	}
 	
+	/*
+	 * Rewrites every pointer in this file through a compaction remap.
+	 * Pointers to purged rows are deleted and the rest are moved to the
+	 * row's new page # & slot # in place. Legacy (short pointer) pages
+	 * cannot hold the new page numbers, so their maps are moved onto
+	 * pages of the current format instead.
+	 */
+	public void remap( PositionRemap remap, int columnNo )
+		throws HFException, HFBufMgrException, IOException,
+				InvalidSlotNumberException
+	{
+		java.util.ArrayList<ValueClass> movedValues = new java.util.ArrayList<ValueClass>();
+		java.util.ArrayList<RID> movedRids = new java.util.ArrayList<RID>();
+		
+		PageId currentPageId = new PageId( headerPage.headBMPageId.pid );
+		CBMPage currentBMPage = new CBMPage();
+		while( INVALID_PAGE != currentPageId.pid )
+		{
+			pinPage(currentPageId, currentBMPage, false/*read disk*/);
+			boolean legacyPage = currentBMPage.isLegacyFormat();
+			int mapCount = currentBMPage.getMapCnt();
+			for( int map = 0; map < mapCount; map++ )
+			{
+				int pageNo = currentBMPage.getPtrPage(map);
+				int slotNo = currentBMPage.getPtrSlot(map);
+				if( INVALID_PTR == pageNo )
+					continue;
+				
+				RID newRid = remap.getNewRid( columnNo, new RID(new PageId(pageNo), slotNo) );
+				if( (newRid != null) && !legacyPage )
+				{
+					currentBMPage.setPtr( map, currentBMPage.getPtrMapStart(map),
+							currentBMPage.getPtrMapLength(map), newRid.pageNo.pid, newRid.slotNo );
+					continue;
+				}
+				if( newRid != null )
+				{
+					byte[] oldMap = currentBMPage.getMapAtSlot(map);
+					if( AttrType.attrString == currentBMPage.getMapType() )
+						movedValues.add( new StringValueClass( currentBMPage.convertMapToString(oldMap) ) );
+					else if( AttrType.attrReal == currentBMPage.getMapType() )
+						movedValues.add( new FloatValueClass( currentBMPage.convertMapToFloat(oldMap) ) );
+					else
+						movedValues.add( new IntegerValueClass( currentBMPage.convertMapToInt(oldMap) ) );
+					movedRids.add( newRid );
+				}
+				currentBMPage.deleteRecord( pageNo, slotNo );
+			}
+			PageId nextPageId = new PageId( currentBMPage.getNextPage().pid );
+			unpinPage(currentPageId, true /*DIRTY*/);
+			currentPageId = nextPageId;
+		}
+		
+		for( int i = 0; i < movedValues.size(); i++ )
+		{
+			RID newRid = movedRids.get(i);
+			headerPage.insertMap( movedValues.get(i), newRid.pageNo.pid, newRid.slotNo );
+		}
+	}
+	
 	/** create a scan with given keys
 	 * Cases:
 	 *      (1) lo_key = null, hi_key = null
@@ -442,15 +542,29 @@ public class CBitMapFile extends IndexFile
 			
 			scan.keyType = head.getMapType();
 			//convert the low/high key values to comparable bitmaps
+			//a null key leaves that end of the range open
+			scan.lowKey = null;
+			scan.highKey = null;
 			if( AttrType.attrString == head.getMapType() )
 			{
-				scan.lowKey = head.convertStringToMap( ((StringKey)lo_key).getKey() );
-				scan.highKey = head.convertStringToMap( ((StringKey)hi_key).getKey() );
+				if( lo_key != null )
+					scan.lowKey = head.convertStringToMap( ((StringKey)lo_key).getKey() );
+				if( hi_key != null )
+					scan.highKey = head.convertStringToMap( ((StringKey)hi_key).getKey() );
+			}
+			else if( AttrType.attrReal == head.getMapType() )
+			{
+				if( lo_key != null )
+					scan.lowKey = head.convertFloatToMap( ((RealKey)lo_key).getKey().floatValue() );
+				if( hi_key != null )
+					scan.highKey = head.convertFloatToMap( ((RealKey)hi_key).getKey().floatValue() );
 			}
 			else
 			{
-				scan.lowKey = head.convertIntToMap( ((IntegerKey)lo_key).getKey() );
-				scan.highKey = head.convertIntToMap( ((IntegerKey)hi_key).getKey() );
+				if( lo_key != null )
+					scan.lowKey = head.convertIntToMap( ((IntegerKey)lo_key).getKey().intValue() );
+				if( hi_key != null )
+					scan.highKey = head.convertIntToMap( ((IntegerKey)hi_key).getKey().intValue() );
 			}
 			scan.curRid = null;
 			scan.bmFilename = dbname;
@@ -459,9 +573,17 @@ public class CBitMapFile extends IndexFile
 			scan.curSlot = 0;
 			scan.bmfile = this;
 			
+			//rows deleted from the columnar file are skipped when the
+			//source table is known (files opened by name only skip none)
+			if( srcRelName != null )
+			{
+				scan.deleted = DeletionBitmap.open( srcRelName );
+				scan.columnHeap = new Heapfile( srcRelName + "." + columnMap );
+			}
+			
 			//Sets up scan at the starting position, ready for iteration
 			scan.curPage = head;
-			scan.curPageId = head.getCurPage();
+			scan.curPageId = new PageId( head.getCurPage().pid );
 			
 			unpinPage(headerPage.headBMPageId, false/*not DIRTY*/);
 			
@@ -507,13 +629,19 @@ public class CBitMapFile extends IndexFile
 			{
 				String tmpString = Convert.getStrValue( offsetOfData, curHFPage.getHFpageArray(), lengthOfData );
 				StringValueClass tmpValueClass = new StringValueClass( tmpString );
-				headerPage.insertMap( tmpValueClass, (short)pageMatch.pid, (short)slotEntryInPage );
+				headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
+			}
+			else if( AttrType.attrReal == mapType )
+			{
+				float tmpFloat = Convert.getFloValue( offsetOfData, curHFPage.getHFpageArray() );
+				FloatValueClass tmpValueClass = new FloatValueClass( tmpFloat );
+				headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
 			}
 			else //default to int
 			{
 				int tmpInt = Convert.getIntValue( offsetOfData, curHFPage.getHFpageArray() );
 				IntegerValueClass tmpValueClass = new IntegerValueClass( tmpInt );
-				headerPage.insertMap( tmpValueClass, (short)pageMatch.pid, (short)slotEntryInPage );
+				headerPage.insertMap( tmpValueClass, pageMatch.pid, slotEntryInPage );
 			}
 			
 			//unpin the page at completion of operation
@@ -544,7 +672,7 @@ public class CBitMapFile extends IndexFile
 			int slotEntryInPage = rid.slotNo;
 			
 			//using the page # & slot #, find and delete the coresponding bitmap entry
-			succesfulDelete = headerPage.deleteMap( (short)pageMatch.pid, (short)slotEntryInPage );
+			succesfulDelete = headerPage.deleteMap( pageMatch.pid, slotEntryInPage );
 		
 		}catch ( Exception e ) {}
 		
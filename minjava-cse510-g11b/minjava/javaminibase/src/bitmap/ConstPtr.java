@@ -0,0 +1,17 @@
+/*
+ * File - ConstPtr.java
+ *
+ * Description -
+ *		Ptr constants shared by the bitmap and compressed
+ *		bitmap pages, files and scans
+ */
+package bitmap;
+
+ /*
+  * Define constant values for INVALID_SLOT and EMPTY_SLOT
+  */
+interface ConstPtr
+{
+	short INVALID_PTR =  -1;
+	short EMPTY_PTR = -1;
+}
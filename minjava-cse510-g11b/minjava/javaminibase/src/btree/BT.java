@@ -45,29 +45,138 @@ public class BT  implements GlobalConst{
    *@return return negative if key1 less than key2; positive if key1 bigger
    * than  key2; 
    * 0 if key1=key2.
-   *@exception  KeyNotMatchException key is not IntegerKey or StringKey class
+   *@exception  KeyNotMatchException key is not IntegerKey, StringKey or
+   *  RealKey class
    */  
   public final static int keyCompare(KeyClass key1, KeyClass key2)
     throws KeyNotMatchException
     {
       if ( (key1 instanceof IntegerKey) && (key2 instanceof IntegerKey) ) {
 	
-	return  (((IntegerKey)key1).getKey()).intValue() 
-	  - (((IntegerKey)key2).getKey()).intValue();
+	// no subtraction: it overflows for keys of opposite sign
+	int k1 = (((IntegerKey)key1).getKey()).intValue();
+	int k2 = (((IntegerKey)key2).getKey()).intValue();
+	return (k1 < k2) ? -1 : ((k1 == k2) ? 0 : 1);
       }
       else if  ( (key1 instanceof StringKey) && (key2 instanceof StringKey)){
         return ((StringKey)key1).getKey().compareTo(((StringKey)key2).getKey());
       }
+      else if ( (key1 instanceof RealKey) && (key2 instanceof RealKey) ) {
+	// same order as the stored form: -0.0 before 0.0, NaN last
+	return Float.compare(((RealKey)key1).getKey().floatValue(),
+			     ((RealKey)key2).getKey().floatValue());
+      }
+      else if ( (key1 instanceof CompositeKey) && (key2 instanceof CompositeKey) ) {
+	return CompositeKey.compare((CompositeKey)key1, (CompositeKey)key2);
+      }
       
       else { throw new  KeyNotMatchException(null, "key types do not match");}
     } 
   
   
+  /** It compares the key of an entry stored in a page with a key,
+   * reading the page bytes directly instead of building a KeyDataEntry.
+   * The order is the same as keyCompare().
+   *@param from the page bytes. Input parameter.
+   *@param offset the offset of the entry in from. Input parameter.
+   *@param keyType AttrType.attrInteger, AttrType.attrString or
+   *               AttrType.attrReal. Input parameter.
+   *@param key the key to compare with. Input parameter.
+   *@return negative if the stored key is less than key; positive if it
+   * is bigger; 0 if they are equal.
+   *@exception KeyNotMatchException key does not have the key type
+   */
+  public final static int keyCompare(byte[] from, int offset, int keyType,
+				     KeyClass key)
+    throws KeyNotMatchException
+    {
+      if (keyType == AttrType.attrInteger && key instanceof IntegerKey) {
+	int k1 = ((from[offset] & 0xff) << 24) | ((from[offset+1] & 0xff) << 16)
+	  | ((from[offset+2] & 0xff) << 8) | (from[offset+3] & 0xff);
+	int k2 = ((IntegerKey)key).getKey().intValue();
+	return (k1 < k2) ? -1 : ((k1 == k2) ? 0 : 1);
+      }
+      else if (keyType == AttrType.attrReal && key instanceof RealKey) {
+	// stored as RealKey.toSortableInt(), so it compares as an int
+	int k1 = ((from[offset] & 0xff) << 24) | ((from[offset+1] & 0xff) << 16)
+	  | ((from[offset+2] & 0xff) << 8) | (from[offset+3] & 0xff);
+	int k2 = RealKey.toSortableInt(((RealKey)key).getKey().floatValue());
+	return (k1 < k2) ? -1 : ((k1 == k2) ? 0 : 1);
+      }
+      else if (keyType == AttrType.attrComposite && key instanceof CompositeKey) {
+	// a 2 byte length, then the encoded values
+	int len = ((from[offset] & 0xff) << 8) | (from[offset+1] & 0xff);
+	return CompositeKey.compare(from, offset + 2, len, (CompositeKey)key);
+      }
+      else if (keyType == AttrType.attrString && key instanceof StringKey) {
+	// the key is in the modified UTF-8 of DataOutputStream.writeUTF:
+	// a 2 byte length, then 1 to 3 bytes per char
+	String k2 = ((StringKey)key).getKey();
+	int end = offset + 2 + (((from[offset] & 0xff) << 8) | (from[offset+1] & 0xff));
+	int pos = offset + 2;
+	int i = 0;
+	while (pos < end && i < k2.length()) {
+	  int b = from[pos] & 0xff;
+	  char c;
+	  if (b < 0x80) {
+	    c = (char) b;
+	    pos += 1;
+	  }
+	  else if ((b & 0xe0) == 0xc0) {
+	    c = (char) (((b & 0x1f) << 6) | (from[pos+1] & 0x3f));
+	    pos += 2;
+	  }
+	  else {
+	    c = (char) (((b & 0x0f) << 12) | ((from[pos+1] & 0x3f) << 6)
+			| (from[pos+2] & 0x3f));
+	    pos += 3;
+	  }
+	  if (c != k2.charAt(i))
+	    return c - k2.charAt(i);
+	  i++;
+	}
+	if (pos < end) return 1;               // k2 is a prefix of the stored key
+	return (i < k2.length()) ? -1 : 0;
+      }
+      else { throw new KeyNotMatchException(null, "key types do not match");}
+    }
+  
+  /** It returns the shortest key that separates two neighbouring pages:
+   * a key s with left < s <= right, used as the index entry of the page
+   * that starts with right. For string and composite keys this is the
+   * shortest prefix of right that is still bigger than left, so index
+   * pages hold more entries (and the trailing columns of a composite key,
+   * such as included columns, rarely reach them); other keys are returned
+   * unchanged.
+   *@param left the last key on the left page. Input parameter.
+   *@param right the first key on the right page. Input parameter.
+   *@return the separator key
+   *@exception KeyNotMatchException key is not IntegerKey or StringKey class
+   */
+  public final static KeyClass separator(KeyClass left, KeyClass right)
+    throws KeyNotMatchException
+    {
+      if (right instanceof CompositeKey && keyCompare(left, right) < 0)
+	return CompositeKey.separator((CompositeKey)left, (CompositeKey)right);
+      if (!(right instanceof StringKey) || keyCompare(left, right) >= 0)
+	return right;
+      String l = ((StringKey)left).getKey();
+      String r = ((StringKey)right).getKey();
+      int n = 0;
+      while (n < l.length() && n < r.length() && l.charAt(n) == r.charAt(n))
+	n++;
+      // r[0..n] differs from l at n (or l ended), so it is bigger than l
+      if (n + 1 >= r.length())
+	return right;
+      return new StringKey(r.substring(0, n + 1));
+    }
+  
+  
   /** It gets the length of the key
    *@param key  specify the key whose length will be calculated.
    * Input parameter.
    *@return return the length of the key
-   *@exception  KeyNotMatchException  key is neither StringKey nor  IntegerKey 
+   *@exception  KeyNotMatchException  key is not StringKey, IntegerKey or RealKey 
    *@exception IOException   error  from the lower layer  
    */  
   protected final static int getKeyLength(KeyClass key) 
@@ -81,8 +190,10 @@ public class BT  implements GlobalConst{
 	outstr.writeUTF(((StringKey)key).getKey()); 
 	return  outstr.size();
     }
-      else if ( key instanceof IntegerKey)
+      else if ( key instanceof IntegerKey || key instanceof RealKey)
 	return 4;
+      else if ( key instanceof CompositeKey)
+	return 2 + ((CompositeKey)key).getLength();
       else throw new KeyNotMatchException(null, "key types do not match"); 
     }
   
@@ -108,7 +219,7 @@ public class BT  implements GlobalConst{
    *@param  key    an object of KeyClass.  Input parameter.
    *@param  pageType  NodeType.LEAF or  NodeType.INDEX. Input parameter.
    *@return return the lenrth of the (key,data) pair.
-   *@exception  KeyNotMatchException key is neither StringKey nor  IntegerKey 
+   *@exception  KeyNotMatchException key is not StringKey, IntegerKey or RealKey 
    *@exception NodeNotMatchException pageType is neither NodeType.LEAF 
    *  nor NodeType.INDEX.
    *@exception IOException  error from the lower layer 
@@ -121,19 +232,47 @@ public class BT  implements GlobalConst{
       return getKeyLength(key) + getDataLength(pageType);
     } 
   
+  /** It gets the length of a (key,rid) pair in a leaf page. An int or
+   * real key with a slot number that fits in 2 bytes is packed into
+   * PACKED_LEAF_LENGTH bytes, see getBytesFromEntry().
+   *@param  key    an object of KeyClass.  Input parameter.
+   *@param  rid    the rid stored with the key.  Input parameter.
+   *@return return the length of the (key,rid) pair.
+   *@exception  KeyNotMatchException key is not StringKey, IntegerKey or RealKey 
+   *@exception IOException  error from the lower layer 
+   */ 
+  protected final static int getKeyDataLength(KeyClass key, RID rid) 
+    throws KeyNotMatchException, 
+	   IOException
+    {
+      if (isPacked(key, rid))
+	return PACKED_LEAF_LENGTH;
+      return getKeyLength(key) + 8;
+    } 
+  
+  /** the length of a packed leaf entry: a 4 byte key, the page number
+   * and a 2 byte slot number */
+  protected final static int PACKED_LEAF_LENGTH = 10;
+  
+  private static boolean isPacked(KeyClass key, RID rid)
+    {
+      return (key instanceof IntegerKey || key instanceof RealKey)
+	&& rid.slotNo >= 0 && rid.slotNo <= 0xffff;
+    }
+  
   /** It gets an keyDataEntry from bytes array and position
    *@param from  It's a bytes array where KeyDataEntry will come from. 
    * Input parameter.
    *@param offset the offset in the bytes. Input parameter.
    *@param keyType It specifies the type of key. It can be 
-   *               AttrType.attrString or AttrType.attrInteger.
+   *               AttrType.attrString, AttrType.attrInteger or AttrType.attrReal.
    *               Input parameter. 
    *@param nodeType It specifes NodeType.LEAF or NodeType.INDEX. 
    *                Input parameter.
    *@param length  The length of (key, data) in byte array "from".
    *               Input parameter.
    *@return return a KeyDataEntry object
-   *@exception KeyNotMatchException  key is neither StringKey nor  IntegerKey
+   *@exception KeyNotMatchException  key is not StringKey, IntegerKey or RealKey
    *@exception NodeNotMatchException  nodeType is neither NodeType.LEAF 
    *  nor NodeType.INDEX.
    *@exception ConvertException  error from the lower layer 
@@ -154,6 +293,17 @@ public class BT  implements GlobalConst{
 	  n=4;
 	  data= new IndexData( Convert.getIntValue(offset+length-4, from));
 	}
+	else if ( nodeType==NodeType.LEAF && length==PACKED_LEAF_LENGTH
+		  && (keyType==AttrType.attrInteger
+		      || keyType==AttrType.attrReal) ) {
+	  // packed: the page number, then the slot number in 2 bytes
+	  n=6;
+	  RID rid=new RID();
+	  rid.pageNo =new PageId();
+	  rid.pageNo.pid= Convert.getIntValue(offset+4, from); 
+	  rid.slotNo = Convert.getShortValue(offset+8, from) & 0xffff;
+	  data = new LeafData(rid);
+	}
 	else if ( nodeType==NodeType.LEAF) {
 	  n=8;
 	  RID rid=new RID();
@@ -172,6 +322,15 @@ public class BT  implements GlobalConst{
 	  //System.out.println(" offset  "+ offset + "  " + length + "  "+n);
           key= new StringKey( Convert.getStrValue(offset, from, length-n));
 	} 
+	else if (keyType== AttrType.attrReal) {
+	  key= new RealKey( RealKey.fromSortableInt
+			    (Convert.getIntValue(offset, from)));
+	}
+	else if (keyType== AttrType.attrComposite) {
+	  byte[] encoded = new byte[length-n-2];
+	  System.arraycopy(from, offset+2, encoded, 0, encoded.length);
+	  key= new CompositeKey(encoded);
+	}
 	else 
           throw new KeyNotMatchException(null, "key types do not match");
 	
@@ -184,10 +343,13 @@ public class BT  implements GlobalConst{
     } 
   
   
-  /** It convert a keyDataEntry to byte[].
+  /** It convert a keyDataEntry to byte[]. A leaf entry with an int or
+   * real key and a slot number that fits in 2 bytes is packed as the key,
+   * the page number and the slot number, PACKED_LEAF_LENGTH bytes in all;
+   * getEntryFromBytes() tells it from a full entry by its length.
    *@param  entry specify  the data entry. Input parameter.
    *@return return a byte array with size equal to the size of (key,data). 
-   *@exception   KeyNotMatchException  entry.key is neither StringKey nor  IntegerKey
+   *@exception   KeyNotMatchException  entry.key is not StringKey, IntegerKey or RealKey
    *@exception NodeNotMatchException entry.data is neither LeafData nor IndexData
    *@exception ConvertException error from the lower layer
    */
@@ -198,11 +360,16 @@ public class BT  implements GlobalConst{
     {
       byte[] data;
       int n, m;
+      boolean packed;
       try{
         n=getKeyLength(entry.key);
         m=n;
+        packed= entry.data instanceof LeafData
+	  && isPacked(entry.key, ((LeafData)entry.data).getData());
         if( entry.data instanceof IndexData )
 	  n+=4;
+        else if (packed)
+	  n=PACKED_LEAF_LENGTH;
         else if (entry.data instanceof LeafData )      
 	  n+=8;
 	
@@ -216,12 +383,28 @@ public class BT  implements GlobalConst{
 	  Convert.setStrValue( ((StringKey)entry.key).getKey(),
 			       0, data);            
         }
+        else if ( entry.key instanceof RealKey ) {
+	  Convert.setIntValue( RealKey.toSortableInt
+			       (((RealKey)entry.key).getKey().floatValue()),
+			       0, data);
+        }
+        else if ( entry.key instanceof CompositeKey ) {
+	  byte[] encoded = ((CompositeKey)entry.key).getKey();
+	  Convert.setShortValue( (short)encoded.length, 0, data);
+	  System.arraycopy(encoded, 0, data, 2, encoded.length);
+        }
         else throw new KeyNotMatchException(null, "key types do not match");
         
         if ( entry.data instanceof IndexData ) {
 	  Convert.setIntValue( ((IndexData)entry.data).getData().pid,
 			       m, data);
         }
+        else if (packed) {
+	  Convert.setIntValue( ((LeafData)entry.data).getData().pageNo.pid,
+			       m, data);
+	  Convert.setShortValue( (short)((LeafData)entry.data).getData().slotNo,
+				 m+4, data);
+        }
         else if ( entry.data instanceof LeafData ) {
 	  Convert.setIntValue( ((LeafData)entry.data).getData().slotNo,
 			       m, data);
@@ -242,7 +425,7 @@ public class BT  implements GlobalConst{
    * or BTLeafPage. 
    *@param pageno the number of page. Input parameter.
    *@param keyType It specifies the type of key. It can be 
-   *               AttrType.attrString or AttrType.attrInteger.
+   *               AttrType.attrString, AttrType.attrInteger or AttrType.attrReal.
    *               Input parameter. 
    *@exception IOException error from the lower layer
    *@exception IteratorException  error for iterator
@@ -282,6 +465,12 @@ public class BT  implements GlobalConst{
 	  if( keyType==AttrType.attrString) 
 	    System.out.println(i+" (key, pageId):   ("+ 
 			       (StringKey)entry.key + ",  "+(IndexData)entry.data+ " )");
+	  if( keyType==AttrType.attrReal) 
+	    System.out.println(i+" (key, pageId):   ("+ 
+			       (RealKey)entry.key + ",  "+(IndexData)entry.data+ " )");
+	  if( keyType==AttrType.attrComposite) 
+	    System.out.println(i+" (key, pageId):   ("+ 
+			       (CompositeKey)entry.key + ",  "+(IndexData)entry.data+ " )");
 	  
 	  i++;    
         }
@@ -307,6 +496,12 @@ public class BT  implements GlobalConst{
 	  if( keyType==AttrType.attrString) 
 	    System.out.println(i+" (key, [pageNo, slotNo]):   ("+ 
 			       (StringKey)entry.key + ",  "+(LeafData)entry.data); 
+	  if( keyType==AttrType.attrReal) 
+	    System.out.println(i+" (key, [pageNo, slotNo]):   ("+ 
+			       (RealKey)entry.key + ",  "+(LeafData)entry.data+ " )");
+	  if( keyType==AttrType.attrComposite) 
+	    System.out.println(i+" (key, [pageNo, slotNo]):   ("+ 
+			       (CompositeKey)entry.key + ",  "+(LeafData)entry.data+ " )");
 	  
 	  i++;
         }
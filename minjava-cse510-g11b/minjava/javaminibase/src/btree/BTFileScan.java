@@ -6,13 +6,23 @@
  */
 package btree;
 import java.io.*;
+import java.util.ArrayList;
 import global.*;
+import diskmgr.*;
 import heap.*;
 
 /**
  * BTFileScan implements a search/iterate interface to B+ tree 
  * index files (class BTreeFile).  It derives from abstract base
  * class IndexFileScan.  
+ *
+ * A scan takes no latch: it reads its leaf page between two reads
+ * of the page version, and when a writer changed the leaf it finds
+ * its place again from the root, after the last entry it returned.
+ *
+ * get_next_batch reads the scan a leaf page at a time instead, with
+ * the leaf pinned for that call only, and can prefetch the next leaf
+ * while it copies the entries of one.
  */
 public class BTFileScan  extends IndexFileScan
              implements  GlobalConst
@@ -35,6 +45,17 @@ public class BTFileScan  extends IndexFileScan
                         // a single value).
   int keyType;
   int maxKeysize;
+  
+  long leafVersion;     // version of leafPage when it was last read
+  KeyClass startkey;    // low end of the scan, null for none
+  KeyClass lastkey;     // key of the last entry returned, null for none
+  int duplicates;       // entries returned with a key equal to lastkey
+  int skip;             // entries equal to lastkey to skip after a
+                        // restart, as they were returned already
+
+  PageId prevLeaf;      // leaf the last batch was read from
+  PageId nextLeaf;      // leaf after it, INVALID_PAGE past the end
+  boolean prefetch;     // get_next_batch prefetches the next leaf
 
   /**
    * Iterate once (during a scan).  
@@ -48,46 +69,251 @@ public class BTFileScan  extends IndexFileScan
     KeyDataEntry entry;
     PageId nextpage;
     try {
-      if (leafPage == null)
-        return null;
-      
-      if ((deletedcurrent && didfirst) || (!deletedcurrent && !didfirst)) {
-         didfirst = true;
-         deletedcurrent = false;
-         entry=leafPage.getCurrent(curRid);
-      }
-      else {
-         entry = leafPage.getNext(curRid);
-      }
-
-      while ( entry == null ) {
-         nextpage = leafPage.getNextPage();
-         SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), true);
-	 if (nextpage.pid == INVALID_PAGE) {
-	    leafPage = null;
-	    return null;
-	 }
-
-         leafPage=new BTLeafPage(nextpage, keyType);
-	 	
-	 entry=leafPage.getFirst(curRid);
-      }
-
-      if (endkey != null)  
-        if ( BT.keyCompare(entry.key, endkey)  > 0) {
+      scan:
+      while (true) {
+	if (leafPage == null)
+	  return null;
+	
+	try {
+	  if ((deletedcurrent && didfirst) || (!deletedcurrent && !didfirst)) {
+	    entry=leafPage.getCurrent(curRid);
+	  }
+	  else {
+	    entry = leafPage.getNext(curRid);
+	  }
+	  
+	  while ( entry == null ) {
+	    nextpage = new PageId(leafPage.getNextPage().pid);
+	    if (changed()) {
+	      restart();
+	      continue scan;
+	    }
+	    if (nextpage.pid == INVALID_PAGE) {
+	      SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), true);
+	      leafPage = null;
+	      return null;
+	    }
+	    
+	    // pin the next leaf before letting go of this one
+	    Page page = new Page();
+	    SystemDefs.JavabaseBM.pinPage(nextpage, page, false);
+	    long version = bfile.readVersion(nextpage);
+	    if (changed()) {
+	      SystemDefs.JavabaseBM.unpinPage(nextpage, false);
+	      restart();
+	      continue scan;
+	    }
+	    SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), true);
+	    leafPage=new BTLeafPage(page, keyType);
+	    leafVersion = version;
+	    
+	    entry=leafPage.getFirst(curRid);
+	  }
+	  
+	  if (changed()) {
+	    restart();
+	    continue;
+	  }
+	}
+	catch (Exception e) {
+	  // garbage read from a leaf in the middle of a change
+	  if (!changed())
+	    throw e;
+	  restart();
+	  continue;
+	}
+	didfirst = true;
+	deletedcurrent = false;
+	
+	if (skip > 0 && BT.keyCompare(entry.key, lastkey) == 0) {
+	  skip--;
+	  continue;
+	}
+	skip = 0;
+	
+	if (endkey != null)  
+	  if ( BT.keyCompare(entry.key, endkey)  > 0) {
             // went past right end of scan 
 	    SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), false);
             leafPage=null;
 	    return null;
-        }
-
-      return entry;
+	  }
+	
+	if (lastkey != null && BT.keyCompare(entry.key, lastkey) == 0)
+	  duplicates++;
+	else {
+	  lastkey = entry.key;
+	  duplicates = 1;
+	}
+	return entry;
+      }
     }
     catch ( Exception e) {
          e.printStackTrace();
          throw new ScanIteratorException();
     }
   }
+  
+  /**
+   * Iterate a leaf page at a time: the entries of the scan on the
+   * next leaf page, copied while the page is pinned, and checked
+   * against writers once for the whole page. The page is unpinned
+   * before the call returns. A scan read by batches must not use
+   * get_next or delete_current.
+   *@return the next entries in key order; null if done
+   *@exception ScanIteratorException iterator error
+   */
+  public ArrayList<KeyDataEntry> get_next_batch() 
+    throws ScanIteratorException
+    {
+      ArrayList<KeyDataEntry> entries = new ArrayList<KeyDataEntry>();
+      try {
+	while (true) {
+	  if (leafPage == null && !pinNextLeaf())
+	    return null;
+	  
+	  entries.clear();
+	  boolean past = false;      // went past the right end of the scan
+	  PageId nextpage;
+	  try {
+	    // read the next leaf while this one is copied
+	    nextpage = new PageId(leafPage.getNextPage().pid);
+	    if (prefetch && nextpage.pid != INVALID_PAGE)
+	      SystemDefs.JavabaseBM.prefetchPage(nextpage);
+	    
+	    KeyDataEntry entry;
+	    if ((deletedcurrent && didfirst) || (!deletedcurrent && !didfirst))
+	      entry = leafPage.getCurrent(curRid);
+	    else
+	      entry = leafPage.getNext(curRid);
+	    for (; entry != null; entry = leafPage.getNext(curRid)) {
+	      if (endkey != null && BT.keyCompare(entry.key, endkey) > 0) {
+		past = true;
+		break;
+	      }
+	      entries.add(entry);
+	    }
+	  }
+	  catch (Exception e) {
+	    // garbage read from a leaf in the middle of a change
+	    if (!changed())
+	      throw e;
+	    restart();
+	    continue;
+	  }
+	  if (changed()) {
+	    restart();
+	    continue;
+	  }
+	  
+	  prevLeaf = new PageId(leafPage.getCurPage().pid);
+	  nextLeaf = past ? new PageId(INVALID_PAGE) : nextpage;
+	  SystemDefs.JavabaseBM.unpinPage(prevLeaf, false);
+	  leafPage = null;
+	  didfirst = true;
+	  deletedcurrent = false;
+	  
+	  ArrayList<KeyDataEntry> batch = new ArrayList<KeyDataEntry>(entries.size());
+	  for (KeyDataEntry entry : entries) {
+	    if (skip > 0 && BT.keyCompare(entry.key, lastkey) == 0) {
+	      skip--;
+	      continue;
+	    }
+	    skip = 0;
+	    if (lastkey != null && BT.keyCompare(entry.key, lastkey) == 0)
+	      duplicates++;
+	    else {
+	      lastkey = entry.key;
+	      duplicates = 1;
+	    }
+	    batch.add(entry);
+	  }
+	  if (!batch.isEmpty())
+	    return batch;
+	}
+      }
+      catch (Exception e) {
+	e.printStackTrace();
+	throw new ScanIteratorException();
+      }
+    }
+  
+  /**
+   * Have get_next_batch prefetch the leaf after the one it reads, so
+   * that reading it overlaps with copying the entries. This pays when
+   * a read waits for the disk; a page the OS has cached is read
+   * faster than the prefetcher thread is handed the request.
+   *@param on true to prefetch
+   */
+  public void setPrefetch(boolean on)
+    {
+      prefetch = on;
+    }
+  
+  /* pin the leaf the next batch is read from: the leaf after the one
+   * of the last batch if it still comes right after it, else the one
+   * found again from the root. false at the end of the scan */
+  private boolean pinNextLeaf()
+    throws Exception
+    {
+      if (nextLeaf == null || nextLeaf.pid == INVALID_PAGE)
+	return false;
+      
+      Page page = new Page();
+      SystemDefs.JavabaseBM.pinPage(nextLeaf, page, false);
+      long version = bfile.readVersion(nextLeaf);
+      BTLeafPage leaf = new BTLeafPage(page, keyType);
+      boolean follows;
+      try {
+	follows = leaf.getType() == NodeType.LEAF
+	  && leaf.getPrevPage().pid == prevLeaf.pid;
+      }
+      catch (Exception e) {
+	follows = false;
+      }
+      if (follows && !bfile.changed(nextLeaf, version)) {
+	leafPage = leaf;
+	leafVersion = version;
+	leafPage.getFirst(curRid);
+	didfirst = false;
+	deletedcurrent = false;
+	return true;
+      }
+      
+      // a writer split or freed a leaf since: look again
+      SystemDefs.JavabaseBM.unpinPage(nextLeaf, false);
+      findAgain();
+      return leafPage != null;
+    }
+  
+  /* true if a writer changed the leaf since the scan read its version */
+  private boolean changed()
+    throws IOException, PinPageException
+    {
+      return bfile.changed(leafPage.getCurPage(), leafVersion);
+    }
+  
+  /* find the place of the scan again, from the root: the first entry
+   * after the last one returned, or the low end if there is none yet */
+  private void restart()
+    throws Exception
+    {
+      SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), false);
+      findAgain();
+    }
+  
+  /* restart, when the scan has no leaf pinned */
+  private void findAgain()
+    throws Exception
+    {
+      nextLeaf = null;
+      long[] version = new long[1];
+      leafPage = bfile.findRunStart(lastkey != null ? lastkey : startkey, curRid, version);
+      leafVersion = version[0];
+      didfirst = false;
+      deletedcurrent = false;
+      skip = lastkey != null ? duplicates : 0;
+    }
 
 
   /**
@@ -111,7 +337,12 @@ public class BTFileScan  extends IndexFileScan
       entry=leafPage.getCurrent(curRid);  
       SystemDefs.JavabaseBM.unpinPage( leafPage.getCurPage(), false);
       bfile.Delete(entry.key, ((LeafData)entry.data).getData());
-      leafPage=bfile.findRunStart(entry.key, curRid);
+      long[] version = new long[1];
+      leafPage=bfile.findRunStart(entry.key, curRid, version);
+      leafVersion = version[0];
+      // the run of the key starts over: skip the entries returned before
+      duplicates--;
+      skip = duplicates;
       
       deletedcurrent = true;
       return;
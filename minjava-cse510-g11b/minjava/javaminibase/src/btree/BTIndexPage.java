@@ -27,7 +27,7 @@ public class BTIndexPage extends BTSortedPage{
    * also it sets the type of node to be NodeType.INDEX.
    *@param pageno Input parameter. To specify which page number the
    *  BTIndexPage will correspond to.
-   *@param keyType either AttrType.attrInteger or AttrType.attrString.
+   *@param keyType AttrType.attrInteger, AttrType.attrString or AttrType.attrReal.
    *   Input parameter.
    *@exception IOException error from the lower layer
    *@exception ConstructPageException error when BTIndexpage constructor
@@ -44,7 +44,7 @@ public class BTIndexPage extends BTSortedPage{
    * also it sets the type of node to be NodeType.INDEX.
    *@param page input parameter. To specify which page  the
    *  BTIndexPage will correspond to. 
-   *@param keyType either AttrType.attrInteger or AttrType.attrString.
+   *@param keyType AttrType.attrInteger, AttrType.attrString or AttrType.attrReal.
    *  Input parameter.    
    *@exception IOException  error from the lower layer
    *@exception ConstructPageException error when BTIndexpage constructor
@@ -59,7 +59,7 @@ public class BTIndexPage extends BTSortedPage{
   
   /* new a page, associate the BTIndexPage instance with the Page instance,
    * also it sets the type of node to be NodeType.INDEX.
-   *@param keyType either AttrType.attrInteger or AttrType.attrString.
+   *@param keyType AttrType.attrInteger, AttrType.attrString or AttrType.attrReal.
    *  Input parameter.    
    *@exception IOException  error from the lower layer
    *@exception ConstructPageException error when BTIndexpage constructor
@@ -156,20 +156,14 @@ public class BTIndexPage extends BTSortedPage{
   PageId getPageNoByKey(KeyClass key) 
     throws IndexSearchException         
     {
-      KeyDataEntry entry;
       int i;
       
       try {
 	
-	for (i=getSlotCnt()-1; i >= 0; i--) {
-	  entry= BT.getEntryFromBytes( getpage(),getSlotOffset(i), 
-				       getSlotLength(i), keyType, NodeType.INDEX);
-	  
-	  if (BT.keyCompare(key, entry.key) >= 0)
-	    {
-	      return ((IndexData)entry.data).getData();
-	    }
-	}
+	// last entry whose key is <= key
+	i = upperBound(key, getSlotCnt()) - 1;
+	if (i >= 0)
+	  return getChildAt(i);
 	
 	return getPrevPage();
       } 
@@ -181,6 +175,20 @@ public class BTIndexPage extends BTSortedPage{
   
   
   
+  /* the child page of the entry in a slot, read without building the
+   * entry: the page id is the last 4 bytes of the record
+   *@param slot the slot number. Input parameter.
+   *@return the page id stored in that entry
+   *@exception IOException error from the lower layer
+   */
+  PageId getChildAt(int slot)
+    throws IOException
+    {
+      return new PageId(Convert.getIntValue(getSlotOffset(slot)
+					    + getSlotLength(slot) - 4, getpage()));
+    }
+  
+  
   /**  Iterators. 
    * One of the two functions: getFirst and getNext
    * which  provide an iterator interface to the records on a BTIndexPage.
@@ -369,19 +377,13 @@ public class BTIndexPage extends BTSortedPage{
   KeyDataEntry findKeyData(KeyClass key) 
     throws IndexSearchException
     {
-      KeyDataEntry entry;
-      
       try {  
 	
-        for (int i = getSlotCnt()-1; i >= 0; i--) {
-	  entry=BT.getEntryFromBytes(getpage(),getSlotOffset(i), 
-				     getSlotLength(i), keyType, NodeType.INDEX);
-	  
-	  if (BT.keyCompare(key, entry.key) >= 0) {
-	    return entry;
-	  }
-        }
-        return null;
+	int i = upperBound(key, getSlotCnt()) - 1;
+	if (i < 0)
+	  return null;
+	return BT.getEntryFromBytes(getpage(),getSlotOffset(i), 
+				    getSlotLength(i), keyType, NodeType.INDEX);
       }
       catch ( Exception e) {
         throw  new IndexSearchException(e, "finger key data failed");
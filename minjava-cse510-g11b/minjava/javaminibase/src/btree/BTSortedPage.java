@@ -29,7 +29,7 @@ public class BTSortedPage  extends HFPage{
    *@param pageno input parameter. To specify which page number the
    *  BTSortedPage will correspond to.
    *@param keyType input parameter. It specifies the type of key. It can be 
-   *               AttrType.attrString or AttrType.attrInteger. 
+   *               AttrType.attrString, AttrType.attrInteger or AttrType.attrReal. 
    *@exception  ConstructPageException  error for BTSortedPage constructor
    */
   public BTSortedPage(PageId pageno, int keyType) 
@@ -50,7 +50,7 @@ public class BTSortedPage  extends HFPage{
    *@param page input parameter. To specify which page  the
    *  BTSortedPage will correspond to.
    *@param keyType input parameter. It specifies the type of key. It can be 
-   *               AttrType.attrString or AttrType.attrInteger. 
+   *               AttrType.attrString, AttrType.attrInteger or AttrType.attrReal. 
    */
   public BTSortedPage(Page page, int keyType) {
     
@@ -61,7 +61,7 @@ public class BTSortedPage  extends HFPage{
   
   /**new a page, and associate the SortedPage instance with the Page instance
    *@param keyType input parameter. It specifies the type of key. It can be 
-   *               AttrType.attrString or AttrType.attrInteger. 
+   *               AttrType.attrString, AttrType.attrInteger or AttrType.attrReal. 
    *@exception  ConstructPageException error for BTSortedPage constructor
    */ 
   public BTSortedPage(int keyType) 
@@ -96,7 +96,6 @@ public class BTSortedPage  extends HFPage{
           throws InsertRecException 
    {
      int i;
-     short  nType;
      RID rid;
      byte[] record;
      // ASSERTIONS:
@@ -104,9 +103,9 @@ public class BTSortedPage  extends HFPage{
      // - slotCnt gives the number of slots used
      
      // general plan:
-     //    1. Insert the record into the page,
-     //       which is then not necessarily any more sorted
-     //    2. Sort the page by rearranging the slots (insertion sort)
+     //    1. Insert the record into the page, it lands in the last slot
+     //    2. Find its place among the other slots by binary search and
+     //       shift the slots after it (stable: it goes after equal keys)
      
      try {
        
@@ -114,38 +113,16 @@ public class BTSortedPage  extends HFPage{
        rid=super.insertRecord(record);
          if (rid==null) return null;
 	 
-         if ( entry.data instanceof LeafData )
-	   nType= NodeType.LEAF;
-         else  //  entry.data instanceof IndexData              
-	   nType= NodeType.INDEX;
-	 
-	 
-	 // performs a simple insertion sort
-	 for (i=getSlotCnt()-1; i > 0; i--) 
-	   {
-	     
-	     KeyClass key_i, key_iplus1;
-	     
-	     key_i=BT.getEntryFromBytes(getpage(), getSlotOffset(i), 
-					getSlotLength(i), keyType, nType).key;
-	     
-	     key_iplus1=BT.getEntryFromBytes(getpage(), getSlotOffset(i-1), 
-					     getSlotLength(i-1), keyType, nType).key;
-	     
-	     if (BT.keyCompare(key_i, key_iplus1) < 0)
-	       {
-	       // switch slots:
-		 int ln, off;
-		 ln= getSlotLength(i);
-		 off=getSlotOffset(i);
-		 setSlot(i,getSlotLength(i-1),getSlotOffset(i-1));  
-		 setSlot(i-1, ln, off);
-	       } else {
-		 // end insertion sort
-		 break;
-	       }
-	     
-	   }
+	 int last = getSlotCnt()-1;
+	 i = upperBound(entry.key, last);
+	 if (i < last) {
+	   int ln, off;
+	   ln= getSlotLength(last);
+	   off=getSlotOffset(last);
+	   for (int j = last; j > i; j--)
+	     setSlot(j, getSlotLength(j-1), getSlotOffset(j-1));
+	   setSlot(i, ln, off);
+	 }
 	 
 	 // ASSERTIONS:
 	 // - record keys increase with increasing slot number 
@@ -163,6 +140,58 @@ public class BTSortedPage  extends HFPage{
    } // end of insertRecord
  
 
+  /** compare the key in a slot with key, straight from the page bytes
+   *@param slot the slot number. Input parameter.
+   *@param key the key to compare with. Input parameter.
+   *@return negative, 0 or positive as the slot key is less than, equal
+   * to or bigger than key
+   *@exception KeyNotMatchException key does not have the key type
+   *@exception IOException error from the lower layer
+   */
+  int compareSlotKey(int slot, KeyClass key)
+    throws KeyNotMatchException, IOException
+    {
+      return BT.keyCompare(getpage(), getSlotOffset(slot), keyType, key);
+    }
+  
+  /** binary search for the first slot whose key is not less than key
+   *@param key the key to search. Input parameter.
+   *@return the slot number; getSlotCnt() if every key is less than key
+   *@exception KeyNotMatchException key does not have the key type
+   *@exception IOException error from the lower layer
+   */
+  int lowerBound(KeyClass key)
+    throws KeyNotMatchException, IOException
+    {
+      int lo = 0, hi = getSlotCnt();
+      while (lo < hi) {
+	int mid = (lo + hi) >>> 1;
+	if (compareSlotKey(mid, key) < 0) lo = mid + 1;
+	else hi = mid;
+      }
+      return lo;
+    }
+  
+  /** binary search among the first count slots for the first one whose
+   * key is bigger than key
+   *@param key the key to search. Input parameter.
+   *@param count number of slots to search. Input parameter.
+   *@return the slot number; count if no key is bigger than key
+   *@exception KeyNotMatchException key does not have the key type
+   *@exception IOException error from the lower layer
+   */
+  int upperBound(KeyClass key, int count)
+    throws KeyNotMatchException, IOException
+    {
+      int lo = 0, hi = count;
+      while (lo < hi) {
+	int mid = (lo + hi) >>> 1;
+	if (compareSlotKey(mid, key) <= 0) lo = mid + 1;
+	else hi = mid;
+      }
+      return lo;
+    }
+  
   /**  Deletes a record from a sorted record page. It also calls
    *    HFPage.compact_slot_dir() to compact the slot directory.
    *@param rid it specifies where a record will be deleted
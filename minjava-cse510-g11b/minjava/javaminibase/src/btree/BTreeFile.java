@@ -23,11 +23,22 @@ public class BTreeFile extends IndexFile
   
   private final static int MAGIC0=1989;
   
+  /** fill factor of the pages written by bulkLoad when the caller has
+   * no better idea; leaves a little room so the first inserts after a
+   * load do not split every page */
+  public final static float DEFAULT_FILL_FACTOR=0.9f;
+  
   private final static String lineSep=System.getProperty("line.separator");
   
   private static FileOutputStream fos;
   private static DataOutputStream trace;
   
+  /** one writer at a time per tree: the object writers of each tree
+   * synchronize on, by header page, until destroyFile(). Readers take
+   * no latch, see findRunStart(). */
+  private static java.util.HashMap<Integer, Object> writeLatches
+    = new java.util.HashMap<Integer, Object>();
+  
   
   /** It causes a structured trace to be written to a
    * file.  This output is
@@ -70,6 +81,43 @@ public class BTreeFile extends IndexFile
     return headerPage;
   }
   
+  /** @return the object writers of this tree synchronize on */
+  private Object writeLatch()
+    {
+      synchronized (writeLatches) {
+	Object latch = writeLatches.get(headerPageId.pid);
+	if (latch == null) {
+	  latch = new Object();
+	  writeLatches.put(headerPageId.pid, latch);
+	}
+	return latch;
+      }
+    }
+  
+  /* version of a pinned page for an optimistic reader (see
+   * BufMgr.getVersion); 0 for a writer, which reads under the write
+   * latch and never has to retry */
+  long readVersion(PageId pageno)
+    throws PinPageException
+    {
+      if (SystemDefs.JavabaseBM.isWriting())
+	return 0;
+      try {
+	return SystemDefs.JavabaseBM.getVersion(pageno);
+      }
+      catch (Exception e) {
+	throw new PinPageException(e, "page is not pinned");
+      }
+    }
+  
+  /* true if a writer changed, or is changing, a pinned page an
+   * optimistic reader read at the given version */
+  boolean changed(PageId pageno, long version)
+    throws PinPageException
+    {
+      return (version & 1) != 0 || readVersion(pageno) != version;
+    }
+  
   private PageId get_file_entry(String filename)         
     throws GetFileEntryException
     {
@@ -231,6 +279,38 @@ public class BTreeFile extends IndexFile
       
     }
   
+  /**
+   *  if index file exists, open it; else create it with the key type,
+   *  maximum key size and delete fashion of another tree, e.g. to
+   *  rebuild that tree into a fresh file.
+   *@param filename file name. Input parameter.
+   *@param layout the tree whose parameters are copied. Input parameter.
+   *@exception GetFileEntryException  can not get file
+   *@exception ConstructPageException page constructor failed
+   *@exception IOException error from lower layer
+   *@exception AddFileEntryException can not add file into DB
+   */
+  public BTreeFile(String filename, BTreeFile layout)
+    throws GetFileEntryException, 
+	   ConstructPageException,
+	   IOException, 
+	   AddFileEntryException
+    {
+      this(filename, layout.headerPage.get_keyType(),
+	   layout.headerPage.get_maxKeySize(),
+	   layout.headerPage.get_deleteFashion());
+    }
+  
+  /** Whether the tree has no entries yet.
+   *@return true if the tree has no root page
+   *@exception IOException error from the lower layer
+   */
+  public boolean isEmpty()
+    throws IOException
+    {
+      return headerPage.get_rootId().pid == INVALID_PAGE;
+    }
+  
   /** Close the B+ tree file.  Unpin header page.
    *@exception PageUnpinnedException  error from the lower layer
    *@exception InvalidFrameNumberException  error from the lower layer
@@ -275,6 +355,10 @@ public class BTreeFile extends IndexFile
 	freePage(headerPageId);      
 	delete_file_entry(dbname);
 	headerPage=null;
+	// the header page may be reused by another tree
+	synchronized (writeLatches) {
+	  writeLatches.remove(headerPageId.pid);
+	}
       }
     }  
   
@@ -297,18 +381,21 @@ public class BTreeFile extends IndexFile
 	RID      rid=new RID();
 	PageId       childId;
 	KeyDataEntry entry;
+	// the leftmost child is not in an entry
+	childId = indexPage.getPrevPage();
+	if (childId.pid != INVALID_PAGE)
+	  _destroyFile(childId);
 	for (entry = indexPage.getFirst(rid);
 	     entry!=null; entry = indexPage.getNext(rid))
 	  { 
 	    childId = ((IndexData)(entry.data)).getData();
 	    _destroyFile(childId);
 	  }
-      } else { // BTLeafPage 
-	
-	unpinPage(pageno);
-	freePage(pageno);
       }
       
+      // an index page after its children, a leaf page right away
+      unpinPage(pageno);
+      freePage(pageno);
     }
   
   private void  updateHeader(PageId newRoot)
@@ -373,6 +460,36 @@ public class BTreeFile extends IndexFile
 	   InsertException,
 	   IOException
 	   
+    {
+      synchronized (writeLatch()) {
+	SystemDefs.JavabaseBM.beginWrite();
+	try {
+	  insertLatched(key, rid);
+	}
+	finally {
+	  SystemDefs.JavabaseBM.endWrite();
+	}
+      }
+    }
+  
+  /* insert() with the write latch held */
+  private void insertLatched(KeyClass key, RID rid) 
+    throws KeyTooLongException, 
+	   KeyNotMatchException, 
+	   LeafInsertRecException,   
+	   IndexInsertRecException,
+	   ConstructPageException, 
+	   UnpinPageException,
+	   PinPageException, 
+	   NodeNotMatchException, 
+	   ConvertException,
+	   DeleteRecException,
+	   IndexSearchException,
+	   IteratorException, 
+	   LeafDeleteException, 
+	   InsertException,
+	   IOException
+	   
     {
       KeyDataEntry  newRootEntry;
       
@@ -389,6 +506,16 @@ public class BTreeFile extends IndexFile
 	  throw new KeyNotMatchException(null,"");
 	}
       }   
+      else if ( key instanceof RealKey ) {
+	if ( headerPage.get_keyType() != AttrType.attrReal ) {
+	  throw new KeyNotMatchException(null,"");
+	}
+      }
+      else if ( key instanceof CompositeKey ) {
+	if ( headerPage.get_keyType() != AttrType.attrComposite ) {
+	  throw new KeyNotMatchException(null,"");
+	}
+      }
       else 
 	throw new KeyNotMatchException(null,"");
       
@@ -532,6 +659,311 @@ public class BTreeFile extends IndexFile
   
   
   
+  /** Build the tree bottom-up from entries sorted by key, e.g. the
+   * output of an iterator.Sort. The tree must be empty. Leaves are
+   * filled left to right up to fillFactor of their space and chained
+   * together, then each index level is built over the level below it
+   * until a single root page is left. Each input tuple holds the key
+   * in field 1 (int, real or string, the key type of the tree, or for a
+   * composite key CompositeKey.toSortableString()) and the rid of the
+   * data record as page number (int) and slot number (int) in fields
+   * 2 and 3.
+   *@param sorted input entries in ascending key order. Input parameter.
+   *@param fillFactor fraction (0, 1] of every page to fill; the
+   *            rest is left for later inserts. Input parameter.
+   *@exception InsertException the tree is not empty, the input is not
+   *            sorted or could not be read
+   *@exception KeyTooLongException key size exceeds the max keysize.
+   *@exception KeyNotMatchException key type does not match the tree
+   *@exception LeafInsertRecException insert error in leaf page
+   *@exception IndexInsertRecException insert error in index page
+   *@exception ConstructPageException error in BT page constructor
+   *@exception UnpinPageException error when unpin a page
+   *@exception PinPageException error when pin a page
+   *@exception NodeNotMatchException node not match index page nor leaf page
+   *@exception IOException error from the lower layer
+   */
+  public void bulkLoad(final iterator.Iterator sorted, float fillFactor)
+    throws InsertException,
+	   KeyTooLongException,
+	   KeyNotMatchException,
+	   LeafInsertRecException,
+	   IndexInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   PinPageException,
+	   NodeNotMatchException,
+	   IOException
+    {
+      final int keyType = headerPage.get_keyType();
+      bulkLoad(new EntrySource() {
+	  public KeyDataEntry next() throws Exception {
+	    Tuple t = sorted.get_next();
+	    if (t == null)
+	      return null;
+	    KeyClass key;
+	    if (keyType == AttrType.attrInteger)
+	      key = new IntegerKey(t.getIntFld(1));
+	    else if (keyType == AttrType.attrString)
+	      key = new StringKey(t.getStrFld(1));
+	    else if (keyType == AttrType.attrReal)
+	      key = new RealKey(t.getFloFld(1));
+	    else if (keyType == AttrType.attrComposite)
+	      key = CompositeKey.fromSortableString(t.getStrFld(1));
+	    else
+	      throw new KeyNotMatchException(null, "");
+	    return new KeyDataEntry(key,
+				    new RID(new PageId(t.getIntFld(2)), t.getIntFld(3)));
+	  }
+	}, fillFactor);
+    }
+  
+  /** Build the tree bottom-up, as bulkLoad(iterator.Iterator, float)
+   * does, from the leaf entries of an index scan, e.g. the entries of
+   * another tree with the same key type whose rids are rewritten on the
+   * way. Unlike the tuple input this takes any key type the tree does,
+   * composite keys included.
+   *@param sorted leaf entries in ascending key order. Input parameter.
+   *@param fillFactor fraction (0, 1] of every page to fill. Input parameter.
+   *@exception InsertException the tree is not empty, the input is not
+   *            sorted or could not be read
+   *@exception KeyTooLongException key size exceeds the max keysize.
+   *@exception KeyNotMatchException key type does not match the tree
+   *@exception LeafInsertRecException insert error in leaf page
+   *@exception IndexInsertRecException insert error in index page
+   *@exception ConstructPageException error in BT page constructor
+   *@exception UnpinPageException error when unpin a page
+   *@exception PinPageException error when pin a page
+   *@exception NodeNotMatchException node not match index page nor leaf page
+   *@exception IOException error from the lower layer
+   */
+  public void bulkLoad(final IndexFileScan sorted, float fillFactor)
+    throws InsertException,
+	   KeyTooLongException,
+	   KeyNotMatchException,
+	   LeafInsertRecException,
+	   IndexInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   PinPageException,
+	   NodeNotMatchException,
+	   IOException
+    {
+      bulkLoad(new EntrySource() {
+	  public KeyDataEntry next() throws Exception {
+	    return sorted.get_next();
+	  }
+	}, fillFactor);
+    }
+  
+  /* input of bulkLoad, one leaf entry at a time, null at the end */
+  private interface EntrySource {
+    KeyDataEntry next() throws Exception;
+  }
+  
+  private void bulkLoad(EntrySource sorted, float fillFactor)
+    throws InsertException,
+	   KeyTooLongException,
+	   KeyNotMatchException,
+	   LeafInsertRecException,
+	   IndexInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   PinPageException,
+	   NodeNotMatchException,
+	   IOException
+    {
+      synchronized (writeLatch()) {
+	SystemDefs.JavabaseBM.beginWrite();
+	try {
+	  bulkLoadLatched(sorted, fillFactor);
+	}
+	finally {
+	  SystemDefs.JavabaseBM.endWrite();
+	}
+      }
+    }
+  
+  /* bulkLoad() with the write latch held */
+  private void bulkLoadLatched(EntrySource sorted, float fillFactor)
+    throws InsertException,
+	   KeyTooLongException,
+	   KeyNotMatchException,
+	   LeafInsertRecException,
+	   IndexInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   PinPageException,
+	   NodeNotMatchException,
+	   IOException
+    {
+      if (!isEmpty())
+	throw new InsertException(null, "bulkLoad: the tree is not empty");
+      if (fillFactor <= 0.0f || fillFactor > 1.0f)
+	throw new InsertException(null, "bulkLoad: fill factor must be in (0, 1]");
+      
+      int keyType = headerPage.get_keyType();
+      
+      // first key and page id of every page of the level being built
+      java.util.ArrayList<KeyClass> levelKeys = new java.util.ArrayList<KeyClass>();
+      java.util.ArrayList<PageId> levelPages = new java.util.ArrayList<PageId>();
+      // every page built; the tree only takes them in when the root is
+      // set at the end, so a load that fails frees them itself
+      java.util.ArrayList<PageId> built = new java.util.ArrayList<PageId>();
+      boolean loaded = false;
+      
+      try {
+	int capacity = loadLeaves(sorted, fillFactor, keyType, levelKeys, levelPages, built);
+	if (levelPages.isEmpty()) {
+	  loaded = true;
+	  return;   // no input, the tree stays empty
+	}
+	
+	// each pass builds the index pages over the pages of one level
+	while (levelPages.size() > 1) {
+	  java.util.ArrayList<KeyClass> upperKeys = new java.util.ArrayList<KeyClass>();
+	  java.util.ArrayList<PageId> upperPages = new java.util.ArrayList<PageId>();
+	  BTIndexPage index = null;
+	  PageId indexId = null;
+	  
+	  try {
+	    for (int i = 0; i < levelPages.size(); i++) {
+	      KeyClass key = levelKeys.get(i);
+	      int length = BT.getKeyDataLength(key, NodeType.INDEX);
+	      
+	      if (index != null && hasRoom(index, capacity, length, fillFactor)) {
+		index.insertKey(key, levelPages.get(i));
+		continue;
+	      }
+	      // start a new index page: the child becomes its leftmost pointer
+	      // and its first key separates it from the previous index page
+	      if (index != null) {
+		unpinPage(indexId, true /* = DIRTY */);
+		index = null;
+	      }
+	      index = new BTIndexPage(keyType);
+	      indexId = index.getCurPage();
+	      built.add(indexId);
+	      index.setPrevPage(levelPages.get(i));
+	      upperKeys.add(key);
+	      upperPages.add(indexId);
+	    }
+	  }
+	  finally {
+	    if (index != null)
+	      unpinPage(indexId, true /* = DIRTY */);
+	  }
+	  
+	  levelKeys = upperKeys;
+	  levelPages = upperPages;
+	}
+	
+	updateHeader(levelPages.get(0));
+	loaded = true;
+      }
+      finally {
+	if (!loaded) {
+	  for (PageId pid : built) {
+	    try {
+	      SystemDefs.JavabaseBM.freePage(pid);
+	    }
+	    catch (Exception e) {
+	      // the failure of the load is the one to report
+	    }
+	  }
+	}
+      }
+    }
+  
+  /* the leaf pass of bulkLoadLatched(): fill leaves from the input and
+   * note the first key and page id of each in levelKeys and levelPages.
+   * Returns the room on an empty page, which the fill factor is of.
+   */
+  private int loadLeaves(EntrySource sorted, float fillFactor, int keyType,
+			  java.util.ArrayList<KeyClass> levelKeys,
+			  java.util.ArrayList<PageId> levelPages,
+			  java.util.ArrayList<PageId> built)
+    throws InsertException,
+	   KeyTooLongException,
+	   KeyNotMatchException,
+	   LeafInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   NodeNotMatchException,
+	   IOException
+    {
+      BTLeafPage leaf = null;
+      PageId leafId = null;
+      int capacity = 0;
+      KeyClass lastKey = null;
+      
+      try {
+	KeyDataEntry entry;
+	while ((entry = sorted.next()) != null) {
+	  KeyClass key = entry.key;
+	  if (!(entry.data instanceof LeafData))
+	    throw new NodeNotMatchException(null, "bulkLoad: not a leaf entry");
+	  if (BT.getKeyLength(key) > headerPage.get_maxKeySize())
+	    throw new KeyTooLongException(null, "");
+	  if (lastKey != null && BT.keyCompare(key, lastKey) < 0)
+	    throw new InsertException(null, "bulkLoad: input is not sorted");
+	  RID rid = ((LeafData) entry.data).getData();
+	  
+	  int length = BT.getKeyDataLength(key, rid);
+	  if (leaf == null || !hasRoom(leaf, capacity, length, fillFactor)) {
+	    levelKeys.add(leaf == null ? key : BT.separator(lastKey, key));
+	    BTLeafPage newLeaf = new BTLeafPage(keyType);
+	    PageId newLeafId = newLeaf.getCurPage();
+	    built.add(newLeafId);
+	    if (leaf == null) {
+	      capacity = newLeaf.available_space();
+	    } else {
+	      newLeaf.setPrevPage(leafId);
+	      leaf.setNextPage(newLeafId);
+	      unpinPage(leafId, true /* = DIRTY */);
+	    }
+	    levelPages.add(newLeafId);
+	    leaf = newLeaf;
+	    leafId = newLeafId;
+	  }
+	  leaf.insertRecord(key, rid);
+	  lastKey = key;
+	}
+      }
+      catch (InsertException e) { throw e; }
+      catch (KeyTooLongException e) { throw e; }
+      catch (KeyNotMatchException e) { throw e; }
+      catch (LeafInsertRecException e) { throw e; }
+      catch (ConstructPageException e) { throw e; }
+      catch (UnpinPageException e) { throw e; }
+      catch (NodeNotMatchException e) { throw e; }
+      catch (IOException e) { throw e; }
+      catch (Exception e) {
+	throw new InsertException(e, "bulkLoad: reading the input failed");
+      }
+      finally {
+	if (leaf != null)
+	  unpinPage(leafId, true /* = DIRTY */);
+      }
+      return capacity;
+    }
+  
+  /* true if an entry of the given length can go on the page without
+   * filling more than fillFactor of it; an empty page always takes one
+   */
+  private boolean hasRoom(BTSortedPage page, int capacity, int length,
+			  float fillFactor)
+    throws IOException
+    {
+      int free = page.available_space();
+      if (free < length)
+	return false;
+      if (page.getSlotCnt() == 0)
+	return true;
+      return (capacity - free) + length <= fillFactor * capacity;
+    }
+  
+  
   private KeyDataEntry  _insert(KeyClass key, RID rid,  
 				PageId currentPageId) 
     throws  PinPageException,  
@@ -780,7 +1212,7 @@ public class BTreeFile extends IndexFile
 	  
 	  // check whether there can still be entries inserted on that page
 	  if (currentLeafPage.available_space() >=
-	      BT.getKeyDataLength(key, NodeType.LEAF) )
+	      BT.getKeyDataLength(key, rid) )
 	    {
 	      // no split has occurred
 	      
@@ -914,6 +1346,11 @@ public class BTreeFile extends IndexFile
 	    currentLeafPage.insertRecord(key,rid);
 	  }
 	  
+	  KeyDataEntry lastEntry =
+	    BT.getEntryFromBytes(currentLeafPage.getpage(),
+				 currentLeafPage.getSlotOffset(currentLeafPage.getSlotCnt()-1),
+				 currentLeafPage.getSlotLength(currentLeafPage.getSlotCnt()-1),
+				 headerPage.get_keyType(), NodeType.LEAF);
 	  unpinPage(currentLeafPageId, true /* dirty */);
 	  
 	  if ( trace!=null ){
@@ -923,9 +1360,11 @@ public class BTreeFile extends IndexFile
 	  
 	  
 	  
-	  // fill upEntry
+	  // fill upEntry, with the shortest key that still separates the
+	  // two pages
 	  tmpEntry=newLeafPage.getFirst(firstRid);
-	  upEntry=new KeyDataEntry(tmpEntry.key, newLeafPageId );
+	  upEntry=new KeyDataEntry(BT.separator(lastEntry.key, tmpEntry.key),
+				   newLeafPageId );
 	  
 	  
 	  unpinPage(newLeafPageId, true /* dirty */);
@@ -987,12 +1426,20 @@ public class BTreeFile extends IndexFile
 	    IndexSearchException, 
 	    IOException
     {
-      if (headerPage.get_deleteFashion() ==DeleteFashion.FULL_DELETE) 
-        return FullDelete(key, rid); 
-      else if (headerPage.get_deleteFashion() == DeleteFashion.NAIVE_DELETE)
-        return NaiveDelete(key, rid);
-      else
-	throw new DeleteFashionException(null,"");
+      synchronized (writeLatch()) {
+	SystemDefs.JavabaseBM.beginWrite();
+	try {
+	  if (headerPage.get_deleteFashion() ==DeleteFashion.FULL_DELETE) 
+	    return FullDelete(key, rid); 
+	  else if (headerPage.get_deleteFashion() == DeleteFashion.NAIVE_DELETE)
+	    return NaiveDelete(key, rid);
+	  else
+	    throw new DeleteFashionException(null,"");
+	}
+	finally {
+	  SystemDefs.JavabaseBM.endWrite();
+	}
+      }
     }
   
   
@@ -1025,114 +1472,242 @@ public class BTreeFile extends IndexFile
 	   ConstructPageException, 
 	   PinPageException, 
 	   UnpinPageException
+    {
+      return findRunStart(lo_key, startrid, null);
+    }
+  
+  /*
+   * findRunStart for a reader that does not hold the write latch of the
+   * tree: every page is read between two reads of its version and is
+   * pinned before its parent (or left sibling) is checked and unpinned,
+   * so a reader never waits for a writer. If a writer changed a page on
+   * the way, the search starts over from the root.
+   *@param version if not null, version[0] gets the version of the
+   *               returned leaf page, for the scan to check later
+   */
+  BTLeafPage findRunStart (KeyClass lo_key, 
+			   RID startrid,
+			   long[] version)
+    throws IOException, 
+	   IteratorException,  
+	   KeyNotMatchException,
+	   ConstructPageException, 
+	   PinPageException, 
+	   UnpinPageException
+    {
+      BTLeafPage[] leaf = new BTLeafPage[1];
+      long[] leafVersion = new long[1];
+      while (!searchRunStart(lo_key, startrid, leaf, leafVersion))
+	Thread.yield();
+      if (version != null)
+	version[0] = leafVersion[0];
+      return leaf[0];
+    }
+  
+  /*
+   * One try of findRunStart: false, with nothing left pinned, if a
+   * writer changed a page that was read; else true with the pinned
+   * leaf (or null if no key was found) in leaf[0] and its version in
+   * version[0].
+   */
+  private boolean searchRunStart (KeyClass lo_key, 
+				  RID startrid,
+				  BTLeafPage[] leaf,
+				  long[] version)
+    throws IOException, 
+	   IteratorException,  
+	   KeyNotMatchException,
+	   ConstructPageException, 
+	   PinPageException, 
+	   UnpinPageException
     {
       BTLeafPage  pageLeaf;
       BTIndexPage pageIndex;
       Page page;
       BTSortedPage  sortPage;
-      PageId pageno;
-      PageId curpageno=null;                // iterator
+      PageId pageno = null;                 // the pinned page
+      long ver = 0;                         // its version
+      PageId nextpinned = null;             // the page being moved to, while
+                                            // pageno is still pinned too
       PageId prevpageno;
       PageId nextpageno;
-      RID curRid;
       KeyDataEntry curEntry;
       
-      pageno = headerPage.get_rootId();
-      
-      if (pageno.pid == INVALID_PAGE){        // no pages in the BTREE
-        pageLeaf = null;                // should be handled by 
-        // startrid =INVALID_PAGEID ;             // the caller
-        return pageLeaf;
-      }
-      
-      page= pinPage(pageno);
-      sortPage=new BTSortedPage(page, headerPage.get_keyType());
+      long headerVersion = readVersion(headerPageId);
       
-      
-      if ( trace!=null ) {
-	trace.writeBytes("VISIT node " + pageno + lineSep);
-	trace.flush();
-      }
-      
-      
-      // ASSERTION
-      // - pageno and sortPage is the root of the btree
-      // - pageno and sortPage valid and pinned
-      
-      while (sortPage.getType() == NodeType.INDEX) {
-	pageIndex=new BTIndexPage(page, headerPage.get_keyType()); 
-	prevpageno = pageIndex.getPrevPage();
-	curEntry= pageIndex.getFirst(startrid);
-	while ( curEntry!=null && lo_key != null 
-		&& BT.keyCompare(curEntry.key, lo_key) < 0) {
-	  
-          prevpageno = ((IndexData)curEntry.data).getData();
-          curEntry=pageIndex.getNext(startrid);
+      try {
+	prevpageno = new PageId(headerPage.get_rootId().pid);
+	if (changed(headerPageId, headerVersion))
+	  return false;
+	
+	if (prevpageno.pid == INVALID_PAGE){        // no pages in the BTREE
+	  leaf[0] = null;                // should be handled by 
+	  // startrid =INVALID_PAGEID ;             // the caller
+	  return true;
 	}
 	
-	unpinPage(pageno);
-	
+	page= pinPage(prevpageno);
 	pageno = prevpageno;
-	page=pinPage(pageno);
-	sortPage=new BTSortedPage(page, headerPage.get_keyType()); 
+	ver = readVersion(pageno);
+	if (changed(headerPageId, headerVersion)) {
+	  unpinPage(pageno);
+	  return false;
+	}
+	sortPage=new BTSortedPage(page, headerPage.get_keyType());
 	
 	
-	if ( trace!=null )
-	  {
-	    trace.writeBytes( "VISIT node " + pageno+lineSep);
-	    trace.flush();
-	  }
+	if ( trace!=null ) {
+	  trace.writeBytes("VISIT node " + pageno + lineSep);
+	  trace.flush();
+	}
 	
 	
-      }
-      
-      pageLeaf = new BTLeafPage(page, headerPage.get_keyType() );
-      
-      curEntry=pageLeaf.getFirst(startrid);
-      while (curEntry==null) {
-	// skip empty leaf pages off to left
-	nextpageno = pageLeaf.getNextPage();
-	unpinPage(pageno);
-	if (nextpageno.pid == INVALID_PAGE) {
-	  // oops, no more records, so set this scan to indicate this.
-	  return null;
+	// ASSERTION
+	// - pageno and sortPage is the root of the btree
+	// - pageno and sortPage valid and pinned
+	
+	while (sortPage.getType() == NodeType.INDEX) {
+	  pageIndex=new BTIndexPage(page, headerPage.get_keyType()); 
+	  // follow the last entry whose key is less than lo_key
+	  int slot = (lo_key == null) ? 0 : pageIndex.lowerBound(lo_key);
+	  if (slot == 0)
+	    prevpageno = new PageId(pageIndex.getPrevPage().pid);
+	  else
+	    prevpageno = new PageId(pageIndex.getChildAt(slot - 1).pid);
+	  
+	  // the child pointer is only good if the parent did not change
+	  page=pinPage(prevpageno);
+	  nextpinned = prevpageno;
+	  long childVersion = readVersion(prevpageno);
+	  if (changed(pageno, ver)) {
+	    unpinPage(prevpageno);
+	    unpinPage(pageno);
+	    return false;
+	  }
+	  unpinPage(pageno);
+	  
+	  pageno = prevpageno;
+	  nextpinned = null;
+	  ver = childVersion;
+	  sortPage=new BTSortedPage(page, headerPage.get_keyType()); 
+	  
+	  
+	  if ( trace!=null )
+	    {
+	      trace.writeBytes( "VISIT node " + pageno+lineSep);
+	      trace.flush();
+	    }
+	  
+	  
 	}
 	
-	pageno = nextpageno; 
-	pageLeaf=  new BTLeafPage( pinPage(pageno), headerPage.get_keyType());    
-	curEntry=pageLeaf.getFirst(startrid);
-      }
-      
-      // ASSERTIONS:
-      // - curkey, curRid: contain the first record on the
-      //     current leaf page (curkey its key, cur
-      // - pageLeaf, pageno valid and pinned
-      
-      
-      if (lo_key == null) {
-	return pageLeaf;
-	// note that pageno/pageLeaf is still pinned; 
-	// scan will unpin it when done
-      }
-      
-      while (BT.keyCompare(curEntry.key, lo_key) < 0) {
-	curEntry= pageLeaf.getNext(startrid);
-	while (curEntry == null) { // have to go right
-	  nextpageno = pageLeaf.getNextPage();
+	// a page read in the middle of a change may look like a leaf
+	if (changed(pageno, ver)) {
 	  unpinPage(pageno);
-	  
+	  return false;
+	}
+	pageLeaf = new BTLeafPage(page, headerPage.get_keyType() );
+	
+	curEntry=pageLeaf.getFirst(startrid);
+	while (curEntry==null) {
+	  // skip empty leaf pages off to left
+	  nextpageno = new PageId(pageLeaf.getNextPage().pid);
+	  if (changed(pageno, ver)) {
+	    unpinPage(pageno);
+	    return false;
+	  }
 	  if (nextpageno.pid == INVALID_PAGE) {
-	    return null;
+	    // oops, no more records, so set this scan to indicate this.
+	    unpinPage(pageno);
+	    leaf[0] = null;
+	    return true;
 	  }
 	  
-	  pageno = nextpageno;
-	  pageLeaf=new BTLeafPage(pinPage(pageno), headerPage.get_keyType());
-	  
+	  page = pinPage(nextpageno);
+	  nextpinned = nextpageno;
+	  long nextVersion = readVersion(nextpageno);
+	  if (changed(pageno, ver)) {
+	    unpinPage(nextpageno);
+	    unpinPage(pageno);
+	    return false;
+	  }
+	  unpinPage(pageno);
+	  pageno = nextpageno; 
+	  nextpinned = null;
+	  ver = nextVersion;
+	  pageLeaf=  new BTLeafPage( page, headerPage.get_keyType());    
 	  curEntry=pageLeaf.getFirst(startrid);
 	}
+	
+	// ASSERTIONS:
+	// - curkey, curRid: contain the first record on the
+	//     current leaf page (curkey its key, cur
+	// - pageLeaf, pageno valid and pinned
+	
+	
+	if (lo_key != null) {
+	  // jump over the keys less than lo_key on this page
+	  int first = pageLeaf.lowerBound(lo_key);
+	  if (first > 0) {
+	    startrid.slotNo = Math.min(first, pageLeaf.getSlotCnt() - 1);
+	    curEntry = pageLeaf.getCurrent(startrid);
+	  }
+	  
+	  while (BT.keyCompare(curEntry.key, lo_key) < 0) {
+	    curEntry= pageLeaf.getNext(startrid);
+	    while (curEntry == null) { // have to go right
+	      nextpageno = new PageId(pageLeaf.getNextPage().pid);
+	      if (changed(pageno, ver)) {
+		unpinPage(pageno);
+		return false;
+	      }
+	      if (nextpageno.pid == INVALID_PAGE) {
+		unpinPage(pageno);
+		leaf[0] = null;
+		return true;
+	      }
+	      
+	      page = pinPage(nextpageno);
+	      nextpinned = nextpageno;
+	      long nextVersion = readVersion(nextpageno);
+	      if (changed(pageno, ver)) {
+		unpinPage(nextpageno);
+		unpinPage(pageno);
+		return false;
+	      }
+	      unpinPage(pageno);
+	      pageno = nextpageno;
+	      nextpinned = null;
+	      ver = nextVersion;
+	      pageLeaf=new BTLeafPage(page, headerPage.get_keyType());
+	      
+	      curEntry=pageLeaf.getFirst(startrid);
+	    }
+	  }
+	}
+	
+	if (changed(pageno, ver)) {
+	  unpinPage(pageno);
+	  return false;
+	}
+	// note that pageno/pageLeaf is still pinned; 
+	// scan will unpin it when done
+	leaf[0] = pageLeaf;
+	version[0] = ver;
+	return true;
+      }
+      catch (Exception e) {
+	// the page being moved to is never handed out
+	if (nextpinned != null)
+	  unpinPage(nextpinned);
+	// garbage read from a page in the middle of a change
+	if (pageno == null ? changed(headerPageId, headerVersion) : changed(pageno, ver)) {
+	  if (pageno != null)
+	    unpinPage(pageno);
+	  return false;
+	}
+	throw e;
       }
-      
-      return pageLeaf;
     }
   
   
@@ -1788,9 +2363,12 @@ public class BTreeFile extends IndexFile
       scan.keyType=headerPage.get_keyType();
       scan.maxKeysize=headerPage.get_maxKeySize();
       scan.bfile=this;
+      scan.startkey=lo_key;
       
       //this sets up scan at the starting position, ready for iteration
-      scan.leafPage=findRunStart( lo_key, scan.curRid);
+      long[] version = new long[1];
+      scan.leafPage=findRunStart( lo_key, scan.curRid, version);
+      scan.leafVersion=version[0];
       return scan;
     }
   
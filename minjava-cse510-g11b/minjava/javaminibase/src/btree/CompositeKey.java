@@ -0,0 +1,284 @@
+package btree;
+
+import global.*;
+
+/**  CompositeKey: It extends the KeyClass.
+ *   It defines a key made of several column values. The values are
+ *   appended to one byte string whose unsigned byte order is the order
+ *   of the values compared column by column:
+ *   <ul>
+ *   <li> an int is 4 bytes, most significant first, sign bit flipped
+ *   <li> a float is encoded like an int of RealKey.toSortableInt()
+ *   <li> a string is 2 bytes per char followed by two 0 bytes, so a
+ *        string sorts before every longer string it is a prefix of
+ *   </ul>
+ *   A prefix key compares equal to every key that starts with its bytes,
+ *   so it can bound a scan over all keys with the same leading values.
+ */
+public class CompositeKey extends KeyClass {
+
+  private byte[] key;
+  private int length;
+  private boolean prefix;
+
+  public String toString(){
+    StringBuffer s = new StringBuffer();
+    for (int i = 0; i < length; i++) {
+      s.append(Character.forDigit((key[i] >> 4) & 0xf, 16));
+      s.append(Character.forDigit(key[i] & 0xf, 16));
+    }
+    return prefix ? s.toString() + "*" : s.toString();
+  }
+
+  /** Class constructor, an empty key to append values to
+   */
+  public CompositeKey()
+  {
+    key = new byte[16];
+    length = 0;
+  }
+
+  /** Class constructor
+   *  @param     value   the encoded values of the key
+   */
+  public CompositeKey(byte[] value)
+  {
+    setKey(value);
+  }
+
+  /** get a copy of the encoded key
+   *  @return the reference of the copy
+   */
+  public byte[] getKey()
+  {
+    byte[] copy = new byte[length];
+    System.arraycopy(key, 0, copy, 0, length);
+    return copy;
+  }
+
+  /** set the encoded key value
+   */
+  public void setKey(byte[] value)
+  {
+    key = new byte[Math.max(value.length, 16)];
+    System.arraycopy(value, 0, key, 0, value.length);
+    length = value.length;
+  }
+
+  /** @return the number of bytes of the encoded key
+   */
+  public int getLength()
+  {
+    return length;
+  }
+
+  /** @return true if the key bounds all keys that start with it
+   */
+  public boolean isPrefix()
+  {
+    return prefix;
+  }
+
+  /** It returns a prefix key with the same values.
+   *@return a key equal to every key that starts with this key
+   */
+  public CompositeKey asPrefix()
+  {
+    CompositeKey k = new CompositeKey(getKey());
+    k.prefix = true;
+    return k;
+  }
+
+  /** It appends an int value.
+   *@return this key
+   */
+  public CompositeKey append(int value)
+  {
+    ensure(4);
+    value ^= 0x80000000;
+    key[length++] = (byte) (value >>> 24);
+    key[length++] = (byte) (value >>> 16);
+    key[length++] = (byte) (value >>> 8);
+    key[length++] = (byte) value;
+    return this;
+  }
+
+  /** It appends a float value.
+   *@return this key
+   */
+  public CompositeKey append(float value)
+  {
+    return append(RealKey.toSortableInt(value));
+  }
+
+  /** It appends a string value.
+   *@return this key
+   */
+  public CompositeKey append(String value)
+  {
+    ensure(2 * value.length() + 2);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      key[length++] = (byte) (c >>> 8);
+      key[length++] = (byte) c;
+    }
+    key[length++] = 0;
+    key[length++] = 0;
+    return this;
+  }
+
+  /** It returns the longest encoding of a key over the given columns.
+   *@param types the type of each column of the key
+   *@param strSizes the size of each string column, in column order
+   *@return the maximum number of bytes of the key
+   */
+  public static int getMaxLength(AttrType[] types, short[] strSizes)
+  {
+    int n = 0;
+    int s = 0;
+    for (int i = 0; i < types.length; i++) {
+      if (types[i].attrType == AttrType.attrString)
+        n += 2 * strSizes[s++] + 2;
+      else
+        n += 4;
+    }
+    return n;
+  }
+
+  /** It returns the key as a string whose order by String.compareTo()
+   * is the order of the keys, so that a sort on a string field, e.g.
+   * iterator.Sort, can order composite keys. Each char holds two bytes
+   * of the key; a key is always an even number of bytes.
+   *@return the key as a string
+   */
+  public String toSortableString()
+  {
+    char[] chars = new char[length / 2];
+    for (int i = 0; i < chars.length; i++)
+      chars[i] = (char) (((key[2*i] & 0xff) << 8) | (key[2*i+1] & 0xff));
+    return new String(chars);
+  }
+
+  /** It returns the key of a string made by toSortableString().
+   *@param s the key as a string
+   *@return the key
+   */
+  public static CompositeKey fromSortableString(String s)
+  {
+    byte[] value = new byte[2 * s.length()];
+    for (int i = 0; i < s.length(); i++) {
+      value[2*i] = (byte) (s.charAt(i) >>> 8);
+      value[2*i+1] = (byte) s.charAt(i);
+    }
+    return new CompositeKey(value);
+  }
+
+  /** It returns the size of a string field that holds any key of the
+   * given length made by toSortableString(): a char takes up to 3 bytes
+   * in a tuple.
+   *@param length the number of bytes of the encoded key
+   */
+  public static int getSortableStringSize(int length)
+  {
+    return 3 * (length / 2);
+  }
+
+  /** It decodes the values of the key.
+   *@param types the type of each column of the key
+   *@return an Integer, Float or String per column
+   *@exception KeyNotMatchException a type is not int, real or string
+   */
+  public Object[] getValues(AttrType[] types)
+    throws KeyNotMatchException
+  {
+    Object[] values = new Object[types.length];
+    int pos = 0;
+    for (int i = 0; i < types.length; i++) {
+      switch (types[i].attrType) {
+      case AttrType.attrInteger:
+	values[i] = new Integer(getInt(pos) ^ 0x80000000);
+	pos += 4;
+	break;
+      case AttrType.attrReal:
+	values[i] = new Float(RealKey.fromSortableInt(getInt(pos) ^ 0x80000000));
+	pos += 4;
+	break;
+      case AttrType.attrString:
+	StringBuffer s = new StringBuffer();
+	while (key[pos] != 0 || key[pos+1] != 0) {
+	  s.append((char) (((key[pos] & 0xff) << 8) | (key[pos+1] & 0xff)));
+	  pos += 2;
+	}
+	values[i] = s.toString();
+	pos += 2;
+	break;
+      default:
+	throw new KeyNotMatchException(null, "composite keys hold int, real and string values");
+      }
+    }
+    return values;
+  }
+
+  /** It compares encoded key bytes with a key.
+   *@param from the bytes holding the encoded key. Input parameter.
+   *@param offset the offset of the encoded key in from. Input parameter.
+   *@param len the number of bytes of the encoded key. Input parameter.
+   *@param k the key to compare with. Input parameter.
+   *@return negative if the encoded key is less than k; positive if it
+   * is bigger; 0 if they are equal or k is a prefix key it starts with.
+   */
+  static int compare(byte[] from, int offset, int len, CompositeKey k)
+  {
+    int n = Math.min(len, k.length);
+    for (int i = 0; i < n; i++) {
+      int diff = (from[offset+i] & 0xff) - (k.key[i] & 0xff);
+      if (diff != 0)
+	return diff;
+    }
+    if (k.prefix && len >= k.length)
+      return 0;
+    return len - k.length;
+  }
+
+  /** It compares two keys, see compare(byte[], int, int, CompositeKey).
+   */
+  static int compare(CompositeKey k1, CompositeKey k2)
+  {
+    if (k1.prefix && !k2.prefix)
+      return -compare(k2.key, 0, k2.length, k1);
+    return compare(k1.key, 0, k1.length, k2);
+  }
+
+  /** It returns the shortest prefix of right that is bigger than left,
+   * see BT.separator(). The prefix need not end on a value boundary; it
+   * is only compared, never decoded.
+   *@param left a key smaller than right
+   *@param right the first key on the right page
+   */
+  static CompositeKey separator(CompositeKey left, CompositeKey right)
+  {
+    int n = 0;
+    while (n < left.length && n < right.length && left.key[n] == right.key[n])
+      n++;
+    if (n + 1 >= right.length)
+      return right;
+    byte[] value = new byte[n + 1];
+    System.arraycopy(right.key, 0, value, 0, n + 1);
+    return new CompositeKey(value);
+  }
+
+  private int getInt(int pos)
+  {
+    return ((key[pos] & 0xff) << 24) | ((key[pos+1] & 0xff) << 16)
+      | ((key[pos+2] & 0xff) << 8) | (key[pos+3] & 0xff);
+  }
+
+  private void ensure(int n)
+  {
+    if (length + n > key.length) {
+      byte[] bigger = new byte[Math.max(2 * key.length, length + n)];
+      System.arraycopy(key, 0, bigger, 0, length);
+      key = bigger;
+    }
+  }
+}
@@ -34,6 +34,10 @@ public class KeyDataEntry {
         this.key= new IntegerKey(((IntegerKey)key).getKey());
      else if ( key instanceof StringKey ) 
         this.key= new StringKey(((StringKey)key).getKey());    
+     else if ( key instanceof RealKey ) 
+        this.key= new RealKey(((RealKey)key).getKey());
+     else if ( key instanceof CompositeKey ) 
+        this.key= new CompositeKey(((CompositeKey)key).getKey());
   };
 
 
@@ -59,6 +63,10 @@ public class KeyDataEntry {
         this.key= new IntegerKey(((IntegerKey)key).getKey());
      else if ( key instanceof StringKey ) 
         this.key= new StringKey(((StringKey)key).getKey());    
+     else if ( key instanceof RealKey ) 
+        this.key= new RealKey(((RealKey)key).getKey());
+     else if ( key instanceof CompositeKey ) 
+        this.key= new CompositeKey(((CompositeKey)key).getKey());
   };
 
 
@@ -76,6 +84,10 @@ public class KeyDataEntry {
         this.key= new IntegerKey(((IntegerKey)key).getKey());
      else if ( key instanceof StringKey ) 
         this.key= new StringKey(((StringKey)key).getKey()); 
+     else if ( key instanceof RealKey ) 
+        this.key= new RealKey(((RealKey)key).getKey());
+     else if ( key instanceof CompositeKey ) 
+        this.key= new CompositeKey(((CompositeKey)key).getKey());
 
      if ( data instanceof IndexData ) 
         this.data= new IndexData(((IndexData)data).getData());
@@ -93,6 +105,12 @@ public class KeyDataEntry {
       if ( key instanceof IntegerKey )
          st1= ((IntegerKey)key).getKey().equals
                   (((IntegerKey)entry.key).getKey());
+      else if ( key instanceof RealKey )
+         st1= ((RealKey)key).getKey().equals
+                  (((RealKey)entry.key).getKey());
+      else if ( key instanceof CompositeKey )
+         st1= java.util.Arrays.equals(((CompositeKey)key).getKey(),
+                  ((CompositeKey)entry.key).getKey());
       else 
          st1= ((StringKey)key).getKey().equals
                   (((StringKey)entry.key).getKey());
@@ -0,0 +1,69 @@
+package btree;
+
+/**  RealKey: It extends the KeyClass.
+ *   It defines the float Key. On pages the key is stored as the int
+ *   returned by toSortableInt(), so stored keys compare like ints.
+ */
+public class RealKey extends KeyClass {
+
+  private Float key;
+
+  public String toString(){
+     return key.toString();
+  }
+
+  /** Class constructor
+   *  @param     value   the value of the float key to be set
+   */
+  public RealKey(Float value)
+  {
+    key=new Float(value.floatValue());
+  }
+
+  /** Class constructor
+   *  @param     value   the value of the float key to be set
+   */
+  public RealKey(float value)
+  {
+    key=new Float(value);
+  }
+
+
+
+  /** get a copy of the float key
+   *  @return the reference of the copy
+   */
+  public Float getKey()
+  {
+    return new Float(key.floatValue());
+  }
+
+  /** set the float key value
+   */
+  public void setKey(Float value)
+  {
+    key=new Float(value.floatValue());
+  }
+
+  /** It maps a float to an int with the same order: the IEEE bits of
+   * a positive float already order like ints, a negative one has its
+   * magnitude bits flipped so a bigger magnitude gives a smaller int.
+   * -0.0 maps just below 0.0 and NaN above +infinity.
+   *@param value the float to map
+   *@return an int that compares like value
+   */
+  public static int toSortableInt(float value)
+  {
+    int bits = Float.floatToIntBits(value);
+    return bits ^ ((bits >> 31) & 0x7fffffff);
+  }
+
+  /** It is the inverse of toSortableInt().
+   *@param value an int returned by toSortableInt()
+   *@return the float it was made from
+   */
+  public static float fromSortableInt(int value)
+  {
+    return Float.intBitsToFloat(value ^ ((value >> 31) & 0x7fffffff));
+  }
+}
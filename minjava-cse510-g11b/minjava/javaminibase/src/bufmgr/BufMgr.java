@@ -4,6 +4,7 @@ package bufmgr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import diskmgr.*;
 import global.*;
  
@@ -25,6 +26,20 @@ class FrameDesc implements GlobalConst{
                          
   /** The pin count for the page in this frame */
   public int pin_cnt;   
+  
+  /** The version of the page in this frame, for optimistic readers. It
+   * is odd while a writer has the page latched and changes whenever a
+   * latch is taken or released, see BufMgr.latchPage().
+   */
+  public volatile long version;
+  
+  /** true while a writer has the page latched */
+  public boolean latched;
+  
+  /** true if the page was freed while others had it pinned; it is
+   * deallocated when the last of them unpins it.
+   */
+  public boolean freeOnUnpin;
 
   /** Creates a FrameDesc object, initialize pageNo, dirty and 
    * pin_count.
@@ -313,6 +328,14 @@ class Clock extends Replacer {
  * buffer pool, pins and unpins the frame, frees the frame 
  * page, and uses the replacement algorithm to replace the 
  * page.
+ *
+ * The public methods are synchronized, so several threads can share
+ * the buffer pool. For access methods that want readers never to wait
+ * for writers, each frame carries a version counter: a writer calls
+ * beginWrite(), latches every page before changing it (HFPage does
+ * this in its update methods) and calls endWrite(); a reader reads a
+ * pinned page between two getVersion() calls and retries if the
+ * version changed or was odd.
  */
 public class BufMgr implements GlobalConst{
   
@@ -331,6 +354,31 @@ public class BufMgr implements GlobalConst{
   /** The replacer object, which is only used in this class. */
   private Replacer replacer;
   
+  /** Number of threads between beginWrite() and endWrite(). */
+  private volatile int writers = 0;
+  
+  /** For a thread between beginWrite() and endWrite(), the frames
+   * and page numbers it latched, after its nesting depth; else null.
+   */
+  private ThreadLocal<ArrayList<int[]>> latches = new ThreadLocal<ArrayList<int[]>>();
+  
+  /** Most prefetch requests waiting for the prefetcher. */
+  private static final int PREFETCH_QUEUE = 16;
+  
+  /** Pages to read ahead, see prefetchPage(). */
+  private ArrayBlockingQueue<Integer> prefetches =
+    new ArrayBlockingQueue<Integer>(PREFETCH_QUEUE);
+  
+  /** The thread reading the pages in prefetches, null until the first
+   * request.
+   */
+  private Thread prefetcher;
+  
+  /** Number of pages written back to the database so far; a page the
+   * prefetcher read while this changed may be stale.
+   */
+  private long pagesWritten = 0;
+  
   
   /** Factor out the common code for the two versions of Flush 
    *
@@ -480,7 +528,7 @@ public class BufMgr implements GlobalConst{
    * @exception IOException if there is other kinds of I/O error. 
    */
 
-  public void pinPage(PageId pin_pgid, Page page, boolean emptyPage) 
+  public synchronized void pinPage(PageId pin_pgid, Page page, boolean emptyPage) 
     throws ReplacerException, 
 	   HashOperationException, 
 	   PageUnpinnedException, 
@@ -512,6 +560,9 @@ public class BufMgr implements GlobalConst{
 	  needwrite = 1;
 	  oldpageNo.pid = frmeTable[frameNo].pageNo.pid;
 	}
+	// the writer that latched the old page has unpinned it, so it is
+	// done changing it
+	release(frmeTable[frameNo]);
 	
 	bst = hashTable.remove(frmeTable[frameNo].pageNo);
 	if (bst != true) {
@@ -588,7 +639,7 @@ public class BufMgr implements GlobalConst{
    * @exception InvalidFrameNumberException if there is an invalid frame number . 
    * @exception HashEntryNotFoundException if there is no entry of page in the hash table. 
    */
-  public void unpinPage(PageId PageId_in_a_DB, boolean dirty) 
+  public synchronized void unpinPage(PageId PageId_in_a_DB, boolean dirty) 
     throws ReplacerException, 
 	   PageUnpinnedException, 
 	   HashEntryNotFoundException, 
@@ -615,6 +666,15 @@ public class BufMgr implements GlobalConst{
       if (dirty == true)
 	frmeTable[frameNo].dirty = dirty;
       
+      if (frmeTable[frameNo].freeOnUnpin && frmeTable[frameNo].pin_count() == 0) {
+	frmeTable[frameNo].freeOnUnpin = false;
+	try {
+	  freePage(PageId_in_a_DB);
+	}
+	catch (Exception e) {
+	  throw new ReplacerException(e, "BUFMGR: deferred free failed");
+	}
+      }
     }
   
   
@@ -639,7 +699,7 @@ public class BufMgr implements GlobalConst{
    * @exception BufMgrException other error occured in bufmgr layer
    * @exception DiskMgrException other error occured in diskmgr layer
    */
-  public PageId newPage(Page firstpage, int howmany)
+  public synchronized PageId newPage(Page firstpage, int howmany)
     throws BufferPoolExceededException, 
 	   HashOperationException, 
 	   ReplacerException,
@@ -698,7 +758,7 @@ public class BufMgr implements GlobalConst{
    * @exception BufMgrException other error occured in bufmgr layer
    * @exception DiskMgrException other error occured in diskmgr layer
    */
-  public void freePage(PageId globalPageId) 
+  public synchronized void freePage(PageId globalPageId) 
        throws InvalidBufferException, 
 	      ReplacerException, 
 	      HashOperationException,
@@ -727,6 +787,16 @@ public class BufMgr implements GlobalConst{
 	
       }
       
+      // a writer frees a page an optimistic reader still has pinned:
+      // the reader finds the version changed, and the page is
+      // deallocated once it unpins
+      if (frmeTable[frameNo].pin_count() > 1 && isWriting()) {
+	release(frmeTable[frameNo]);
+	frmeTable[frameNo].freeOnUnpin = true;
+	replacer.unpin(frameNo);
+	return;
+      }
+      
       try{
 	replacer.free(frameNo);
       }
@@ -741,6 +811,7 @@ public class BufMgr implements GlobalConst{
 	throw new HashOperationException(e2, "BUFMGR, HASH_TABLE_ERROR");
       }
       
+      release(frmeTable[frameNo]);
       frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
       frmeTable[frameNo].dirty = false;
       
@@ -760,7 +831,7 @@ public class BufMgr implements GlobalConst{
    * @exception BufMgrException other error occured in bufmgr layer
    * @exception IOException if there is other kinds of I/O error.   
    */
-  public void flushPage(PageId pageid)
+  public synchronized void flushPage(PageId pageid)
     throws HashOperationException, 
 	   PageUnpinnedException,  
 	   PagePinnedException, 
@@ -780,7 +851,7 @@ public class BufMgr implements GlobalConst{
    * @exception BufMgrException other error occured in bufmgr layer
    * @exception IOException if there is other kinds of I/O error.   
    */
-  public void flushAllPages()
+  public synchronized void flushAllPages()
     throws HashOperationException, 
 	   PageUnpinnedException,  
 	   PagePinnedException, 
@@ -804,17 +875,194 @@ public class BufMgr implements GlobalConst{
    * 
    * @return total number of unpinned buffer frames.
    */
-  public int getNumUnpinnedBuffers()
+  public synchronized int getNumUnpinnedBuffers()
     {
       return replacer.getNumUnpinnedBuffers();
     }
   
+  /** Starts a write by the calling thread: until the matching
+   * endWrite() the pages it latches stay latched. Calls nest.
+   */
+  public synchronized void beginWrite()
+    {
+      ArrayList<int[]> held = latches.get();
+      if (held == null) {
+	held = new ArrayList<int[]>();
+	held.add(new int[] { 0 });
+	latches.set(held);
+	writers++;
+      }
+      held.get(0)[0]++;
+    }
+  
+  /** Ends a write: releases every page the calling thread latched
+   * since the outermost beginWrite().
+   */
+  public synchronized void endWrite()
+    {
+      ArrayList<int[]> held = latches.get();
+      if (held == null || --held.get(0)[0] > 0)
+	return;
+      for (int i = 1; i < held.size(); i++) {
+	FrameDesc frame = frmeTable[held.get(i)[0]];
+	// skip a frame that has been given to another page since
+	if (frame.pageNo.pid == held.get(i)[1])
+	  release(frame);
+      }
+      latches.remove();
+      writers--;
+    }
+  
+  /** @return true if the calling thread is between beginWrite() and
+   * endWrite()
+   */
+  public boolean isWriting()
+    {
+      return writers > 0 && latches.get() != null;
+    }
+  
+  /** Latches a pinned page the calling thread is about to change, if
+   * it is writing (see beginWrite()): the version of the page turns
+   * odd until endWrite(), so optimistic readers retry.
+   *
+   * @param pageno the page number in the database.
+   */
+  public void latchPage(PageId pageno)
+    {
+      if (!isWriting())
+	return;
+      synchronized (this) {
+	int frameNo = hashTable.lookup(pageno);
+	if (frameNo < 0 || frmeTable[frameNo].latched)
+	  return;
+	frmeTable[frameNo].latched = true;
+	frmeTable[frameNo].version++;
+	latches.get().add(new int[] { frameNo, pageno.pid });
+      }
+    }
+  
+  /** Prefetches a page: a background thread reads it into the pool
+   * and leaves it unpinned, so that a pinPage soon after finds it
+   * there. The read overlaps with whatever the caller does meanwhile.
+   * This is only a hint: it is dropped when the page is in the pool
+   * already, too many requests are waiting or the page cannot be read.
+   *
+   * @param pageno the page number in the database.
+   */
+  public void prefetchPage(PageId pageno)
+    {
+      synchronized (this) {
+	if (hashTable.lookup(pageno) >= 0)
+	  return;
+	if (prefetcher == null) {
+	  prefetcher = new Thread("prefetcher") {
+	      public void run() { prefetch(); }
+	    };
+	  prefetcher.setDaemon(true);
+	  prefetcher.start();
+	}
+      }
+      prefetches.offer(pageno.pid);
+    }
+  
+  /** The prefetcher: reads the requested pages, until this buffer
+   * manager is shut down or no longer the one of the database. The
+   * disk read is done outside the monitor, so other threads keep
+   * pinning pages meanwhile; only installing the page in a frame
+   * holds it.
+   */
+  private void prefetch()
+    {
+      try {
+	while (true) {
+	  PageId pageno = new PageId(prefetches.take());
+	  long written;
+	  synchronized (this) {
+	    if (SystemDefs.JavabaseBM != this)
+	      return;
+	    if (hashTable.lookup(pageno) >= 0)
+	      continue;
+	    written = pagesWritten;
+	  }
+	  Page copy = new Page();
+	  try {
+	    read_page(pageno, copy);
+	  }
+	  catch (BufMgrException e) {
+	    continue;   // not a page: skip the hint
+	  }
+	  synchronized (this) {
+	    if (SystemDefs.JavabaseBM != this)
+	      return;
+	    // someone read the page in meanwhile, or a write back may have
+	    // made the copy stale
+	    if (hashTable.lookup(pageno) >= 0 || pagesWritten != written)
+	      continue;
+	    try {
+	      Page page = new Page();
+	      pinPage(pageno, page, true);
+	      System.arraycopy(copy.getpage(), 0, page.getpage(), 0, copy.getpage().length);
+	      unpinPage(pageno, false);
+	    }
+	    catch (Exception e) {
+	      // no frame free: skip the hint
+	    }
+	  }
+	}
+      }
+      catch (InterruptedException e) {
+      }
+    }
+  
+  /** Stops the prefetcher. SystemDefs calls this when it replaces the
+   * buffer manager, so the thread does not stay blocked waiting for
+   * requests that will never come.
+   */
+  public void shutdown()
+    {
+      Thread thread;
+      synchronized (this) {
+	thread = prefetcher;
+	prefetcher = null;
+      }
+      if (thread != null)
+	thread.interrupt();
+      prefetches.clear();
+    }
+  
+  /** Gets the version of a pinned page. A reader that reads the page
+   * between two calls returning the same even version read a state
+   * no writer was changing.
+   *
+   * @param pageno the page number in the database.
+   * @return the version; odd while a writer has the page latched
+   * @exception HashEntryNotFoundException if the page is not in the pool.
+   */
+  public synchronized long getVersion(PageId pageno)
+    throws HashEntryNotFoundException
+    {
+      int frameNo = hashTable.lookup(pageno);
+      if (frameNo < 0)
+	throw new HashEntryNotFoundException (null, "BUFMGR: HASH_NOT_FOUND.");
+      return frmeTable[frameNo].version;
+    }
+  
+  /** Releases the latch of a frame, if it has one. */
+  private void release(FrameDesc frame)
+    {
+      if (frame.latched) {
+	frame.latched = false;
+	frame.version++;
+      }
+    }
+  
   /** A few routines currently need direct access to the FrameTable. */
   public   FrameDesc[] frameTable() { return frmeTable; }
   
   private void write_page (PageId pageno, Page page)
     throws BufMgrException {
     
+    pagesWritten++;
     try {
       SystemDefs.JavabaseDB.write_page(pageno, page);
     }
@@ -0,0 +1,351 @@
+/*
+ * File - BloomFilter.java
+ *
+ * Description -
+ *		Optional per data page Bloom filters of one column file, kept
+ *		in the "name.bloom<column>" heapfile. An equality lookup asks
+ *		them which pages may hold the value, so pages (or the whole
+ *		column) that certainly do not hold it are never read.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import diskmgr.DB;
+import global.*;
+import heap.*;
+
+/*
+ * Layout of each record in "name.bloom<column>"
+ *	 _______________________________________
+ *	| page # (int) | PAGE_FILTER_BYTES bits	|
+ *	|_______________________________________|
+ *
+ * Values are hashed by what they mean, not by their stored bytes, so a
+ * probe built from a query constant finds what insertTuple added. With
+ * 1024 bits and 3 hash functions a full page of int values (about 125)
+ * gives roughly 2.5% false positives; string pages hold far fewer
+ * values and do much better. Like the zone maps, filters only gain
+ * bits: deleted values stay in until the column is compacted.
+ */
+public class BloomFilter {
+
+  public static final int PAGE_FILTER_BYTES = 128;
+  public static final int PAGE_FILTER_BITS = PAGE_FILTER_BYTES * 8;
+  public static final int NUM_HASHES = 3;
+  private static final int RECORD_SIZE = 4 + PAGE_FILTER_BYTES;
+
+  // one entry per column file looked up so far; null means no filter exists
+  private static HashMap<String, BloomFilter> cache = new HashMap<String, BloomFilter>();
+  private static DB cacheDB;
+
+  private String _fileName;
+  // the column file the filters describe
+  private String columnFile;
+  private int attrType;
+  private HashMap<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
+  // rid of the record holding each page filter, so updates rewrite in place
+  private HashMap<Integer, RID> pageRids = new HashMap<Integer, RID>();
+  // data pages of the column without a filter, -1 until counted, and
+  // how many pages had been added to the column file when they were
+  private int unfilteredPages = -1;
+  private PageId columnDirPage;
+  private int columnPagesAdded;
+
+  // the Bloom filter of a column (1-based), null if none was created
+  public static synchronized BloomFilter open(Columnarfile cf, int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    forgetOtherDB();
+    String fileName = fileName(cf.get_fileName(), column);
+    if (cache.containsKey(fileName))
+      return cache.get(fileName);
+    BloomFilter filter = null;
+    if (fileExists(fileName)) {
+      filter = new BloomFilter(fileName, cf, column);
+      filter.load();
+    }
+    cache.put(fileName, filter);
+    return filter;
+  }
+
+  // build the Bloom filter of a column from its current contents
+  public static synchronized BloomFilter create(Columnarfile cf, int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    forgetOtherDB();
+    String fileName = fileName(cf.get_fileName(), column);
+    if (fileExists(fileName)) {
+      try {
+        new Heapfile(fileName).deleteFile();
+      } catch (Exception e) {
+        throw new HFException(e, "BloomFilter: could not reset " + fileName);
+      }
+    }
+    BloomFilter filter = new BloomFilter(fileName, cf, column);
+    Scan scan = cf.openColumnScan(column);
+    try {
+      RID rid = new RID();
+      Tuple tuple = scan.getNext(rid);
+      while (tuple != null) {
+        filter.include(rid.pageNo.pid, tuple.getTupleByteArray());
+        tuple = scan.getNext(rid);
+      }
+    } finally {
+      scan.closescan();
+    }
+    Heapfile hf = new Heapfile(fileName);
+    for (Integer pageNo : filter.pages.keySet()) {
+      filter.write(hf, pageNo);
+    }
+    filter.countUnfilteredPages();
+    cache.put(fileName, filter);
+    return filter;
+  }
+
+  // delete the Bloom filter files of a table
+  public static synchronized void drop(String relName, int numColumns) {
+    for (int i = 1; i <= numColumns; i++) {
+      String fileName = fileName(relName, i);
+      cache.remove(fileName);
+      try {
+        if (fileExists(fileName))
+          new Heapfile(fileName).deleteFile();
+      } catch (Exception e) {
+        System.err.println("FileName :" + fileName + " BloomFilter.drop: " + e);
+      }
+    }
+  }
+
+  // entries cached for a database SystemDefs has since replaced describe
+  // files that are gone, even when the new one has a table of that name
+  private static void forgetOtherDB() {
+    if (cacheDB != SystemDefs.JavabaseDB) {
+      cache.clear();
+      cacheDB = SystemDefs.JavabaseDB;
+    }
+  }
+
+  private static String fileName(String relName, int column) {
+    return relName + ".bloom" + Integer.toString(column);
+  }
+
+  private static boolean fileExists(String fileName)
+      throws HFDiskMgrException {
+    try {
+      return SystemDefs.JavabaseDB.get_file_entry(fileName) != null;
+    } catch (Exception e) {
+      throw new HFDiskMgrException(e, "BloomFilter: get_file_entry failed");
+    }
+  }
+
+  private BloomFilter(String fileName, Columnarfile cf, int column) {
+    _fileName = fileName;
+    columnFile = cf.get_fileName() + "." + Integer.toString(column);
+    attrType = cf.type[column - 1].attrType;
+  }
+
+  private void load()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    Scan scan = new Heapfile(_fileName).openScan();
+    try {
+      RID rid = new RID();
+      Tuple tuple = scan.getNext(rid);
+      while (tuple != null) {
+        byte[] data = tuple.getTupleByteArray();
+        byte[] bits = new byte[PAGE_FILTER_BYTES];
+        System.arraycopy(data, 4, bits, 0, PAGE_FILTER_BYTES);
+        int pageNo = Convert.getIntValue(0, data);
+        pages.put(pageNo, bits);
+        pageRids.put(pageNo, new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+        tuple = scan.getNext(rid);
+      }
+    } finally {
+      scan.closescan();
+    }
+    countUnfilteredPages();
+  }
+
+  // add a value just stored on a data page
+  public synchronized void add(PageId pageId, byte[] value)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (include(pageId.pid, value)) {
+      write(new Heapfile(_fileName), pageId.pid);
+    }
+  }
+
+  // false if the data page certainly does not hold the value; pages
+  // without a filter were written behind our back and may hold anything
+  public boolean mightContain(PageId pageId, byte[] value)
+      throws IOException {
+    byte[] bits = pages.get(pageId.pid);
+    return bits == null || test(bits, hash(value));
+  }
+
+  // false if no data page of the column holds the value; as above, a
+  // page without a filter may hold it
+  public boolean mightContain(byte[] value)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    long h = hash(value);
+    for (byte[] bits : pages.values()) {
+      if (test(bits, h))
+        return true;
+    }
+    synchronized (this) {
+      // an insert that added a data page, through this filter or not,
+      // makes the count stale
+      if (unfilteredPages < 0 || Heapfile.dataPagesAdded(columnDirPage) != columnPagesAdded)
+        countUnfilteredPages();
+      return unfilteredPages > 0;
+    }
+  }
+
+  // count the data pages of the column that have no filter; only the
+  // directory of the column file is read, and only when the filters are
+  // loaded or built or a data page was added since the last count
+  private synchronized void countUnfilteredPages()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    Heapfile hf = new Heapfile(columnFile);
+    columnDirPage = new PageId(hf.getFirstDirPageId().pid);
+    columnPagesAdded = Heapfile.dataPagesAdded(columnDirPage);
+    int[] pageIds;
+    try {
+      pageIds = hf.getDataPageCounts()[0];
+    } catch (InvalidSlotNumberException e) {
+      throw new HFException(e, "BloomFilter: could not read the pages of " + columnFile);
+    }
+    int count = 0;
+    for (int pageNo : pageIds) {
+      if (!pages.containsKey(pageNo))
+        count++;
+    }
+    unfilteredPages = count;
+  }
+
+  // scan filter that only reads the pages that may hold the value
+  public DataPageFilter pageFilter(byte[] value)
+      throws IOException {
+    final long h = hash(value);
+    return new DataPageFilter() {
+      public boolean canSkip(PageId pageId, int recordCount) {
+        byte[] bits = pages.get(pageId.pid);
+        return bits != null && !test(bits, h);
+      }
+    };
+  }
+
+  // set the bits of a value in a page filter, true if any bit changed
+  private boolean include(int pageNo, byte[] value)
+      throws IOException {
+    byte[] bits = pages.get(pageNo);
+    boolean changed = false;
+    if (bits == null) {
+      bits = new byte[PAGE_FILTER_BYTES];
+      pages.put(pageNo, bits);
+      changed = true;
+    }
+    long h = hash(value);
+    for (int i = 0; i < NUM_HASHES; i++) {
+      int bit = bitOf(h, i);
+      byte mask = (byte) (1 << (bit % 8));
+      if ((bits[bit / 8] & mask) == 0) {
+        bits[bit / 8] |= mask;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean test(byte[] bits, long h) {
+    for (int i = 0; i < NUM_HASHES; i++) {
+      int bit = bitOf(h, i);
+      if ((bits[bit / 8] & (1 << (bit % 8))) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  // i-th probe position, double hashing on the two halves of h
+  private static int bitOf(long h, int i) {
+    int h1 = (int) h;
+    int h2 = (int) (h >>> 32) | 1;
+    return ((h1 + i * h2) & Integer.MAX_VALUE) % PAGE_FILTER_BITS;
+  }
+
+  // 64-bit hash of a value given in column file format
+  private long hash(byte[] value)
+      throws IOException {
+    long key;
+    switch (attrType) {
+      case AttrType.attrInteger:
+        key = Convert.getIntValue(0, value);
+        break;
+      case AttrType.attrReal:
+        float f = Convert.getFloValue(0, value);
+        // -0.0 and 0.0 compare equal, so they have to hash the same
+        key = Float.floatToIntBits(f == 0.0f ? 0.0f : f);
+        break;
+      default:
+        String s = Convert.getStrValue(0, value, value.length);
+        key = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+          key ^= s.charAt(i);
+          key *= 0x100000001b3L;
+        }
+    }
+    // finalizer of splitmix64
+    key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+    key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+    return key ^ (key >>> 31);
+  }
+
+  private void write(Heapfile hf, int pageNo)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    byte[] data = new byte[RECORD_SIZE];
+    Convert.setIntValue(pageNo, 0, data);
+    System.arraycopy(pages.get(pageNo), 0, data, 4, PAGE_FILTER_BYTES);
+    RID rid = pageRids.get(pageNo);
+    if (rid == null) {
+      pageRids.put(pageNo, hf.insertRecord(data));
+    } else {
+      try {
+        hf.updateRecord(rid, new Tuple(data, 0, data.length));
+      } catch (Exception e) {
+        throw new HFException(e, "BloomFilter: page filter update failed");
+      }
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * File - ColumnarCompactor.java
+ *
+ * Description -
+ *		Incremental purge of logically deleted tuples. Live tuples are
+ *		copied a few column pages at a time into fresh heapfiles while
+ *		the old files stay queryable; finish() rebuilds the B-tree,
+ *		position B-tree and composite B-tree indexes and patches the hash
+ *		and bitmap indexes from the old -> new position remap, then swaps
+ *		the new column files in.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import bitmap.BitMapFile;
+import btree.*;
+import global.*;
+import hash.HashFile;
+import hash.HashFileScan;
+import heap.*;
+
+/*
+ * Usage
+ *
+ *	ColumnarCompactor c = new ColumnarCompactor(cf, 4);
+ *	while (c.step()) {
+ *		// other queries may run here against the old files
+ *	}
+ *	PositionRemap remap = c.finish();
+ *
+ * Inserts and deletes made between steps are picked up: new tuples are
+ * copied when the scan reaches them, and tuples deleted after they were
+ * copied are re-marked at their new position by finish(). In-place
+ * updates of tuples that were already copied are not carried over, so
+ * updateTuple should not be used while a compaction is running.
+ */
+public class ColumnarCompactor implements GlobalConst {
+
+  // suffix of the fresh column files while they are being filled
+  public static final String COMPACT_SUFFIX = ".compact";
+
+  private Columnarfile cf;
+  private String relName;
+  private int numColumns;
+  private int pagesPerStep;
+
+  private Scan[] oldScans;
+  private Heapfile[] newFiles;
+  private DeletionBitmap deleted;
+  private PositionRemap remap;
+  private int position = -1;
+  private boolean copyDone = false;
+  private boolean finished = false;
+
+  public ColumnarCompactor(Columnarfile cf, int pagesPerStep)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException,
+      CFException {
+    if (pagesPerStep < 1) {
+      throw new CFException(null, "pagesPerStep must be at least 1");
+    }
+    this.cf = cf;
+    this.relName = cf.get_fileName();
+    // Columnarfile.numColumns is that of the file opened last
+    this.numColumns = cf.type.length;
+    this.pagesPerStep = pagesPerStep;
+    this.deleted = cf.getDeletionBitmap();
+
+    boolean[] indexed = new boolean[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      indexed[i] = fileExists(bTreeName(i + 1)) || fileExists(bitMapName(i + 1));
+      // position B-trees only need the position remap, which is always kept
+    }
+    this.remap = new PositionRemap(numColumns, indexed);
+
+    oldScans = new Scan[numColumns];
+    newFiles = new Heapfile[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      String colName = relName + "." + Integer.toString(i + 1);
+      // leftovers of a compaction that never finished are discarded
+      if (fileExists(colName + COMPACT_SUFFIX)) {
+        try {
+          new Heapfile(colName + COMPACT_SUFFIX).deleteFile();
+        } catch (Exception e) {
+          throw new CFException(e, "could not remove stale " + colName + COMPACT_SUFFIX);
+        }
+      }
+      newFiles[i] = new Heapfile(colName + COMPACT_SUFFIX);
+      oldScans[i] = new Heapfile(colName).openScan();
+    }
+  }
+
+  /*
+   * Copy the live tuples of the next pagesPerStep pages of the first
+   * column. Returns false once every tuple has been copied.
+   */
+  public boolean step()
+      throws Exception {
+    if (copyDone)
+      return false;
+    int pagesDone = 0;
+    RID[] oldRids = new RID[numColumns];
+    Tuple[] values = new Tuple[numColumns];
+    while (true) {
+      for (int i = 0; i < numColumns; i++) {
+        oldRids[i] = new RID();
+        values[i] = oldScans[i].getNext(oldRids[i]);
+      }
+      if (values[0] == null) {
+        closeScans();
+        copyDone = true;
+        return false;
+      }
+      position++;
+      if (deleted.isDeleted(position)) {
+        remap.add(position, oldRids, null);
+      } else {
+        RID[] newRids = new RID[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+          newRids[i] = newFiles[i].insertRecord(values[i].getTupleByteArray());
+        }
+        remap.add(position, oldRids, newRids);
+      }
+      // steps end on a page boundary of the first column
+      if (oldScans[0].atPageEnd() && ++pagesDone >= pagesPerStep)
+        return true;
+    }
+  }
+
+  /*
+   * Copy whatever is left, patch the indexes, swap in the new column
+   * files and renumber the deletion bitmap. Returns the position remap.
+   */
+  public PositionRemap finish()
+      throws Exception {
+    if (finished)
+      return remap;
+    while (step())
+      ;
+
+    for (int col = 1; col <= numColumns; col++) {
+      if (fileExists(bTreeName(col)))
+        rebuildBTree(bTreeName(col), col);
+      if (fileExists(positionBTreeName(col)))
+        rebuildBTree(positionBTreeName(col), 0);
+      if (fileExists(bitMapName(col))) {
+        BitMapFile bmf = new BitMapFile(bitMapName(col));
+        bmf.remap(remap, col);
+        bmf.close();
+      }
+      if (fileExists(cf.getHashIndexName(col)))
+        patchHashIndex(cf.getHashIndexName(col));
+    }
+    for (CompositeIndex index : cf.getCompositeIndexes()) {
+      rebuildBTree(index.getName(), 0);
+    }
+
+    for (int i = 0; i < numColumns; i++) {
+      String colName = relName + "." + Integer.toString(i + 1);
+      new Heapfile(colName).deleteFile();
+      PageId newDirPage = new PageId(newFiles[i].getFirstDirPageId().pid);
+      SystemDefs.JavabaseDB.delete_file_entry(colName + COMPACT_SUFFIX);
+      SystemDefs.JavabaseDB.add_file_entry(colName, newDirPage);
+    }
+    // zones describe the old pages; they are rebuilt on next use
+    ZoneMap.drop(relName, numColumns);
+    // Bloom filters are optional, so the ones that existed are rebuilt now
+    for (int col = 1; col <= numColumns; col++) {
+      if (BloomFilter.open(cf, col) != null) {
+        BloomFilter.create(cf, col);
+      }
+    }
+
+    // tuples deleted after they were copied are still live in the new files
+    ArrayList<Integer> stillDeleted = new ArrayList<Integer>();
+    for (int pos = deleted.nextDeleted(0); pos >= 0; pos = deleted.nextDeleted(pos + 1)) {
+      int newPos = remap.getNewPosition(pos);
+      if (newPos != PositionRemap.DROPPED)
+        stillDeleted.add(newPos);
+    }
+    deleted.clear();
+    for (int newPos : stillDeleted)
+      deleted.markDeleted(newPos);
+
+    finished = true;
+    return remap;
+  }
+
+  // run a whole compaction without yielding between steps
+  public PositionRemap run()
+      throws Exception {
+    return finish();
+  }
+
+  // replace every (key, old rid) entry by (key, new rid), dropping purged
+  // ones. The old tree is scanned in key order and the remapped entries
+  // are bulk loaded into a fresh tree, which then takes over the name. A
+  // column of 0 means the entries hold positions (position B-trees and
+  // composite indexes) rather than rids of that column.
+  private void rebuildBTree(String btName, int column)
+      throws Exception {
+    String newName = btName + COMPACT_SUFFIX;
+    // leftovers of a compaction that never finished are discarded
+    if (fileExists(newName))
+      new BTreeFile(newName).destroyFile();
+    BTreeFile oldTree = new BTreeFile(btName);
+    BTreeFile newTree = new BTreeFile(newName, oldTree);
+    BTFileScan scan = oldTree.new_scan(null, null);
+    try {
+      newTree.bulkLoad(new RemapScan(scan, column), BTreeFile.DEFAULT_FILL_FACTOR);
+    } finally {
+      scan.DestroyBTreeFileScan();
+    }
+    newTree.close();
+    oldTree.destroyFile();
+    PageId newHeaderPage = SystemDefs.JavabaseDB.get_file_entry(newName);
+    SystemDefs.JavabaseDB.delete_file_entry(newName);
+    SystemDefs.JavabaseDB.add_file_entry(btName, newHeaderPage);
+  }
+
+  // leaf entries of an old tree with their rids moved to the compacted
+  // files; entries of purged tuples are skipped
+  private class RemapScan extends IndexFileScan {
+    private BTFileScan scan;
+    private int column;
+
+    RemapScan(BTFileScan scan, int column) {
+      this.scan = scan;
+      this.column = column;
+    }
+
+    public KeyDataEntry get_next()
+        throws ScanIteratorException {
+      KeyDataEntry entry;
+      while ((entry = scan.get_next()) != null) {
+        RID oldRid = ((LeafData) entry.data).getData();
+        RID newRid;
+        if (column > 0) {
+          newRid = remap.getNewRid(column, oldRid);
+        } else {
+          int newPos = remap.getNewPosition(Columnarfile.ridToPosition(oldRid));
+          newRid = newPos == PositionRemap.DROPPED ? null : Columnarfile.positionToRid(newPos);
+        }
+        if (newRid != null)
+          return new KeyDataEntry(entry.key, newRid);
+      }
+      return null;
+    }
+
+    public void delete_current()
+        throws ScanDeleteException {
+      throw new ScanDeleteException(null, "remapped entries are read only");
+    }
+
+    public int keysize() {
+      return scan.keysize();
+    }
+  }
+
+  // the same for the position entries of a hash index, patched bucket by
+  // bucket in place: the keys do not change, so no entry changes bucket,
+  // and only entries whose position moved or was purged are written
+  private void patchHashIndex(String name)
+      throws Exception {
+    HashFile hf = new HashFile(name);
+    HashFileScan scan = hf.new_scan(null);
+    try {
+      KeyDataEntry entry;
+      while ((entry = scan.get_next()) != null) {
+        int oldPos = Columnarfile.ridToPosition(((LeafData) entry.data).getData());
+        int newPos = remap.getNewPosition(oldPos);
+        if (newPos == PositionRemap.DROPPED)
+          scan.delete_current();
+        else if (newPos != oldPos)
+          scan.update_current(Columnarfile.positionToRid(newPos));
+      }
+    } finally {
+      scan.DestroyHashFileScan();
+      hf.close();
+    }
+  }
+
+  private void closeScans() {
+    for (int i = 0; i < numColumns; i++) {
+      if (oldScans[i] != null)
+        oldScans[i].closescan();
+      oldScans[i] = null;
+    }
+  }
+
+  private String bTreeName(int column) {
+    return relName + ".btree" + Integer.toString(column);
+  }
+
+  private String positionBTreeName(int column) {
+    return relName + ".pbtree" + Integer.toString(column);
+  }
+
+  private String bitMapName(int column) {
+    return relName + ".bitmap" + Integer.toString(column);
+  }
+
+  private static boolean fileExists(String name)
+      throws HFDiskMgrException {
+    try {
+      return SystemDefs.JavabaseDB.get_file_entry(name) != null;
+    } catch (Exception e) {
+      throw new HFDiskMgrException(e, "get_file_entry failed for " + name);
+    }
+  }
+}
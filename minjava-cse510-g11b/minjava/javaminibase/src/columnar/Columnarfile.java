@@ -9,6 +9,7 @@
 package columnar;
 
 import java.io.IOException;
+import java.util.BitSet;
 import bitmap.*;
 import btree.*;
 import bufmgr.HashEntryNotFoundException;
@@ -17,7 +18,13 @@ import bufmgr.PageUnpinnedException;
 import bufmgr.ReplacerException;
 import diskmgr.*;
 import global.*;
+import hash.HashFile;
 import heap.*;
+import iterator.ColumnarKeyScan;
+import iterator.CompositeKeyScan;
+import iterator.CondExpr;
+import iterator.LowMemException;
+import iterator.ParallelSort;
 
 public class Columnarfile implements GlobalConst {
   public static int numColumns;
@@ -159,6 +166,9 @@ public class Columnarfile implements GlobalConst {
       new Heapfile(name + "." + Integer.toString(i + 1));
     }
     new Heapfile(name + ".deleted");
+    for (int i = 0; i < numColumns; i++) {
+      ZoneMap.open(this, i + 1);
+    }
     _file_deleted = false;
   }
 
@@ -195,6 +205,18 @@ public class Columnarfile implements GlobalConst {
       System.err.println("FileName :" + _fileName + ".deleted"
           + " deleteColumnarFile: " + e);
     }
+    try {
+      if (SystemDefs.JavabaseDB.get_file_entry(_fileName + ".composite") != null) {
+        new Heapfile(_fileName + ".composite").deleteFile();
+      }
+    } catch (Exception e) {
+      isCFException = true;
+      System.err.println("FileName :" + _fileName + ".composite"
+          + " deleteColumnarFile: " + e);
+    }
+    DeletionBitmap.drop(_fileName);
+    ZoneMap.drop(_fileName, numColumns);
+    BloomFilter.drop(_fileName, numColumns);
     if (isCFException) {
       throw new CFException(null, "deleteColumnarFile failed");
     }
@@ -227,6 +249,10 @@ public class Columnarfile implements GlobalConst {
       Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
       Heapfile.RIDPosition ridPosition = hf.insertRecordRaw(data);
       recordIDs[i] = ridPosition.rid;
+      ZoneMap.open(this, i + 1).widen(ridPosition.rid.pageNo, data);
+      BloomFilter bloomFilter = BloomFilter.open(this, i + 1);
+      if (bloomFilter != null)
+        bloomFilter.add(ridPosition.rid.pageNo, data);
       if (position != -1 && position != ridPosition.position) {
         throw new CFException(null, "Insertion failed");
       } else {
@@ -240,18 +266,27 @@ public class Columnarfile implements GlobalConst {
   public Tuple getTuple(TID tid)
       throws IOException,
       Exception {
+    byte[][] colData = new byte[numColumns][];
+    for (int i = 0; i < numColumns; i++) {
+      Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
+      colData[i] = hf.getRecord(tid.recordIDs[i]).getTupleByteArray();
+    }
+    return makeTuple(colData);
+  }
+
+  // build a tuple from the column file records of its fields
+  Tuple makeTuple(byte[][] colData)
+      throws IOException {
     byte[] data = new byte[MINIBASE_PAGESIZE];
     Convert.setShortValue((short) numColumns, 0, data);
     short[] fldOffset = new short[numColumns + 1];
     fldOffset[0] = (short) (2 * (numColumns + 2));
     Convert.setShortValue(fldOffset[0], 2 * (0 + 1), data);
     for (int i = 0; i < numColumns; i++) {
-      Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      byte[] colData = hf.getRecord(tid.recordIDs[i]).getTupleByteArray();
-      int leng = colData.length;
+      int leng = colData[i].length;
       fldOffset[i + 1] = (short) (fldOffset[i] + leng);
       Convert.setShortValue(fldOffset[i + 1], 2 * ((i + 1) + 1), data);
-      System.arraycopy(colData, 0, data, fldOffset[i], leng);
+      System.arraycopy(colData[i], 0, data, fldOffset[i], leng);
     }
     Convert.setShortValue(fldOffset[numColumns], 2 * (numColumns + 1), data);
     byte[] tupleData = new byte[fldOffset[numColumns]];
@@ -305,6 +340,17 @@ public class Columnarfile implements GlobalConst {
     return new TupleScan(this);
   }
 
+  // Initiate a sequential scan of tuples that skips the data pages whose
+  // zone map shows they cannot satisfy expr.
+  public TupleScan openTupleScan(CondExpr[] expr)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      IOException,
+      InvalidTupleSizeException {
+    return new TupleScan(this, expr);
+  }
+
   // Initiate a sequential scan along a given column.
   public Scan openColumnScan(int columnNo)
       throws HFException,
@@ -316,6 +362,24 @@ public class Columnarfile implements GlobalConst {
     return hf.openScan();
   }
 
+  // Initiate a sequential scan along a given column, skipping the data pages
+  // whose zone map shows they cannot satisfy the terms of expr on that column.
+  public Scan openColumnScan(int columnNo, CondExpr[] expr)
+      throws HFException,
+      InvalidTupleSizeException,
+      IOException,
+      HFBufMgrException,
+      HFDiskMgrException {
+    ZoneFilter filter;
+    try {
+      filter = ZoneFilter.forColumn(this, columnNo, expr);
+    } catch (InvalidSlotNumberException | SpaceNotAvailableException e) {
+      throw new HFException(e, "openColumnScan: could not load zone map");
+    }
+    Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(columnNo));
+    return hf.openScan(filter);
+  }
+
   // Updates the specified record in the columnar file.
   public boolean updateTuple(TID tid, Tuple newtuple) {
     boolean status = true;
@@ -358,7 +422,12 @@ public class Columnarfile implements GlobalConst {
     System.arraycopy(newTuplePtr, fldOffset[column], data, 0, length);
     Tuple newColTuple = new Tuple(data, 0, length);
     Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(column));
-    return hf.updateRecord(tid.recordIDs[column], newColTuple);
+    boolean updated = hf.updateRecord(tid.recordIDs[column], newColTuple);
+    ZoneMap.open(this, column).widen(tid.recordIDs[column].pageNo, data);
+    BloomFilter bloomFilter = BloomFilter.open(this, column);
+    if (bloomFilter != null)
+      bloomFilter.add(tid.recordIDs[column].pageNo, data);
+    return updated;
   }
 
   // if it doesn’t exist, create a BTree index for the given column
@@ -371,35 +440,386 @@ public class Columnarfile implements GlobalConst {
       DeleteRecException, IndexSearchException, IteratorException,
       LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
       InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException {
+    return createBTreeIndex(column, BTreeFile.DEFAULT_FILL_FACTOR);
+  }
+
+  // build a B-tree on the column, bulk loaded from the sorted column values
+  // with its pages filled to fillFactor; an index that already has entries
+  // (or a column too large to sort in two passes) gets one insert per row;
+  // if the bulk load fails, the tree is destroyed and CFException thrown
+  public boolean createBTreeIndex(int column, float fillFactor)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException {
+    return buildBTree(_fileName + ".btree" + Integer.toString(column), column, fillFactor, false);
+  }
+
+  // if it doesn't exist, create a position B-tree for the given column: its
+  // leaves hold the tuple position instead of the column rid (see
+  // positionToRid), so a hit needs no rid -> position translation
+  public boolean createPositionBTreeIndex(int column)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException {
+    return createPositionBTreeIndex(column, BTreeFile.DEFAULT_FILL_FACTOR);
+  }
+
+  // position B-tree with its pages filled to fillFactor
+  public boolean createPositionBTreeIndex(int column, float fillFactor)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException {
+    return buildBTree(_fileName + ".pbtree" + Integer.toString(column), column, fillFactor, true);
+  }
+
+  // if it doesn't exist, create a composite B-tree over several columns:
+  // the key holds the values of the columns in the given order (see
+  // CompositeKey) and the leaves hold the tuple position, as in a position
+  // B-tree. Equality on the leading columns plus a range on the next one is
+  // a single scan of the index.
+  public boolean createCompositeBTreeIndex(int[] columns)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException,
+      InvalidSlotNumberException, SpaceNotAvailableException {
+    if (columns.length < 2) {
+      throw new CFException(null, "a composite index needs at least two columns");
+    }
+    return createCoveringBTreeIndex(columns, new int[0]);
+  }
+
+  // if it doesn't exist, create a composite B-tree on the key columns that
+  // also holds the values of the included columns. They are appended to the
+  // key after the key columns, since a leaf entry only has room for the
+  // position, so they never change which entries a key range selects; a
+  // query reading only key and included columns needs no column file (see
+  // findCoveringIndex).
+  public boolean createCoveringBTreeIndex(int[] keyColumns, int[] includeColumns)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException,
+      InvalidSlotNumberException, SpaceNotAvailableException {
+    if (keyColumns.length < 1 || keyColumns.length + includeColumns.length < 2) {
+      throw new CFException(null, "a composite index needs at least two columns");
+    }
+    CompositeIndex index = new CompositeIndex(_fileName, keyColumns, includeColumns);
+    int[] columns = index.getColumns();
+    AttrType[] keyTypes = new AttrType[columns.length];
+    short[] keySizes = new short[columns.length];
+    int strings = 0;
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] < 1 || columns[i] > numColumns) {
+        throw new CFException(null, "no column " + columns[i]);
+      }
+      keyTypes[i] = type[columns[i] - 1];
+      if (keyTypes[i].attrType == AttrType.attrString) {
+        keySizes[strings++] = getStrSize(columns[i]);
+      } else if (keyTypes[i].attrType != AttrType.attrInteger
+          && keyTypes[i].attrType != AttrType.attrReal) {
+        throw new CFException(null, "Invalid attribute type only handled for Integer, Real and String types.");
+      }
+    }
+    int keyLength = CompositeKey.getMaxLength(keyTypes, keySizes);
+    BTreeFile btf = new BTreeFile(index.getName(), AttrType.attrComposite,
+        2 + keyLength, 1 /* full delete */);
+    if (!btf.isEmpty()) {
+      btf.close();
+      return true;
+    }
+    boolean loaded;
+    try {
+      loaded = bulkLoadCompositeBTree(btf, columns, keyLength);
+    } catch (Exception e) {
+      // a half-loaded tree would give wrong answers to index scans
+      try {
+        btf.destroyFile();
+      } catch (Exception d) {
+        throw new CFException(d, "could not destroy the partly loaded B-tree " + index.getName());
+      }
+      throw new CFException(e, "bulk load of the B-tree " + index.getName() + " failed");
+    }
+    if (loaded) {
+      btf.close();
+      addCompositeIndex(index);
+      return true;
+    }
+    Scan[] scans = new Scan[columns.length];
+    try {
+      for (int i = 0; i < columns.length; i++) {
+        scans[i] = openColumnScan(columns[i]);
+      }
+      RID rid = new RID();
+      int position = 0;
+      while (true) {
+        CompositeKey key = new CompositeKey();
+        Tuple tuple = null;
+        for (int i = 0; i < columns.length; i++) {
+          tuple = scans[i].getNext(rid);
+          if (tuple == null) {
+            break;
+          }
+          appendKeyValue(key, keyTypes[i], tuple.getTupleByteArray());
+        }
+        if (tuple == null) {
+          break;
+        }
+        btf.insert(key, positionToRid(position));
+        position++;
+      }
+    } finally {
+      for (int i = 0; i < columns.length; i++) {
+        if (scans[i] != null) {
+          scans[i].closescan();
+        }
+      }
+      btf.close();
+    }
+    addCompositeIndex(index);
+    return true;
+  }
+
+  // sort the (composite key, position) pairs of the columns and bulk load
+  // them into an empty composite B-tree, as bulkLoadBTree does for one
+  // column; false if the sort does not have the memory, or a key is too
+  // long for the sort's tuples, in which case nothing has been written
+  // to the tree
+  private boolean bulkLoadCompositeBTree(BTreeFile btf, int[] columns, int keyLength)
+      throws Exception {
+    CompositeKeyScan keys = new CompositeKeyScan(this, columns, keyLength);
+    // runs are heap files, so a sort tuple must fit on a page
+    if (keys.getTupleSize() > GlobalConst.MAX_SPACE - HFPage.DPFIXED - HFPage.SIZE_OF_SLOT) {
+      keys.close();
+      return false;
+    }
+    return bulkLoad(btf, keys, keys.getOutputTypes(), keys.getStrSizes(),
+        keys.getStrSizes()[0], BTreeFile.DEFAULT_FILL_FACTOR);
+  }
+
+  // name of the composite B-tree over the columns, in key order
+  public String getCompositeBTreeName(int[] columns) {
+    return CompositeIndex.getName(_fileName, columns, new int[0]);
+  }
+
+  // every composite B-tree of this table
+  public CompositeIndex[] getCompositeIndexes()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    java.util.ArrayList<CompositeIndex> indexes = new java.util.ArrayList<CompositeIndex>();
+    try {
+      if (SystemDefs.JavabaseDB.get_file_entry(_fileName + ".composite") == null) {
+        return new CompositeIndex[0];
+      }
+    } catch (Exception e) {
+      throw new HFDiskMgrException(e, "get_file_entry failed for " + _fileName + ".composite");
+    }
+    Scan scan = new Heapfile(_fileName + ".composite").openScan();
+    try {
+      RID rid = new RID();
+      Tuple tuple;
+      while ((tuple = scan.getNext(rid)) != null) {
+        indexes.add(CompositeIndex.fromBytes(_fileName, tuple.getTupleByteArray()));
+      }
+    } finally {
+      scan.closescan();
+    }
+    return indexes.toArray(new CompositeIndex[indexes.size()]);
+  }
+
+  // the smallest composite B-tree whose key starts with keyColumns and that
+  // holds every one of columns, null if there is none. A query that
+  // selects on keyColumns and reads only columns can be answered from
+  // this index without reading a column file.
+  public CompositeIndex findCoveringIndex(int[] keyColumns, int[] columns)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    CompositeIndex best = null;
+    for (CompositeIndex index : getCompositeIndexes()) {
+      if (index.hasKeyPrefix(keyColumns) && index.covers(columns)
+          && (best == null || index.getColumns().length < best.getColumns().length)) {
+        best = index;
+      }
+    }
+    return best;
+  }
+
+  // record a composite B-tree in the .composite file, so compaction and
+  // queries can find it
+  private void addCompositeIndex(CompositeIndex index)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      SpaceNotAvailableException,
+      IOException {
+    for (CompositeIndex known : getCompositeIndexes()) {
+      if (known.getName().equals(index.getName())) {
+        return;
+      }
+    }
+    new Heapfile(_fileName + ".composite").insertRecord(index.toBytes());
+  }
+
+  // append a column value, as stored in its column file, to a composite key
+  public static void appendKeyValue(CompositeKey key, AttrType type, byte[] data)
+      throws IOException {
+    switch (type.attrType) {
+      case AttrType.attrInteger:
+        key.append(Convert.getIntValue(0, data));
+        break;
+      case AttrType.attrReal:
+        key.append(Convert.getFloValue(0, data));
+        break;
+      default:
+        key.append(Convert.getStrValue(0, data, data.length));
+        break;
+    }
+  }
+
+  // declared size of a string column (1-based)
+  private short getStrSize(int column) {
+    int strings = 0;
+    for (int i = 0; i < column - 1; i++) {
+      if (type[i].attrType == AttrType.attrString) {
+        strings++;
+      }
+    }
+    return strSizes[strings];
+  }
+
+  // leaf data of a position B-tree entry: the position is kept in the page
+  // number of the rid, the slot number is unused
+  public static RID positionToRid(int position) {
+    return new RID(new PageId(position), 0);
+  }
+
+  // position held by the leaf data of a position B-tree entry
+  public static int ridToPosition(RID rid) {
+    return rid.pageNo.pid;
+  }
+
+  // scan over the tuples at the given positions, in position order
+  public PositionFetchScan openPositionFetchScan(BitSet positions)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    return new PositionFetchScan(this, positions);
+  }
+
+  // snapshot of the column directories for position <-> rid lookups
+  public PositionMap getPositionMap()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      IOException {
+    return getPositionMap(Columnarfile.numColumns);
+  }
+
+  // the same, for a file with numColumns columns that may not be the last
+  // one opened
+  public PositionMap getPositionMap(int numColumns)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      IOException {
+    return new PositionMap(this, numColumns);
+  }
+
+  private boolean buildBTree(String btFileName, int column, float fillFactor, boolean positions)
+      throws GetFileEntryException, PinPageException, ConstructPageException,
+      HFException, InvalidTupleSizeException, HFBufMgrException,
+      HFDiskMgrException, IOException, KeyTooLongException,
+      KeyNotMatchException, LeafInsertRecException, IndexInsertRecException,
+      UnpinPageException, NodeNotMatchException, ConvertException,
+      DeleteRecException, IndexSearchException, IteratorException,
+      LeafDeleteException, InsertException, CFException, AddFileEntryException, PageUnpinnedException,
+      InvalidFrameNumberException, HashEntryNotFoundException, ReplacerException {
     BTreeFile btf;
-    String btFileName = new String(_fileName + ".btree" + Integer.toString(column));
     AttrType keyTypeArg = type[column - 1];
     int deleteType = 1; // DeleteFashion.FULL_DELETE argument
     int maxKeySizeArg;
-    if (AttrType.attrInteger == keyTypeArg.attrType) {
+    if (AttrType.attrInteger == keyTypeArg.attrType || AttrType.attrReal == keyTypeArg.attrType) {
       maxKeySizeArg = 5;
     } else if (AttrType.attrString == keyTypeArg.attrType) {
       maxKeySizeArg = GlobalConst.MAX_NAME;
     } else {
-      System.out.println("Invalid attribute type only handled for Integer and String types.");
-      throw new CFException(null, "Invalid attribute type only handled for Integer and String types.");
+      System.out.println("Invalid attribute type only handled for Integer, Real and String types.");
+      throw new CFException(null, "Invalid attribute type only handled for Integer, Real and String types.");
     }
     // Create the BTree
     btf = new BTreeFile(btFileName, keyTypeArg.attrType, maxKeySizeArg, deleteType);
+    try {
+      if (btf.isEmpty() && bulkLoadBTree(btf, column, fillFactor, positions)) {
+        btf.close();
+        return true;
+      }
+    } catch (Exception e) {
+      // a half-loaded tree would give wrong answers to index scans
+      try {
+        btf.destroyFile();
+      } catch (Exception d) {
+        throw new CFException(d, "could not destroy the partly loaded B-tree " + btFileName);
+      }
+      throw new CFException(e, "bulk load of the B-tree " + btFileName + " failed");
+    }
     RID rid = new RID();
+    int position = 0;
     Scan scan = this.openColumnScan(column);
     try {
       Tuple tuple = scan.getNext(rid);
       while (tuple != null) {
+        RID data = positions ? positionToRid(position) : rid;
         if (type[column - 1].attrType == AttrType.attrInteger) {
           int intValue = Convert.getIntValue(0, tuple.getTupleByteArray());
-          btf.insert(new IntegerKey(intValue), rid);
+          btf.insert(new IntegerKey(intValue), data);
+        }
+        if (type[column - 1].attrType == AttrType.attrReal) {
+          float floatValue = Convert.getFloValue(0, tuple.getTupleByteArray());
+          btf.insert(new RealKey(floatValue), data);
         }
         if (type[column - 1].attrType == AttrType.attrString) {
           byte[] byteArr = tuple.getTupleByteArray();
           String stringValue = Convert.getStrValue(0, byteArr, byteArr.length);
-          btf.insert(new StringKey(stringValue), rid);
+          btf.insert(new StringKey(stringValue), data);
         }
+        position++;
         tuple = scan.getNext(rid);
       }
     } catch (Exception e) {
@@ -411,6 +831,60 @@ public class Columnarfile implements GlobalConst {
     return true;
   }
 
+  // sort the (value, rid) pairs of a column, or (value, position) pairs,
+  // and bulk load them into an empty B-tree; false if the sort does not
+  // have the memory for the column, in which case nothing has been written
+  // to the tree
+  private boolean bulkLoadBTree(BTreeFile btf, int column, float fillFactor, boolean positions)
+      throws Exception {
+    ColumnarKeyScan keys = new ColumnarKeyScan(this, column, positions);
+    AttrType keyType = type[column - 1];
+    int keyLength = keyType.attrType == AttrType.attrString ? keys.getStrSizes()[0] : 4;
+    return bulkLoad(btf, keys, keys.getOutputTypes(), keys.getStrSizes(), keyLength, fillFactor);
+  }
+
+  // sort (key, page number, slot number) tuples on the key and bulk load
+  // them into an empty B-tree; false, with keys closed, if the sort does
+  // not have the memory for every tuple of the table
+  private boolean bulkLoad(BTreeFile btf, iterator.Iterator keys, AttrType[] types,
+      short[] strSizes, int keyLength, float fillFactor)
+      throws Exception {
+    int sortPages = bulkLoadSortPages();
+    // find out before the runs are written: they can fill the database
+    if (!ParallelSort.fitsInTwoPasses(types, (short) 3, strSizes, getTupleCnt(), sortPages)) {
+      keys.close();
+      return false;
+    }
+    iterator.Iterator sort = null;
+    try {
+      sort = ParallelSort.open(types, (short) 3, strSizes, keys, 1,
+          new TupleOrder(TupleOrder.Ascending), keyLength, sortPages);
+      btf.bulkLoad(sort, fillFactor);
+      return true;
+    } catch (InsertException e) {
+      if (e.prev instanceof LowMemException
+          && btf.isEmpty()) {
+        return false;
+      }
+      throw e;
+    } finally {
+      if (sort != null) {
+        sort.close();
+      } else {
+        keys.close();
+      }
+    }
+  }
+
+  // buffer pages for a sort feeding a bulk load: a third of the free
+  // frames, less a few for the input scan and the load. The merge keeps
+  // a heap file scan open on every run, which pins a directory page and
+  // a data page, and a sort that fits in two passes has no more runs
+  // than pages.
+  private static int bulkLoadSortPages() {
+    return Math.max(3, (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() - 6) / 3);
+  }
+
   // if it doesn’t exist, create a bitmap index for the given column and value
   public boolean createBitMapIndex(int columnNo, ValueClass value)
       throws GetFileEntryException, ConstructPageException,
@@ -435,8 +909,91 @@ public class Columnarfile implements GlobalConst {
     return true;
   }
 
-  // add the tuple to a heapfile tracking the deleted tuples from the columnar
-  // file
+  // if it doesn't exist, create a hash index on the given column for
+  // equality lookups. Its entries hold the tuple position, as in a position
+  // B-tree. On a fixed size column it is sized for the rows already in
+  // the table so loading them splits no bucket; strings are mostly shorter
+  // than the column, so that index grows by splits instead. False if the
+  // index already exists.
+  public boolean createHashIndex(int column)
+      throws GetFileEntryException, AddFileEntryException, PinPageException,
+      UnpinPageException, ConstructPageException, KeyNotMatchException,
+      KeyTooLongException, InsertException, HFException, HFBufMgrException,
+      HFDiskMgrException, InvalidTupleSizeException, InvalidSlotNumberException,
+      CFException, FileIOException, InvalidPageNumberException, DiskMgrException,
+      IOException, PageUnpinnedException, InvalidFrameNumberException,
+      HashEntryNotFoundException, ReplacerException {
+    String name = getHashIndexName(column);
+    if (SystemDefs.JavabaseDB.get_file_entry(name) != null)
+      return false;
+    int keyType = type[column - 1].attrType;
+    int keySize;
+    if (keyType == AttrType.attrInteger || keyType == AttrType.attrReal) {
+      keySize = 4;
+    } else if (keyType == AttrType.attrString) {
+      keySize = getStrSize(column) + 2;
+    } else {
+      throw new CFException(null, "Invalid attribute type only handled for Integer, Real and String types.");
+    }
+    HashFile hf = new HashFile(name, keyType, keySize,
+        keyType == AttrType.attrString ? 0 : getTupleCnt());
+    RID rid = new RID();
+    int position = 0;
+    Scan scan = openColumnScan(column);
+    try {
+      Tuple tuple;
+      while ((tuple = scan.getNext(rid)) != null) {
+        byte[] data = tuple.getTupleByteArray();
+        KeyClass key;
+        if (keyType == AttrType.attrInteger) {
+          key = new IntegerKey(Convert.getIntValue(0, data));
+        } else if (keyType == AttrType.attrReal) {
+          key = new RealKey(Convert.getFloValue(0, data));
+        } else {
+          key = new StringKey(Convert.getStrValue(0, data, data.length));
+        }
+        hf.insert(key, positionToRid(position++));
+      }
+    } finally {
+      scan.closescan();
+      hf.close();
+    }
+    return true;
+  }
+
+  public String getHashIndexName(int column) {
+    return _fileName + ".hash" + Integer.toString(column);
+  }
+
+  // if it doesn't exist, create a Bloom filter for the given column;
+  // insertTuple keeps it up to date from then on
+  public boolean createBloomFilter(int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (BloomFilter.open(this, column) != null)
+      return false;
+    BloomFilter.create(this, column);
+    return true;
+  }
+
+  // false if the column has a Bloom filter and no tuple can hold the value
+  // (given in column file format); true if the value may be present
+  public boolean mayContain(int column, byte[] value)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    BloomFilter bloomFilter = BloomFilter.open(this, column);
+    return bloomFilter == null || bloomFilter.mightContain(value);
+  }
+
+  // set the tuple's position in the deletion bitmap; scans skip it from now on
   public boolean markTupleDeleted(TID tid)
       throws IOException,
       HFException,
@@ -448,13 +1005,37 @@ public class Columnarfile implements GlobalConst {
       HFException,
       HFBufMgrException,
       HFDiskMgrException {
-    byte[] data = new byte[8 + numColumns * 8];
-    tid.writeToByteArray(data, 0);
-    new Heapfile(_fileName + ".deleted").insertRecord(data);
+    getDeletionBitmap().markDeleted(tid.position);
     return true;
   }
 
+  // true if the tuple at this position has been marked deleted
+  public boolean isTupleDeleted(int position)
+      throws IOException,
+      HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      SpaceNotAvailableException {
+    return getDeletionBitmap().isDeleted(position);
+  }
+
+  // cached deletion bitmap of this table
+  public DeletionBitmap getDeletionBitmap()
+      throws IOException,
+      HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      SpaceNotAvailableException {
+    return DeletionBitmap.open(_fileName);
+  }
+
   // merge all deleted tuples from the file as well as all from all index files.
+  // Runs a whole ColumnarCompactor pass; use the compactor directly to let
+  // queries run between steps.
   public boolean purgeAllDeletedTuples()
       throws IOException,
       HFDiskMgrException,
@@ -464,32 +1045,7 @@ public class Columnarfile implements GlobalConst {
       InvalidSlotNumberException,
       CFException,
       Exception {
-    Heapfile deletedHf = new Heapfile(_fileName + ".deleted");
-    Scan scan = deletedHf.openScan();
-    Tuple tuple = scan.getNext(new RID());
-    while (tuple != null) {
-      TID tid = new TID(tuple.getTupleByteArray(), 0);
-      boolean isDeleted = this._deleteTuple(tid);
-      if (isDeleted == false) {
-        throw new CFException(null, "purgeAllDeletedTuples failed");
-      }
-      tuple = scan.getNext(new RID());
-    }
-    scan.closescan();
-    TupleScan tupleScan = this.openTupleScan();
-    TID tid = new TID(Columnarfile.numColumns, -1, new RID[numColumns]);
-    Tuple toBeReinserted = new Tuple();
-    TID toBeReinsertedTID = new TID(Columnarfile.numColumns);
-    tuple = tupleScan.getNext(tid);
-    while (tuple != null) {
-      toBeReinserted = new Tuple(tuple);
-      toBeReinsertedTID.copyTid(tid);
-      tuple = tupleScan.getNext(tid);
-      this._deleteTuple(toBeReinsertedTID);
-      this.insertTuple(toBeReinserted.getTupleByteArray());
-    }
-    deletedHf.deleteFile();
-    deletedHf = new Heapfile(_fileName + ".deleted");
+    new ColumnarCompactor(this, 1).run();
     return true;
   }
 
@@ -541,23 +1097,6 @@ public class Columnarfile implements GlobalConst {
     return new TID(numColumns, position, recordIDs);
   }
 
-  private boolean _deleteTuple(TID tid)
-      throws InvalidSlotNumberException,
-      InvalidTupleSizeException,
-      HFException,
-      HFBufMgrException,
-      HFDiskMgrException,
-      Exception {
-    boolean isDeleted = true;
-    for (int i = 0; i < numColumns; i++) {
-      Heapfile colHf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      boolean isColDeleted = colHf.deleteRecord(tid.recordIDs[i]);
-      if (isColDeleted == false)
-        isDeleted = false;
-    }
-    return isDeleted;
-  }
-
   public String getFileName() {
     return _fileName;
   }
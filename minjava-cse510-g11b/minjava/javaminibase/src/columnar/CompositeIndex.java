@@ -0,0 +1,119 @@
+/*
+ * File - CompositeIndex.java
+ *
+ * Description -
+ *		A composite B-tree of a columnar table as recorded in its
+ *		.composite file: the key columns the tree is ordered by and the
+ *		included columns stored after them. Included columns are not
+ *		searched on, they only let a query that needs nothing else be
+ *		answered from the index alone.
+ */
+package columnar;
+
+import java.io.IOException;
+
+import global.Convert;
+
+public class CompositeIndex {
+
+  private String name;
+  private int[] keyColumns;
+  private int[] includeColumns;
+
+  CompositeIndex(String relName, int[] keyColumns, int[] includeColumns) {
+    this.keyColumns = keyColumns;
+    this.includeColumns = includeColumns;
+    this.name = getName(relName, keyColumns, includeColumns);
+  }
+
+  // file name of the B-tree: rel.pbtree3_1 for key columns 3 and 1,
+  // rel.pbtree3+1_2 for key column 3 including columns 1 and 2
+  static String getName(String relName, int[] keyColumns, int[] includeColumns) {
+    String name = relName + ".pbtree" + join(keyColumns);
+    if (includeColumns.length > 0) {
+      name += "+" + join(includeColumns);
+    }
+    return name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int[] getKeyColumns() {
+    return keyColumns;
+  }
+
+  public int[] getIncludeColumns() {
+    return includeColumns;
+  }
+
+  // key columns followed by included columns, in the order the key holds
+  // their values
+  public int[] getColumns() {
+    int[] columns = new int[keyColumns.length + includeColumns.length];
+    System.arraycopy(keyColumns, 0, columns, 0, keyColumns.length);
+    System.arraycopy(includeColumns, 0, columns, keyColumns.length, includeColumns.length);
+    return columns;
+  }
+
+  // true if the key columns start with the given columns
+  public boolean hasKeyPrefix(int[] columns) {
+    if (columns.length > keyColumns.length) {
+      return false;
+    }
+    for (int i = 0; i < columns.length; i++) {
+      if (keyColumns[i] != columns[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // true if the index holds the value of every given column
+  public boolean covers(int[] columns) {
+    int[] held = getColumns();
+    for (int i = 0; i < columns.length; i++) {
+      boolean found = false;
+      for (int j = 0; j < held.length && !found; j++) {
+        found = held[j] == columns[i];
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // catalog record: the number of key columns, then every column
+  byte[] toBytes() throws IOException {
+    int[] columns = getColumns();
+    byte[] data = new byte[4 * (columns.length + 1)];
+    Convert.setIntValue(keyColumns.length, 0, data);
+    for (int i = 0; i < columns.length; i++) {
+      Convert.setIntValue(columns[i], 4 * (i + 1), data);
+    }
+    return data;
+  }
+
+  static CompositeIndex fromBytes(String relName, byte[] data) throws IOException {
+    int keys = Convert.getIntValue(0, data);
+    int[] keyColumns = new int[keys];
+    int[] includeColumns = new int[data.length / 4 - 1 - keys];
+    for (int i = 0; i < keys; i++) {
+      keyColumns[i] = Convert.getIntValue(4 * (i + 1), data);
+    }
+    for (int i = 0; i < includeColumns.length; i++) {
+      includeColumns[i] = Convert.getIntValue(4 * (keys + i + 1), data);
+    }
+    return new CompositeIndex(relName, keyColumns, includeColumns);
+  }
+
+  private static String join(int[] columns) {
+    String s = Integer.toString(columns[0]);
+    for (int i = 1; i < columns.length; i++) {
+      s += "_" + Integer.toString(columns[i]);
+    }
+    return s;
+  }
+}
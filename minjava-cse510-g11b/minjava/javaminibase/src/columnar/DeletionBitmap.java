@@ -0,0 +1,211 @@
+/*
+ * File - DeletionBitmap.java
+ *
+ * Description -
+ *		Per-table bitmap of logically deleted positions. It is kept
+ *		in the "name.deleted" heapfile as fixed size chunks of bits
+ *		and cached in memory so scans can check a position in O(1).
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import diskmgr.DB;
+import global.*;
+import heap.*;
+
+/*
+ * Layout of each record in "name.deleted"
+ *	 _______________________________________________
+ *	| chunk # (int) | CHUNK_BYTES of deletion bits	|
+ *	|_______________________________________________|
+ *
+ * Bit i of chunk c marks position (c * CHUNK_BITS + i) as deleted.
+ * Chunks are only written once a position in them is deleted, so a
+ * table without deletes has an empty ".deleted" file.
+ *
+ * Older builds appended a whole serialized TID per deleted tuple to the
+ * same file. Those records never have the chunk length, so they are
+ * folded into the bitmap the first time the file is opened and the file
+ * is rewritten in the chunk format.
+ */
+public class DeletionBitmap {
+
+  public static final int CHUNK_BYTES = 512;
+  public static final int CHUNK_BITS = CHUNK_BYTES * 8;
+  private static final int CHUNK_RECORD_SIZE = 4 + CHUNK_BYTES;
+
+  // one instance per open table, shared by every Columnarfile on it
+  private static HashMap<String, DeletionBitmap> cache = new HashMap<String, DeletionBitmap>();
+  // and only for the database they were loaded from
+  private static DB cacheDB;
+
+  private String _fileName;
+  private BitSet deleted = new BitSet();
+  // rid of the record holding each chunk, so updates rewrite in place
+  private HashMap<Integer, RID> chunkRids = new HashMap<Integer, RID>();
+
+  // get the cached bitmap for a table, loading it on first use
+  public static synchronized DeletionBitmap open(String relName)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (cacheDB != SystemDefs.JavabaseDB) {
+      // a table of the same name in a new database has its own bits
+      cache.clear();
+      cacheDB = SystemDefs.JavabaseDB;
+    }
+    DeletionBitmap bitmap = cache.get(relName);
+    if (bitmap == null) {
+      bitmap = new DeletionBitmap(relName + ".deleted");
+      cache.put(relName, bitmap);
+    }
+    return bitmap;
+  }
+
+  // forget the cached bitmap of a table (after its files are deleted)
+  public static synchronized void drop(String relName) {
+    cache.remove(relName);
+  }
+
+  private DeletionBitmap(String fileName)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    _fileName = fileName;
+    boolean hasLegacyRecords = false;
+    Heapfile hf = new Heapfile(_fileName);
+    Scan scan = hf.openScan();
+    try {
+      RID rid = new RID();
+      Tuple tuple = scan.getNext(rid);
+      while (tuple != null) {
+        byte[] data = tuple.getTupleByteArray();
+        if (data.length == CHUNK_RECORD_SIZE) {
+          int chunkNo = Convert.getIntValue(0, data);
+          for (int i = 0; i < CHUNK_BYTES; i++) {
+            int bits = data[4 + i] & 0xFF;
+            for (int b = 0; bits != 0; b++, bits >>>= 1) {
+              if ((bits & 1) != 0)
+                deleted.set(chunkNo * CHUNK_BITS + i * 8 + b);
+            }
+          }
+          chunkRids.put(chunkNo, new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+        } else {
+          // serialized TID from older builds, position follows numRIDs
+          deleted.set(Convert.getIntValue(4, data));
+          hasLegacyRecords = true;
+        }
+        tuple = scan.getNext(rid);
+      }
+    } finally {
+      scan.closescan();
+    }
+    if (hasLegacyRecords) {
+      rewrite();
+    }
+  }
+
+  // true if the tuple at this position has been marked deleted
+  public boolean isDeleted(int position) {
+    return position >= 0 && deleted.get(position);
+  }
+
+  // number of positions currently marked deleted
+  public int count() {
+    return deleted.cardinality();
+  }
+
+  // first deleted position at or after fromPosition, -1 if none
+  public int nextDeleted(int fromPosition) {
+    return deleted.nextSetBit(fromPosition);
+  }
+
+  // mark a position deleted and persist the chunk it falls in
+  public synchronized void markDeleted(int position)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (position < 0 || deleted.get(position))
+      return;
+    deleted.set(position);
+    writeChunk(new Heapfile(_fileName), position / CHUNK_BITS);
+  }
+
+  // unmark everything, used once deleted tuples are purged
+  public synchronized void clear()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    deleted.clear();
+    rewrite();
+  }
+
+  private void writeChunk(Heapfile hf, int chunkNo)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    byte[] data = new byte[CHUNK_RECORD_SIZE];
+    Convert.setIntValue(chunkNo, 0, data);
+    int start = chunkNo * CHUNK_BITS;
+    for (int pos = deleted.nextSetBit(start); pos >= 0 && pos < start + CHUNK_BITS; pos = deleted
+        .nextSetBit(pos + 1)) {
+      int bit = pos - start;
+      data[4 + bit / 8] |= (byte) (1 << (bit % 8));
+    }
+    RID rid = chunkRids.get(chunkNo);
+    if (rid == null) {
+      chunkRids.put(chunkNo, hf.insertRecord(data));
+    } else {
+      try {
+        hf.updateRecord(rid, new Tuple(data, 0, data.length));
+      } catch (Exception e) {
+        throw new HFException(e, "DeletionBitmap: chunk update failed");
+      }
+    }
+  }
+
+  // drop the file and write out every chunk that has a deleted bit
+  private void rewrite()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    Heapfile hf = new Heapfile(_fileName);
+    try {
+      hf.deleteFile();
+    } catch (Exception e) {
+      throw new HFException(e, "DeletionBitmap: could not reset " + _fileName);
+    }
+    hf = new Heapfile(_fileName);
+    chunkRids.clear();
+    for (int pos = deleted.nextSetBit(0); pos >= 0; pos = deleted.nextSetBit((pos / CHUNK_BITS + 1) * CHUNK_BITS)) {
+      writeChunk(hf, pos / CHUNK_BITS);
+    }
+  }
+}
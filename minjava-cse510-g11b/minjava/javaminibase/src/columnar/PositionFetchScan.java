@@ -0,0 +1,100 @@
+/*
+ * File - PositionFetchScan.java
+ *
+ * Description -
+ *		Second phase of a two phase index scan: given the set of
+ *		qualifying positions, read the tuples in position order with
+ *		one sequential scan per column. Every column page is pinned at
+ *		most once and pages holding no qualifying position are skipped
+ *		without being read.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import global.*;
+import heap.*;
+
+/*
+ * Usage
+ *
+ *	BitSet hits = new BitSet();
+ *	// set the position of every index entry that qualifies
+ *	PositionFetchScan fetch = cf.openPositionFetchScan(hits);
+ *	while ((t = fetch.getNext(tid)) != null)
+ *		...
+ *	fetch.closescan();
+ *
+ * Deleted positions are not returned even if they are in the set.
+ */
+public class PositionFetchScan {
+
+  private Columnarfile cf;
+  private BitSet positions;
+  private Scan scanArray[];
+  private DeletionBitmap deleted;
+  // position the column scans last returned
+  private int position = -1;
+
+  public PositionFetchScan(Columnarfile cf, BitSet positions)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    this.cf = cf;
+    this.positions = positions;
+    this.scanArray = new Scan[Columnarfile.numColumns];
+    for (int i = 0; i < Columnarfile.numColumns; i++) {
+      String fileName = cf.get_fileName() + "." + Integer.toString(i + 1);
+      scanArray[i] = new Heapfile(fileName).openScan();
+    }
+    try {
+      this.deleted = cf.getDeletionBitmap();
+    } catch (Exception e) {
+      throw new HFException(e, "PositionFetchScan: could not load deletion bitmap");
+    }
+  }
+
+  // true when hits on this many distinct data pages of the key column are
+  // better served by a plain scan: once they cover more than half of its
+  // pages, the fetch reads most pages of every column anyway, and reading
+  // the key column sequentially saves the rest of the index reads
+  public static boolean scanIsCheaper(int pagesHit, PositionMap map, int column) {
+    return pagesHit * 2 > map.getPageCount(column);
+  }
+
+  // Closes the PositionFetchScan object
+  public void closescan() {
+    for (int i = 0; i < scanArray.length; i++)
+      this.scanArray[i].closescan();
+  }
+
+  // Retrieve the tuple at the next position of the set, null at the end
+  public Tuple getNext(TID tid)
+      throws InvalidTupleSizeException,
+      IOException {
+    int next = positions.nextSetBit(position + 1);
+    while (next >= 0 && deleted.isDeleted(next))
+      next = positions.nextSetBit(next + 1);
+    if (next < 0)
+      return null;
+
+    RID[] rid = new RID[scanArray.length];
+    byte[][] colData = new byte[scanArray.length][];
+    int gap = next - position - 1;
+    for (int i = 0; i < scanArray.length; i++) {
+      if (gap > 0 && scanArray[i].skip(gap) < gap)
+        return null;
+      rid[i] = new RID();
+      Tuple t = scanArray[i].getNext(rid[i]);
+      if (t == null)
+        return null;
+      colData[i] = t.getTupleByteArray();
+    }
+    position = next;
+    tid.copyTid(new TID(scanArray.length, position, rid));
+    return cf.makeTuple(colData);
+  }
+}
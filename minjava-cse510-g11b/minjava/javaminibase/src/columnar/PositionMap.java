@@ -0,0 +1,131 @@
+/*
+ * File - PositionMap.java
+ *
+ * Description -
+ *		Snapshot of the data page directory of every column file, so a
+ *		tuple position can be turned into its column rids (and a rid
+ *		into its position) with a binary search in memory instead of a
+ *		directory walk per column per lookup.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import global.*;
+import heap.*;
+
+/*
+ * Usage
+ *
+ *	PositionMap map = cf.getPositionMap();
+ *	TID tid = map.getTid(position);
+ *	Tuple t = cf.getTuple(tid);
+ *
+ * The map describes the files at the time it was built. Tuples inserted
+ * later are not covered, and a compaction invalidates it.
+ */
+public class PositionMap {
+
+  private int numColumns;
+  // per column, over its non empty data pages in position order:
+  // the position of slot 0 and the page id
+  private int[][] basePosition;
+  private int[][] pageNo;
+  // per column, page id -> position of slot 0, built on first use
+  private List<HashMap<Integer, Integer>> pageBase;
+  private int tupleCount;
+
+  // numColumns is the column count of cf; the static
+  // Columnarfile.numColumns is that of the file opened last
+  PositionMap(Columnarfile cf, int numColumns)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      IOException {
+    this.numColumns = numColumns;
+    basePosition = new int[numColumns][];
+    pageNo = new int[numColumns][];
+    pageBase = new ArrayList<HashMap<Integer, Integer>>(numColumns);
+    for (int i = 0; i < numColumns; i++) {
+      pageBase.add(null);
+      Heapfile hf = new Heapfile(cf.get_fileName() + "." + Integer.toString(i + 1));
+      int[][] counts = hf.getDataPageCounts();
+      int pages = 0;
+      for (int p = 0; p < counts[0].length; p++) {
+        if (counts[1][p] > 0)
+          pages++;
+      }
+      basePosition[i] = new int[pages];
+      pageNo[i] = new int[pages];
+      int position = 0;
+      int next = 0;
+      for (int p = 0; p < counts[0].length; p++) {
+        if (counts[1][p] == 0)
+          continue;
+        basePosition[i][next] = position;
+        pageNo[i][next] = counts[0][p];
+        next++;
+        position += counts[1][p];
+      }
+      if (i == 0)
+        tupleCount = position;
+    }
+  }
+
+  // number of positions, deleted ones included, when the map was built
+  public int getTupleCount() {
+    return tupleCount;
+  }
+
+  // number of non empty data pages of a column (1-based)
+  public int getPageCount(int column) {
+    return pageNo[column - 1].length;
+  }
+
+  // rid of a column (1-based) value at a position, null if out of range
+  public RID getRid(int position, int column) {
+    if (position < 0 || position >= tupleCount)
+      return null;
+    int[] bases = basePosition[column - 1];
+    // last page whose first position is <= position
+    int lo = 0;
+    int hi = bases.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (bases[mid] <= position)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    // column files only ever append, so slots are dense from 0
+    return new RID(new PageId(pageNo[column - 1][lo]), position - bases[lo]);
+  }
+
+  // tid of the tuple at a position, null if out of range
+  public TID getTid(int position) {
+    if (position < 0 || position >= tupleCount)
+      return null;
+    RID[] recordIDs = new RID[numColumns];
+    for (int i = 0; i < numColumns; i++)
+      recordIDs[i] = getRid(position, i + 1);
+    return new TID(numColumns, position, recordIDs);
+  }
+
+  // position of a rid of a column (1-based), -1 if its page is unknown
+  public int getPosition(RID rid, int column) {
+    HashMap<Integer, Integer> bases = pageBase.get(column - 1);
+    if (bases == null) {
+      bases = new HashMap<Integer, Integer>();
+      for (int p = 0; p < pageNo[column - 1].length; p++)
+        bases.put(pageNo[column - 1][p], basePosition[column - 1][p]);
+      pageBase.set(column - 1, bases);
+    }
+    Integer base = bases.get(rid.pageNo.pid);
+    return base == null ? -1 : base.intValue() + rid.slotNo;
+  }
+}
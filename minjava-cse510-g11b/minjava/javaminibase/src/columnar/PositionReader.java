@@ -0,0 +1,87 @@
+/*
+ * File - PositionReader.java
+ *
+ * Description -
+ *		Random access to some columns of a columnar file by tuple
+ *		position, for operators that find their positions first (an
+ *		index probe, a join on one column) and only then read the
+ *		columns they output.
+ */
+package columnar;
+
+import java.io.IOException;
+
+import global.*;
+import heap.*;
+
+/*
+ * Usage
+ *
+ *	PositionReader reader = new PositionReader(cf, 3, new int[] { 1, 3 });
+ *	Tuple t = reader.read(position);
+ *	t.getIntFld(1); t.getStrFld(3);
+ *
+ * The tuple has every column of the file; the columns not asked for
+ * are left empty. Deleted positions are read like the others.
+ */
+public class PositionReader {
+
+  private Columnarfile cf;
+  private PositionMap map;
+  private int[] columns;
+  private Heapfile[] files;
+  private AttrType[] types;
+  private short[] strSizes;
+
+  // read the given columns (1-based) of cf, a file of numColumns columns
+  public PositionReader(Columnarfile cf, int numColumns, int[] columns)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      IOException {
+    this.cf = cf;
+    this.map = cf.getPositionMap(numColumns);
+    this.columns = columns;
+    this.types = cf.type;
+    this.strSizes = cf.strSizes;
+    this.files = new Heapfile[columns.length];
+    for (int i = 0; i < columns.length; i++)
+      files[i] = new Heapfile(cf.get_fileName() + "." + Integer.toString(columns[i]));
+  }
+
+  // the tuple at a position, trimmed to its length
+  public Tuple read(int position)
+      throws Exception {
+    Tuple t = new Tuple();
+    t.setHdr((short) types.length, types, strSizes);
+    for (int i = 0; i < columns.length; i++) {
+      int column = columns[i];
+      RID rid = map.getRid(position, column);
+      // a tuple inserted after the reader was opened
+      if (rid == null)
+        rid = cf.getRidFromPosition(position, column);
+      byte[] data = files[i].getRecord(rid).getTupleByteArray();
+      switch (types[column - 1].attrType) {
+        case AttrType.attrInteger:
+          t.setIntFld(column, Convert.getIntValue(0, data));
+          break;
+        case AttrType.attrReal:
+          t.setFloFld(column, Convert.getFloValue(0, data));
+          break;
+        default:
+          t.setStrFld(column, Convert.getStrValue(0, data, data.length));
+      }
+    }
+    return new Tuple(t);
+  }
+
+  // the position of a rid of a column (1-based)
+  public int getPosition(RID rid, int column)
+      throws Exception {
+    int position = map.getPosition(rid, column);
+    // a page added after the reader was opened
+    return position >= 0 ? position : cf.getPositionFromRid(rid, column);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * File - PositionRemap.java
+ *
+ * Description -
+ *		Old -> new position map produced by ColumnarCompactor, plus the
+ *		rids each column was rewritten to, so index files can be remapped
+ *		without reading the column files again.
+ */
+package columnar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import global.*;
+
+public class PositionRemap {
+
+  public static final int DROPPED = -1;
+
+  private int numColumns;
+  // old position -> new position (DROPPED for purged tuples)
+  private int[] newPosition = new int[64];
+  private int oldCount = 0;
+  // new rid of every column, indexed [column - 1][new position]
+  private int[][] newPage;
+  private int[][] newSlot;
+  private int newCount = 0;
+  // old rid -> old position, only kept for columns that carry an index
+  private List<HashMap<Long, Integer>> oldRidPosition;
+
+  PositionRemap(int numColumns, boolean[] trackOldRids) {
+    this.numColumns = numColumns;
+    newPage = new int[numColumns][64];
+    newSlot = new int[numColumns][64];
+    oldRidPosition = new ArrayList<HashMap<Long, Integer>>(numColumns);
+    for (int i = 0; i < numColumns; i++) {
+      oldRidPosition.add(trackOldRids[i] ? new HashMap<Long, Integer>() : null);
+    }
+  }
+
+  // record where old position oldPos went; newRids is null if it was dropped
+  void add(int oldPos, RID[] oldRids, RID[] newRids) {
+    if (oldPos >= newPosition.length)
+      newPosition = grow(newPosition, oldPos + 1);
+    for (int i = oldCount; i < oldPos; i++)
+      newPosition[i] = DROPPED;
+    oldCount = oldPos + 1;
+    for (int i = 0; i < numColumns; i++) {
+      if (oldRidPosition.get(i) != null)
+        oldRidPosition.get(i).put(ridKey(oldRids[i]), oldPos);
+    }
+    if (newRids == null) {
+      newPosition[oldPos] = DROPPED;
+      return;
+    }
+    newPosition[oldPos] = newCount;
+    if (newCount >= newPage[0].length) {
+      for (int i = 0; i < numColumns; i++) {
+        newPage[i] = grow(newPage[i], newCount + 1);
+        newSlot[i] = grow(newSlot[i], newCount + 1);
+      }
+    }
+    for (int i = 0; i < numColumns; i++) {
+      newPage[i][newCount] = newRids[i].pageNo.pid;
+      newSlot[i][newCount] = newRids[i].slotNo;
+    }
+    newCount++;
+  }
+
+  // number of old positions seen so far
+  public int oldTupleCount() {
+    return oldCount;
+  }
+
+  // number of tuples in the compacted file
+  public int newTupleCount() {
+    return newCount;
+  }
+
+  // new position of an old one, DROPPED if the tuple was purged
+  public int getNewPosition(int oldPos) {
+    if (oldPos < 0 || oldPos >= oldCount)
+      return DROPPED;
+    return newPosition[oldPos];
+  }
+
+  // old position of a rid in the given column (1-based), DROPPED if unknown
+  public int getOldPosition(int column, RID oldRid) {
+    HashMap<Long, Integer> map = oldRidPosition.get(column - 1);
+    if (map == null)
+      return DROPPED;
+    Integer pos = map.get(ridKey(oldRid));
+    return pos == null ? DROPPED : pos.intValue();
+  }
+
+  // rid a column (1-based) value was moved to, null if the tuple was purged
+  public RID getNewRid(int column, RID oldRid) {
+    return getNewRidAt(column, getNewPosition(getOldPosition(column, oldRid)));
+  }
+
+  // rid of a column (1-based) at a new position
+  public RID getNewRidAt(int column, int newPos) {
+    if (newPos == DROPPED)
+      return null;
+    return new RID(new PageId(newPage[column - 1][newPos]), newSlot[column - 1][newPos]);
+  }
+
+  // tid of a tuple after compaction, null if the tuple was purged
+  public TID getNewTid(TID oldTid) {
+    int newPos = getNewPosition(oldTid.position);
+    if (newPos == DROPPED)
+      return null;
+    RID[] rids = new RID[numColumns];
+    for (int i = 0; i < numColumns; i++)
+      rids[i] = getNewRidAt(i + 1, newPos);
+    return new TID(numColumns, newPos, rids);
+  }
+
+  private static long ridKey(RID rid) {
+    return (((long) rid.pageNo.pid) << 32) | (rid.slotNo & 0xFFFFFFFFL);
+  }
+
+  private static int[] grow(int[] array, int minLength) {
+    int[] bigger = new int[Math.max(minLength, array.length * 2)];
+    System.arraycopy(array, 0, bigger, 0, array.length);
+    return bigger;
+  }
+}
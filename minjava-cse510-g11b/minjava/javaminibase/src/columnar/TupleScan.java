@@ -19,12 +19,18 @@ import heap.Heapfile;
 import heap.InvalidTupleSizeException;
 import heap.Scan;
 import heap.Tuple;
+import iterator.CondExpr;
 
 public class TupleScan {
 
   private Columnarfile cf;
   private int position = -1;
   private Scan scanArray[];
+  private DeletionBitmap deleted;
+  // column scan (0-based) whose pages the zone map prunes, -1 if none
+  private int pruned = -1;
+  // records of pruned pages the other columns have already skipped
+  private int prunedConsumed = 0;
 
   // Constructor Summary
   public TupleScan(Columnarfile cf)
@@ -34,12 +40,37 @@ public class TupleScan {
       IOException,
       InvalidTupleSizeException,
       IOException {
+    this(cf, null);
+  }
+
+  // Scan that skips the pages of one column whose zone cannot satisfy expr.
+  // expr is only used for pruning; the caller still evaluates it.
+  public TupleScan(Columnarfile cf, CondExpr[] expr)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      IOException,
+      InvalidTupleSizeException,
+      IOException {
     this.scanArray = new Scan[Columnarfile.numColumns];
     this.cf = cf;
+    ZoneFilter filter;
+    try {
+      filter = ZoneFilter.forScan(cf, expr);
+    } catch (Exception e) {
+      throw new HFException(e, "TupleScan: could not load zone map");
+    }
+    if (filter != null)
+      this.pruned = filter.getColumn() - 1;
     for (int i = 0; i < Columnarfile.numColumns; i++) {
       String fileName = cf.get_fileName() + "." + Integer.toString(i + 1);
       Heapfile hf = new Heapfile(fileName);
-      scanArray[i] = hf.openScan();
+      scanArray[i] = (i == pruned) ? hf.openScan(filter) : hf.openScan();
+    }
+    try {
+      this.deleted = cf.getDeletionBitmap();
+    } catch (Exception e) {
+      throw new HFException(e, "TupleScan: could not load deletion bitmap");
     }
   }
 
@@ -49,17 +80,34 @@ public class TupleScan {
       this.scanArray[i].closescan();
   }
 
-  // Retrieve the next tuple in a sequential scan
+  // Retrieve the next tuple in a sequential scan, skipping deleted positions
   public Tuple getNext(TID tid)
       throws InvalidTupleSizeException,
       IOException,
       Exception {
-    this.position++;
     RID[] rid = new RID[Columnarfile.numColumns];
-    for (int i = 0; i < Columnarfile.numColumns; i++) {
-      rid[i] = new RID();
-      this.scanArray[i].getNext(rid[i]);
-    }
+    do {
+      this.position++;
+      if (pruned >= 0) {
+        rid[pruned] = new RID();
+        if (this.scanArray[pruned].getNext(rid[pruned]) == null)
+          return null;
+        // keep the other columns on the same position as the pruned one
+        int skipped = this.scanArray[pruned].getSkippedCount() - prunedConsumed;
+        prunedConsumed += skipped;
+        this.position += skipped;
+        for (int i = 0; i < Columnarfile.numColumns; i++) {
+          if (i != pruned && skipped > 0)
+            this.scanArray[i].skip(skipped);
+        }
+      }
+      for (int i = 0; i < Columnarfile.numColumns; i++) {
+        if (i == pruned)
+          continue;
+        rid[i] = new RID();
+        this.scanArray[i].getNext(rid[i]);
+      }
+    } while (this.deleted.isDeleted(this.position));
     tid.copyTid(new TID(Columnarfile.numColumns, this.position, rid));
     if (this.cf.getTupleCnt() > this.position)
       return this.cf.getTuple(tid);
@@ -79,6 +127,8 @@ public class TupleScan {
         isPositionChanged = false;
       }
     }
+    if (pruned >= 0)
+      prunedConsumed = this.scanArray[pruned].getSkippedCount();
     return isPositionChanged;
   }
 }
@@ -0,0 +1,238 @@
+/*
+ * File - ZoneFilter.java
+ *
+ * Description -
+ *		Turns the parts of a selection that compare one column with a
+ *		constant into a DataPageFilter over that column's ZoneMap, so
+ *		heap scans of the column file skip pages that cannot qualify.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import global.*;
+import heap.*;
+import iterator.CondExpr;
+import iterator.Operand;
+import iterator.RelSpec;
+
+/*
+ * The CondExpr array is a conjunction of OR-lists. A page can be skipped
+ * when one OR-list is false for every value in [min, max] of the page.
+ * If the column has a BloomFilter, an equality term is also false on a
+ * page whose filter does not hold the constant.
+ * Only OR-lists whose every term is "column op constant" on the same
+ * column (or "constant op column") take part; anything else is left to
+ * the normal predicate evaluation and never prunes a page.
+ */
+public class ZoneFilter implements DataPageFilter {
+
+  private int column;
+  private ZoneMap zoneMap;
+  // null unless a Bloom filter was created for the column
+  private BloomFilter bloomFilter;
+  // operators and constants of each usable OR-list, column on the left
+  private ArrayList<int[]> ops = new ArrayList<int[]>();
+  private ArrayList<byte[][]> constants = new ArrayList<byte[][]>();
+
+  private ZoneFilter(int column, ZoneMap zoneMap, BloomFilter bloomFilter) {
+    this.column = column;
+    this.zoneMap = zoneMap;
+    this.bloomFilter = bloomFilter;
+  }
+
+  /*
+   * Filter for a scan over whole tuples: prunes on the first column that
+   * has a usable OR-list. Returns null if nothing in expr can prune.
+   */
+  public static ZoneFilter forScan(Columnarfile cf, CondExpr[] expr)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (expr == null)
+      return null;
+    for (int i = 0; expr[i] != null; i++) {
+      int column = columnOf(cf, expr[i]);
+      if (column > 0)
+        return forColumn(cf, column, expr);
+    }
+    return null;
+  }
+
+  /*
+   * Filter for a scan of one column (1-based) using the OR-lists of expr
+   * on that column. Returns null if none of them can prune.
+   */
+  public static ZoneFilter forColumn(Columnarfile cf, int column, CondExpr[] expr)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (expr == null)
+      return null;
+    ZoneFilter filter = null;
+    for (int i = 0; expr[i] != null; i++) {
+      if (columnOf(cf, expr[i]) != column)
+        continue;
+      if (filter == null)
+        filter = new ZoneFilter(column, ZoneMap.open(cf, column), BloomFilter.open(cf, column));
+      filter.addDisjunction(expr[i]);
+    }
+    return filter;
+  }
+
+  // the column this filter prunes on (1-based)
+  public int getColumn() {
+    return column;
+  }
+
+  public boolean canSkip(PageId pageId, int recordCount) {
+    byte[] min = zoneMap.getMin(pageId);
+    byte[] max = zoneMap.getMax(pageId);
+    if ((min == null || max == null) && bloomFilter == null)
+      return false;
+    try {
+      for (int i = 0; i < ops.size(); i++) {
+        if (excludes(ops.get(i), constants.get(i), pageId, min, max))
+          return true;
+      }
+    } catch (IOException e) {
+      // an unreadable bound never prunes, the page is simply read
+    }
+    return false;
+  }
+
+  // true if every term of the OR-list is false on the whole page
+  private boolean excludes(int[] op, byte[][] constant, PageId pageId, byte[] min, byte[] max)
+      throws IOException {
+    for (int t = 0; t < op.length; t++) {
+      if (op[t] == AttrOperator.aopEQ && bloomFilter != null && !bloomFilter.mightContain(pageId, constant[t]))
+        continue;
+      if (min == null || max == null)
+        return false;
+      int cmpMin = zoneMap.compare(min, constant[t]);
+      int cmpMax = zoneMap.compare(max, constant[t]);
+      boolean excluded;
+      switch (op[t]) {
+        case AttrOperator.aopEQ:
+          excluded = cmpMin > 0 || cmpMax < 0;
+          break;
+        case AttrOperator.aopLT:
+          excluded = cmpMin >= 0;
+          break;
+        case AttrOperator.aopLE:
+          excluded = cmpMin > 0;
+          break;
+        case AttrOperator.aopGT:
+          excluded = cmpMax <= 0;
+          break;
+        case AttrOperator.aopGE:
+          excluded = cmpMax < 0;
+          break;
+        case AttrOperator.aopNE:
+        case AttrOperator.aopNOT:
+          excluded = cmpMin == 0 && cmpMax == 0;
+          break;
+        default:
+          excluded = false;
+      }
+      if (!excluded)
+        return false;
+    }
+    return true;
+  }
+
+  private void addDisjunction(CondExpr disjunction)
+      throws IOException {
+    int count = 0;
+    for (CondExpr e = disjunction; e != null; e = e.next)
+      count++;
+    int[] op = new int[count];
+    byte[][] constant = new byte[count][];
+    int t = 0;
+    for (CondExpr e = disjunction; e != null; e = e.next, t++) {
+      boolean columnFirst = e.type1.attrType == AttrType.attrSymbol;
+      op[t] = columnFirst ? e.op.attrOperator : mirror(e.op.attrOperator);
+      constant[t] = columnFirst ? encode(e.type2.attrType, e.operand2) : encode(e.type1.attrType, e.operand1);
+    }
+    ops.add(op);
+    constants.add(constant);
+  }
+
+  /*
+   * Column (1-based) an OR-list compares with constants, or -1 if it
+   * mixes columns, compares two columns or uses an unsupported operator.
+   */
+  private static int columnOf(Columnarfile cf, CondExpr disjunction) {
+    int column = -1;
+    for (CondExpr e = disjunction; e != null; e = e.next) {
+      int termColumn;
+      int constantType;
+      if (e.type1.attrType == AttrType.attrSymbol && e.type2.attrType != AttrType.attrSymbol) {
+        if (e.operand1.symbol.relation.key != RelSpec.outer)
+          return -1;
+        termColumn = e.operand1.symbol.offset;
+        constantType = e.type2.attrType;
+      } else if (e.type2.attrType == AttrType.attrSymbol && e.type1.attrType != AttrType.attrSymbol) {
+        if (e.operand2.symbol.relation.key != RelSpec.outer)
+          return -1;
+        termColumn = e.operand2.symbol.offset;
+        constantType = e.type1.attrType;
+      } else {
+        return -1;
+      }
+      if (termColumn < 1 || termColumn > cf.type.length || cf.type[termColumn - 1].attrType != constantType)
+        return -1;
+      if (e.op.attrOperator > AttrOperator.aopNOT)
+        return -1;
+      if (column != -1 && column != termColumn)
+        return -1;
+      column = termColumn;
+    }
+    return column;
+  }
+
+  // operator with its operands swapped: c < col is col > c
+  private static int mirror(int op) {
+    switch (op) {
+      case AttrOperator.aopLT:
+        return AttrOperator.aopGT;
+      case AttrOperator.aopGT:
+        return AttrOperator.aopLT;
+      case AttrOperator.aopLE:
+        return AttrOperator.aopGE;
+      case AttrOperator.aopGE:
+        return AttrOperator.aopLE;
+      default:
+        return op;
+    }
+  }
+
+  // constant in the format the column file stores values in
+  private static byte[] encode(int attrType, Operand operand)
+      throws IOException {
+    byte[] data;
+    switch (attrType) {
+      case AttrType.attrInteger:
+        data = new byte[4];
+        Convert.setIntValue(operand.integer, 0, data);
+        return data;
+      case AttrType.attrReal:
+        data = new byte[4];
+        Convert.setFloValue(operand.real, 0, data);
+        return data;
+      default:
+        data = new byte[3 * operand.string.length() + 2];
+        Convert.setStrValue(operand.string, 0, data);
+        return data;
+    }
+  }
+}
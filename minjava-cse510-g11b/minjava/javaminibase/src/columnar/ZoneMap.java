@@ -0,0 +1,281 @@
+/*
+ * File - ZoneMap.java
+ *
+ * Description -
+ *		Per data page min/max summary of one column file. It is kept
+ *		in the "name.zone<column>" heapfile, cached in memory and
+ *		widened on every insert so scans can skip pages whose value
+ *		range cannot satisfy a predicate.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import diskmgr.DB;
+import global.*;
+import heap.*;
+
+/*
+ * Layout of each record in "name.zone<column>"
+ *	 _______________________________________________________________
+ *	| page # (int) | min len (short) | max len (short) | min | max	|
+ *	|_______________________________________________________________|
+ *
+ * min and max are stored exactly as the column file stores a value.
+ * Ranges only ever grow: deleting or updating a value leaves the old
+ * bounds in place, which is safe since a range that is too wide only
+ * costs a page read. The engine has no null values, so no null count
+ * is kept.
+ */
+public class ZoneMap {
+
+  private static final int HEADER_SIZE = 4 + 2 + 2;
+
+  // one instance per open column file
+  private static HashMap<String, ZoneMap> cache = new HashMap<String, ZoneMap>();
+  // the database the cached zone maps were read from
+  private static DB cacheDB;
+
+  private String _fileName;
+  private int attrType;
+  private HashMap<Integer, Zone> zones = new HashMap<Integer, Zone>();
+
+  private static class Zone {
+    byte[] min;
+    byte[] max;
+    // record holding this zone, null until it is written
+    RID rid;
+    int recordLength;
+  }
+
+  // get the cached zone map of a column (1-based), building it on first use
+  public static synchronized ZoneMap open(Columnarfile cf, int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (cacheDB != SystemDefs.JavabaseDB) {
+      // SystemDefs opened another database, which may reuse the names
+      cache.clear();
+      cacheDB = SystemDefs.JavabaseDB;
+    }
+    String fileName = fileName(cf.get_fileName(), column);
+    ZoneMap zoneMap = cache.get(fileName);
+    if (zoneMap == null) {
+      zoneMap = new ZoneMap(fileName, cf, column);
+      cache.put(fileName, zoneMap);
+    }
+    return zoneMap;
+  }
+
+  // delete the zone files of a table; they are rebuilt from the column files on next use
+  public static synchronized void drop(String relName, int numColumns) {
+    for (int i = 1; i <= numColumns; i++) {
+      String fileName = fileName(relName, i);
+      cache.remove(fileName);
+      try {
+        if (SystemDefs.JavabaseDB.get_file_entry(fileName) != null)
+          new Heapfile(fileName).deleteFile();
+      } catch (Exception e) {
+        System.err.println("FileName :" + fileName + " ZoneMap.drop: " + e);
+      }
+    }
+  }
+
+  private static String fileName(String relName, int column) {
+    return relName + ".zone" + Integer.toString(column);
+  }
+
+  private ZoneMap(String fileName, Columnarfile cf, int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    _fileName = fileName;
+    attrType = cf.type[column - 1].attrType;
+    boolean exists;
+    try {
+      exists = SystemDefs.JavabaseDB.get_file_entry(_fileName) != null;
+    } catch (Exception e) {
+      throw new HFDiskMgrException(e, "ZoneMap: get_file_entry failed");
+    }
+    if (exists) {
+      load();
+    } else {
+      build(cf, column);
+    }
+  }
+
+  // read every zone record of an existing zone file
+  private void load()
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException {
+    Scan scan = new Heapfile(_fileName).openScan();
+    try {
+      RID rid = new RID();
+      Tuple tuple = scan.getNext(rid);
+      while (tuple != null) {
+        byte[] data = tuple.getTupleByteArray();
+        Zone zone = new Zone();
+        int pageNo = Convert.getIntValue(0, data);
+        zone.min = new byte[Convert.getShortValue(4, data)];
+        zone.max = new byte[Convert.getShortValue(6, data)];
+        System.arraycopy(data, HEADER_SIZE, zone.min, 0, zone.min.length);
+        System.arraycopy(data, HEADER_SIZE + zone.min.length, zone.max, 0, zone.max.length);
+        zone.rid = new RID(new PageId(rid.pageNo.pid), rid.slotNo);
+        zone.recordLength = data.length;
+        zones.put(pageNo, zone);
+        tuple = scan.getNext(rid);
+      }
+    } finally {
+      scan.closescan();
+    }
+  }
+
+  // summarize a column file that has no zone file yet
+  private void build(Columnarfile cf, int column)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    Scan scan = cf.openColumnScan(column);
+    try {
+      RID rid = new RID();
+      Tuple tuple = scan.getNext(rid);
+      while (tuple != null) {
+        include(rid.pageNo.pid, tuple.getTupleByteArray());
+        tuple = scan.getNext(rid);
+      }
+    } finally {
+      scan.closescan();
+    }
+    Heapfile hf = new Heapfile(_fileName);
+    for (Integer pageNo : new ArrayList<Integer>(zones.keySet())) {
+      write(hf, pageNo, zones.get(pageNo));
+    }
+  }
+
+  // widen the zone of a data page to cover a value just stored on it
+  public synchronized void widen(PageId pageId, byte[] value)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    if (include(pageId.pid, value)) {
+      write(new Heapfile(_fileName), pageId.pid, zones.get(pageId.pid));
+    }
+  }
+
+  // smallest value stored on a data page, null if the page is unknown
+  public byte[] getMin(PageId pageId) {
+    Zone zone = zones.get(pageId.pid);
+    return zone == null ? null : zone.min;
+  }
+
+  // largest value stored on a data page, null if the page is unknown
+  public byte[] getMax(PageId pageId) {
+    Zone zone = zones.get(pageId.pid);
+    return zone == null ? null : zone.max;
+  }
+
+  // attribute type of the summarized column
+  public int getAttrType() {
+    return attrType;
+  }
+
+  // number of data pages with a zone
+  public int getZoneCount() {
+    return zones.size();
+  }
+
+  /*
+   * Compare two values in column file format.
+   * Returns <0, 0 or >0 as a is less than, equal to or greater than b.
+   */
+  public int compare(byte[] a, byte[] b)
+      throws IOException {
+    switch (attrType) {
+      case AttrType.attrInteger:
+        return Integer.compare(Convert.getIntValue(0, a), Convert.getIntValue(0, b));
+      case AttrType.attrReal:
+        // same as predicate evaluation, so -0.0 and 0.0 stay equal
+        float fa = Convert.getFloValue(0, a);
+        float fb = Convert.getFloValue(0, b);
+        return fa < fb ? -1 : (fa > fb ? 1 : 0);
+      case AttrType.attrString:
+        return Convert.getStrValue(0, a, a.length).compareTo(Convert.getStrValue(0, b, b.length));
+      default:
+        throw new IOException("ZoneMap: unsupported attribute type " + attrType);
+    }
+  }
+
+  // extend the in-memory zone, true if it changed
+  private boolean include(int pageNo, byte[] value)
+      throws IOException {
+    Zone zone = zones.get(pageNo);
+    if (zone == null) {
+      zone = new Zone();
+      zone.min = value.clone();
+      zone.max = value.clone();
+      zones.put(pageNo, zone);
+      return true;
+    }
+    boolean changed = false;
+    if (compare(value, zone.min) < 0) {
+      zone.min = value.clone();
+      changed = true;
+    }
+    if (compare(value, zone.max) > 0) {
+      zone.max = value.clone();
+      changed = true;
+    }
+    return changed;
+  }
+
+  private void write(Heapfile hf, int pageNo, Zone zone)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      InvalidSlotNumberException,
+      SpaceNotAvailableException,
+      IOException {
+    byte[] data = new byte[HEADER_SIZE + zone.min.length + zone.max.length];
+    Convert.setIntValue(pageNo, 0, data);
+    Convert.setShortValue((short) zone.min.length, 4, data);
+    Convert.setShortValue((short) zone.max.length, 6, data);
+    System.arraycopy(zone.min, 0, data, HEADER_SIZE, zone.min.length);
+    System.arraycopy(zone.max, 0, data, HEADER_SIZE + zone.min.length, zone.max.length);
+    if (zone.rid != null) {
+      try {
+        if (zone.recordLength == data.length) {
+          hf.updateRecord(zone.rid, new Tuple(data, 0, data.length));
+          return;
+        }
+        // a string bound changed length, the record has to move
+        hf.deleteRecord(zone.rid);
+      } catch (Exception e) {
+        throw new HFException(e, "ZoneMap: zone update failed");
+      }
+    }
+    zone.rid = hf.insertRecord(data);
+    zone.recordLength = data.length;
+  }
+}
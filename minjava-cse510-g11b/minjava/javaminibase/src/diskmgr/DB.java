@@ -144,17 +144,21 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-    
-    // Read the appropriate number of bytes.
-    byte [] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
-    try{
-      fp.read(buffer);
+    // the buffer manager's prefetcher reads outside the buffer manager,
+    // so a seek and its transfer must not interleave with another's
+    synchronized (this) {
+      // Seek to the correct page
+      fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+      
+      // Read the appropriate number of bytes.
+      byte [] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
+      try{
+	fp.read(buffer);
 	PCounter.readIncrement();
-    }
-    catch (IOException e) {
-      throw new FileIOException(e, "DB file I/O error");
+      }
+      catch (IOException e) {
+	throw new FileIOException(e, "DB file I/O error");
+      }
     }
     
   }
@@ -176,16 +180,18 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-    
-    // Write the appropriate number of bytes.
-    try{
-      fp.write(apage.getpage());
+    synchronized (this) {
+      // Seek to the correct page
+      fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+      
+      // Write the appropriate number of bytes.
+      try{
+	fp.write(apage.getpage());
 	PCounter.writeIncrement();
-    }
-    catch (IOException e) {
-      throw new FileIOException(e, "DB file I/O error");
+      }
+      catch (IOException e) {
+	throw new FileIOException(e, "DB file I/O error");
+      }
     }
     
   }
@@ -235,6 +241,21 @@ public class DB implements GlobalConst {
 
     if(runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
+    // the buffer manager allocates under its monitor, but the directory
+    // code here does not, so take it too: a search of the space map and
+    // the setting of its bits must not interleave with another thread's
+    synchronized (SystemDefs.JavabaseBM) {
+      allocate_run(start_page_num, runsize);
+    }
+  }
+  
+  private void allocate_run(PageId start_page_num, int runsize)
+    throws OutOfSpaceException, 
+	   InvalidPageNumberException, 
+	   FileIOException, 
+	   DiskMgrException,
+           IOException {
+
     int run_size = runsize;
     int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
     int current_run_start = 0; 
@@ -331,7 +352,9 @@ public class DB implements GlobalConst {
 
     if(run_size < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
-    set_bits(start_page_num, run_size, 0);
+    synchronized (SystemDefs.JavabaseBM) {
+      set_bits(start_page_num, run_size, 0);
+    }
   }
   
   /** Deallocate a set of pages starting at the specified page number
@@ -354,7 +377,7 @@ public class DB implements GlobalConst {
 	   FileIOException,
 	   DiskMgrException {
 
-    set_bits(start_page_num, 1, 0);
+    deallocate_page(start_page_num, 1);
   }
   
   /** Adds a file entry to the header page(s).
@@ -952,6 +975,8 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     throws IOException {
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
     Convert.setIntValue (empty, position, data);
+    // the page may hold stale bytes, and lookups read the name of every entry
+    Convert.setStrValue ("", position +4, data);
   } 
   
   /**
@@ -0,0 +1,54 @@
+package global;
+
+/**
+ * Enumeration class for AggType, the aggregate functions of a GROUP BY
+ *
+ */
+
+public class AggType {
+
+  public static final int aggCount = 0;
+  public static final int aggSum   = 1;
+  public static final int aggMin   = 2;
+  public static final int aggMax   = 3;
+  public static final int aggAvg   = 4;
+
+  public int aggType;
+
+  /**
+   * AggType Constructor
+   * <br>
+   * An aggregate function can be defined as
+   * <ul>
+   * <li>   AggType aggType = new AggType(AggType.aggSum);
+   * </ul>
+   * and subsequently used as
+   * <ul>
+   * <li>   if (aggType.aggType == AggType.aggSum) ....
+   * </ul>
+   *
+   * @param _aggType The aggregate function
+   */
+
+  public AggType (int _aggType) {
+    aggType = _aggType;
+  }
+
+  public String toString() {
+
+    switch (aggType) {
+    case aggCount:
+      return "COUNT";
+    case aggSum:
+      return "SUM";
+    case aggMin:
+      return "MIN";
+    case aggMax:
+      return "MAX";
+    case aggAvg:
+      return "AVG";
+    }
+    return ("Unexpected AggType " + aggType);
+  }
+
+}
@@ -12,6 +12,8 @@ public class AttrType {
   public static final int attrReal    = 2;
   public static final int attrSymbol  = 3;
   public static final int attrNull    = 4;
+  // key type of multi-column B-tree indexes, never the type of a field
+  public static final int attrComposite = 5;
   
   public int attrType;
 
@@ -47,6 +49,8 @@ public class AttrType {
       return "attrSymbol";
     case attrNull:
       return "attrNull";
+    case attrComposite:
+      return "attrComposite";
     }
     return ("Unexpected AttrType " + attrType);
   }
@@ -5,14 +5,19 @@ import java.io.IOException;
 
 public class FloatValueClass extends ValueClass
 {
-	public int valueType = AttrType.attrInteger;
 	public float classValue = -1;
-	public int valueLength = 1; //shouldn't be used in this implementation
 	
-	public FloatValueClass() {}
+	//the type is kept in the ValueClass fields so getType() reports
+	//attrReal and bitmaps over float columns get float maps
+	public FloatValueClass()
+	{
+		valueType = AttrType.attrReal;
+		valueLength = 1; //shouldn't be used in this implementation
+	}
 	
 	public FloatValueClass( float value )
 	{
+		this();
 		classValue = value;
 	}
 	
@@ -12,6 +12,7 @@ public class IndexType {
   public static final int Hash    = 2;
   public static final int Bitmap  = 3;
   public static final int CBitmap = 4; 
+  public static final int B_Position = 5;
 
   public int indexType;
 
@@ -45,6 +46,10 @@ public class IndexType {
       return "Hash";
     case Bitmap:
       return "Bitmap";
+    case CBitmap:
+      return "CBitmap";
+    case B_Position:
+      return "B_Position";
     }
     return ("Unexpected IndexType " + indexType);
   }
@@ -43,6 +43,9 @@ public class SystemDefs {
                   int bufpoolsize, String replacement_policy) {
 
             boolean status = true;
+            if (JavabaseBM != null) {
+                  JavabaseBM.shutdown();
+            }
             JavabaseBM = null;
             JavabaseDB = null;
             JavabaseDBName = null;
@@ -0,0 +1,86 @@
+package hash;
+
+import java.io.*;
+import diskmgr.*;
+import global.*;
+import heap.*;
+import btree.*;
+
+/**
+ * A page of a hash bucket: the primary page the directory points
+ * to, or an overflow page chained to it by the next page link.
+ * Each record is an entry, the key as the column file stores it
+ * followed by the page number and slot number of the rid.
+ */
+class HashBucketPage extends HFPage {
+
+  /** the bytes of an entry
+   *@param key an int, real or string key
+   *@param rid the rid of the entry
+   *@exception KeyNotMatchException the key is not int, real or string
+   *@exception IOException error from the lower layer
+   */
+  static byte[] getBytesFromEntry(KeyClass key, RID rid)
+    throws KeyNotMatchException, IOException
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      if (key instanceof IntegerKey)
+	out.writeInt(((IntegerKey) key).getKey().intValue());
+      else if (key instanceof RealKey)
+	out.writeFloat(((RealKey) key).getKey().floatValue());
+      else if (key instanceof StringKey)
+	out.writeUTF(((StringKey) key).getKey());
+      else
+	throw new KeyNotMatchException(null, "hash keys are int, real or string");
+      out.writeInt(rid.pageNo.pid);
+      out.writeInt(rid.slotNo);
+      return bytes.toByteArray();
+    }
+
+  /** the key of an entry
+   *@param from the bytes holding the entry
+   *@param offset where the entry starts in from
+   *@param length the number of bytes of the entry
+   *@param keyType the type of the key, see AttrType
+   */
+  static KeyClass getKey(byte[] from, int offset, int length, int keyType)
+    throws KeyNotMatchException, IOException
+    {
+      switch (keyType) {
+      case AttrType.attrInteger:
+	return new IntegerKey(new Integer(Convert.getIntValue(offset, from)));
+      case AttrType.attrReal:
+	return new RealKey(new Float(Convert.getFloValue(offset, from)));
+      case AttrType.attrString:
+	return new StringKey(Convert.getStrValue(offset, from, length - 8));
+      default:
+	throw new KeyNotMatchException(null, "hash keys are int, real or string");
+      }
+    }
+
+  /** the entry in a slot of the page
+   */
+  KeyDataEntry getEntry(RID rid, int keyType)
+    throws KeyNotMatchException, IOException
+    {
+      byte[] page = getHFpageArray();
+      int offset = getSlotOffset(rid.slotNo);
+      int length = getSlotLength(rid.slotNo);
+      RID data = new RID(new PageId(Convert.getIntValue(offset + length - 8, page)),
+			 Convert.getIntValue(offset + length - 4, page));
+      return new KeyDataEntry(getKey(page, offset, length, keyType), data);
+    }
+
+  /** point the entry in a slot of the page at another rid, in place:
+   * the rid takes the same bytes whatever its value
+   */
+  void setRid(RID rid, RID data)
+    throws IOException
+    {
+      byte[] page = getHFpageArray();
+      int end = getSlotOffset(rid.slotNo) + getSlotLength(rid.slotNo);
+      Convert.setIntValue(data.pageNo.pid, end - 8, page);
+      Convert.setIntValue(data.slotNo, end - 4, page);
+    }
+}
@@ -0,0 +1,641 @@
+package hash;
+
+import java.io.*;
+import java.util.ArrayList;
+import diskmgr.*;
+import bufmgr.*;
+import global.*;
+import heap.*;
+import btree.*;
+
+/**
+ * A linear hash index on disk: entries of an int, real or string
+ * key and a rid, found by equality on the key.
+ * <p>
+ * The file is a header page (HashHeaderPage), directory pages with
+ * the primary page of every bucket, and the buckets, each a primary
+ * HashBucketPage and a chain of overflow pages. A key goes to bucket
+ * h mod 2^level of its hash h, or h mod 2^(level+1) if that bucket
+ * was already split in this round, i.e. is below the split pointer.
+ * Once the entries fill more than MAX_LOAD of the primary pages the
+ * bucket at the split pointer is split into itself and bucket
+ * 2^level + next, so the file grows a bucket at a time and a lookup
+ * reads one directory page and, unless its bucket overflowed, one
+ * bucket page.
+ * <p>
+ * A delete leaves the space of its entry on the bucket page; empty
+ * overflow pages are freed when their bucket is next split.
+ */
+public class HashFile extends IndexFile
+  implements GlobalConst {
+
+  /** fraction of the primary bucket pages the entries may fill */
+  public final static float MAX_LOAD = 0.75f;
+
+  // bytes of the bucket pages an entry takes besides its record
+  private final static int SLOT_SIZE = HFPage.SIZE_OF_SLOT;
+  // room for records on a bucket page
+  private final static int BUCKET_SPACE = MAX_SPACE - HFPage.DPFIXED;
+
+  private HashHeaderPage headerPage;
+  private PageId headerPageId;
+  private String dbname;
+
+  /** open an existing hash file
+   *@param filename the name of the hash file
+   *@exception GetFileEntryException there is no such file
+   *@exception PinPageException failed to pin the header page
+   *@exception ConstructPageException the file is not a hash file
+   */
+  public HashFile(String filename)
+    throws GetFileEntryException,
+	   PinPageException,
+	   ConstructPageException
+    {
+      headerPageId = get_file_entry(filename);
+      if (headerPageId == null)
+	throw new GetFileEntryException(null, "no hash file " + filename);
+      open(filename);
+    }
+
+  /** open a hash file, creating it if there is none
+   *@param filename the name of the hash file
+   *@param keytype the type of the key, see AttrType
+   *@param keysize the largest key in bytes: 4 for an int or real,
+   * the string length + 2 for a string
+   *@param expectedEntries the entries the file is sized for when
+   * created, so loading them splits no bucket; 0 starts it at one
+   *@exception GetFileEntryException error from the database
+   *@exception AddFileEntryException failed to add the file entry
+   *@exception PinPageException failed to pin a page
+   *@exception UnpinPageException failed to unpin a page
+   *@exception ConstructPageException failed to allocate a page, or the
+   * file is not a hash file
+   *@exception IOException error from the lower layer
+   */
+  public HashFile(String filename, int keytype, int keysize, int expectedEntries)
+    throws GetFileEntryException,
+	   AddFileEntryException,
+	   PinPageException,
+	   UnpinPageException,
+	   ConstructPageException,
+	   IOException
+    {
+      headerPageId = get_file_entry(filename);
+      if (headerPageId != null) {
+	open(filename);
+	return;
+      }
+      if (keytype != AttrType.attrInteger && keytype != AttrType.attrReal
+	  && keytype != AttrType.attrString)
+	throw new ConstructPageException(null, "hash keys are int, real or string");
+
+      headerPage = new HashHeaderPage();
+      headerPageId = newPage(headerPage);
+      add_file_entry(filename, headerPageId);
+      headerPage.init(keytype, keysize);
+      dbname = filename;
+
+      long bytes = (long) expectedEntries * (keysize + 8 + SLOT_SIZE);
+      int buckets = (int) Math.min(HashHeaderPage.MAX_BUCKETS,
+				   Math.max(1, (long) Math.ceil(bytes / (MAX_LOAD * BUCKET_SPACE))));
+      for (int i = 0; i < buckets; i++)
+	addBucket(i);
+      // buckets = 2^level + next
+      int level = 31 - Integer.numberOfLeadingZeros(buckets);
+      headerPage.set_level(level);
+      headerPage.set_next(buckets - (1 << level));
+    }
+
+  private void open(String filename)
+    throws PinPageException,
+	   ConstructPageException
+    {
+      headerPage = new HashHeaderPage();
+      pinPage(headerPageId, headerPage);
+      dbname = filename;
+      try {
+	if (headerPage.get_magic0() != HashHeaderPage.MAGIC0) {
+	  unpinPage(headerPageId, false);
+	  headerPage = null;
+	  throw new ConstructPageException(null, filename + " is not a hash file");
+	}
+      }
+      catch (IOException e) {
+	throw new ConstructPageException(e, "hash header page");
+      }
+      catch (UnpinPageException e) {
+	throw new ConstructPageException(e, "hash header page");
+      }
+    }
+
+  /** Close the hash file, unpinning its header page.
+   *@exception PageUnpinnedException error from the lower layer
+   *@exception InvalidFrameNumberException error from the lower layer
+   *@exception HashEntryNotFoundException error from the lower layer
+   *@exception ReplacerException error from the lower layer
+   */
+  public void close()
+    throws PageUnpinnedException,
+	   InvalidFrameNumberException,
+	   HashEntryNotFoundException,
+	   ReplacerException
+    {
+      if (headerPage != null) {
+	SystemDefs.JavabaseBM.unpinPage(headerPageId, true);
+	headerPage = null;
+      }
+    }
+
+  /** Destroy the hash file, freeing all its pages.
+   *@exception IOException error from the lower layer
+   *@exception PinPageException failed to pin a page
+   *@exception UnpinPageException failed to unpin a page
+   *@exception FreePageException failed to free a page
+   *@exception DeleteFileEntryException failed to delete the file entry
+   */
+  public void destroyFile()
+    throws IOException,
+	   PinPageException,
+	   UnpinPageException,
+	   FreePageException,
+	   DeleteFileEntryException
+    {
+      if (headerPage == null)
+	return;
+      int buckets = getBucketCount();
+      for (int i = 0; i < buckets; i++)
+	freeChain(getBucketPage(i));
+      for (int i = 0; i < headerPage.get_dirCount(); i++)
+	freePage(headerPage.get_dirPage(i));
+      unpinPage(headerPageId, false);
+      freePage(headerPageId);
+      delete_file_entry(dbname);
+      headerPage = null;
+    }
+
+  /** @return the number of entries in the file */
+  public int getEntryCount()
+    throws IOException
+    {
+      return headerPage.get_entries();
+    }
+
+  /** @return the number of buckets of the file */
+  public int getBucketCount()
+    throws IOException
+    {
+      return (1 << headerPage.get_level()) + headerPage.get_next();
+    }
+
+  /** @return the type of the key, see AttrType */
+  public int getKeyType()
+    throws IOException
+    {
+      return headerPage.get_keyType();
+    }
+
+  /** @return the largest key in bytes */
+  public int getKeySize()
+    throws IOException
+    {
+      return headerPage.get_keySize();
+    }
+
+  /** insert an entry, splitting a bucket if the file is too full
+   *@param key the key of the entry
+   *@param rid the rid of the entry
+   *@exception KeyNotMatchException the key does not have the key type
+   *@exception KeyTooLongException the key is longer than the key size
+   *@exception PinPageException failed to pin a page
+   *@exception UnpinPageException failed to unpin a page
+   *@exception ConstructPageException failed to allocate a page
+   *@exception InsertException the entry does not fit a page, or
+   * splitting the bucket failed
+   *@exception IOException error from the lower layer
+   */
+  public void insert(final KeyClass key, final RID rid)
+    throws KeyNotMatchException,
+	   KeyTooLongException,
+	   PinPageException,
+	   UnpinPageException,
+	   ConstructPageException,
+	   InsertException,
+	   IOException
+    {
+      checkKey(key);
+      byte[] entry = HashBucketPage.getBytesFromEntry(key, rid);
+      if (entry.length - 8 > headerPage.get_keySize())
+	throw new KeyTooLongException(null, "key longer than the key size of " + dbname);
+      insertInto(bucketOf(key), entry);
+      headerPage.add_entries(1, entry.length + SLOT_SIZE);
+      if (headerPage.get_bytes() > MAX_LOAD * BUCKET_SPACE * getBucketCount()
+	  && getBucketCount() < HashHeaderPage.MAX_BUCKETS) {
+	try {
+	  split();
+	}
+	catch (FreePageException e) {
+	  throw new InsertException(e, "hash bucket split failed");
+	}
+	catch (AddFileEntryException e) {
+	  throw new InsertException(e, "hash bucket split failed");
+	}
+      }
+    }
+
+  /** delete an entry
+   *@param key the key of the entry
+   *@param rid the rid of the entry
+   *@return false if there is no such entry
+   *@exception KeyNotMatchException the key does not have the key type
+   *@exception PinPageException failed to pin a page
+   *@exception UnpinPageException failed to unpin a page
+   *@exception DeleteRecException failed to delete the entry
+   *@exception IOException error from the lower layer
+   */
+  public boolean Delete(final KeyClass key, final RID rid)
+    throws KeyNotMatchException,
+	   PinPageException,
+	   UnpinPageException,
+	   DeleteRecException,
+	   IOException
+    {
+      checkKey(key);
+      int keyType = headerPage.get_keyType();
+      PageId pageId = getBucketPage(bucketOf(key));
+      while (pageId.pid != INVALID_PAGE) {
+	HashBucketPage page = new HashBucketPage();
+	pinPage(pageId, page);
+	for (RID cur = page.firstRecord(); cur != null; cur = page.nextRecord(cur)) {
+	  KeyDataEntry entry = page.getEntry(cur, keyType);
+	  if (((LeafData) entry.data).getData().equals(rid)
+	      && BT.keyCompare(entry.key, key) == 0) {
+	    int length = page.getSlotLength(cur.slotNo);
+	    try {
+	      page.deleteRecord(cur);
+	    }
+	    catch (InvalidSlotNumberException e) {
+	      unpinPage(pageId, false);
+	      throw new DeleteRecException(e, "hash entry");
+	    }
+	    unpinPage(pageId, true);
+	    headerPage.add_entries(-1, -(length + SLOT_SIZE));
+	    return true;
+	  }
+	}
+	PageId nextId = page.getNextPage();
+	unpinPage(pageId, false);
+	pageId = nextId;
+      }
+      return false;
+    }
+
+  /** open a scan of the entries with a key, of every entry if
+   * the key is null
+   *@param key the key to look up, or null
+   *@exception KeyNotMatchException the key does not have the key type
+   *@exception IOException error from the lower layer
+   */
+  public HashFileScan new_scan(KeyClass key)
+    throws KeyNotMatchException,
+	   IOException
+    {
+      HashFileScan scan = new HashFileScan();
+      scan.hashFile = this;
+      scan.key = key;
+      scan.keyType = headerPage.get_keyType();
+      scan.keySize = headerPage.get_keySize();
+      if (key != null) {
+	checkKey(key);
+	scan.bucket = bucketOf(key);
+	scan.lastBucket = scan.bucket;
+      }
+      else {
+	scan.bucket = 0;
+	scan.lastBucket = getBucketCount() - 1;
+      }
+      return scan;
+    }
+
+  /** the rids of the entries with a key
+   *@param key the key to look up
+   *@exception KeyNotMatchException the key does not have the key type
+   *@exception ScanIteratorException error reading the bucket
+   *@exception UnpinPageException failed to unpin the bucket page
+   *@exception IOException error from the lower layer
+   */
+  public ArrayList<RID> lookup(KeyClass key)
+    throws KeyNotMatchException,
+	   ScanIteratorException,
+	   UnpinPageException,
+	   IOException
+    {
+      ArrayList<RID> rids = new ArrayList<RID>();
+      HashFileScan scan = new_scan(key);
+      try {
+	KeyDataEntry entry;
+	while ((entry = scan.get_next()) != null)
+	  rids.add(((LeafData) entry.data).getData());
+      }
+      finally {
+	scan.DestroyHashFileScan();
+      }
+      return rids;
+    }
+
+  /** the primary page of a bucket
+   */
+  PageId getBucketPage(int bucket)
+    throws PinPageException,
+	   UnpinPageException,
+	   IOException
+    {
+      PageId dirId = headerPage.get_dirPage(bucket / HashHeaderPage.BUCKETS_PER_DIR);
+      Page dir = new Page();
+      pinPage(dirId, dir);
+      int pid = Convert.getIntValue(4 * (bucket % HashHeaderPage.BUCKETS_PER_DIR), dir.getpage());
+      unpinPage(dirId, false);
+      return new PageId(pid);
+    }
+
+  /** count out an entry a scan deleted
+   */
+  void entryDeleted(int length)
+    throws IOException
+    {
+      headerPage.add_entries(-1, -(length + SLOT_SIZE));
+    }
+
+  // the hash of a key; the bucket is taken from its low bits, so
+  // the value is run through the murmur3 finalizer to spread them
+  static int hash(KeyClass key)
+    throws KeyNotMatchException
+    {
+      int h;
+      if (key instanceof IntegerKey)
+	h = ((IntegerKey) key).getKey().intValue();
+      else if (key instanceof RealKey) {
+	float f = ((RealKey) key).getKey().floatValue();
+	h = Float.floatToIntBits(f == 0.0f ? 0.0f : f);   // -0.0 == 0.0
+      }
+      else if (key instanceof StringKey)
+	h = ((StringKey) key).getKey().hashCode();
+      else
+	throw new KeyNotMatchException(null, "hash keys are int, real or string");
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h;
+    }
+
+  private int bucketOf(KeyClass key)
+    throws KeyNotMatchException,
+	   IOException
+    {
+      int h = hash(key);
+      int level = headerPage.get_level();
+      int bucket = h & ((1 << level) - 1);
+      if (bucket < headerPage.get_next())
+	bucket = h & ((2 << level) - 1);
+      return bucket;
+    }
+
+  private void checkKey(KeyClass key)
+    throws KeyNotMatchException,
+	   IOException
+    {
+      boolean match;
+      switch (headerPage.get_keyType()) {
+      case AttrType.attrInteger:
+	match = key instanceof IntegerKey;
+	break;
+      case AttrType.attrReal:
+	match = key instanceof RealKey;
+	break;
+      default:
+	match = key instanceof StringKey;
+	break;
+      }
+      if (!match)
+	throw new KeyNotMatchException(null, "key type does not match " + dbname);
+    }
+
+  // add an entry to the primary page of a bucket or the overflow page
+  // after it. When both are full a new overflow page goes in right
+  // after the primary page, so the full pages sink down the chain and
+  // a bucket of many duplicates still costs two pages an insert
+  private void insertInto(int bucket, byte[] entry)
+    throws PinPageException,
+	   UnpinPageException,
+	   ConstructPageException,
+	   InsertException,
+	   IOException
+    {
+      PageId primary = getBucketPage(bucket);
+      HashBucketPage page = new HashBucketPage();
+      pinPage(primary, page);
+      if (page.insertRecord(entry) != null) {
+	unpinPage(primary, true);
+	return;
+      }
+      PageId firstId = new PageId(page.getNextPage().pid);
+      if (firstId.pid != INVALID_PAGE) {
+	HashBucketPage first = new HashBucketPage();
+	pinPage(firstId, first);
+	boolean room = first.insertRecord(entry) != null;
+	unpinPage(firstId, room);
+	if (room) {
+	  unpinPage(primary, false);
+	  return;
+	}
+      }
+      HashBucketPage overflow = new HashBucketPage();
+      PageId overflowId = newPage(overflow);
+      overflow.init(overflowId, overflow);
+      overflow.setNextPage(firstId);
+      page.setNextPage(overflowId);
+      unpinPage(primary, true);
+      if (overflow.insertRecord(entry) == null) {
+	unpinPage(overflowId, true);
+	throw new InsertException(null, "hash entry larger than a page");
+      }
+      unpinPage(overflowId, true);
+    }
+
+  // split the bucket at the split pointer into itself and its image
+  // 2^level + next, and move the split pointer on
+  private void split()
+    throws PinPageException,
+	   UnpinPageException,
+	   ConstructPageException,
+	   FreePageException,
+	   AddFileEntryException,
+	   InsertException,
+	   KeyNotMatchException,
+	   IOException
+    {
+      int level = headerPage.get_level();
+      int next = headerPage.get_next();
+      int keyType = headerPage.get_keyType();
+
+      // take the entries out of the bucket, keeping only its primary page
+      ArrayList<byte[]> entries = new ArrayList<byte[]>();
+      PageId primary = getBucketPage(next);
+      PageId pageId = primary;
+      while (pageId.pid != INVALID_PAGE) {
+	HashBucketPage page = new HashBucketPage();
+	pinPage(pageId, page);
+	byte[] data = page.getHFpageArray();
+	for (RID cur = page.firstRecord(); cur != null; cur = page.nextRecord(cur)) {
+	  byte[] entry = new byte[page.getSlotLength(cur.slotNo)];
+	  System.arraycopy(data, page.getSlotOffset(cur.slotNo), entry, 0, entry.length);
+	  entries.add(entry);
+	}
+	// a copy: init() resets the page's own next page id
+	PageId nextId = new PageId(page.getNextPage().pid);
+	if (pageId.pid == primary.pid) {
+	  page.init(primary, page);
+	  unpinPage(pageId, true);
+	}
+	else {
+	  unpinPage(pageId, false);
+	  freePage(pageId);
+	}
+	pageId = nextId;
+      }
+
+      addBucket((1 << level) + next);
+      if (next + 1 == (1 << level)) {
+	headerPage.set_level(level + 1);
+	headerPage.set_next(0);
+      }
+      else
+	headerPage.set_next(next + 1);
+
+      for (byte[] entry : entries)
+	insertInto(bucketOf(HashBucketPage.getKey(entry, 0, entry.length, keyType)), entry);
+    }
+
+  // give a bucket an empty primary page, adding a directory page
+  // when the bucket is the first of one
+  private void addBucket(int bucket)
+    throws PinPageException,
+	   UnpinPageException,
+	   ConstructPageException,
+	   IOException
+    {
+      HashBucketPage page = new HashBucketPage();
+      PageId pageId = newPage(page);
+      page.init(pageId, page);
+      unpinPage(pageId, true);
+
+      Page dir = new Page();
+      PageId dirId;
+      if (bucket % HashHeaderPage.BUCKETS_PER_DIR == 0) {
+	dirId = newPage(dir);
+	headerPage.add_dirPage(dirId);
+      }
+      else {
+	dirId = headerPage.get_dirPage(bucket / HashHeaderPage.BUCKETS_PER_DIR);
+	pinPage(dirId, dir);
+      }
+      Convert.setIntValue(pageId.pid, 4 * (bucket % HashHeaderPage.BUCKETS_PER_DIR), dir.getpage());
+      unpinPage(dirId, true);
+    }
+
+  // free the pages of a bucket chain
+  private void freeChain(PageId pageId)
+    throws PinPageException,
+	   UnpinPageException,
+	   FreePageException,
+	   IOException
+    {
+      while (pageId.pid != INVALID_PAGE) {
+	HashBucketPage page = new HashBucketPage();
+	pinPage(pageId, page);
+	PageId nextId = page.getNextPage();
+	unpinPage(pageId, false);
+	freePage(pageId);
+	pageId = nextId;
+      }
+    }
+
+  private PageId get_file_entry(String filename)
+    throws GetFileEntryException
+    {
+      try {
+	return SystemDefs.JavabaseDB.get_file_entry(filename);
+      }
+      catch (Exception e) {
+	throw new GetFileEntryException(e, "");
+      }
+    }
+
+  private void add_file_entry(String filename, PageId pageno)
+    throws AddFileEntryException
+    {
+      try {
+	SystemDefs.JavabaseDB.add_file_entry(filename, pageno);
+      }
+      catch (Exception e) {
+	throw new AddFileEntryException(e, "");
+      }
+    }
+
+  private void delete_file_entry(String filename)
+    throws DeleteFileEntryException
+    {
+      try {
+	SystemDefs.JavabaseDB.delete_file_entry(filename);
+      }
+      catch (Exception e) {
+	throw new DeleteFileEntryException(e, "");
+      }
+    }
+
+  private PageId newPage(Page page)
+    throws ConstructPageException
+    {
+      try {
+	return SystemDefs.JavabaseBM.newPage(page, 1);
+      }
+      catch (Exception e) {
+	throw new ConstructPageException(e, "new hash page failed");
+      }
+    }
+
+  static void pinPage(PageId pageno, Page page)
+    throws PinPageException
+    {
+      try {
+	SystemDefs.JavabaseBM.pinPage(pageno, page, false/*Rdisk*/);
+      }
+      catch (Exception e) {
+	throw new PinPageException(e, "");
+      }
+    }
+
+  static void unpinPage(PageId pageno, boolean dirty)
+    throws UnpinPageException
+    {
+      try {
+	SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+      }
+      catch (Exception e) {
+	throw new UnpinPageException(e, "");
+      }
+    }
+
+  private void freePage(PageId pageno)
+    throws FreePageException
+    {
+      try {
+	SystemDefs.JavabaseBM.freePage(pageno);
+      }
+      catch (Exception e) {
+	throw new FreePageException(e, "");
+      }
+    }
+}
@@ -0,0 +1,144 @@
+package hash;
+
+import java.io.*;
+import diskmgr.*;
+import global.*;
+import btree.*;
+
+/**
+ * HashFileScan iterates over the entries of a hash file with a given
+ * key, reading the chain of its one bucket, or over every entry,
+ * reading the buckets in order. Only the current bucket page is kept
+ * pinned.
+ */
+public class HashFileScan extends IndexFileScan
+  implements GlobalConst {
+
+  HashFile hashFile;
+  KeyClass key;         // null for every entry
+  int keyType;
+  int keySize;
+  int bucket;           // next bucket to read
+  int lastBucket;
+
+  private HashBucketPage curPage;
+  private PageId curPageId;
+  private RID curRid;   // null before the first entry of curPage
+  private boolean dirty;
+
+  /**
+   * Iterate once (during a scan).
+   *@return the next entry with the key, null at the end
+   *@exception ScanIteratorException iterator error
+   */
+  public KeyDataEntry get_next()
+    throws ScanIteratorException
+    {
+      try {
+	while (true) {
+	  if (curPage == null) {
+	    if (bucket > lastBucket)
+	      return null;
+	    open(hashFile.getBucketPage(bucket++));
+	  }
+	  curRid = (curRid == null) ? curPage.firstRecord() : curPage.nextRecord(curRid);
+	  if (curRid == null) {
+	    // on to the next page of the bucket
+	    PageId nextId = curPage.getNextPage();
+	    release();
+	    if (nextId.pid != INVALID_PAGE)
+	      open(nextId);
+	    continue;
+	  }
+	  KeyDataEntry entry = curPage.getEntry(curRid, keyType);
+	  if (key == null || BT.keyCompare(entry.key, key) == 0)
+	    return entry;
+	}
+      }
+      catch (Exception e) {
+	e.printStackTrace();
+	throw new ScanIteratorException(e, "hash scan failed");
+      }
+    }
+
+  /**
+   * Delete the entry get_next returned last.
+   *@exception ScanDeleteException delete error
+   */
+  public void delete_current()
+    throws ScanDeleteException
+    {
+      if (curPage == null || curRid == null)
+	throw new ScanDeleteException(null, "no current entry");
+      try {
+	int length = curPage.getSlotLength(curRid.slotNo);
+	curPage.deleteRecord(curRid);
+	dirty = true;
+	hashFile.entryDeleted(length);
+      }
+      catch (Exception e) {
+	throw new ScanDeleteException(e, "hash scan delete failed");
+      }
+    }
+
+  /**
+   * Point the entry get_next returned last at another rid. Its key,
+   * and so its bucket, stay the same.
+   *@param rid the new rid of the entry
+   *@exception ScanIteratorException update error
+   */
+  public void update_current(RID rid)
+    throws ScanIteratorException
+    {
+      if (curPage == null || curRid == null)
+	throw new ScanIteratorException(null, "no current entry");
+      try {
+	curPage.setRid(curRid, rid);
+	dirty = true;
+      }
+      catch (Exception e) {
+	throw new ScanIteratorException(e, "hash scan update failed");
+      }
+    }
+
+  /** max size of the key
+   *@return the maxumum size of the key in the hash file
+   */
+  public int keysize()
+    {
+      return keySize;
+    }
+
+  /**
+   * destructor.
+   * unpin the page the scan is on.
+   *@exception IOException error from the lower layer
+   *@exception UnpinPageException error when unpin a page
+   */
+  public void DestroyHashFileScan()
+    throws IOException,
+	   UnpinPageException
+    {
+      release();
+      bucket = lastBucket + 1;
+    }
+
+  private void open(PageId pageId)
+    throws PinPageException
+    {
+      curPage = new HashBucketPage();
+      HashFile.pinPage(pageId, curPage);
+      curPageId = pageId;
+      curRid = null;
+      dirty = false;
+    }
+
+  private void release()
+    throws UnpinPageException
+    {
+      if (curPage != null) {
+	HashFile.unpinPage(curPageId, dirty);
+	curPage = null;
+      }
+    }
+}
@@ -0,0 +1,143 @@
+package hash;
+
+import java.io.*;
+import diskmgr.*;
+import global.*;
+
+/**
+ * Header page of a hash file. It holds, at fixed offsets,
+ * magic0, keyType, keySize, the level and split pointer of the
+ * linear hashing, the number of entries and the bytes they take
+ * on the bucket pages, and the page ids of the directory pages,
+ * each of which holds the primary page id of BUCKETS_PER_DIR
+ * buckets.
+ */
+class HashHeaderPage extends Page
+  implements GlobalConst {
+
+  public final static int MAGIC0 = 1995;
+
+  /** bucket page ids held by one directory page */
+  public final static int BUCKETS_PER_DIR = MINIBASE_PAGESIZE / 4;
+
+  private final static int MAGIC = 0;
+  private final static int KEY_TYPE = 4;
+  private final static int KEY_SIZE = 8;
+  private final static int LEVEL = 12;
+  private final static int NEXT = 16;
+  private final static int ENTRIES = 20;
+  private final static int BYTES = 24;
+  private final static int DIR_CNT = 28;
+  private final static int DIR_PAGES = 32;
+
+  /** directory pages the header has room for */
+  public final static int MAX_DIR_PAGES = (MINIBASE_PAGESIZE - DIR_PAGES) / 4;
+
+  /** buckets a hash file can address */
+  public final static int MAX_BUCKETS = MAX_DIR_PAGES * BUCKETS_PER_DIR;
+
+  /** set up an empty file: one round of one bucket, no directory yet
+   */
+  void init(int keyType, int keySize)
+    throws IOException
+    {
+      Convert.setIntValue(MAGIC0, MAGIC, data);
+      Convert.setIntValue(keyType, KEY_TYPE, data);
+      Convert.setIntValue(keySize, KEY_SIZE, data);
+      Convert.setIntValue(0, LEVEL, data);
+      Convert.setIntValue(0, NEXT, data);
+      Convert.setIntValue(0, ENTRIES, data);
+      Convert.setIntValue(0, BYTES, data);
+      Convert.setIntValue(0, DIR_CNT, data);
+    }
+
+  int get_magic0()
+    throws IOException
+    {
+      return Convert.getIntValue(MAGIC, data);
+    }
+
+  int get_keyType()
+    throws IOException
+    {
+      return Convert.getIntValue(KEY_TYPE, data);
+    }
+
+  int get_keySize()
+    throws IOException
+    {
+      return Convert.getIntValue(KEY_SIZE, data);
+    }
+
+  /** buckets below 2^level are addressed by level bits, the ones
+   *  split in this round by level+1 bits
+   */
+  int get_level()
+    throws IOException
+    {
+      return Convert.getIntValue(LEVEL, data);
+    }
+
+  void set_level(int level)
+    throws IOException
+    {
+      Convert.setIntValue(level, LEVEL, data);
+    }
+
+  /** the split pointer: the next bucket to split in this round
+   */
+  int get_next()
+    throws IOException
+    {
+      return Convert.getIntValue(NEXT, data);
+    }
+
+  void set_next(int next)
+    throws IOException
+    {
+      Convert.setIntValue(next, NEXT, data);
+    }
+
+  int get_entries()
+    throws IOException
+    {
+      return Convert.getIntValue(ENTRIES, data);
+    }
+
+  int get_bytes()
+    throws IOException
+    {
+      return Convert.getIntValue(BYTES, data);
+    }
+
+  /** count an entry of the given size in, or out with a negative count
+   */
+  void add_entries(int count, int bytes)
+    throws IOException
+    {
+      Convert.setIntValue(get_entries() + count, ENTRIES, data);
+      Convert.setIntValue(get_bytes() + bytes, BYTES, data);
+    }
+
+  int get_dirCount()
+    throws IOException
+    {
+      return Convert.getIntValue(DIR_CNT, data);
+    }
+
+  PageId get_dirPage(int i)
+    throws IOException
+    {
+      return new PageId(Convert.getIntValue(DIR_PAGES + 4 * i, data));
+    }
+
+  /** append a directory page
+   */
+  void add_dirPage(PageId pageno)
+    throws IOException
+    {
+      int n = get_dirCount();
+      Convert.setIntValue(pageno.pid, DIR_PAGES + 4 * n, data);
+      Convert.setIntValue(n + 1, DIR_CNT, data);
+    }
+}
@@ -0,0 +1,26 @@
+package heap;
+
+/** JAVA */
+/**
+ * DataPageFilter.java-  interface DataPageFilter
+ *
+ */
+
+import global.*;
+
+/**
+ * A DataPageFilter is handed to Heapfile.openScan so the scan can step
+ * over whole data pages without pinning them. It is asked about every
+ * data page before the page is read, using only what the directory
+ * page knows about it.
+ */
+public interface DataPageFilter {
+
+  /**
+   * @param pageId id of the data page the scan is about to read
+   * @param recordCount number of records on that data page
+   * @return true if no record on the page can be of interest,
+   *         false if the scan has to read the page
+   */
+  public boolean canSkip(PageId pageId, int recordCount);
+}
@@ -355,6 +355,7 @@ public class HFPage extends Page
    */
   public void setPrevPage(PageId pageNo)
       throws IOException {
+    latch();
     prevPage.pid = pageNo.pid;
     Convert.setIntValue(prevPage.pid, PREV_PAGE, data);
   }
@@ -377,6 +378,7 @@ public class HFPage extends Page
    */
   public void setNextPage(PageId pageNo)
       throws IOException {
+    latch();
     nextPage.pid = pageNo.pid;
     Convert.setIntValue(nextPage.pid, NEXT_PAGE, data);
   }
@@ -421,6 +423,8 @@ public class HFPage extends Page
    */
   public void setType(short valtype)
       throws IOException {
+    if (valtype != Convert.getShortValue(TYPE, data))
+      latch();
     type = valtype;
     Convert.setShortValue(type, TYPE, data);
   }
@@ -445,6 +449,7 @@ public class HFPage extends Page
    */
   public void setSlot(int slotno, int length, int offset)
       throws IOException {
+    latch();
     int position = DPFIXED + slotno * SIZE_OF_SLOT;
     Convert.setShortValue((short) length, position, data);
     Convert.setShortValue((short) offset, position + 2, data);
@@ -501,6 +506,7 @@ public class HFPage extends Page
 	
       } else {
 	
+		latch();
 		// look for an empty slot
 		slotCnt = Convert.getShortValue (SLOT_CNT, data); 
 		int i; 
@@ -562,6 +568,7 @@ public class HFPage extends Page
 
     // first check if the record being deleted is actually valid
     if ((slotNo >= 0) && (slotNo < slotCnt) && (recLen > 0)) {
+      latch();
       // The records always need to be compacted, as they are
       // not necessarily stored on the page in the order that
       // they are listed in the slot index.
@@ -604,6 +611,18 @@ public class HFPage extends Page
     }
   }
 
+  /**
+   * tells the buffer manager this page is about to change, so that
+   * optimistic readers of it retry (see BufMgr.latchPage)
+   * 
+   * @exception IOException I/O errors
+   */
+  protected void latch()
+      throws IOException {
+    if (SystemDefs.JavabaseBM != null && SystemDefs.JavabaseBM.isWriting())
+      SystemDefs.JavabaseBM.latchPage(new PageId(Convert.getIntValue(CUR_PAGE, data)));
+  }
+
   /**
    * @return RID of first record on page, null if page contains no records.
    * @exception IOException I/O errors
@@ -48,6 +48,9 @@ public class Heapfile implements Filetype,  GlobalConst {
   private     boolean     _file_deleted;
   private     String 	 _fileName;
   private static int tempfilecount = 0;
+  // data pages added to each file so far, by its first directory page
+  private static java.util.HashMap<Integer, Integer> dataPagesAdded =
+    new java.util.HashMap<Integer, Integer>();
   
   
   
@@ -76,6 +79,11 @@ public class Heapfile implements Filetype,  GlobalConst {
       dpinfop.recct = 0;
       dpinfop.availspace = hfpage.available_space();
       
+      synchronized (dataPagesAdded) {
+	Integer added = dataPagesAdded.get(_firstDirPageId.pid);
+	dataPagesAdded.put(_firstDirPageId.pid, added == null ? 1 : added + 1);
+      }
+      
       return hfpage;
       
     } // end of _newDatapage
@@ -913,6 +921,22 @@ public class Heapfile implements Filetype,  GlobalConst {
       Scan newscan = new Scan(this);
       return newscan;
     }
+
+
+  /** Initiate a sequential scan that steps over the data pages the
+   * filter rejects without reading them.
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param filter decides which data pages can be skipped
+   */
+  public Scan openScan(DataPageFilter filter) 
+    throws InvalidTupleSizeException,
+	   IOException
+    {
+      Scan newscan = new Scan(this, filter);
+      return newscan;
+    }
   
   
   /** Delete the file from the database.
@@ -988,6 +1012,21 @@ public class Heapfile implements Filetype,  GlobalConst {
 		return _firstDirPageId;
 	}
   
+  /** Number of data pages added to the heapfile with the given first
+   * directory page since the program started. Callers that cache
+   * something per data page compare it with an earlier value to learn
+   * whether a page was added since, without reading the directory.
+   * @param firstDirPageId the first directory page of the file
+   * @return the number of pages added
+   */
+  public static int dataPagesAdded(PageId firstDirPageId)
+    {
+      synchronized (dataPagesAdded) {
+	Integer added = dataPagesAdded.get(firstDirPageId.pid);
+	return added == null ? 0 : added.intValue();
+      }
+    }
+  
   /**
    * short cut to access the pinPage function in bufmgr package.
    * @see bufmgr.pinPage
@@ -1140,6 +1179,66 @@ public class Heapfile implements Filetype,  GlobalConst {
     throw new HFException(null, "record not found");
   }
 
+  /**
+   * Map every data page of the file to the position of its slot 0, so
+   * callers resolving many rids can compute a position as
+   * base + slotNo without walking the directory each time.
+   */
+  public java.util.HashMap<Integer, Integer> getPositionBases()
+      throws InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      HFBufMgrException,
+      IOException {
+    java.util.HashMap<Integer, Integer> bases = new java.util.HashMap<Integer, Integer>();
+    int position = 0;
+    PageId currentDirPageId = new PageId(_firstDirPageId.pid);
+    HFPage currentDirPage = new HFPage();
+
+    while (currentDirPageId.pid != INVALID_PAGE) {
+      pinPage(currentDirPageId, currentDirPage, false/* read disk */);
+      for (RID rid = currentDirPage.firstRecord(); rid != null; rid = currentDirPage.nextRecord(rid)) {
+        DataPageInfo dpinfo = new DataPageInfo(currentDirPage.getRecord(rid));
+        bases.put(dpinfo.pageId.pid, position);
+        position += dpinfo.recct;
+      }
+      PageId nextDirPageId = currentDirPage.getNextPage();
+      unpinPage(currentDirPageId, false /* undirty */);
+      currentDirPageId.pid = nextDirPageId.pid;
+    }
+    return bases;
+  }
+
+  /**
+   * The data pages of the file in directory order, which is position
+   * order, as two parallel arrays: { page ids, record counts }.
+   */
+  public int[][] getDataPageCounts()
+      throws InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      HFBufMgrException,
+      IOException {
+    java.util.ArrayList<int[]> pages = new java.util.ArrayList<int[]>();
+    PageId currentDirPageId = new PageId(_firstDirPageId.pid);
+    HFPage currentDirPage = new HFPage();
+
+    while (currentDirPageId.pid != INVALID_PAGE) {
+      pinPage(currentDirPageId, currentDirPage, false/* read disk */);
+      for (RID rid = currentDirPage.firstRecord(); rid != null; rid = currentDirPage.nextRecord(rid)) {
+        DataPageInfo dpinfo = new DataPageInfo(currentDirPage.getRecord(rid));
+        pages.add(new int[] { dpinfo.pageId.pid, dpinfo.recct });
+      }
+      PageId nextDirPageId = currentDirPage.getNextPage();
+      unpinPage(currentDirPageId, false /* undirty */);
+      currentDirPageId.pid = nextDirPageId.pid;
+    }
+    int[][] counts = new int[2][pages.size()];
+    for (int i = 0; i < pages.size(); i++) {
+      counts[0][i] = pages.get(i)[0];
+      counts[1][i] = pages.get(i)[1];
+    }
+    return counts;
+  }
+
   public RID getRidFromPosition(int position)
       throws InvalidSlotNumberException,
       InvalidTupleSizeException,
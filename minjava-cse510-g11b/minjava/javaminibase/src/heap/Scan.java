@@ -53,6 +53,15 @@ public class Scan implements GlobalConst{
 
     /** Status of next user status */
     private boolean nextUserStatus;
+
+    /** optional filter deciding which data pages need not be read */
+    private DataPageFilter filter = null;
+
+    /** records skip() still has to step over */
+    private int skipBudget = 0;
+
+    /** records stepped over without being returned by getNext() */
+    private int skippedRecords = 0;
     
      
     /** The constructor pins the first directory page in the file
@@ -71,6 +80,23 @@ public class Scan implements GlobalConst{
 	init(hf);
   }
 
+    /** Same as Scan(hf), but data pages the filter rejects are never
+     * pinned; their records are counted by getSkippedCount() instead.
+     *
+     * @exception InvalidTupleSizeException Invalid tuple size
+     * @exception IOException I/O errors
+     *
+     * @param hf A HeapFile object
+     * @param filter decides which data pages can be skipped
+     */
+  public Scan(Heapfile hf, DataPageFilter filter)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+	this.filter = filter;
+	init(hf);
+  }
+
 
   
   /** Retrieve the next record in a sequential scan
@@ -114,6 +140,63 @@ public class Scan implements GlobalConst{
   }
 
 
+    /** True when the record last returned by getNext() was the final
+     * one on its data page, so the next call moves on to another page.
+     */
+  public boolean atPageEnd()
+  {
+    return nextUserStatus != true;
+  }
+
+
+    /** Number of records stepped over so far, either because the
+     * DataPageFilter rejected their page or through skip().
+     */
+  public int getSkippedCount()
+  {
+    return skippedRecords;
+  }
+
+
+    /** Step over the next n records without returning them. Data pages
+     * that lie entirely inside the skipped range are not pinned. The
+     * DataPageFilter is not consulted, so exactly n records are skipped
+     * unless the end of the file comes first.
+     *
+     * @exception InvalidTupleSizeException Invalid tuple size
+     * @exception IOException I/O errors
+     * @param n number of records to skip
+     * @return the number of records actually skipped
+     */
+  public int skip(int n)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    int before = skippedRecords;
+    DataPageFilter saved = filter;
+    filter = null;
+    skipBudget = n;
+
+    while (skipBudget > 0 && datapage != null) {
+      if (nextUserStatus != true) {
+	// whole pages that fit in the budget are stepped over in here
+	boolean moved = nextDataPage();
+	if (moved == true)
+	  nextUserStatus = true;
+	continue;
+      }
+      userrid = datapage.nextRecord(userrid);
+      nextUserStatus = (userrid != null);
+      skipBudget--;
+      skippedRecords++;
+    }
+
+    skipBudget = 0;
+    filter = saved;
+    return skippedRecords - before;
+  }
+
+
     /** Position the scan cursor to the record with the given rid.
      * 
      * @exception InvalidTupleSizeException Invalid tuple size
@@ -142,16 +225,23 @@ public class Scan implements GlobalConst{
 
       // reset everything and start over from the beginning
       reset();
-      
-      bst =  firstDataPage();
 
-      if (bst != true)
-	return bst;
-      
-      while (!datapageId.equals(pgid)) {
-	bst = nextDataPage();
+      // the page we are looking for must not be filtered away
+      DataPageFilter saved = filter;
+      filter = null;
+      try {
+	bst =  firstDataPage();
+
 	if (bst != true)
 	  return bst;
+
+	while (!datapageId.equals(pgid)) {
+	  bst = nextDataPage();
+	  if (bst != true)
+	    return bst;
+	}
+      } finally {
+	filter = saved;
       }
     }
     
@@ -435,7 +525,7 @@ public class Scan implements GlobalConst{
 	  e.printStackTrace();
 	}
 	
-      } else {
+      } else if (!skipFirstDataPage()) {
 	
 	// pin first data page
 	try {
@@ -455,13 +545,15 @@ public class Scan implements GlobalConst{
 	
 	return true;
         }
+      // else the first data page was skipped, go on with the next one
     }
   
   // ASSERTIONS:
   // - this->datapage, this->datapageId, this->datapageRid valid
-  // - current datapage pinned
+  // - current datapage pinned (unless it was skipped)
 
     // unpin the current datapage
+    if (datapage != null) {
     try{
       unpinPage(datapageId, false /* no dirty */);
         datapage = null;
@@ -469,6 +561,10 @@ public class Scan implements GlobalConst{
     catch (Exception e){
       
     }
+    }
+
+    // step over data pages that need not be read; they are never pinned
+    do {
           
     // read next datapagerecord from current directory page
     // dirpage is set to NULL at the end of scan. Hence
@@ -550,6 +646,8 @@ public class Scan implements GlobalConst{
                         
 	dpinfo = new DataPageInfo(rectuple);
 	datapageId.pid = dpinfo.pageId.pid;
+
+    } while (skipDataPage(dpinfo));
 	
  	try {
 	  datapage = new HFPage();
@@ -578,6 +676,41 @@ public class Scan implements GlobalConst{
   }
 
 
+  /** True if the data page described by dpinfo does not have to be
+   * read, either because skip() covers all of its records or because
+   * the DataPageFilter rejects it. Its records are counted as skipped.
+   */
+  private boolean skipDataPage(DataPageInfo dpinfo)
+  {
+    if (skipBudget > 0 && dpinfo.recct <= skipBudget) {
+      skipBudget -= dpinfo.recct;
+      skippedRecords += dpinfo.recct;
+      return true;
+    }
+    if (filter != null && filter.canSkip(dpinfo.pageId, dpinfo.recct)) {
+      skippedRecords += dpinfo.recct;
+      return true;
+    }
+    return false;
+  }
+
+  /** Same as skipDataPage() for the data page datapageRid points to
+   * when the scan starts; its directory record has not been read yet.
+   */
+  private boolean skipFirstDataPage()
+  {
+    if (filter == null && skipBudget == 0)
+      return false;
+    try {
+      return skipDataPage(new DataPageInfo(dirpage.getRecord(datapageRid)));
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+
   private boolean peekNext(RID rid) {
     
     rid.pageNo.pid = userrid.pageNo.pid;
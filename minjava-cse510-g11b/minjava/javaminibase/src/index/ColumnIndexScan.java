@@ -7,9 +7,14 @@ import btree.*;
 import iterator.*;
 import heap.*;
 import java.io.*;
+import java.util.ArrayList;
 
 import bitmap.BMFileScan;
 import bitmap.BitMapFile;
+import bitmap.CBMFileScan;
+import bitmap.CBitMapFile;
+import hash.HashFile;
+import hash.HashFileScan;
 
 /**
  * Index Scan iterator will directly access the required tuple using
@@ -60,8 +65,8 @@ public class ColumnIndexScan extends Iterator {
     }
 
     switch (index.indexType) {
-      // linear hashing is not yet implemented
       case IndexType.B_Index:
+      case IndexType.B_Position:
         // error check the select condition
         // must be of the type: value op symbol || symbol op value
         // but not symbol op symbol || value op value
@@ -80,7 +85,8 @@ public class ColumnIndexScan extends Iterator {
 
       case IndexType.Bitmap:
         try {
-          indFile = new BitMapFile(indName);
+          // rows deleted from the table are skipped
+          indFile = new BitMapFile(indName, tableOf(relName), columnOf(relName));
         } catch (Exception e) {
           throw new IndexException(e, "IndexScan.java: BM exceptions caught from BitMapFile constructor");
         }
@@ -94,7 +100,8 @@ public class ColumnIndexScan extends Iterator {
 
       case IndexType.CBitmap:
         try {
-          indFile = new CBitMapFile(indName);
+          // rows deleted from the table are skipped
+          indFile = new CBitMapFile(indName, tableOf(relName), columnOf(relName));
         } catch (Exception e) {
           throw new IndexException(e, "IndexScan.java: CBM exceptions caught from CBitMapFile constructor");
         }
@@ -105,14 +112,60 @@ public class ColumnIndexScan extends Iterator {
           throw new IndexException(e, "IndexScan.java: CBM exceptions caught from IndexUtils.CBM_scan().");
         }
         break;
+      case IndexType.Hash:
+        try {
+          indFile = new HashFile(indName);
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: hash exceptions caught from HashFile constructor");
+        }
+
+        try {
+          indScan = (HashFileScan) IndexUtils.Hash_scan(selects, indFile);
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: hash exceptions caught from IndexUtils.Hash_scan().");
+        }
+        break;
       case IndexType.None:
       default:
-        throw new UnknownIndexTypeException("Only BTree and Bitmap index is supported so far");
+        throw new UnknownIndexTypeException("Only BTree, Bitmap and Hash index is supported so far");
 
     }
 
   }
 
+  // relName is the heapfile of a column, "table.column"
+  private static String tableOf(String relName) {
+    return relName.substring(0, relName.lastIndexOf('.'));
+  }
+
+  private static int columnOf(String relName) {
+    return Integer.parseInt(relName.substring(relName.lastIndexOf('.') + 1));
+  }
+
+  /**
+   * returns the next index entries: a leaf page at a time for a B-tree,
+   * an entry at a time for the other indexes. The scan must not be
+   * read by get_next as well.
+   * 
+   * @return the entries, null at the end
+   * @exception IndexException error from the lower layer
+   */
+  public ArrayList<KeyDataEntry> get_next_KeyDataEntries()
+      throws IndexException {
+    try {
+      if (indScan instanceof BTFileScan)
+        return ((BTFileScan) indScan).get_next_batch();
+      KeyDataEntry entry = indScan.get_next();
+      if (entry == null)
+        return null;
+      ArrayList<KeyDataEntry> entries = new ArrayList<KeyDataEntry>(1);
+      entries.add(entry);
+      return entries;
+    } catch (Exception e) {
+      throw new IndexException(e, "IndexScan.java: index scan error");
+    }
+  }
+
   /**
    * returns the next tuple.
    * if <code>index_only</code>, only returns the key value
@@ -172,9 +225,22 @@ public class ColumnIndexScan extends Iterator {
         } catch (Exception e) {
           throw new IndexException(e, "IndexScan.java: Heapfile error");
         }
+      } else if (_type.attrType == AttrType.attrReal) {
+
+        attrType[0] = new AttrType(AttrType.attrReal);
+        try {
+          Jtuple.setHdr((short) 1, attrType, s_sizes);
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: Heapfile error");
+        }
+
+        try {
+          Jtuple.setFloFld(1, ((RealKey) nextentry.key).getKey().floatValue());
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: Heapfile error");
+        }
       } else {
-        // attrReal not supported for now
-        throw new UnknownKeyTypeException("Only Integer and String keys are supported so far");
+        throw new UnknownKeyTypeException("Only Integer, Real and String keys are supported so far");
       }
       rid = ((LeafData) nextentry.data).getData();
       return nextentry;
@@ -182,6 +248,16 @@ public class ColumnIndexScan extends Iterator {
     return null;
   }
 
+  /**
+   * returns the key of the entry last returned by
+   * <code>get_next_KeyDataEntry()</code>, as the first field in a tuple
+   * 
+   * @return the key tuple, null before the first entry
+   */
+  public Tuple get_key_tuple() {
+    return Jtuple;
+  }
+
   public Tuple get_next()
       throws IndexException,
       UnknownKeyTypeException,
@@ -229,9 +305,22 @@ public class ColumnIndexScan extends Iterator {
         } catch (Exception e) {
           throw new IndexException(e, "IndexScan.java: Heapfile error");
         }
+      } else if (_type.attrType == AttrType.attrReal) {
+
+        attrType[0] = new AttrType(AttrType.attrReal);
+        try {
+          Jtuple.setHdr((short) 1, attrType, s_sizes);
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: Heapfile error");
+        }
+
+        try {
+          Jtuple.setFloFld(1, ((RealKey) nextentry.key).getKey().floatValue());
+        } catch (Exception e) {
+          throw new IndexException(e, "IndexScan.java: Heapfile error");
+        }
       } else {
-        // attrReal not supported for now
-        throw new UnknownKeyTypeException("Only Integer and String keys are supported so far");
+        throw new UnknownKeyTypeException("Only Integer, Real and String keys are supported so far");
       }
       rid = ((LeafData) nextentry.data).getData();
       return Jtuple;
@@ -256,6 +345,14 @@ public class ColumnIndexScan extends Iterator {
           throw new IndexException(e, "BTree error in destroying index scan.");
         }
       }
+      if (indScan instanceof HashFileScan) {
+        try {
+          ((HashFileScan) indScan).DestroyHashFileScan();
+          ((HashFile) indFile).close();
+        } catch (Exception e) {
+          throw new IndexException(e, "hash error in destroying index scan.");
+        }
+      }
       if (indScan instanceof BMFileScan) {
         try {
           ((BitMapFile)indFile).close();
@@ -1,10 +1,19 @@
 package index;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.CompositeKey;
 import btree.KeyDataEntry;
 import btree.LeafData;
 import columnar.Columnarfile;
+import columnar.CompositeIndex;
+import columnar.DeletionBitmap;
+import columnar.PositionFetchScan;
+import columnar.PositionMap;
 import global.*;
 import heap.InvalidTupleSizeException;
 import heap.InvalidTypeException;
@@ -22,6 +31,22 @@ public class ColumnarIndexScan extends Iterator {
   FldSpec[] outFlds;
   AttrType[] types;
   short[] strSizes;
+  // B_Position and Hash: the entry data is the tuple position, not a
+  // column rid
+  private boolean _positional;
+  // return the tuples in position order instead of key order
+  private boolean _positionOrder;
+  private Columnarfile _file;
+  private PositionMap _positions;
+  // reads the qualifying positions when returning in position order
+  private PositionFetchScan _fetch;
+  // composite B-tree whose key starts with the columns of fldNum: its key
+  // columns and every column it holds, null without one
+  private int[] _keyFlds;
+  private int[] _indexFlds;
+  private BTreeFile _compositeFile;
+  private BTFileScan _compositeScan;
+  private CondExpr[] _selects;
 
   public ColumnarIndexScan(
       java.lang.String relName,
@@ -40,7 +65,43 @@ public class ColumnarIndexScan extends Iterator {
       InvalidTupleSizeException,
       UnknownIndexTypeException,
       IOException {
+    this(relName, fldNum, index, indName, types, str_sizes, noInFlds, noOutFlds,
+        outFlds, selects, indexOnly, false);
+  }
+
+  // with positionOrder the qualifying positions are collected from the index
+  // first and the tuples are fetched in position order, so the column files
+  // are read front to back, each page pinned once, instead of in key order.
+  // With more than one column in fldNum a composite B-tree whose key starts
+  // with them (see Columnarfile.createCompositeBTreeIndex) is scanned, and
+  // the selects it cannot bound are checked on each tuple. If a composite
+  // or covering B-tree holds every output and select column, the scan
+  // answers from the index alone, with no column file read, even when
+  // indexOnly is not set; index only, such an index is required. A Hash
+  // index (see Columnarfile.createHashIndex) answers a single equality on
+  // the column, reading its one bucket.
+  public ColumnarIndexScan(
+      java.lang.String relName,
+      int[] fldNum,
+      IndexType index,
+      String[] indName,
+      AttrType[] types,
+      short[] str_sizes,
+      int noInFlds,
+      int noOutFlds,
+      FldSpec[] outFlds,
+      CondExpr[] selects,
+      boolean indexOnly,
+      boolean positionOrder)
+      throws IndexException,
+      InvalidTypeException,
+      InvalidTupleSizeException,
+      UnknownIndexTypeException,
+      IOException {
     this._indexOnly = indexOnly;
+    this._positional = index.indexType == IndexType.B_Position
+        || index.indexType == IndexType.Hash;
+    this._positionOrder = positionOrder && !indexOnly;
     this.fldNum = fldNum[0];
     this.noInFlds = noInFlds;
     this.noOutFlds = noOutFlds;
@@ -48,6 +109,13 @@ public class ColumnarIndexScan extends Iterator {
     this.types = types;
     this.strSizes = str_sizes;
     this._relName = relName;
+    if (fldNum.length > 1 || index.indexType == IndexType.B_Position) {
+      CompositeIndex composite = findComposite(fldNum, selects);
+      if (fldNum.length > 1 || composite != null) {
+        openComposite(composite, fldNum, selects);
+        return;
+      }
+    }
     int count = 0;
     short str_size = 0;
     if (types[this.fldNum - 1].attrType == AttrType.attrString) {
@@ -56,28 +124,35 @@ public class ColumnarIndexScan extends Iterator {
           count++;
         }
       }
-      str_size = str_sizes[count];
+      str_size = str_sizes[count - 1];
     }
     _columnIndexScan = new ColumnIndexScan(
         index, relName + "." + Integer.toString(this.fldNum),
         indName[this.fldNum - 1], types[this.fldNum - 1], str_size, selects,
         indexOnly);
+    if (!indexOnly) {
+      try {
+        _file = new Columnarfile(relName);
+        _positions = _file.getPositionMap();
+      } catch (Exception e) {
+        throw new IndexException(e, "ColumnarIndexScan.java: could not open " + relName);
+      }
+    }
   }
 
   public Tuple get_next()
       throws Exception {
-    if (_indexOnly) {
-      return _columnIndexScan.get_next();
+    if (_indexOnly && _keyFlds != null) {
+      return nextFromKey();
+    } else if (_indexOnly) {
+      return nextKeyOnly();
     } else {
-      KeyDataEntry entry = _columnIndexScan.get_next_KeyDataEntry();
-      if (entry == null) {
+      TID tid = new TID(Columnarfile.numColumns);
+      Tuple tuple = next(tid);
+      if (tuple == null) {
         return null;
       }
-      RID rid = ((LeafData) entry.data).getData();
-      Columnarfile f = new Columnarfile(_relName);
-      int position = f.getPositionFromRid(rid, this.fldNum);
-      TID tid = f.getTidFromPosition(position);
-      Tuple tuple = f.getTuple(tid);
+      Columnarfile f = _file;
       tuple.setHdr((short) noInFlds, types, strSizes);
       Tuple Jtuple = new Tuple();
       AttrType[] Jtypes = new AttrType[noOutFlds];
@@ -90,19 +165,211 @@ public class ColumnarIndexScan extends Iterator {
 
   public TID get_next_TID()
       throws Exception {
-    KeyDataEntry entry = _columnIndexScan.get_next_KeyDataEntry();
-    if (entry == null) {
-      return null;
+    TID tid = new TID(Columnarfile.numColumns);
+    return next(tid) == null ? null : tid;
+  }
+
+  // the next qualifying tuple, its tid copied into tid
+  private Tuple next(TID tid)
+      throws Exception {
+    Tuple tuple;
+    while ((tuple = fetchNext(tid)) != null) {
+      if (_keyFlds == null)
+        return tuple;
+      tuple.setHdr((short) noInFlds, types, strSizes);
+      if (PredEval.Eval(_selects, tuple, null, types, null))
+        return tuple;
+    }
+    return null;
+  }
+
+  // the tuple of the next index entry, its tid copied into tid
+  private Tuple fetchNext(TID tid)
+      throws Exception {
+    if (_file == null) {
+      _file = new Columnarfile(_relName);
+      _positions = _file.getPositionMap();
     }
+    if (_positionOrder) {
+      if (_fetch == null)
+        _fetch = _file.openPositionFetchScan(collectHits());
+      return _fetch.getNext(tid);
+    }
+    int position;
+    while ((position = nextHit()) >= 0) {
+      // logically deleted rows stay in the index until they are purged
+      if (!_file.isTupleDeleted(position)) {
+        tid.copyTid(tidAt(position));
+        return _file.getTuple(tid);
+      }
+    }
+    return null;
+  }
+
+  // position of the next index entry, -1 at the end
+  private int nextHit()
+      throws Exception {
+    KeyDataEntry entry = _keyFlds != null ? _compositeScan.get_next()
+        : _columnIndexScan.get_next_KeyDataEntry();
+    return entry != null ? hitOf(entry) : -1;
+  }
+
+  // position of an index entry
+  private int hitOf(KeyDataEntry entry)
+      throws Exception {
     RID rid = ((LeafData) entry.data).getData();
-    Columnarfile f = new Columnarfile(_relName);
-    int position = f.getPositionFromRid(rid, this.fldNum);
-    return f.getTidFromPosition(position);
+    if (_positional)
+      return Columnarfile.ridToPosition(rid);
+    int position = _positions.getPosition(rid, this.fldNum);
+    // a page added after the scan was opened
+    return position >= 0 ? position : _file.getPositionFromRid(rid, this.fldNum);
+  }
+
+  private TID tidAt(int position)
+      throws Exception {
+    TID tid = _positions.getTid(position);
+    // a tuple inserted after the scan was opened
+    return tid != null ? tid : _file.getTidFromPosition(position);
+  }
+
+  // read every qualifying position from the index, a B-tree leaf at a time
+  private BitSet collectHits()
+      throws Exception {
+    BitSet hits = new BitSet();
+    ArrayList<KeyDataEntry> entries;
+    while ((entries = _keyFlds != null ? _compositeScan.get_next_batch()
+        : _columnIndexScan.get_next_KeyDataEntries()) != null) {
+      for (KeyDataEntry entry : entries)
+        hits.set(hitOf(entry));
+    }
+    return hits;
+  }
+
+  // index only over a single column index: the key of the next entry
+  // whose tuple is not deleted
+  private Tuple nextKeyOnly()
+      throws Exception {
+    KeyDataEntry entry;
+    while ((entry = _columnIndexScan.get_next_KeyDataEntry()) != null) {
+      // logically deleted rows stay in the index until they are purged
+      if (DeletionBitmap.open(_relName).count() == 0)
+        return _columnIndexScan.get_key_tuple();
+      if (_file == null) {
+        _file = new Columnarfile(_relName);
+        _positions = _file.getPositionMap();
+      }
+      if (!_file.isTupleDeleted(hitOf(entry)))
+        return _columnIndexScan.get_key_tuple();
+    }
+    return null;
+  }
+
+  // index only over a composite B-tree: build the tuple from the key
+  private Tuple nextFromKey()
+      throws Exception {
+    AttrType[] keyTypes = new AttrType[_indexFlds.length];
+    for (int i = 0; i < _indexFlds.length; i++)
+      keyTypes[i] = types[_indexFlds[i] - 1];
+    KeyDataEntry entry;
+    while ((entry = _compositeScan.get_next()) != null) {
+      int position = Columnarfile.ridToPosition(((LeafData) entry.data).getData());
+      if (_file.isTupleDeleted(position))
+        continue;
+      Object[] values = ((CompositeKey) entry.key).getValues(keyTypes);
+      Tuple tuple = new Tuple();
+      tuple.setHdr((short) noInFlds, types, strSizes);
+      for (int i = 0; i < _indexFlds.length; i++) {
+        if (values[i] instanceof Integer)
+          tuple.setIntFld(_indexFlds[i], ((Integer) values[i]).intValue());
+        else if (values[i] instanceof Float)
+          tuple.setFloFld(_indexFlds[i], ((Float) values[i]).floatValue());
+        else
+          tuple.setStrFld(_indexFlds[i], (String) values[i]);
+      }
+      if (!PredEval.Eval(_selects, tuple, null, types, null))
+        continue;
+      Tuple Jtuple = new Tuple();
+      AttrType[] Jtypes = new AttrType[noOutFlds];
+      TupleUtils.setup_op_tuple(Jtuple, Jtypes, types, noInFlds, strSizes, outFlds, noOutFlds);
+      Projection.Project(tuple, types, Jtuple, outFlds, noOutFlds);
+      return Jtuple;
+    }
+    return null;
+  }
+
+  // the composite B-tree to scan for fldNum: the smallest one holding
+  // every output and select column, else with more than one column in
+  // fldNum any one whose key starts with them, else null
+  private CompositeIndex findComposite(int[] fldNum, CondExpr[] selects)
+      throws IndexException {
+    try {
+      _file = new Columnarfile(_relName);
+      CompositeIndex index = _file.findCoveringIndex(fldNum, neededColumns(selects));
+      if (index == null && fldNum.length > 1)
+        index = _file.findCoveringIndex(fldNum, fldNum);
+      return index;
+    } catch (Exception e) {
+      throw new IndexException(e, "ColumnarIndexScan.java: could not read the indexes of " + _relName);
+    }
+  }
+
+  // the output columns and the columns the selects read
+  private int[] neededColumns(CondExpr[] selects) {
+    java.util.ArrayList<Integer> columns = new java.util.ArrayList<Integer>();
+    for (int i = 0; i < noOutFlds; i++)
+      columns.add(outFlds[i].offset);
+    for (int i = 0; selects != null && i < selects.length && selects[i] != null; i++) {
+      for (CondExpr cd = selects[i]; cd != null; cd = cd.next) {
+        if (cd.type1.attrType == AttrType.attrSymbol)
+          columns.add(cd.operand1.symbol.offset);
+        if (cd.type2.attrType == AttrType.attrSymbol)
+          columns.add(cd.operand2.symbol.offset);
+      }
+    }
+    int[] needed = new int[columns.size()];
+    for (int i = 0; i < needed.length; i++)
+      needed[i] = columns.get(i);
+    return needed;
+  }
+
+  private void openComposite(CompositeIndex index, int[] fldNum, CondExpr[] selects)
+      throws IndexException {
+    if (index == null)
+      throw new IndexException(null, "ColumnarIndexScan.java: no composite index of "
+          + _relName + " starts with column " + fldNum[0]);
+    _keyFlds = index.getKeyColumns();
+    _indexFlds = index.getColumns();
+    _selects = selects;
+    _positional = true;
+    boolean covered = index.covers(neededColumns(selects));
+    if (_indexOnly && !covered)
+      throw new IndexException(null, "ColumnarIndexScan.java: an output or select column is not in the index");
+    // every column the query reads is in the index: skip the column files
+    _indexOnly = covered;
+    try {
+      _positions = _file.getPositionMap();
+      _compositeFile = new BTreeFile(index.getName());
+      _compositeScan = (BTFileScan) IndexUtils.CompositeBTree_scan(selects, _keyFlds, types, _compositeFile);
+    } catch (Exception e) {
+      throw new IndexException(e, "ColumnarIndexScan.java: could not open the composite index of " + _relName);
+    }
   }
 
   public void close() throws IOException, IndexException {
     if (!closeFlag) {
-      _columnIndexScan.close();
+      if (_keyFlds != null) {
+        try {
+          _compositeScan.DestroyBTreeFileScan();
+          _compositeFile.close();
+        } catch (Exception e) {
+          throw new IndexException(e, "ColumnarIndexScan.java: could not close the composite index");
+        }
+      } else {
+        _columnIndexScan.close();
+      }
+      if (_fetch != null)
+        _fetch.closescan();
+      closeFlag = true;
     }
   }
 
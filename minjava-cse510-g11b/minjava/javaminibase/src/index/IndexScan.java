@@ -197,9 +197,24 @@ public class IndexScan extends Iterator {
 	    throw new IndexException(e, "IndexScan.java: Heapfile error");
 	  }	  
 	}
+	else if (_types[_fldNum -1].attrType == AttrType.attrReal) {
+	  attrType[0] = new AttrType(AttrType.attrReal);
+	  try {
+	    Jtuple.setHdr((short) 1, attrType, s_sizes);
+	  }
+	  catch (Exception e) {
+	    throw new IndexException(e, "IndexScan.java: Heapfile error");
+	  }
+	  
+	  try {
+	    Jtuple.setFloFld(1, ((RealKey)nextentry.key).getKey().floatValue());
+	  }
+	  catch (Exception e) {
+	    throw new IndexException(e, "IndexScan.java: Heapfile error");
+	  }	  
+	}
 	else {
-	  // attrReal not supported for now
-	  throw new UnknownKeyTypeException("Only Integer and String keys are supported so far"); 
+	  throw new UnknownKeyTypeException("Only Integer, Real and String keys are supported so far"); 
 	}
 	return Jtuple;
       }
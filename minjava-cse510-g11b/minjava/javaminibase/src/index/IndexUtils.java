@@ -2,13 +2,14 @@ package index;
 import global.*;
 import btree.*;
 import bitmap.*;
+import hash.*;
 import iterator.*;
 import java.io.*;
 
 
 /**
- * IndexUtils class opens an index scan based on selection conditions.
- * Currently only BTree_scan is supported
+ * IndexUtils class opens an index scan based on selection conditions,
+ * for the BTree, bitmap and hash indexes
  */
 public class IndexUtils {
 
@@ -18,7 +19,7 @@ public class IndexUtils {
    * @param indFile the index (BTree) file
    * @return an instance of IndexFileScan (BTreeFileScan)
    * @exception IOException from lower layer
-   * @exception UnknownKeyTypeException only int and string keys are supported 
+   * @exception UnknownKeyTypeException only int, real and string keys are supported 
    * @exception InvalidSelectionException selection conditions (selects) not valid
    * @exception KeyNotMatchException Keys do not match
    * @exception UnpinPageException unpin page failed
@@ -141,18 +142,17 @@ public class IndexUtils {
 	  return indScan;
 	  
 	case AttrType.attrReal:
-	  /*
-	    if ((FloatKey)key1.getKey().floatValue() < (FloatKey)key2.getKey().floatValue()) {
+	  if (((RealKey)key1).getKey().floatValue() < ((RealKey)key2).getKey().floatValue()) {
 	    indScan = ((BTreeFile)indFile).new_scan(key1, key2);
-	    }
-	    else {
+	  }
+	  else {
 	    indScan = ((BTreeFile)indFile).new_scan(key2, key1);
-	    }
-	    return indScan;
-	  */
+	  }
+	  return indScan;
+	  
 	default:
 	  // error condition
-	  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer and String keys are supported so far");	
+	  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer, Real and String keys are supported so far");	
 	}
       } // end of else 
       
@@ -164,7 +164,7 @@ public class IndexUtils {
      * @param indFile the index (BTree) file
      * @return an instance of IndexFileScan (BTreeFileScan)
      * @exception IOException from lower layer
-     * @exception UnknownKeyTypeException only int and string keys are supported 
+     * @exception UnknownKeyTypeException only int, real and string keys are supported 
      * @exception InvalidSelectionException selection conditions (selects) not valid
      * @exception KeyNotMatchException Keys do not match
      * @exception UnpinPageException unpin page failed
@@ -306,18 +306,19 @@ public class IndexUtils {
 					return indScan;
 				  
 				case AttrType.attrReal:
-				  /*
-					if ((FloatKey)key1.getKey().floatValue() < (FloatKey)key2.getKey().floatValue()) {
-					indScan = ((BitMapFile)indFile).new_scan(key1, key2);
+					if (((RealKey)key1).getKey().floatValue() < ((RealKey)key2).getKey().floatValue())
+					{
+						indScan = ((BitMapFile)indFile).new_scan(key1, key2);
 					}
-					else {
-					indScan = ((BitMapFile)indFile).new_scan(key2, key1);
+					else
+					{
+						indScan = ((BitMapFile)indFile).new_scan(key2, key1);
 					}
 					return indScan;
-				  */
+				  
 				default:
 				  // error condition
-				  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer and String keys are supported so far");	
+				  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer, Real and String keys are supported so far");	
 			}
 		} // end of else
     } 
@@ -329,7 +330,7 @@ public class IndexUtils {
      * @param indFile the index (BTree) file
      * @return an instance of IndexFileScan (BTreeFileScan)
      * @exception IOException from lower layer
-     * @exception UnknownKeyTypeException only int and string keys are supported 
+     * @exception UnknownKeyTypeException only int, real and string keys are supported 
      * @exception InvalidSelectionException selection conditions (selects) not valid
      * @exception KeyNotMatchException Keys do not match
      * @exception UnpinPageException unpin page failed
@@ -471,29 +472,185 @@ public class IndexUtils {
 					return indScan;
 				  
 				case AttrType.attrReal:
-				  /*
-					if ((FloatKey)key1.getKey().floatValue() < (FloatKey)key2.getKey().floatValue()) {
-					indScan = ((BitMapFile)indFile).new_scan(key1, key2);
+					if (((RealKey)key1).getKey().floatValue() < ((RealKey)key2).getKey().floatValue())
+					{
+						indScan = ((CBitMapFile)indFile).new_scan(key1, key2);
 					}
-					else {
-					indScan = ((BitMapFile)indFile).new_scan(key2, key1);
+					else
+					{
+						indScan = ((CBitMapFile)indFile).new_scan(key2, key1);
 					}
 					return indScan;
-				  */
+				  
 				default:
 				  // error condition
-				  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer and String keys are supported so far");	
+				  throw new UnknownKeyTypeException("IndexUtils.java: Only Integer, Real and String keys are supported so far");	
 			}
 		} // end of else
     } 
 
+  /**
+   * Hash_scan opens a hash index scan based on selection conditions. A hash
+   * index answers a single condition symbol = value, or no condition at all
+   * with a scan of every entry; it has no key order for a range.
+   * @param selects conditions to apply
+   * @param indFile the index (hash) file
+   * @return an instance of IndexFileScan (HashFileScan)
+   * @exception IOException from lower layer
+   * @exception UnknownKeyTypeException only int, real and string keys are supported
+   * @exception InvalidSelectionException selection conditions (selects) not valid,
+   *            or not a single equality
+   * @exception KeyNotMatchException Keys do not match
+   */
+  public static IndexFileScan Hash_scan(CondExpr[] selects, IndexFile indFile)
+    throws IOException,
+	   UnknownKeyTypeException,
+	   InvalidSelectionException,
+	   KeyNotMatchException
+    {
+      if (selects == null || selects[0] == null) {
+	return ((HashFile)indFile).new_scan(null);
+      }
+
+      if (selects[1] != null || selects[0].next != null
+	  || selects[0].op.attrOperator != AttrOperator.aopEQ) {
+	throw new InvalidSelectionException("IndexUtils.java: a hash index answers equality only");
+      }
+
+      // symbol = value
+      if (selects[0].type1.attrType != AttrType.attrSymbol) {
+	return ((HashFile)indFile).new_scan(getValue(selects[0], selects[0].type1, 1));
+      }
+      if (selects[0].type2.attrType != AttrType.attrSymbol) {
+	return ((HashFile)indFile).new_scan(getValue(selects[0], selects[0].type2, 2));
+      }
+      throw new InvalidSelectionException("IndexUtils.java: Invalid selection condition");
+    }
+
+  /**
+   * CompositeBTree_scan opens a scan of a composite BTree based on selection
+   * conditions. Equality on the leading key columns and a range on the key
+   * column after them bound the scan. Conditions on other columns, or in an
+   * OR list, are not used and are left to the caller. As in BTree_scan, a
+   * strict bound (symbol < value, symbol > value) is scanned inclusively.
+   * @param selects conditions to apply
+   * @param fldNum the key columns of the index, in key order
+   * @param types attribute types of the relation
+   * @param indFile the index (BTree) file
+   * @return an instance of IndexFileScan (BTreeFileScan)
+   * @exception IOException from lower layer
+   * @exception UnknownKeyTypeException only int, real and string keys are supported 
+   * @exception KeyNotMatchException Keys do not match
+   * @exception UnpinPageException unpin page failed
+   * @exception PinPageException pin page failed
+   * @exception IteratorException iterator exception
+   * @exception ConstructPageException failed to construct a header page
+   */
+  public static IndexFileScan CompositeBTree_scan(CondExpr[] selects, int[] fldNum,
+						  AttrType[] types, IndexFile indFile)
+    throws IOException, 
+	   UnknownKeyTypeException, 
+	   KeyNotMatchException,
+	   UnpinPageException,
+	   PinPageException,
+	   IteratorException,
+	   ConstructPageException
+    {
+      CompositeKey prefix = new CompositeKey();
+      int k = 0;
+      CondExpr cd;
+      while (k < fldNum.length
+	     && (cd = findCondition(selects, fldNum[k], AttrOperator.aopEQ, AttrOperator.aopEQ)) != null) {
+	appendValue(prefix, cd, types[fldNum[k] - 1]);
+	k++;
+      }
+      
+      CompositeKey lo = prefix;
+      CompositeKey hi = prefix;
+      if (k < fldNum.length) {
+	cd = findCondition(selects, fldNum[k], AttrOperator.aopGE, AttrOperator.aopGT);
+	if (cd != null) {
+	  lo = new CompositeKey(prefix.getKey());
+	  appendValue(lo, cd, types[fldNum[k] - 1]);
+	}
+	cd = findCondition(selects, fldNum[k], AttrOperator.aopLE, AttrOperator.aopLT);
+	if (cd != null) {
+	  hi = new CompositeKey(prefix.getKey());
+	  appendValue(hi, cd, types[fldNum[k] - 1]);
+	}
+      }
+      
+      // the high key bounds every key that starts with it, whatever
+      // the values of the columns after it
+      return ((BTreeFile)indFile).new_scan(lo.getLength() == 0 ? null : lo,
+					   hi.getLength() == 0 ? null : hi.asPrefix());
+    }
+  
+  /**
+   * findCondition returns the first single (not ORed) condition of the
+   * form symbol op value on a column, with op one of two operators.
+   * value op symbol is read as symbol op' value, with op' mirrored.
+   */
+  private static CondExpr findCondition(CondExpr[] selects, int column, int op1, int op2)
+    {
+      if (selects == null) {
+	return null;
+      }
+      for (int i = 0; i < selects.length && selects[i] != null; i++) {
+	CondExpr cd = selects[i];
+	if (cd.next != null) {
+	  continue;
+	}
+	int op = cd.op.attrOperator;
+	if (cd.type1.attrType == AttrType.attrSymbol && cd.type2.attrType != AttrType.attrSymbol) {
+	  if (cd.operand1.symbol.offset != column) continue;
+	}
+	else if (cd.type2.attrType == AttrType.attrSymbol && cd.type1.attrType != AttrType.attrSymbol) {
+	  if (cd.operand2.symbol.offset != column) continue;
+	  if (op == AttrOperator.aopLT) op = AttrOperator.aopGT;
+	  else if (op == AttrOperator.aopGT) op = AttrOperator.aopLT;
+	  else if (op == AttrOperator.aopLE) op = AttrOperator.aopGE;
+	  else if (op == AttrOperator.aopGE) op = AttrOperator.aopLE;
+	}
+	else {
+	  continue;
+	}
+	if (op == op1 || op == op2) {
+	  return cd;
+	}
+      }
+      return null;
+    }
+  
+  /**
+   * appendValue appends the value operand of a condition to a composite key.
+   */
+  private static void appendValue(CompositeKey key, CondExpr cd, AttrType type)
+    throws UnknownKeyTypeException
+    {
+      Operand value = (cd.type1.attrType == AttrType.attrSymbol) ? cd.operand2 : cd.operand1;
+      switch (type.attrType) {
+      case AttrType.attrString:
+	key.append(value.string);
+	break;
+      case AttrType.attrInteger:
+	key.append(value.integer);
+	break;
+      case AttrType.attrReal:
+	key.append(value.real);
+	break;
+      default:
+	throw new UnknownKeyTypeException("IndexUtils.java: Only Integer, Real and String keys are supported so far");
+      }
+    }
+  
   /**
    * getValue returns the key value extracted from the selection condition.
    * @param cd the selection condition
    * @param type attribute type of the selection field
    * @param choice first (1) or second (2) operand is the value
-   * @return an instance of the KeyClass (IntegerKey or StringKey)
-   * @exception UnknownKeyTypeException only int and string keys are supported 
+   * @return an instance of the KeyClass (IntegerKey, RealKey or StringKey)
+   * @exception UnknownKeyTypeException only int, real and string keys are supported 
    */
   private static KeyClass getValue(CondExpr cd, AttrType type, int choice)
        throws UnknownKeyTypeException
@@ -514,13 +671,10 @@ public class IndexUtils {
       if (choice == 1) return new IntegerKey(new Integer(cd.operand1.integer));
       else return new IntegerKey(new Integer(cd.operand2.integer));
     case AttrType.attrReal:
-      /*
-      // need FloatKey class in bt.java
-      if (choice == 1) return new FloatKey(new Float(cd.operand.real));
-      else return new FloatKey(new Float(cd.operand.real));
-      */
+      if (choice == 1) return new RealKey(new Float(cd.operand1.real));
+      else return new RealKey(new Float(cd.operand2.real));
     default:
-	throw new UnknownKeyTypeException("IndexUtils.java: Only Integer and String keys are supported so far");
+	throw new UnknownKeyTypeException("IndexUtils.java: Only Integer, Real and String keys are supported so far");
     }
     
   }
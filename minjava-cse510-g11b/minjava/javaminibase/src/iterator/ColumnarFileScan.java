@@ -90,7 +90,8 @@ public class ColumnarFileScan extends  Iterator
       }
       
       try {
-	scan = f.openTupleScan();
+	// pages whose zone map rules out outFilter are never read
+	scan = f.openTupleScan(outFilter);
       }
       catch(Exception e){
 	throw new FileScanException(e, "openScan() failed");
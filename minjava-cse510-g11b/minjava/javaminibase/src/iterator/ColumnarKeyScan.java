@@ -0,0 +1,155 @@
+package iterator;
+
+
+import heap.*;
+import global.*;
+import columnar.Columnarfile;
+
+
+import java.lang.*;
+import java.io.*;
+
+/**
+ *Scan one column of a columnar file as (value, page number, slot number)
+ *tuples, the rid being where the value is stored in the column file.
+ *This is the input BTreeFile.bulkLoad() expects once it is sorted.
+ *For a position index the tuples are (value, position, 0) instead.
+ */
+public class ColumnarKeyScan extends Iterator
+{
+  private Scan      scan;
+  private AttrType[] types;
+  private short[]   s_sizes;
+  private Tuple     Jtuple;
+  private RID       rid;
+  private boolean   positions;
+  private int       position;
+
+  /**
+   *constructor
+   *@param f the columnar file
+   *@param column the column to scan (1-based)
+   *@exception IOException some I/O fault
+   *@exception FileScanException exception from this class
+   */
+  public ColumnarKeyScan(Columnarfile f, int column)
+    throws IOException,
+	   FileScanException
+    {
+      this(f, column, false);
+    }
+
+  /**
+   *constructor
+   *@param f the columnar file
+   *@param column the column to scan (1-based)
+   *@param positions output the tuple position instead of the rid
+   *@exception IOException some I/O fault
+   *@exception FileScanException exception from this class
+   */
+  public ColumnarKeyScan(Columnarfile f, int column, boolean positions)
+    throws IOException,
+	   FileScanException
+    {
+      this.positions = positions;
+      position = -1;
+      types = new AttrType[3];
+      types[0] = new AttrType(f.type[column-1].attrType);
+      types[1] = new AttrType(AttrType.attrInteger);
+      types[2] = new AttrType(AttrType.attrInteger);
+
+      // size of this column among the string sizes of the file
+      s_sizes = new short[1];
+      if (types[0].attrType == AttrType.attrString) {
+	int strIndex = 0;
+	for (int i = 0; i < column-1; i++)
+	  if (f.type[i].attrType == AttrType.attrString)
+	    strIndex++;
+	s_sizes[0] = f.strSizes[strIndex];
+      }
+
+      Jtuple = new Tuple();
+      try {
+	Jtuple.setHdr((short)3, types, s_sizes);
+	scan = f.openColumnScan(column);
+      }
+      catch (Exception e) {
+	throw new FileScanException(e, "open column scan failed");
+      }
+      rid = new RID();
+    }
+
+  /**
+   *@return the attribute types of the output tuples
+   */
+  public AttrType[] getOutputTypes()
+    {
+      return types;
+    }
+
+  /**
+   *@return the string sizes of the output tuples
+   */
+  public short[] getStrSizes()
+    {
+      return s_sizes;
+    }
+
+  /**
+   *@return the next (value, page number, slot number) tuple, or
+   *(value, position, 0) for positions, null at the end
+   *@exception JoinsException some join exception
+   *@exception IOException I/O errors
+   *@exception InvalidTupleSizeException invalid tuple size
+   *@exception InvalidTypeException tuple type not valid
+   *@exception FieldNumberOutOfBoundException field number out of bound
+   */
+  public Tuple get_next()
+    throws JoinsException,
+	   IOException,
+	   InvalidTupleSizeException,
+	   InvalidTypeException,
+	   FieldNumberOutOfBoundException
+    {
+      Tuple t = scan.getNext(rid);
+      if (t == null)
+	return null;
+
+      byte[] data = t.getTupleByteArray();
+      switch (types[0].attrType) {
+      case AttrType.attrInteger:
+	Jtuple.setIntFld(1, Convert.getIntValue(0, data));
+	break;
+      case AttrType.attrReal:
+	Jtuple.setFloFld(1, Convert.getFloValue(0, data));
+	break;
+      case AttrType.attrString:
+	Jtuple.setStrFld(1, Convert.getStrValue(0, data, data.length));
+	break;
+      default:
+	throw new InvalidTypeException(null, "ColumnarKeyScan: unsupported attribute type");
+      }
+      position++;
+      if (positions) {
+	Jtuple.setIntFld(2, position);
+	Jtuple.setIntFld(3, 0);
+      }
+      else {
+	Jtuple.setIntFld(2, rid.pageNo.pid);
+	Jtuple.setIntFld(3, rid.slotNo);
+      }
+      return Jtuple;
+    }
+
+  /**
+   *implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   */
+  public void close()
+    {
+      if (!closeFlag) {
+	scan.closescan();
+	closeFlag = true;
+      }
+    }
+}
@@ -1,5 +1,5 @@
 package iterator;
-   
+
 
 import heap.*;
 import global.*;
@@ -7,158 +7,425 @@ import bufmgr.*;
 import columnar.Columnarfile;
 import columnar.TupleScan;
 import diskmgr.*;
+import index.*;
 
 
 import java.lang.*;
 import java.io.*;
-import java.util.*;
-
-public class ColumnarNestedLoopJoins extends Iterator {
-    private AttrType[] r;
-    private int len_r;
-    private AttrType[] c;
-    private int len_c;
-    private short[] c_str_sizes;
-    private Iterator itr;
-    private String columnarFileName;
-    private CondExpr[] OutputFilter;
-    private CondExpr[] RightFilter;
-    private FldSpec[] proj;
-    private int buffer;
-    private boolean completed,outer;
-    private Heapfile hf;
-    private Scan sc;
-    private Tuple outer_tuple, inner_tuple;
-    private Tuple joined_tuple; 
-
-
-    public ColumnarNestedLoopJoins(
-            AttrType[] in1,
-            int len_in1,
-            short[] t1_str_sizes,
-            AttrType[] in2,
-            int len_in2,
-            short[] t2_str_sizes,
-            int amt_of_mem,
-            Iterator am1,
-            String columnarFileName,
-            CondExpr[] outFilter,
-            CondExpr[] rightFilter,
-            FldSpec[] proj_list,
-            int n_out_flds) {  
-      
-      AttrType[] r=new AttrType[in1.length];
-      AttrType[] s=new AttrType[in2.length];
-      r=Arrays.copyOf(in1,in1.length);
-      c=Arrays.copyOf(in2,in2.length);
-      int in1_len=len_in1;
-      int in2_len=len_in2;
-             
-      itr = am1;
-      c_str_sizes=t2_str_sizes;
+import java.util.ArrayList;
+
+/**
+ *
+ *  Block nested loops join of any outer iterator with a columnar file as
+ *  the inner relation:
+ *
+ *      foreach block B of amt_of_mem - 2 pages of tuples of R do
+ *          foreach tuple s in columnar file S do
+ *              foreach tuple r in B do
+ *                  if (ri == sj) then add (r, s) to the result.
+ *
+ *  When the join condition has an equality term between an outer field
+ *  and an inner column, the value of each r is used to probe S before it
+ *  goes into a block: if the column has a Bloom filter that rules the
+ *  value out, r is dropped. The scan of S for a block then only reads the
+ *  pages whose zone map overlaps the range of the block's values (and,
+ *  when they are all equal, whose Bloom filter allows a match).
+ */
+
+public class ColumnarNestedLoopJoins  extends Iterator
+{
+  private AttrType      _in1[],  _in2[];
+  private   int        in1_len, in2_len;
+  private   Iterator  outer;
+  private   short t2_str_sizescopy[];
+  private   CondExpr OutputFilter[];
+  private   CondExpr RightFilter[];
+  private   int        n_buf_pgs;        // # of buffer pages available.
+  private   boolean        done,         // Is the join complete
+    get_from_outer,                 // if TRUE, a block is got from outer
+    outer_done;                     // if TRUE, outer has no more tuples
+  private   ArrayList<Tuple> block;     // copies of the outer tuples of the block
+  private   int        block_bytes;      // size of a block
+  private   int        block_pos;        // next outer tuple to match inner_tuple with
+  private   Tuple     low_tuple, high_tuple;  // block tuples with the least and greatest join value
+  private   Tuple     outer_tuple, inner_tuple;
+  private   Tuple     Jtuple;           // Joined tuple
+  private   FldSpec   perm_mat[];
+  private   int        nOutFlds;
+  private   Columnarfile  cf;
+  private   TupleScan inner;
+  private   int        probeOuterFld;    // outer field of the equality term, 0 if none
+  private   int        probeInnerFld;    // inner column of the equality term
+
+
+  /**constructor
+   *Initialize the two relations which are joined, including relation type,
+   *@param in1  Array containing field types of R.
+   *@param len_in1  # of columns in R.
+   *@param t1_str_sizes shows the length of the string fields.
+   *@param in2  Array containing field types of S
+   *@param len_in2  # of columns in S
+   *@param  t2_str_sizes shows the length of the string fields.
+   *@param amt_of_mem  IN PAGES
+   *@param am1  access method for left i/p to join
+   *@param columnarFileName  columnar file for right i/p to join
+   *@param outFilter   select expressions
+   *@param rightFilter reference to filter applied on right i/p
+   *@param proj_list shows what input fields go where in the output tuple
+   *@param n_out_flds number of outer relation fileds
+   *@exception IOException some I/O fault
+   *@exception NestedLoopException exception from this class
+   */
+  public ColumnarNestedLoopJoins( AttrType    in1[],
+				  int     len_in1,
+				  short   t1_str_sizes[],
+				  AttrType    in2[],
+				  int     len_in2,
+				  short   t2_str_sizes[],
+				  int     amt_of_mem,
+				  Iterator     am1,
+				  String columnarFileName,
+				  CondExpr outFilter[],
+				  CondExpr rightFilter[],
+				  FldSpec   proj_list[],
+				  int        n_out_flds
+				  ) throws IOException,NestedLoopException
+    {
+
+      _in1 = new AttrType[in1.length];
+      _in2 = new AttrType[in2.length];
+      System.arraycopy(in1,0,_in1,0,in1.length);
+      System.arraycopy(in2,0,_in2,0,in2.length);
+      in1_len = len_in1;
+      in2_len = len_in2;
+
+
+      outer = am1;
+      t2_str_sizescopy =  t2_str_sizes;
       inner_tuple = new Tuple();
-      outer_tuple = new Tuple();
-      joined_tuple = new Tuple();
+      Jtuple = new Tuple();
       OutputFilter = outFilter;
       RightFilter  = rightFilter;
-      
-      buffer    = amt_of_mem;
-      sc = null;
-      boolean done  = false;
-      outer = true;
-      
+
+      n_buf_pgs    = amt_of_mem;
+      block_bytes  = Math.max(1, n_buf_pgs - 2) * GlobalConst.MINIBASE_PAGESIZE;
+      block = new ArrayList<Tuple>();
+      inner = null;
+      done  = false;
+      get_from_outer = true;
+      outer_done = false;
+
       AttrType[] Jtypes = new AttrType[n_out_flds];
       short[]    t_size;
-      
-      FldSpec[] list_proj = proj_list;
-      int OutFlds = n_out_flds;
-
 
+      perm_mat = proj_list;
+      nOutFlds = n_out_flds;
       try {
-	           t_size = TupleUtils.setup_op_tuple(joined_tuple, Jtypes,
+	t_size = TupleUtils.setup_op_tuple(Jtuple, Jtypes,
 					   in1, len_in1, in2, len_in2,
 					   t1_str_sizes, t2_str_sizes,
-					   proj_list, OutFlds);
+					   proj_list, nOutFlds);
       }catch (TupleUtilsException e){
-	throw new NestedLoopException(e,"TupleUtilsException");
+	throw new NestedLoopException(e,"TupleUtilsException is caught by ColumnarNestedLoopJoins.java");
       }
-      
-      
-      
+
+
+
       try {
-	  hf = new Heapfile(columnarFileName);
-	  
+	  cf = new Columnarfile(columnarFileName);
+
       }
       catch(Exception e) {
-	throw new NestedLoopException(e, "heapfile failed.");
+	throw new NestedLoopException(e, "Open columnar file failed.");
       }
+
+      findProbeTerm();
     }
-  
+
+  /**
+   *@return The joined tuple is returned
+   *@exception IOException I/O errors
+   *@exception JoinsException some join exception
+   *@exception IndexException exception from super class
+   *@exception InvalidTupleSizeException invalid tuple size
+   *@exception InvalidTypeException tuple type not valid
+   *@exception PageNotReadException exception from lower layer
+   *@exception TupleUtilsException exception from using tuple utilities
+   *@exception PredEvalException exception from PredEval class
+   *@exception SortException sort exception
+   *@exception LowMemException memory error
+   *@exception UnknowAttrType attribute type unknown
+   *@exception UnknownKeyTypeException key type unknown
+   *@exception Exception other exceptions
+
+   */
   public Tuple get_next()
-    throws Exception
+    throws IOException,
+	   JoinsException ,
+	   IndexException,
+	   InvalidTupleSizeException,
+	   InvalidTypeException,
+	   PageNotReadException,
+	   TupleUtilsException,
+	   PredEvalException,
+	   SortException,
+	   LowMemException,
+	   UnknowAttrType,
+	   UnknownKeyTypeException,
+	   Exception
     {
-      
-      
       if (done)
-	      return null;
-      
+	return null;
+
       do
 	{
-	  
-	  if (outer == true)
+	  // If get_from_outer is true, close the scan on the inner file,
+	  // fill a new block from the outer, and reopen a scan that only
+	  // covers the inner pages that may match the new block.
+
+	  if (get_from_outer == true)
 	    {
-	      outer = false;
-	   	    
+	      get_from_outer = false;
+	      closeInner();
+	      inner_tuple = null;
+
+	      if (!fillBlock())
+		{
+		  done = true;
+		  return null;
+		}
+
 	      try {
-		sc = hf.openScan();
+		inner = cf.openTupleScan(innerPruning());
 	      }
 	      catch(Exception e){
-		throw new NestedLoopException(e, "openScan failed");
+		throw new NestedLoopException(e, "openTupleScan failed");
 	      }
-	      
-	      if ((outer_tuple=outer.get_next()) == null)
-		{
-		  done = true;
-		  if (sc != null) 
-		    {
-                      
-		      sc = null;
-		    }
-		  
-		  return null;
-		}   
-	    } 
-	 
-	      RID rid = new RID();
-	      while ((inner_tuple = sc.getNext(rid)) != null)
+	    }  // ENDS: if (get_from_outer == TRUE)
+
+
+	  // Match the current inner tuple with the rest of the block, then
+	  // get the next inner tuple that passes RightFilter, until the
+	  // inner is completely scanned.
+
+	  do
+	    {
+	      if (inner_tuple != null)
 		{
-		  inner_tuple.setHdr((short)in2_len, c,c_str_sizes);
-		  if (PredEval.Eval(RightFilter, inner_tuple, null, c, null) == true)
+		  while (block_pos < block.size())
 		    {
-		      if (PredEval.Eval(OutputFilter, outer_tuple, inner_tuple, r, c) == true)
+		      outer_tuple = block.get(block_pos++);
+		      if (PredEval.Eval(OutputFilter, outer_tuple, inner_tuple, _in1, _in2) == true)
 			{
-			  Projection.Join(outer_tuple, r, 
-					  inner_tuple, c, 
-					  Jtuple, list_proj, OutFlds);
+			  // Apply a projection on the outer and inner tuples.
+			  Projection.Join(outer_tuple, _in1,
+					  inner_tuple, _in2,
+					  Jtuple, perm_mat, nOutFlds);
 			  return Jtuple;
 			}
 		    }
 		}
-	      
-	      outer = true;       
+
+	      TID tid = new TID(in2_len);
+	      while ((inner_tuple = inner.getNext(tid)) != null)
+		{
+		  inner_tuple.setHdr((short)in2_len, _in2,t2_str_sizescopy);
+		  if (PredEval.Eval(RightFilter, inner_tuple, null, _in2, null) == true)
+		    break;
+		}
+	      block_pos = 0;
+	    } while (inner_tuple != null);
+
+	  // The inner is exhausted for this block, => set get_from_outer
+	  // = TRUE, go to top of loop
+
+	  get_from_outer = true; // Loop back to top and get next block.
 	} while (true);
-    } 
- 
-  public void close() throws JoinsException, IOException,IndexException 
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception IOException I/O error from lower layers
+   *@exception JoinsException join error from lower layers
+   *@exception IndexException index access error
+   */
+  public void close() throws JoinsException, IOException,IndexException
     {
       if (!closeFlag) {
-	
+
+	closeInner();
 	try {
 	  outer.close();
-	}
-  catch (Exception e) {
-	  throw new Exception(e);
+	}catch (Exception e) {
+	  throw new JoinsException(e, "ColumnarNestedLoopJoins.java: error in closing iterator.");
 	}
 	closeFlag = true;
       }
     }
+
+  private void closeInner()
+    {
+      if (inner != null) {
+	inner.closetuplescan();
+	inner = null;
+      }
+    }
+
+  /**
+   * Look for a conjunct of OutputFilter that is a single equality between
+   * an outer field and an inner column of the same type.
+   */
+  private void findProbeTerm()
+    {
+      probeOuterFld = 0;
+      if (OutputFilter == null)
+	return;
+      for (int i = 0; OutputFilter[i] != null; i++) {
+	CondExpr e = OutputFilter[i];
+	if (e.next != null || e.op.attrOperator != AttrOperator.aopEQ
+	    || e.type1.attrType != AttrType.attrSymbol || e.type2.attrType != AttrType.attrSymbol)
+	  continue;
+	FldSpec outerFld, innerFld;
+	if (e.operand1.symbol.relation.key == RelSpec.outer
+	    && e.operand2.symbol.relation.key == RelSpec.innerRel) {
+	  outerFld = e.operand1.symbol;
+	  innerFld = e.operand2.symbol;
+	} else if (e.operand1.symbol.relation.key == RelSpec.innerRel
+		   && e.operand2.symbol.relation.key == RelSpec.outer) {
+	  outerFld = e.operand2.symbol;
+	  innerFld = e.operand1.symbol;
+	} else {
+	  continue;
+	}
+	if (_in1[outerFld.offset-1].attrType != _in2[innerFld.offset-1].attrType)
+	  continue;
+	probeOuterFld = outerFld.offset;
+	probeInnerFld = innerFld.offset;
+	return;
+      }
+    }
+
+  /**
+   * Replace the block with copies of the next outer tuples, up to
+   * block_bytes of them, leaving out those the Bloom filter of the
+   * inner join column rules out, and note the least and greatest join
+   * value of the block.
+   * @return false if the outer has no tuples left
+   */
+  private boolean fillBlock() throws Exception
+    {
+      block.clear();
+      low_tuple = high_tuple = null;
+      int bytes = 0;
+      while (!outer_done && bytes < block_bytes) {
+	Tuple t = outer.get_next();
+	if (t == null) {
+	  outer_done = true;
+	  break;
+	}
+	byte[] probe = probeValue(t);
+	if (probe != null && !cf.mayContain(probeInnerFld, probe))
+	  continue;
+	t = new Tuple(t);
+	block.add(t);
+	bytes += t.getLength();
+	if (probe == null)
+	  continue;
+	AttrType type = _in1[probeOuterFld-1];
+	if (low_tuple == null
+	    || TupleUtils.CompareTupleWithTuple(type, t, probeOuterFld, low_tuple, probeOuterFld) < 0)
+	  low_tuple = t;
+	if (high_tuple == null
+	    || TupleUtils.CompareTupleWithTuple(type, t, probeOuterFld, high_tuple, probeOuterFld) > 0)
+	  high_tuple = t;
+      }
+      return !block.isEmpty();
+    }
+
+  /**
+   * @return the join value of outer tuple t in column file format, or
+   * null if there is no equality term to probe with
+   */
+  private byte[] probeValue(Tuple t)
+    throws IOException, FieldNumberOutOfBoundException
+    {
+      if (probeOuterFld == 0)
+	return null;
+      byte[] data;
+      switch (_in1[probeOuterFld-1].attrType) {
+      case AttrType.attrInteger:
+	data = new byte[4];
+	Convert.setIntValue(t.getIntFld(probeOuterFld), 0, data);
+	return data;
+      case AttrType.attrReal:
+	data = new byte[4];
+	Convert.setFloValue(t.getFloFld(probeOuterFld), 0, data);
+	return data;
+      case AttrType.attrString:
+	String s = t.getStrFld(probeOuterFld);
+	data = new byte[3 * s.length() + 2];
+	Convert.setStrValue(s, 0, data);
+	return data;
+      default:
+	return null;
+      }
+    }
+
+  /**
+   * Selection on the inner file used to prune its pages: the range of
+   * the block's join values (an equality when there is only one)
+   * followed by RightFilter. It is only used to skip pages; every inner
+   * tuple is still checked against RightFilter and OutputFilter.
+   */
+  private CondExpr[] innerPruning()
+    throws IOException, FieldNumberOutOfBoundException, UnknowAttrType, TupleUtilsException
+    {
+      if (low_tuple == null)
+	return RightFilter;
+      int rightCount = 0;
+      if (RightFilter != null)
+	while (RightFilter[rightCount] != null)
+	  rightCount++;
+
+      boolean single = TupleUtils.CompareTupleWithTuple(_in1[probeOuterFld-1],
+	  low_tuple, probeOuterFld, high_tuple, probeOuterFld) == 0;
+      int bounds = single ? 1 : 2;
+      CondExpr[] expr = new CondExpr[rightCount + bounds + 1];
+      if (single) {
+	expr[0] = bound(AttrOperator.aopEQ, low_tuple);
+      } else {
+	expr[0] = bound(AttrOperator.aopGE, low_tuple);
+	expr[1] = bound(AttrOperator.aopLE, high_tuple);
+      }
+      for (int i = 0; i < rightCount; i++)
+	expr[i + bounds] = RightFilter[i];
+      expr[rightCount + bounds] = null;
+      return expr;
+    }
+
+  /**
+   * @return the term comparing the inner join column with the join value
+   * of outer tuple t using operator op
+   */
+  private CondExpr bound(int op, Tuple t)
+    throws IOException, FieldNumberOutOfBoundException
+    {
+      CondExpr e = new CondExpr();
+      e.op = new AttrOperator(op);
+      e.type1 = new AttrType(AttrType.attrSymbol);
+      e.type2 = new AttrType(_in1[probeOuterFld-1].attrType);
+      e.operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), probeInnerFld);
+      switch (_in1[probeOuterFld-1].attrType) {
+      case AttrType.attrInteger:
+	e.operand2.integer = t.getIntFld(probeOuterFld);
+	break;
+      case AttrType.attrReal:
+	e.operand2.real = t.getFloFld(probeOuterFld);
+	break;
+      default:
+	e.operand2.string = t.getStrFld(probeOuterFld);
+      }
+      return e;
+    }
+}
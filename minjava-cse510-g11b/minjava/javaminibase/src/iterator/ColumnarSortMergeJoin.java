@@ -0,0 +1,347 @@
+package iterator;
+
+import heap.*;
+import global.*;
+import columnar.Columnarfile;
+import columnar.PositionReader;
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Sort merge join of two columnar files R and S on an equality between
+ * a column of each.
+ *
+ * Unlike SortMerge, which sorts whole tuples, only the join column of
+ * each file is sorted, as (value, position) tuples read by a
+ * ColumnarKeyScan, so the sort runs and comparisons are as wide as the
+ * join column and not as the row. The two sorted streams are merged a
+ * join value at a time, keeping only the positions of the value on each
+ * side, and only then are the tuples at those positions read, in
+ * position order, with just the columns that the projection and
+ * outFilter use; the other columns are left empty. Each tuple of R is
+ * read once. The tuples of S are kept for the value while they fit in
+ * the pages of amt_of_mem the sorts leave over (one or two), and are
+ * read again for each tuple of R otherwise, so a join value shared by
+ * many tuples takes no more memory than a rare one. Deleted tuples are
+ * left out.
+ *
+ * Each pair of tuples with equal join columns is checked against
+ * outFilter before it is projected, so outFilter may hold more
+ * conditions than the join equality. The result comes out in
+ * ascending order of the join column.
+ */
+public class ColumnarSortMergeJoin extends Iterator implements GlobalConst
+{
+  private  AttrType  _in1[], _in2[];
+  private  int        jc_in1, jc_in2;
+  private  AttrType  keyType;
+  private  CondExpr  OutputFilter[];
+  private  Tuple     Jtuple;
+  private  FldSpec   perm_mat[];
+  private  int        nOutFlds;
+  private  Columnarfile  cf1, cf2;
+  private  PositionReader reader1, reader2;
+  private  Sort      keys1, keys2;            // (value, position) of each file in value order
+  private  Tuple     key1, key2;              // the next undeleted key tuple of each
+  private  boolean   started, done;
+  private  int       group1[], group2[];      // positions of the current join value
+  private  int        i1, i2;                 // next pair of the groups
+  private  Tuple     t1;                      // the tuple of R at group1[i1]
+  private  Tuple     inner[];                 // the tuples of group2, null if not kept
+  private  long      innerBytes;              // room to keep them in
+
+  /** Fewest pages of amt_of_mem: the 3 pages a Sort needs for each
+   * file, and one to keep tuples of S in. */
+  public static final int MIN_MEM = 2 * 3 + 1;
+
+  /**
+   *constructor,initialization
+   *@param in1[]   Array containing field types of R
+   *@param len_in1  # of columns in R
+   *@param s1_sizes  shows the length of the string fields in R.
+   *@param in2[]  Array containing field types of S
+   *@param len_in2  # of columns in S
+   *@param s2_sizes shows the length of the string fields in S
+   *@param join_col_in1  The col of R to be joined with S
+   *@param join_col_in2  the col of S to be joined with R
+   *@param relName1  columnar file of R
+   *@param relName2  columnar file of S
+   *@param amt_of_mem   IN PAGES, shared by the two sorts and the tuples
+   *                    of S kept for a join value; at least MIN_MEM
+   *@param outFilter[]  Ptr to the output filter
+   *@param proj_list shows what input fields go where in the output tuple
+   *@param n_out_flds number of outer relation fileds
+   *@exception JoinsException the join columns are not of one type, or
+   *a file could not be opened
+   *@exception TupleUtilsException exception from using tuple utils
+   *@exception SortException the sorts could not be set up
+   *@exception LowMemException amt_of_mem is less than MIN_MEM
+   *@exception IOException some I/O fault
+   */
+  public ColumnarSortMergeJoin(AttrType    in1[],
+			       int     len_in1,
+			       short   s1_sizes[],
+			       AttrType    in2[],
+			       int     len_in2,
+			       short   s2_sizes[],
+
+			       int     join_col_in1,
+			       int     join_col_in2,
+
+			       String  relName1,
+			       String  relName2,
+			       int     amt_of_mem,
+
+			       CondExpr  outFilter[],
+			       FldSpec   proj_list[],
+			       int       n_out_flds
+			       )
+    throws JoinsException,
+	   TupleUtilsException,
+	   SortException,
+	   LowMemException,
+	   IOException
+    {
+      _in1 = new AttrType[in1.length];
+      _in2 = new AttrType[in2.length];
+      System.arraycopy(in1,0,_in1,0,in1.length);
+      System.arraycopy(in2,0,_in2,0,in2.length);
+
+      Jtuple = new Tuple();
+      AttrType[] Jtypes = new AttrType[n_out_flds];
+      perm_mat = proj_list;
+      nOutFlds = n_out_flds;
+      try {
+	TupleUtils.setup_op_tuple(Jtuple, Jtypes,
+				  in1, len_in1, in2, len_in2,
+				  s1_sizes, s2_sizes,
+				  proj_list, n_out_flds);
+      }catch (Exception e){
+	throw new TupleUtilsException (e, "Exception is caught by ColumnarSortMergeJoin.java");
+      }
+
+      jc_in1 = join_col_in1;
+      jc_in2 = join_col_in2;
+      keyType = new AttrType(_in1[jc_in1-1].attrType);
+      if (keyType.attrType != _in2[jc_in2-1].attrType)
+	throw new JoinsException("ColumnarSortMergeJoin.java: the join columns are not of one type");
+      OutputFilter = outFilter;
+
+      // each sort gets half of amt_of_mem, less the page kept for S
+      if (amt_of_mem < MIN_MEM)
+	throw new LowMemException("ColumnarSortMergeJoin.java: needs at least "
+				  + MIN_MEM + " pages, got " + amt_of_mem);
+      int sortPages = (amt_of_mem - 1) / 2;
+
+      try {
+	cf1 = new Columnarfile(relName1);
+	cf2 = new Columnarfile(relName2);
+	reader1 = new PositionReader(cf1, len_in1, usedColumns(RelSpec.outer, jc_in1));
+	reader2 = new PositionReader(cf2, len_in2, usedColumns(RelSpec.innerRel, jc_in2));
+      }catch (Exception e){
+	throw new JoinsException(e, "ColumnarSortMergeJoin.java: could not open the columnar files");
+      }
+
+      keys1 = sortKeys(cf1, jc_in1, sortPages);
+      keys2 = sortKeys(cf2, jc_in2, sortPages);
+      innerBytes = (long) (amt_of_mem - 2 * sortPages) * MINIBASE_PAGESIZE;
+      group1 = new int[0];
+      group2 = new int[0];
+    }
+
+  /**
+   *The join is performed on the join values in ascending order.
+   *@return the joined tuple is returned
+   *@exception Exception errors from the sorts or the columnar files
+   */
+  public Tuple get_next()
+    throws Exception
+    {
+      if (done)
+	return null;
+
+      while (true) {
+	while (i1 < group1.length) {
+	  if (t1 == null)
+	    t1 = reader1.read(group1[i1]);
+	  while (i2 < group2.length) {
+	    Tuple t2 = inner != null ? inner[i2] : reader2.read(group2[i2]);
+	    i2++;
+	    if (PredEval.Eval(OutputFilter, t1, t2, _in1, _in2)) {
+	      Projection.Join(t1, _in1, t2, _in2, Jtuple, perm_mat, nOutFlds);
+	      return Jtuple;
+	    }
+	  }
+	  i1++;
+	  i2 = 0;
+	  t1 = null;
+	}
+
+	if (!nextGroup()) {
+	  done = true;
+	  return null;
+	}
+      }
+    }
+
+  /**
+   * Advance both sorted streams to the next join value they share and
+   * put its positions in group1 and group2.
+   * @return false when one of the streams is exhausted
+   */
+  private boolean nextGroup()
+    throws Exception
+    {
+      group1 = group2 = new int[0];
+      inner = null;
+      t1 = null;
+      i1 = i2 = 0;
+      if (!started) {
+	started = true;
+	key1 = nextKey(keys1, cf1);
+	key2 = nextKey(keys2, cf2);
+      }
+      while (key1 != null && key2 != null) {
+	int cmp = TupleUtils.CompareTupleWithTuple(keyType, key1, 1, key2, 1);
+	if (cmp < 0) {
+	  key1 = nextKey(keys1, cf1);
+	} else if (cmp > 0) {
+	  key2 = nextKey(keys2, cf2);
+	} else {
+	  Tuple value = new Tuple(key1);
+	  group1 = collect(value, true);
+	  group2 = collect(value, false);
+	  if (group1.length > 1)
+	    inner = keepInner();
+	  return true;
+	}
+      }
+      return false;
+    }
+
+  /**
+   * Read the tuples of group2, for the tuples of R after the first to
+   * reuse.
+   * @return them, or null if they do not fit in innerBytes
+   */
+  private Tuple[] keepInner()
+    throws Exception
+    {
+      Tuple[] tuples = new Tuple[group2.length];
+      long bytes = 0;
+      for (int i = 0; i < tuples.length; i++) {
+	tuples[i] = reader2.read(group2[i]);
+	bytes += tuples[i].getLength();
+	if (bytes > innerBytes)
+	  return null;
+      }
+      return tuples;
+    }
+
+  /**
+   * Read the positions of one side that have the join value of value,
+   * leaving that side on the next value.
+   * @return the positions in ascending order
+   */
+  private int[] collect(Tuple value, boolean first)
+    throws Exception
+    {
+      int[] positions = new int[8];
+      int n = 0;
+      Tuple key = first ? key1 : key2;
+      while (key != null
+	     && TupleUtils.CompareTupleWithTuple(keyType, key, 1, value, 1) == 0) {
+	if (n == positions.length)
+	  positions = Arrays.copyOf(positions, 2 * n);
+	positions[n++] = key.getIntFld(2);
+	key = first ? nextKey(keys1, cf1) : nextKey(keys2, cf2);
+      }
+      if (first)
+	key1 = key;
+      else
+	key2 = key;
+      positions = Arrays.copyOf(positions, n);
+      Arrays.sort(positions);
+      return positions;
+    }
+
+  /**
+   * @return the next key tuple of a sort whose position is not deleted
+   */
+  private static Tuple nextKey(Sort keys, Columnarfile cf)
+    throws Exception
+    {
+      Tuple t;
+      while ((t = keys.get_next()) != null)
+	if (!cf.isTupleDeleted(t.getIntFld(2)))
+	  return t;
+      return null;
+    }
+
+  /**
+   * @return a sort of the (value, position) tuples of a column
+   */
+  private Sort sortKeys(Columnarfile cf, int column, int sortPages)
+    throws SortException, IOException
+    {
+      ColumnarKeyScan scan;
+      try {
+	scan = new ColumnarKeyScan(cf, column, true);
+      }catch (FileScanException e){
+	throw new SortException(e, "ColumnarSortMergeJoin.java: could not scan column " + column);
+      }
+      int keyLength = keyType.attrType == AttrType.attrString ? scan.getStrSizes()[0] : 4;
+      return new Sort(scan.getOutputTypes(), (short) 3, scan.getStrSizes(), scan, 1,
+		      new TupleOrder(TupleOrder.Ascending), keyLength, sortPages);
+    }
+
+  /**
+   * @return the columns of one side (1-based, ascending) that the
+   * projection or outFilter read, the join column included
+   */
+  private int[] usedColumns(int relation, int joinColumn)
+    {
+      BitSet columns = new BitSet();
+      columns.set(joinColumn);
+      for (int i = 0; i < nOutFlds; i++)
+	if (perm_mat[i].relation.key == relation)
+	  columns.set(perm_mat[i].offset);
+      for (int i = 0; OutputFilter != null && OutputFilter[i] != null; i++)
+	for (CondExpr e = OutputFilter[i]; e != null; e = e.next) {
+	  if (e.type1.attrType == AttrType.attrSymbol
+	      && e.operand1.symbol.relation.key == relation)
+	    columns.set(e.operand1.symbol.offset);
+	  if (e.type2.attrType == AttrType.attrSymbol
+	      && e.operand2.symbol.relation.key == relation)
+	    columns.set(e.operand2.symbol.offset);
+	}
+      int[] used = new int[columns.cardinality()];
+      for (int i = 0, c = columns.nextSetBit(0); c >= 0; i++, c = columns.nextSetBit(c + 1))
+	used[i] = c;
+      return used;
+    }
+
+  /**
+   *implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception IOException I/O error from lower layers
+   *@exception JoinsException join error from lower layers
+   *@exception IndexException index access error
+   */
+  public void close()
+    throws JoinsException,
+	   IOException,
+	   index.IndexException
+    {
+      if (!closeFlag) {
+	try {
+	  keys1.close();
+	  keys2.close();
+	}catch (Exception e) {
+	  throw new JoinsException(e, "ColumnarSortMergeJoin.java: error in closing the sorts.");
+	}
+	closeFlag = true;
+      }
+    }
+}
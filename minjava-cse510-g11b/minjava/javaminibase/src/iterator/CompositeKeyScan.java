@@ -0,0 +1,134 @@
+package iterator;
+
+
+import heap.*;
+import global.*;
+import btree.CompositeKey;
+import columnar.Columnarfile;
+
+
+import java.lang.*;
+import java.io.*;
+
+/**
+ *Scan several columns of a columnar file together as (key, position, 0)
+ *tuples, the key being the composite key of the values of the columns
+ *in the given order, as CompositeKey.toSortableString(). This is the
+ *input BTreeFile.bulkLoad() expects for a composite B-tree once it is
+ *sorted on field 1.
+ */
+public class CompositeKeyScan extends Iterator
+{
+  private Scan[]     scans;
+  private AttrType[] columnTypes;
+  private AttrType[] types;
+  private short[]    s_sizes;
+  private Tuple      Jtuple;
+  private RID        rid;
+  private int        position;
+
+  /**
+   *constructor
+   *@param f the columnar file
+   *@param columns the columns of the key (1-based), in key order
+   *@param keyLength the longest encoded key, see
+   *CompositeKey.getMaxLength()
+   *@exception IOException some I/O fault
+   *@exception FileScanException exception from this class
+   */
+  public CompositeKeyScan(Columnarfile f, int[] columns, int keyLength)
+    throws IOException,
+	   FileScanException
+    {
+      position = -1;
+      columnTypes = new AttrType[columns.length];
+      for (int i = 0; i < columns.length; i++)
+	columnTypes[i] = f.type[columns[i]-1];
+      types = new AttrType[3];
+      types[0] = new AttrType(AttrType.attrString);
+      types[1] = new AttrType(AttrType.attrInteger);
+      types[2] = new AttrType(AttrType.attrInteger);
+      s_sizes = new short[1];
+      s_sizes[0] = (short) CompositeKey.getSortableStringSize(keyLength);
+
+      Jtuple = new Tuple();
+      scans = new Scan[columns.length];
+      try {
+	Jtuple.setHdr((short)3, types, s_sizes);
+	for (int i = 0; i < columns.length; i++)
+	  scans[i] = f.openColumnScan(columns[i]);
+      }
+      catch (Exception e) {
+	close();
+	throw new FileScanException(e, "open column scan failed");
+      }
+      rid = new RID();
+    }
+
+  /**
+   *@return the attribute types of the output tuples
+   */
+  public AttrType[] getOutputTypes()
+    {
+      return types;
+    }
+
+  /**
+   *@return the string sizes of the output tuples
+   */
+  public short[] getStrSizes()
+    {
+      return s_sizes;
+    }
+
+  /**
+   *@return the size of the output tuples
+   */
+  public int getTupleSize()
+    {
+      return Jtuple.size();
+    }
+
+  /**
+   *@return the next (key, position, 0) tuple, null at the end
+   *@exception JoinsException some join exception
+   *@exception IOException I/O errors
+   *@exception InvalidTupleSizeException invalid tuple size
+   *@exception InvalidTypeException tuple type not valid
+   *@exception FieldNumberOutOfBoundException field number out of bound
+   */
+  public Tuple get_next()
+    throws JoinsException,
+	   IOException,
+	   InvalidTupleSizeException,
+	   InvalidTypeException,
+	   FieldNumberOutOfBoundException
+    {
+      CompositeKey key = new CompositeKey();
+      for (int i = 0; i < scans.length; i++) {
+	Tuple t = scans[i].getNext(rid);
+	if (t == null)
+	  return null;
+	Columnarfile.appendKeyValue(key, columnTypes[i], t.getTupleByteArray());
+      }
+      position++;
+      Jtuple.setStrFld(1, key.toSortableString());
+      Jtuple.setIntFld(2, position);
+      Jtuple.setIntFld(3, 0);
+      return Jtuple;
+    }
+
+  /**
+   *implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   */
+  public void close()
+    {
+      if (!closeFlag) {
+	for (int i = 0; i < scans.length; i++)
+	  if (scans[i] != null)
+	    scans[i].closescan();
+	closeFlag = true;
+      }
+    }
+}
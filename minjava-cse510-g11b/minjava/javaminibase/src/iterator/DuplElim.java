@@ -11,6 +11,7 @@ import java.io.*;
 
 /**
  *Eleminate the duplicate tuples from the input relation
+ *by sorting it; HashDuplElim does it with a hash table
  */
 public class DuplElim extends Iterator
 {
@@ -20,6 +21,7 @@ public class DuplElim extends Iterator
   
   private Iterator _am;
   private boolean      done;
+  private boolean      first;         // no tuple returned yet
   
   private AttrType  sortFldType;
   private int       sortFldLen;
@@ -79,8 +81,8 @@ public class DuplElim extends Iterator
       if (!inp_sorted)
 	{
 	  try {
-	    _am = new Sort(in, len_in, s_sizes, am, 1, order,
-			   sortFldLen, amt_of_mem);
+	    _am = ParallelSort.open(in, len_in, s_sizes, am, 1, order,
+				   sortFldLen, amt_of_mem);
 	  }catch(SortException e){
 	    e.printStackTrace();
 	    throw new DuplElimException(e, "SortException is caught by DuplElim.java");
@@ -97,6 +99,7 @@ public class DuplElim extends Iterator
 	throw new DuplElimException(e, "setHdr() failed");
       }
       done = false;
+      first = true;
     }
 
   /**
@@ -143,7 +146,8 @@ public class DuplElim extends Iterator
 	  return null;
 	} 
 	TempTuple2.tupleCopy(t);
-      } while (TupleUtils.Equal(TempTuple1, TempTuple2, _in, in_len));
+      } while (!first && TupleUtils.Equal(TempTuple1, TempTuple2, _in, in_len));
+      first = false;
       
       // Now copy the the TempTuple2 (new o/p tuple) into TempTuple1.
       TempTuple1.tupleCopy(TempTuple2);
@@ -0,0 +1,724 @@
+package iterator;
+
+import heap.*;
+import global.*;
+import columnar.Columnarfile;
+import columnar.DeletionBitmap;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Hash aggregation, as in SELECT g1, .., COUNT(*), SUM(a), .. GROUP BY
+ * g1, ..: one output tuple per distinct value of the group fields,
+ * the group fields followed by the aggregates, in no set order.
+ * COUNT counts the tuples of the group; SUM, MIN, MAX and AVG are over
+ * an integer or real field. COUNT is an integer, AVG a real, and the
+ * others have the type of their field; integers are summed in a long
+ * and cut to an int on output. With no group fields the whole input
+ * is one group, and an empty input gives no tuple.
+ *
+ * The groups are kept in an open addressing hash table whose entries
+ * are indexes into arrays of primitives, a row of them per group: the
+ * group fields, as ints or the bits of floats, and the running sums,
+ * minimums and maximums. Only string group fields are objects.
+ *
+ * While the groups fit in amt_of_mem pages the input is read once.
+ * Once they do not, tuples of the groups already in the table are
+ * still added to them, and those of new groups are written to fanout
+ * temporary heap files on the hash of their group fields; each file is
+ * then aggregated the same way, after the table is output. A file that
+ * still does not fit is partitioned again with another hash; after
+ * MAX_LEVEL rounds the table is left to grow past amt_of_mem pages.
+ *
+ * Over a columnar file, only the group and aggregate columns are
+ * scanned, and deleted tuples are left out.
+ */
+public class HashAggregate extends Iterator implements GlobalConst
+{
+  private static final int MAX_LEVEL = 3;      // rounds of partitioning
+  private static final int STRING_SIZE = 40;   // bytes of a String, besides its chars
+
+  private  AttrType  _in[];
+  private  short     in_len;
+  private  short     str_sizes[];
+  private  Iterator  _am;
+  private  int       gflds[];                  // the group fields
+  private  int       gtypes[];
+  private  AggType   _aggs[];
+  private  int       aflds[];                  // the field of each aggregate
+  private  boolean   areal[];                  // which of them are reals
+  private  AttrType  outTypes[];
+  private  short     outSizes[];
+  private  Tuple     Jtuple;
+  private  long      budget;                   // bytes of the hash table
+  private  int       fanout;                   // partitions made of one
+
+  private  boolean   started;
+  private  ArrayDeque<Input> pending;          // partitions to aggregate
+  private  int       partitions;               // partitions made
+
+  // the hash table: slots holds group numbers, -1 for an empty slot,
+  // and the group arrays hold a row of nG or nA entries per group
+  private  int       nG, nA;
+  private  int       slots[];
+  private  int       groups;                   // groups in the table
+  private  int       emitted;                  // groups output
+  private  int       hashes[];
+  private  long      keys[];                   // ints and bits of floats
+  private  String    strs[];                   // strings, null if none
+  private  long      counts[];
+  private  long      lacc[];                   // sums, mins, maxs of ints
+  private  double    dacc[];                   // and of reals
+  private  long      groupSize;                // bytes of a group, besides strings
+  private  long      tableBytes;
+
+  // the group fields of the tuple looked at
+  private  long      kbuf[];
+  private  String    sbuf[];
+
+  /**
+   *constructor, initialization
+   *@param in[]  Array containing field types of the input
+   *@param len_in  # of columns in the input
+   *@param s_sizes shows the length of the string fields in the input
+   *@param am  access method for the input
+   *@param group_flds the fields to group by, none for a single group
+   *@param aggs the aggregate functions
+   *@param agg_flds the field of each aggregate, ignored for COUNT
+   *@param amt_of_mem   IN PAGES
+   *@exception HashAggregateException an aggregate not over a number
+   */
+  public HashAggregate(AttrType  in[],
+		       short     len_in,
+		       short     s_sizes[],
+		       Iterator  am,
+		       int       group_flds[],
+		       AggType   aggs[],
+		       int       agg_flds[],
+		       int       amt_of_mem
+		       )
+    throws HashAggregateException
+    {
+      init(in, len_in, s_sizes, am, group_flds, aggs, agg_flds, amt_of_mem);
+    }
+
+  /**
+   *constructor, for grouping the tuples of a columnar file
+   *@param relName the columnar file
+   *@param group_cols the columns to group by, none for a single group
+   *@param aggs the aggregate functions
+   *@param agg_cols the column of each aggregate, ignored for COUNT
+   *@param amt_of_mem   IN PAGES
+   *@exception HashAggregateException the file could not be opened,
+   *           or an aggregate not over a number
+   */
+  public HashAggregate(String   relName,
+		       int      group_cols[],
+		       AggType  aggs[],
+		       int      agg_cols[],
+		       int      amt_of_mem
+		       )
+    throws HashAggregateException
+    {
+      // the columns read, in the order of the file
+      int[] cols = new int[group_cols.length + agg_cols.length];
+      int n = 0;
+      for (int c : group_cols)
+	cols[n++] = c;
+      for (int i = 0; i < agg_cols.length; i++)
+	if (aggs[i].aggType != AggType.aggCount)
+	  cols[n++] = agg_cols[i];
+      Arrays.sort(cols, 0, n);
+      int m = 0;
+      for (int i = 0; i < n; i++)
+	if (m == 0 || cols[i] != cols[m - 1])
+	  cols[m++] = cols[i];
+      // COUNT alone still needs a column to count the tuples of
+      if (m == 0)
+	cols[m++] = 1;
+      cols = Arrays.copyOf(cols, m);
+
+      Columns scan;
+      try {
+	scan = new Columns(new Columnarfile(relName), cols);
+      }
+      catch (Exception e) {
+	throw new HashAggregateException(e, "HashAggregate.java: could not open " + relName);
+      }
+
+      // the fields of the narrow tuples the scan gives
+      int[] g = new int[group_cols.length];
+      for (int i = 0; i < g.length; i++)
+	g[i] = Arrays.binarySearch(cols, group_cols[i]) + 1;
+      int[] a = new int[agg_cols.length];
+      for (int i = 0; i < a.length; i++)
+	a[i] = aggs[i].aggType == AggType.aggCount ? 1 : Arrays.binarySearch(cols, agg_cols[i]) + 1;
+      init(scan.types, (short) cols.length, scan.sizes, scan, g, aggs, a, amt_of_mem);
+    }
+
+  private void init(AttrType in[], short len_in, short s_sizes[], Iterator am,
+		    int group_flds[], AggType aggs[], int agg_flds[], int amt_of_mem)
+    throws HashAggregateException
+    {
+      if (aggs.length != agg_flds.length)
+	throw new HashAggregateException("HashAggregate.java: an aggregate without a field");
+      _in = in;
+      in_len = len_in;
+      str_sizes = s_sizes;
+      _am = am;
+      gflds = group_flds;
+      _aggs = aggs;
+      aflds = agg_flds;
+      nG = gflds.length;
+      nA = aggs.length;
+
+      // the output: the group fields, then the aggregates
+      outTypes = new AttrType[nG + nA];
+      gtypes = new int[nG];
+      int nstr = 0;
+      for (int j = 0; j < nG; j++) {
+	gtypes[j] = in[gflds[j] - 1].attrType;
+	outTypes[j] = new AttrType(gtypes[j]);
+	if (gtypes[j] == AttrType.attrString)
+	  nstr++;
+      }
+      outSizes = new short[nstr];
+      nstr = 0;
+      for (int j = 0; j < nG; j++)
+	if (gtypes[j] == AttrType.attrString)
+	  outSizes[nstr++] = str_sizes[stringIndex(in, gflds[j])];
+      areal = new boolean[nA];
+      for (int i = 0; i < nA; i++) {
+	int type = AttrType.attrInteger;
+	if (aggs[i].aggType != AggType.aggCount) {
+	  type = in[aflds[i] - 1].attrType;
+	  if (type != AttrType.attrInteger && type != AttrType.attrReal)
+	    throw new HashAggregateException("HashAggregate.java: " + aggs[i]
+					     + " of a field that is not a number");
+	  areal[i] = type == AttrType.attrReal;
+	  if (aggs[i].aggType == AggType.aggAvg)
+	    type = AttrType.attrReal;
+	}
+	outTypes[nG + i] = new AttrType(type);
+      }
+      Jtuple = new Tuple();
+      try {
+	Jtuple.setHdr((short) outTypes.length, outTypes, outSizes);
+      }
+      catch (Exception e) {
+	throw new HashAggregateException(e, "HashAggregate.java: setHdr() failed");
+      }
+
+      budget = (long) Math.max(1, amt_of_mem) * MINIBASE_PAGESIZE;
+      fanout = Math.max(2, amt_of_mem - 1);
+      pending = new ArrayDeque<Input>();
+      groupSize = groupSize(nG, nstr, nA);
+      kbuf = new long[nG];
+      sbuf = new String[nG];
+      if (nstr > 0)
+	strs = new String[0];
+      slots = new int[0];
+      hashes = new int[0];
+      keys = new long[0];
+      counts = new long[0];
+      lacc = new long[0];
+      dacc = new double[0];
+    }
+
+  /* bytes of a group in the table, besides its strings: two slots,
+   * the hash, the count, the group fields and the sums */
+  private static long groupSize(int nG, int nstr, int nA)
+    {
+      return 8 + 4 + 8 + 8 * nG + (nstr > 0 ? 4 * nG : 0) + 16 * nA;
+    }
+
+  /**
+   * Whether n_groups groups fit in amt_of_mem pages, so that the input
+   * is read once and nothing is written to temporary files; strings are
+   * taken to be as long as their fields allow.
+   *@param in[]  Array containing field types of the input
+   *@param s_sizes shows the length of the string fields in the input
+   *@param group_flds the fields to group by
+   *@param n_aggs the number of aggregates
+   *@param n_groups the number of groups expected
+   *@param amt_of_mem   IN PAGES
+   *@return true if the table will not spill
+   */
+  public static boolean fitsInMemory(AttrType in[], short s_sizes[], int group_flds[],
+				     int n_aggs, long n_groups, int amt_of_mem)
+    {
+      long size = 0;
+      int nstr = 0;
+      for (int fld : group_flds)
+	if (in[fld - 1].attrType == AttrType.attrString) {
+	  size += STRING_SIZE + 2 * s_sizes[stringIndex(in, fld)];
+	  nstr++;
+	}
+      size += groupSize(group_flds.length, nstr, n_aggs);
+      // the table spills once it holds the budget, not past it
+      return (n_groups - 1) * size < (long) Math.max(1, amt_of_mem) * MINIBASE_PAGESIZE;
+    }
+
+  /* the index of a string field among the string sizes */
+  private static int stringIndex(AttrType in[], int fld)
+    {
+      int n = 0;
+      for (int i = 0; i < fld - 1; i++)
+	if (in[i].attrType == AttrType.attrString)
+	  n++;
+      return n;
+    }
+
+  /**
+   *@return the attribute types of the output tuples
+   */
+  public AttrType[] getOutputTypes()
+    {
+      return outTypes;
+    }
+
+  /**
+   *@return the string sizes of the output tuples
+   */
+  public short[] getStrSizes()
+    {
+      return outSizes;
+    }
+
+  /**
+   * @return the number of partitions written to temporary files, 0 if
+   * the groups fit in memory
+   */
+  public int getPartitionCount()
+    {
+      return partitions;
+    }
+
+  /**
+   *@return the tuple of the next group, null when there is none left
+   *@exception Exception from the input or the temporary files
+   */
+  public Tuple get_next()
+    throws Exception
+    {
+      while (true) {
+	if (emitted < groups)
+	  return emit(emitted++);
+	Input in;
+	if (!started) {
+	  started = true;
+	  in = new Input(_am);
+	}
+	else if (!pending.isEmpty())
+	  in = pending.pop();
+	else
+	  return null;
+	aggregate(in);
+      }
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception JoinsException error from lower layers
+   */
+  public void close()
+    throws JoinsException
+    {
+      if (!closeFlag) {
+	try {
+	  while (!pending.isEmpty())
+	    pending.pop().delete();
+	  _am.close();
+	}catch (Exception e) {
+	  throw new JoinsException(e, "HashAggregate.java: error in closing iterator.");
+	}
+	closeFlag = true;
+      }
+    }
+
+  /* read an input into the table, writing the tuples of the groups
+   * that do not fit to partitions of it */
+  private void aggregate(Input in)
+    throws Exception
+    {
+      groups = emitted = 0;
+      tableBytes = 0;
+      Arrays.fill(slots, -1);
+      Input[] parts = null;
+      Tuple t;
+      while ((t = in.next()) != null) {
+	int h = readKey(t);
+	int g = find(h);
+	if (g < 0) {
+	  if (parts == null && tableBytes >= budget && in.level < MAX_LEVEL) {
+	    parts = new Input[fanout];
+	    for (int i = 0; i < fanout; i++)
+	      parts[i] = new Input(in.level + 1);
+	  }
+	  if (parts != null) {
+	    parts[partitionOf(h, in.level + 1)].add(t);
+	    continue;
+	  }
+	  g = insert(h);
+	}
+	update(g, t);
+      }
+      in.delete();
+      if (parts != null)
+	for (Input p : parts) {
+	  if (p.count == 0)
+	    p.delete();
+	  else {
+	    pending.push(p);
+	    partitions++;
+	  }
+	}
+    }
+
+  /* keep the group fields of a tuple in kbuf and sbuf
+   * @return their hash */
+  private int readKey(Tuple t)
+    throws Exception
+    {
+      int h = 0;
+      for (int j = 0; j < nG; j++) {
+	switch (gtypes[j]) {
+	case AttrType.attrInteger:
+	  kbuf[j] = t.getIntFld(gflds[j]);
+	  h = 31 * h + (int) kbuf[j];
+	  break;
+	case AttrType.attrReal:
+	  float f = t.getFloFld(gflds[j]);
+	  // -0.0 is equal to 0.0
+	  kbuf[j] = Float.floatToIntBits(f == 0 ? 0 : f);
+	  h = 31 * h + (int) kbuf[j];
+	  break;
+	case AttrType.attrString:
+	  sbuf[j] = t.getStrFld(gflds[j]);
+	  h = 31 * h + sbuf[j].hashCode();
+	  break;
+	default:
+	  throw new UnknowAttrType(null, "HashAggregate.java: cannot group on this type");
+	}
+      }
+      return h;
+    }
+
+  /* @return the group of the fields in kbuf and sbuf, -1 if it is not
+   * in the table */
+  private int find(int h)
+    {
+      if (slots.length == 0)
+	return -1;
+      int mask = slots.length - 1;
+      for (int i = mix(h, 0) & mask; slots[i] >= 0; i = (i + 1) & mask) {
+	int g = slots[i];
+	if (hashes[g] == h && sameKey(g))
+	  return g;
+      }
+      return -1;
+    }
+
+  private boolean sameKey(int g)
+    {
+      int base = g * nG;
+      for (int j = 0; j < nG; j++) {
+	if (gtypes[j] == AttrType.attrString) {
+	  if (!sbuf[j].equals(strs[base + j]))
+	    return false;
+	}
+	else if (kbuf[j] != keys[base + j])
+	  return false;
+      }
+      return true;
+    }
+
+  /* add the group of the fields in kbuf and sbuf to the table
+   * @return its number */
+  private int insert(int h)
+    {
+      int g = groups++;
+      if (g == hashes.length)
+	grow(Math.max(16, 2 * g));
+      if (2 * groups > slots.length)
+	rehash(2 * Math.max(16, slots.length));
+      int mask = slots.length - 1;
+      int s = mix(h, 0) & mask;
+      while (slots[s] >= 0)
+	s = (s + 1) & mask;
+      slots[s] = g;
+
+      hashes[g] = h;
+      int base = g * nG;
+      for (int j = 0; j < nG; j++) {
+	if (gtypes[j] == AttrType.attrString) {
+	  strs[base + j] = sbuf[j];
+	  tableBytes += STRING_SIZE + 2 * sbuf[j].length();
+	}
+	else
+	  keys[base + j] = kbuf[j];
+      }
+      counts[g] = 0;
+      base = g * nA;
+      for (int i = 0; i < nA; i++) {
+	switch (_aggs[i].aggType) {
+	case AggType.aggMin:
+	  lacc[base + i] = Long.MAX_VALUE;
+	  dacc[base + i] = Double.POSITIVE_INFINITY;
+	  break;
+	case AggType.aggMax:
+	  lacc[base + i] = Long.MIN_VALUE;
+	  dacc[base + i] = Double.NEGATIVE_INFINITY;
+	  break;
+	default:
+	  lacc[base + i] = 0;
+	  dacc[base + i] = 0;
+	}
+      }
+      tableBytes += groupSize;
+      return g;
+    }
+
+  /* make room for cap groups */
+  private void grow(int cap)
+    {
+      hashes = Arrays.copyOf(hashes, cap);
+      keys = Arrays.copyOf(keys, cap * nG);
+      if (strs != null)
+	strs = Arrays.copyOf(strs, cap * nG);
+      counts = Arrays.copyOf(counts, cap);
+      lacc = Arrays.copyOf(lacc, cap * nA);
+      dacc = Arrays.copyOf(dacc, cap * nA);
+    }
+
+  /* put the groups in a table of n slots, n a power of two */
+  private void rehash(int n)
+    {
+      slots = new int[n];
+      Arrays.fill(slots, -1);
+      int mask = n - 1;
+      for (int g = 0; g < groups - 1; g++) {
+	int i = mix(hashes[g], 0) & mask;
+	while (slots[i] >= 0)
+	  i = (i + 1) & mask;
+	slots[i] = g;
+      }
+    }
+
+  /* add a tuple to the sums of its group */
+  private void update(int g, Tuple t)
+    throws Exception
+    {
+      counts[g]++;
+      int base = g * nA;
+      for (int i = 0; i < nA; i++) {
+	int op = _aggs[i].aggType;
+	if (op == AggType.aggCount)
+	  continue;
+	if (areal[i]) {
+	  double v = t.getFloFld(aflds[i]);
+	  if (op == AggType.aggMin)
+	    dacc[base + i] = Math.min(dacc[base + i], v);
+	  else if (op == AggType.aggMax)
+	    dacc[base + i] = Math.max(dacc[base + i], v);
+	  else
+	    dacc[base + i] += v;
+	}
+	else {
+	  long v = t.getIntFld(aflds[i]);
+	  if (op == AggType.aggMin)
+	    lacc[base + i] = Math.min(lacc[base + i], v);
+	  else if (op == AggType.aggMax)
+	    lacc[base + i] = Math.max(lacc[base + i], v);
+	  else
+	    lacc[base + i] += v;
+	}
+      }
+    }
+
+  /* the output tuple of a group */
+  private Tuple emit(int g)
+    throws Exception
+    {
+      int base = g * nG;
+      for (int j = 0; j < nG; j++) {
+	switch (gtypes[j]) {
+	case AttrType.attrInteger:
+	  Jtuple.setIntFld(j + 1, (int) keys[base + j]);
+	  break;
+	case AttrType.attrReal:
+	  Jtuple.setFloFld(j + 1, Float.intBitsToFloat((int) keys[base + j]));
+	  break;
+	default:
+	  Jtuple.setStrFld(j + 1, strs[base + j]);
+	}
+      }
+      base = g * nA;
+      for (int i = 0; i < nA; i++) {
+	int fld = nG + i + 1;
+	switch (_aggs[i].aggType) {
+	case AggType.aggCount:
+	  Jtuple.setIntFld(fld, (int) counts[g]);
+	  break;
+	case AggType.aggAvg:
+	  double sum = areal[i] ? dacc[base + i] : lacc[base + i];
+	  Jtuple.setFloFld(fld, (float) (sum / counts[g]));
+	  break;
+	default:
+	  if (areal[i])
+	    Jtuple.setFloFld(fld, (float) dacc[base + i]);
+	  else
+	    Jtuple.setIntFld(fld, (int) lacc[base + i]);
+	}
+      }
+      return Jtuple;
+    }
+
+  /* the partition of a group; each level hashes differently, and
+   * level 0 places it in the table */
+  private int partitionOf(int h, int level)
+    {
+      return (mix(h, level) & 0x7fffffff) % fanout;
+    }
+
+  private static int mix(int h, int level)
+    {
+      h += level * 0x9e3779b9;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h;
+    }
+
+  /* the input, or a partition of it in a temporary heap file */
+  private class Input
+  {
+    int level;            // rounds of partitioning, 0 for the input
+    Iterator it;          // the input
+    Heapfile file;        // the partition
+    Scan scan;
+    int count;            // tuples in the partition
+
+    Input(Iterator it)
+      {
+	this.it = it;
+      }
+
+    Input(int level)
+      throws Exception
+      {
+	this.level = level;
+	file = new Heapfile(null);
+      }
+
+    Tuple next()
+      throws Exception
+      {
+	if (it != null)
+	  return it.get_next();
+	if (scan == null)
+	  scan = file.openScan();
+	Tuple t = scan.getNext(new RID());
+	if (t == null)
+	  return null;
+	t.setHdr(in_len, _in, str_sizes);
+	return t;
+      }
+
+    void add(Tuple t)
+      throws Exception
+      {
+	file.insertRecord(t.getTupleByteArray());
+	count++;
+      }
+
+    void delete()
+      throws Exception
+      {
+	if (scan != null) {
+	  scan.closescan();
+	  scan = null;
+	}
+	if (file != null) {
+	  file.deleteFile();
+	  file = null;
+	}
+      }
+  }
+
+  /* some columns of a columnar file, scanned side by side, as tuples
+   * of those columns alone */
+  private static class Columns extends Iterator
+  {
+    AttrType types[];
+    short sizes[];
+    Scan scans[];
+    DeletionBitmap deleted;
+    Tuple t;
+    RID rid;
+    int position;
+
+    Columns(Columnarfile cf, int cols[])
+      throws Exception
+      {
+	types = new AttrType[cols.length];
+	int nstr = 0;
+	for (int i = 0; i < cols.length; i++) {
+	  types[i] = new AttrType(cf.type[cols[i] - 1].attrType);
+	  if (types[i].attrType == AttrType.attrString)
+	    nstr++;
+	}
+	sizes = new short[nstr];
+	nstr = 0;
+	for (int i = 0; i < cols.length; i++)
+	  if (types[i].attrType == AttrType.attrString)
+	    sizes[nstr++] = cf.strSizes[stringIndex(cf.type, cols[i])];
+	t = new Tuple();
+	t.setHdr((short) cols.length, types, sizes);
+	deleted = cf.getDeletionBitmap();
+	scans = new Scan[cols.length];
+	for (int i = 0; i < cols.length; i++)
+	  scans[i] = cf.openColumnScan(cols[i]);
+	rid = new RID();
+	position = -1;
+      }
+
+    public Tuple get_next()
+      throws Exception
+      {
+	while (true) {
+	  for (int i = 0; i < scans.length; i++) {
+	    Tuple rec = scans[i].getNext(rid);
+	    if (rec == null)
+	      return null;
+	    byte[] data = rec.getTupleByteArray();
+	    switch (types[i].attrType) {
+	    case AttrType.attrInteger:
+	      t.setIntFld(i + 1, Convert.getIntValue(0, data));
+	      break;
+	    case AttrType.attrReal:
+	      t.setFloFld(i + 1, Convert.getFloValue(0, data));
+	      break;
+	    default:
+	      t.setStrFld(i + 1, Convert.getStrValue(0, data, data.length));
+	    }
+	  }
+	  if (!deleted.isDeleted(++position))
+	    return t;
+	}
+      }
+
+    public void close()
+      {
+	if (!closeFlag) {
+	  for (Scan s : scans)
+	    s.closescan();
+	  closeFlag = true;
+	}
+      }
+  }
+}
@@ -0,0 +1,9 @@
+package iterator;
+import chainexception.*;
+
+import java.lang.*;
+
+public class  HashAggregateException extends ChainException {
+  public  HashAggregateException(String s){super(null,s);}
+  public  HashAggregateException(Exception prev, String s){ super(prev,s);}
+}
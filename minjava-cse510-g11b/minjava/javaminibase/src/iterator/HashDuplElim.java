@@ -0,0 +1,117 @@
+package iterator;
+
+import heap.*;
+import global.*;
+
+import java.io.*;
+
+/**
+ *Eliminate the duplicate tuples from the input relation with a hash
+ *table instead of a sort: a HashAggregate grouping on every field,
+ *without aggregates. While the distinct tuples fit in amt_of_mem pages
+ *the input is read once and nothing is written to disk; past that the
+ *new ones are partitioned to temporary heap files, as HashAggregate
+ *does. The tuples come out in no set order, and reals equal to 0.0
+ *come out as 0.0.
+ *
+ *<code>open()</code> chooses between this and DuplElim from the number
+ *of distinct tuples expected.
+ */
+public class HashDuplElim extends Iterator
+{
+  private HashAggregate table;
+
+  /**
+   *Constructor to set up some information.
+   *@param in[]  Array containing field types of R.
+   *@param len_in # of columns in R.
+   *@param s_sizes[] store the length of string appeared in tuple
+   *@param am input relation iterator
+   *@param amt_of_mem the page numbers required IN PAGES
+   *@exception DuplElimException the exception from HashAggregate
+   */
+  public HashDuplElim(
+		      AttrType in[],
+		      short      len_in,
+		      short    s_sizes[],
+		      Iterator am,
+		      int       amt_of_mem
+		      )throws DuplElimException
+    {
+      try {
+	table = new HashAggregate(in, len_in, s_sizes, am, allFields(len_in),
+				  new AggType[0], new int[0], amt_of_mem);
+      }catch (HashAggregateException e){
+	throw new DuplElimException(e, "HashAggregateException is caught by HashDuplElim.java");
+      }
+    }
+
+  /**
+   *Eliminate the duplicates with a hash table when est_distinct
+   *distinct tuples fit in amt_of_mem pages, and by sorting otherwise.
+   *@param in[]  Array containing field types of R.
+   *@param len_in # of columns in R.
+   *@param s_sizes[] store the length of string appeared in tuple
+   *@param am input relation iterator
+   *@param amt_of_mem the page numbers required IN PAGES
+   *@param est_distinct the number of distinct tuples expected
+   *@return a HashDuplElim or a DuplElim
+   *@exception IOException some I/O fault
+   *@exception DuplElimException the exception from DuplElim.java
+   */
+  public static Iterator open(
+			      AttrType in[],
+			      short      len_in,
+			      short    s_sizes[],
+			      Iterator am,
+			      int       amt_of_mem,
+			      long      est_distinct
+			      )throws IOException, DuplElimException
+    {
+      if (HashAggregate.fitsInMemory(in, s_sizes, allFields(len_in), 0,
+				     est_distinct, amt_of_mem))
+	return new HashDuplElim(in, len_in, s_sizes, am, amt_of_mem);
+      return new DuplElim(in, len_in, s_sizes, am, amt_of_mem, false);
+    }
+
+  private static int[] allFields(short len_in)
+    {
+      int[] flds = new int[len_in];
+      for (int i = 0; i < len_in; i++)
+	flds[i] = i + 1;
+      return flds;
+    }
+
+  /**
+   *@return the number of partitions written to temporary files, 0 if
+   *the distinct tuples fit in memory
+   */
+  public int getPartitionCount()
+    {
+      return table.getPartitionCount();
+    }
+
+  /**
+   * The tuple is returned.
+   *@return the next distinct tuple, null when there is none left
+   *@exception Exception from the input or the temporary files
+   */
+  public Tuple get_next()
+    throws Exception
+    {
+      return table.get_next();
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception JoinsException join error from lower layers
+   */
+  public void close() throws JoinsException
+    {
+      if (!closeFlag) {
+	table.close();
+	closeFlag = true;
+      }
+    }
+}
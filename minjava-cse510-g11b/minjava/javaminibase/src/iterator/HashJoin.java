@@ -0,0 +1,440 @@
+package iterator;
+
+import heap.*;
+import global.*;
+import diskmgr.*;
+import bufmgr.*;
+import index.*;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Hash join of two relations R and S on an equality between a column
+ * of each, for joins where one side is much smaller than the other,
+ * like a fact table and a dimension table. S should be the smaller.
+ *
+ * S is read into an in-memory hash table on its join column while it
+ * fits in amt_of_mem pages, and R is then read once to probe it.
+ * When S does not fit, both inputs are partitioned on the hash of
+ * their join column into temporary heap files (Grace hash join), and
+ * each pair of partitions is joined the same way, building on the
+ * smaller of the two. A partition that still does not fit is
+ * partitioned again with another hash; after MAX_LEVEL rounds, when
+ * one key makes up most of it, it is joined a memory load at a time,
+ * reading the other partition once per load.
+ *
+ * Each pair of tuples with equal join columns is checked against
+ * outFilter before it is projected, so outFilter may hold more
+ * conditions than the join equality.
+ */
+public class HashJoin extends Iterator implements GlobalConst
+{
+  private static final int MAX_LEVEL = 3;      // rounds of partitioning
+  private static final int ENTRY_SIZE = 32;    // bytes of a table entry, besides the tuple
+
+  private  AttrType  _in1[], _in2[];
+  private  int        in1_len, in2_len;
+  private  short     s1_sizes[], s2_sizes[];
+  private  int        jc_in1, jc_in2;
+  private  int        joinType;
+  private  Iterator  p_i1, p_i2;
+  private  CondExpr  OutputFilter[];
+  private  Tuple     Jtuple;
+  private  FldSpec   perm_mat[];
+  private  int        nOutFlds;
+  private  long      budget;                   // bytes of the hash table
+  private  int        fanout;                   // partitions made of one
+
+  private  boolean   started, done;
+  private  ArrayDeque<Input[]> pending;        // pairs of partitions to join
+  private  int        partitions;               // pairs of partitions made
+  private  Input     build, probe;             // the pair being joined
+  private  boolean   buildDone;                // build is read to the end
+  private  HashMap<Object, ArrayList<Tuple>> table;
+  private  long      tableBytes;
+  private  Tuple     probeTuple;
+  private  ArrayList<Tuple> matches;           // build tuples matching probeTuple
+  private  int        matchNo;
+
+  /**
+   *constructor,initialization
+   *@param in1[]   Array containing field types of R
+   *@param len_in1  # of columns in R
+   *@param s1_sizes  shows the length of the string fields in R.
+   *@param in2[]  Array containing field types of S
+   *@param len_in2  # of columns in S
+   *@param s2_sizes shows the length of the string fields in S
+   *@param join_col_in1  The col of R to be joined with S
+   *@param join_col_in2  the col of S to be joined with R
+   *@param amt_of_mem   IN PAGES
+   *@param am1  access method for left input to join
+   *@param am2  access method for right input to join, the smaller one
+   *@param outFilter[]  Ptr to the output filter
+   *@param proj_list shows what input fields go where in the output tuple
+   *@param n_out_flds number of outer relation fileds
+   *@exception JoinsException the join columns are not of one type
+   *@exception TupleUtilsException exception from using tuple utils
+   *@exception IOException some I/O fault
+   */
+  public HashJoin(AttrType    in1[],
+		  int     len_in1,
+		  short   s1_sizes[],
+		  AttrType    in2[],
+		  int     len_in2,
+		  short   s2_sizes[],
+
+		  int     join_col_in1,
+		  int     join_col_in2,
+
+		  int     amt_of_mem,
+		  Iterator     am1,
+		  Iterator     am2,
+
+		  CondExpr  outFilter[],
+		  FldSpec   proj_list[],
+		  int       n_out_flds
+		  )
+    throws JoinsException,
+	   TupleUtilsException,
+	   IOException
+    {
+      _in1 = new AttrType[in1.length];
+      _in2 = new AttrType[in2.length];
+      System.arraycopy(in1,0,_in1,0,in1.length);
+      System.arraycopy(in2,0,_in2,0,in2.length);
+      in1_len = len_in1;
+      in2_len = len_in2;
+      this.s1_sizes = s1_sizes;
+      this.s2_sizes = s2_sizes;
+
+      Jtuple = new Tuple();
+      AttrType[] Jtypes = new AttrType[n_out_flds];
+      perm_mat = proj_list;
+      nOutFlds = n_out_flds;
+      try {
+	TupleUtils.setup_op_tuple(Jtuple, Jtypes,
+				  in1, len_in1, in2, len_in2,
+				  s1_sizes, s2_sizes,
+				  proj_list, n_out_flds);
+      }catch (Exception e){
+	throw new TupleUtilsException (e, "Exception is caught by HashJoin.java");
+      }
+
+      jc_in1 = join_col_in1;
+      jc_in2 = join_col_in2;
+      joinType = _in1[jc_in1-1].attrType;
+      if (joinType != _in2[jc_in2-1].attrType)
+	throw new JoinsException("HashJoin.java: the join columns are not of one type");
+
+      p_i1 = am1;
+      p_i2 = am2;
+      OutputFilter = outFilter;
+      budget = (long) Math.max(1, amt_of_mem) * MINIBASE_PAGESIZE;
+      fanout = Math.max(2, amt_of_mem - 1);
+      pending = new ArrayDeque<Input[]>();
+      table = new HashMap<Object, ArrayList<Tuple>>();
+    }
+
+  /**
+   *@return the joined tuple is returned, null after the last one
+   *@exception IOException I/O errors
+   *@exception JoinsException some join exception
+   *@exception IndexException exception from super class
+   *@exception InvalidTupleSizeException invalid tuple size
+   *@exception InvalidTypeException tuple type not valid
+   *@exception PageNotReadException exception from lower layer
+   *@exception TupleUtilsException exception from using tuple utilities
+   *@exception PredEvalException exception from PredEval class
+   *@exception SortException sort exception
+   *@exception LowMemException memory error
+   *@exception UnknowAttrType attribute type unknown
+   *@exception UnknownKeyTypeException key type unknown
+   *@exception Exception other exceptions
+   */
+  public Tuple get_next()
+    throws IOException,
+	   JoinsException ,
+	   IndexException,
+	   InvalidTupleSizeException,
+	   InvalidTypeException,
+	   PageNotReadException,
+	   TupleUtilsException,
+	   PredEvalException,
+	   SortException,
+	   LowMemException,
+	   UnknowAttrType,
+	   UnknownKeyTypeException,
+	   Exception
+    {
+      if (done)
+	return null;
+      if (!started) {
+	started = true;
+	pending.push(new Input[] { new Input(1, p_i1), new Input(2, p_i2) });
+      }
+
+      while (true) {
+	// the build tuples matching the probe tuple
+	while (matches != null && matchNo < matches.size()) {
+	  Tuple match = matches.get(matchNo++);
+	  Tuple r = build.side == 1 ? match : probeTuple;
+	  Tuple s = build.side == 1 ? probeTuple : match;
+	  if (PredEval.Eval(OutputFilter, r, s, _in1, _in2) == true) {
+	    Projection.Join(r, _in1, s, _in2, Jtuple, perm_mat, nOutFlds);
+	    return Jtuple;
+	  }
+	}
+	matches = null;
+
+	if (probe != null) {
+	  if ((probeTuple = probe.next()) != null) {
+	    matches = table.get(keyOf(probeTuple, probe.side));
+	    matchNo = 0;
+	    continue;
+	  }
+	  if (!buildDone) {
+	    // the next memory load of an oversized partition
+	    load();
+	    probe.rewind();
+	    continue;
+	  }
+	  build.delete();
+	  probe.delete();
+	  build = probe = null;
+	  table.clear();
+	}
+
+	if (!nextPair()) {
+	  done = true;
+	  return null;
+	}
+      }
+    }
+
+  /**
+   * @return the number of pairs of partitions written to temporary
+   * files, 0 if S fit in memory
+   */
+  public int getPartitionCount()
+    {
+      return partitions;
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception IOException I/O error from lower layers
+   *@exception JoinsException join error from lower layers
+   *@exception IndexException index access error
+   */
+  public void close()
+    throws JoinsException,
+	   IOException,
+	   IndexException
+    {
+      if (!closeFlag) {
+	try {
+	  if (build != null)
+	    build.delete();
+	  if (probe != null)
+	    probe.delete();
+	  while (!pending.isEmpty()) {
+	    Input[] pair = pending.pop();
+	    pair[0].delete();
+	    pair[1].delete();
+	  }
+	  p_i1.close();
+	  p_i2.close();
+	}catch (Exception e) {
+	  throw new JoinsException(e, "HashJoin.java: error in closing iterator.");
+	}
+	table = null;
+	closeFlag = true;
+      }
+    }
+
+  /* start on the next pair of partitions with a matching tuple on both
+   * sides: build its table, or partition it further if it does not fit.
+   * false when there is none left */
+  private boolean nextPair()
+    throws Exception
+    {
+      while (!pending.isEmpty()) {
+	Input[] pair = pending.pop();
+	if (pair[0].it == null && (pair[0].count == 0 || pair[1].count == 0)) {
+	  pair[0].delete();
+	  pair[1].delete();
+	  continue;
+	}
+	// S to start with, then the smaller partition
+	int b = pair[0].it == null && pair[0].bytes < pair[1].bytes ? 0 : 1;
+	build = pair[b];
+	probe = pair[1 - b];
+	load();
+	if (buildDone || build.level >= MAX_LEVEL)
+	  return true;
+	partition();
+      }
+      return false;
+    }
+
+  /* read the build input into the table until it is full */
+  private void load()
+    throws Exception
+    {
+      table.clear();
+      tableBytes = 0;
+      buildDone = false;
+      while (tableBytes < budget) {
+	Tuple t = build.next();
+	if (t == null) {
+	  buildDone = true;
+	  return;
+	}
+	add(new Tuple(t));
+      }
+    }
+
+  private void add(Tuple t)
+    throws Exception
+    {
+      Object key = keyOf(t, build.side);
+      ArrayList<Tuple> list = table.get(key);
+      if (list == null) {
+	list = new ArrayList<Tuple>(1);
+	table.put(key, list);
+      }
+      list.add(t);
+      tableBytes += t.getLength() + ENTRY_SIZE;
+    }
+
+  /* split the pair that does not fit into fanout pairs of partitions
+   * on the hash of the join column, starting with what is in the table */
+  private void partition()
+    throws Exception
+    {
+      int level = build.level + 1;
+      Input[][] parts = new Input[fanout][];
+      for (int i = 0; i < fanout; i++) {
+	parts[i] = new Input[] { new Input(1, level), new Input(2, level) };
+	partitions++;
+      }
+      for (ArrayList<Tuple> list : table.values())
+	for (Tuple t : list)
+	  parts[partitionOf(keyOf(t, build.side), level)][build.side - 1].add(t);
+      table.clear();
+      for (Input in : new Input[] { build, probe }) {
+	Tuple t;
+	while ((t = in.next()) != null)
+	  parts[partitionOf(keyOf(t, in.side), level)][in.side - 1].add(t);
+	in.delete();
+      }
+      build = probe = null;
+      for (int i = 0; i < fanout; i++)
+	pending.push(parts[i]);
+    }
+
+  /* the partition of a join value; each level hashes differently */
+  private int partitionOf(Object key, int level)
+    {
+      int h = key.hashCode() + level * 0x9e3779b9;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return (h & 0x7fffffff) % fanout;
+    }
+
+  /* the join column of a tuple of R (side 1) or S (side 2) */
+  private Object keyOf(Tuple t, int side)
+    throws Exception
+    {
+      int col = side == 1 ? jc_in1 : jc_in2;
+      switch (joinType) {
+      case AttrType.attrInteger:
+	return Integer.valueOf(t.getIntFld(col));
+      case AttrType.attrReal:
+	float f = t.getFloFld(col);
+	// -0.0 is equal to 0.0
+	return Float.valueOf(f == 0 ? 0 : f);
+      case AttrType.attrString:
+	return t.getStrFld(col);
+      default:
+	throw new UnknowAttrType(null, "HashJoin.java: cannot join on this type");
+      }
+    }
+
+  /* one side of a pair: an input of the join, or a partition of it in
+   * a temporary heap file */
+  private class Input
+  {
+    int side;             // 1 for R, 2 for S
+    int level;            // rounds of partitioning, 0 for the input
+    Iterator it;          // the input
+    Heapfile file;        // the partition
+    Scan scan;
+    int count;            // tuples in the partition
+    long bytes;
+
+    Input(int side, Iterator it)
+      {
+	this.side = side;
+	this.it = it;
+      }
+
+    Input(int side, int level)
+      throws Exception
+      {
+	this.side = side;
+	this.level = level;
+	file = new Heapfile(null);
+      }
+
+    Tuple next()
+      throws Exception
+      {
+	if (it != null)
+	  return it.get_next();
+	if (scan == null)
+	  scan = file.openScan();
+	Tuple t = scan.getNext(new RID());
+	if (t == null)
+	  return null;
+	if (side == 1)
+	  t.setHdr((short) in1_len, _in1, s1_sizes);
+	else
+	  t.setHdr((short) in2_len, _in2, s2_sizes);
+	return t;
+      }
+
+    void add(Tuple t)
+      throws Exception
+      {
+	file.insertRecord(t.getTupleByteArray());
+	count++;
+	bytes += t.getLength();
+      }
+
+    /* read the partition again from the start */
+    void rewind()
+      {
+	if (scan != null) {
+	  scan.closescan();
+	  scan = null;
+	}
+      }
+
+    void delete()
+      throws Exception
+      {
+	rewind();
+	if (file != null) {
+	  file.deleteFile();
+	  file = null;
+	}
+      }
+  }
+}
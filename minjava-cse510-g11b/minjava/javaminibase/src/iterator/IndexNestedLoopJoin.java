@@ -0,0 +1,447 @@
+package iterator;
+
+
+import heap.*;
+import global.*;
+import btree.KeyDataEntry;
+import btree.LeafData;
+import columnar.Columnarfile;
+import columnar.PositionReader;
+import index.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ *  Index nested loops join of any outer iterator with a columnar file
+ *  as the inner relation, through an index on the inner join column:
+ *
+ *      foreach tuple r in R do
+ *          foreach tuple s in index probe(S, sj op ri) do
+ *              if (ri op sj) then add (r, s) to the result.
+ *
+ *  The probe term is the first conjunct of OutputFilter comparing an
+ *  outer field with an inner column that has an index in indName,
+ *  preferring an equality; a Hash index only answers an equality. For
+ *  each outer tuple the term becomes a point or range selection on
+ *  the inner column for a ColumnIndexScan. The qualifying positions
+ *  are read in position order, and only the inner columns used by the
+ *  projection and the filters are fetched, the others are left empty.
+ *
+ *  The inner tuples that pass RightFilter for a probe value are kept,
+ *  least recently used first out, in amt_of_mem pages, so an outer
+ *  value that comes back is answered without probing the index again.
+ */
+
+public class IndexNestedLoopJoin  extends Iterator
+{
+  private AttrType      _in1[],  _in2[];
+  private   int        in1_len, in2_len;
+  private   Iterator  outer;
+  private   short t2_str_sizescopy[];
+  private   CondExpr OutputFilter[];
+  private   CondExpr RightFilter[];
+  private   int        n_buf_pgs;        // # of buffer pages available.
+  private   boolean        done;         // Is the join complete
+  private   Tuple     outer_tuple;
+  private   Tuple     Jtuple;           // Joined tuple
+  private   FldSpec   perm_mat[];
+  private   int        nOutFlds;
+  private   String    relName;
+  private   IndexType indexType;
+  private   String    indexName;        // index of the inner probe column
+  private   short     probeStrSize;     // string size of the inner probe column
+  private   Columnarfile  cf;
+  private   boolean   positional;       // index entries hold positions, not rids
+  private   int        probeOuterFld;    // outer field of the probe term
+  private   int        probeInnerFld;    // inner column of the probe term
+  private   int        probeOp;          // operator of the probe term, inner column first
+  private   PositionReader reader;       // reads the inner columns used
+  private   ArrayList<Tuple> matches;     // inner tuples of the current probe
+  private   int        matchNo;
+  private   LinkedHashMap<Object, ArrayList<Tuple>> cache;
+  private   long      cacheBytes;
+  private   int        probes, cacheHits;
+
+
+  /**constructor
+   *Initialize the two relations which are joined, including relation type,
+   *@param in1  Array containing field types of R.
+   *@param len_in1  # of columns in R.
+   *@param t1_str_sizes shows the length of the string fields.
+   *@param in2  Array containing field types of S
+   *@param len_in2  # of columns in S
+   *@param  t2_str_sizes shows the length of the string fields.
+   *@param amt_of_mem  IN PAGES, for the probe cache
+   *@param am1  access method for left i/p to join
+   *@param columnarFileName  columnar file for right i/p to join
+   *@param index type of the indexes of S
+   *@param indName names of the indexes of S by column, null for none
+   *@param outFilter   select expressions
+   *@param rightFilter reference to filter applied on right i/p
+   *@param proj_list shows what input fields go where in the output tuple
+   *@param n_out_flds number of outer relation fileds
+   *@exception IOException some I/O fault
+   *@exception NestedLoopException no join term can use an index of S
+   */
+  public IndexNestedLoopJoin( AttrType    in1[],
+			      int     len_in1,
+			      short   t1_str_sizes[],
+			      AttrType    in2[],
+			      int     len_in2,
+			      short   t2_str_sizes[],
+			      int     amt_of_mem,
+			      Iterator     am1,
+			      String columnarFileName,
+			      IndexType index,
+			      String  indName[],
+			      CondExpr outFilter[],
+			      CondExpr rightFilter[],
+			      FldSpec   proj_list[],
+			      int        n_out_flds
+			      ) throws IOException,NestedLoopException
+    {
+
+      _in1 = new AttrType[in1.length];
+      _in2 = new AttrType[in2.length];
+      System.arraycopy(in1,0,_in1,0,in1.length);
+      System.arraycopy(in2,0,_in2,0,in2.length);
+      in1_len = len_in1;
+      in2_len = len_in2;
+
+
+      outer = am1;
+      t2_str_sizescopy =  t2_str_sizes;
+      Jtuple = new Tuple();
+      OutputFilter = outFilter;
+      RightFilter  = rightFilter;
+
+      n_buf_pgs    = amt_of_mem;
+      done  = false;
+      cache = new LinkedHashMap<Object, ArrayList<Tuple>>(16, 0.75f, true);
+
+      AttrType[] Jtypes = new AttrType[n_out_flds];
+
+      perm_mat = proj_list;
+      nOutFlds = n_out_flds;
+      try {
+	TupleUtils.setup_op_tuple(Jtuple, Jtypes,
+				  in1, len_in1, in2, len_in2,
+				  t1_str_sizes, t2_str_sizes,
+				  proj_list, nOutFlds);
+      }catch (TupleUtilsException e){
+	throw new NestedLoopException(e,"TupleUtilsException is caught by IndexNestedLoopJoin.java");
+      }
+
+      relName = columnarFileName;
+      indexType = index;
+      positional = index.indexType == IndexType.B_Position
+	|| index.indexType == IndexType.Hash;
+      findProbeTerm(indName);
+      if (probeOuterFld == 0)
+	throw new NestedLoopException(null, "IndexNestedLoopJoin.java: no join term can use an index of "
+				      + columnarFileName);
+      indexName = indName[probeInnerFld-1];
+      if (_in2[probeInnerFld-1].attrType == AttrType.attrString) {
+	int count = 0;
+	for (int i = 0; i < probeInnerFld; i++)
+	  if (_in2[i].attrType == AttrType.attrString)
+	    count++;
+	probeStrSize = t2_str_sizes[count-1];
+      }
+
+      try {
+	cf = new Columnarfile(columnarFileName);
+	reader = new PositionReader(cf, in2_len, neededColumns());
+      }
+      catch(Exception e) {
+	throw new NestedLoopException(e, "Open columnar file failed.");
+      }
+    }
+
+  /**
+   *@return The joined tuple is returned
+   *@exception Exception errors from the outer iterator, the index or
+   *the columnar file
+   */
+  public Tuple get_next()
+    throws Exception
+    {
+      if (done)
+	return null;
+
+      do
+	{
+	  // Get a tuple from the outer and the inner tuples its value
+	  // selects, from the cache or from the index.
+
+	  if (matches == null)
+	    {
+	      if ((outer_tuple=outer.get_next()) == null)
+		{
+		  done = true;
+		  return null;
+		}
+
+	      Object key = keyOf(outer_tuple);
+	      matches = cache.get(key);
+	      if (matches != null)
+		cacheHits++;
+	      else
+		{
+		  matches = probe();
+		  remember(key, matches);
+		}
+	      matchNo = 0;
+	    }
+
+	  while (matchNo < matches.size())
+	    {
+	      Tuple inner_tuple = matches.get(matchNo++);
+	      if (PredEval.Eval(OutputFilter, outer_tuple, inner_tuple, _in1, _in2) == true)
+		{
+		  // Apply a projection on the outer and inner tuples.
+		  Projection.Join(outer_tuple, _in1,
+				  inner_tuple, _in2,
+				  Jtuple, perm_mat, nOutFlds);
+		  return Jtuple;
+		}
+	    }
+
+	  matches = null; // Loop back to top and get next outer tuple.
+	} while (true);
+    }
+
+  /**
+   * @return the number of outer tuples answered from the cache
+   */
+  public int getCacheHits()
+    {
+      return cacheHits;
+    }
+
+  /**
+   * @return the number of index probes made
+   */
+  public int getProbeCount()
+    {
+      return probes;
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception IOException I/O error from lower layers
+   *@exception JoinsException join error from lower layers
+   *@exception IndexException index access error
+   */
+  public void close() throws JoinsException, IOException,IndexException
+    {
+      if (!closeFlag) {
+
+	cache.clear();
+	try {
+	  outer.close();
+	}catch (Exception e) {
+	  throw new JoinsException(e, "IndexNestedLoopJoin.java: error in closing iterator.");
+	}
+	closeFlag = true;
+      }
+    }
+
+  /**
+   * Look for the first conjunct of OutputFilter that is a single
+   * comparison between an outer field and an inner column of the same
+   * type that has an index, an equality if there is one.
+   */
+  private void findProbeTerm(String indName[])
+    {
+      probeOuterFld = 0;
+      if (OutputFilter == null)
+	return;
+      for (int pass = 0; pass < 2 && probeOuterFld == 0; pass++) {
+	for (int i = 0; OutputFilter[i] != null; i++) {
+	  CondExpr e = OutputFilter[i];
+	  int op = e.op.attrOperator;
+	  if (e.next != null || e.type1.attrType != AttrType.attrSymbol
+	      || e.type2.attrType != AttrType.attrSymbol)
+	    continue;
+	  if (pass == 0 ? op != AttrOperator.aopEQ
+	      : op == AttrOperator.aopNE || op == AttrOperator.aopNOT
+	      || indexType.indexType == IndexType.Hash)
+	    continue;
+	  FldSpec outerFld, innerFld;
+	  if (e.operand1.symbol.relation.key == RelSpec.outer
+	      && e.operand2.symbol.relation.key == RelSpec.innerRel) {
+	    // r op s: s is compared to the value of r the other way round
+	    outerFld = e.operand1.symbol;
+	    innerFld = e.operand2.symbol;
+	    op = flip(op);
+	  } else if (e.operand1.symbol.relation.key == RelSpec.innerRel
+		     && e.operand2.symbol.relation.key == RelSpec.outer) {
+	    outerFld = e.operand2.symbol;
+	    innerFld = e.operand1.symbol;
+	  } else {
+	    continue;
+	  }
+	  if (_in1[outerFld.offset-1].attrType != _in2[innerFld.offset-1].attrType
+	      || indName == null || indName[innerFld.offset-1] == null)
+	    continue;
+	  probeOuterFld = outerFld.offset;
+	  probeInnerFld = innerFld.offset;
+	  probeOp = op;
+	  return;
+	}
+      }
+    }
+
+  private static int flip(int op)
+    {
+      switch (op) {
+      case AttrOperator.aopLT: return AttrOperator.aopGT;
+      case AttrOperator.aopLE: return AttrOperator.aopGE;
+      case AttrOperator.aopGT: return AttrOperator.aopLT;
+      case AttrOperator.aopGE: return AttrOperator.aopLE;
+      default: return op;
+      }
+    }
+
+  /**
+   * @return the inner columns the projection, RightFilter and
+   * OutputFilter read, in column order
+   */
+  private int[] neededColumns()
+    {
+      BitSet columns = new BitSet();
+      for (int i = 0; i < nOutFlds; i++)
+	if (perm_mat[i].relation.key == RelSpec.innerRel)
+	  columns.set(perm_mat[i].offset);
+      for (int i = 0; RightFilter != null && RightFilter[i] != null; i++)
+	for (CondExpr e = RightFilter[i]; e != null; e = e.next) {
+	  if (e.type1.attrType == AttrType.attrSymbol)
+	    columns.set(e.operand1.symbol.offset);
+	  if (e.type2.attrType == AttrType.attrSymbol)
+	    columns.set(e.operand2.symbol.offset);
+	}
+      for (int i = 0; OutputFilter != null && OutputFilter[i] != null; i++)
+	for (CondExpr e = OutputFilter[i]; e != null; e = e.next) {
+	  if (e.type1.attrType == AttrType.attrSymbol
+	      && e.operand1.symbol.relation.key == RelSpec.innerRel)
+	    columns.set(e.operand1.symbol.offset);
+	  if (e.type2.attrType == AttrType.attrSymbol
+	      && e.operand2.symbol.relation.key == RelSpec.innerRel)
+	    columns.set(e.operand2.symbol.offset);
+	}
+      int[] needed = new int[columns.cardinality()];
+      for (int i = 0, c = columns.nextSetBit(0); c >= 0; i++, c = columns.nextSetBit(c + 1))
+	needed[i] = c;
+      return needed;
+    }
+
+  /**
+   * Probe the index with the value of the current outer tuple.
+   * @return the inner tuples it selects that pass RightFilter
+   */
+  private ArrayList<Tuple> probe()
+    throws Exception
+    {
+      probes++;
+      CondExpr[] select = new CondExpr[2];
+      select[0] = new CondExpr();
+      select[0].op = new AttrOperator(probeOp);
+      select[0].type1 = new AttrType(AttrType.attrSymbol);
+      select[0].type2 = new AttrType(_in2[probeInnerFld-1].attrType);
+      select[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), probeInnerFld);
+      switch (_in1[probeOuterFld-1].attrType) {
+      case AttrType.attrInteger:
+	select[0].operand2.integer = outer_tuple.getIntFld(probeOuterFld);
+	break;
+      case AttrType.attrReal:
+	select[0].operand2.real = outer_tuple.getFloFld(probeOuterFld);
+	break;
+      default:
+	select[0].operand2.string = outer_tuple.getStrFld(probeOuterFld);
+      }
+      select[1] = null;
+
+      // the qualifying positions, read back in position order so the
+      // column pages are visited front to back
+      BitSet hits = new BitSet();
+      ColumnIndexScan scan = new ColumnIndexScan(indexType,
+	  relName + "." + Integer.toString(probeInnerFld), indexName,
+	  _in2[probeInnerFld-1], probeStrSize, select, false);
+      try {
+	ArrayList<KeyDataEntry> entries;
+	while ((entries = scan.get_next_KeyDataEntries()) != null)
+	  for (KeyDataEntry entry : entries)
+	    hits.set(positionOf(((LeafData) entry.data).getData()));
+      } finally {
+	scan.close();
+      }
+
+      ArrayList<Tuple> found = new ArrayList<Tuple>();
+      for (int p = hits.nextSetBit(0); p >= 0; p = hits.nextSetBit(p + 1)) {
+	// logically deleted rows stay in the index until they are purged
+	if (cf.isTupleDeleted(p))
+	  continue;
+	Tuple t = reader.read(p);
+	if (PredEval.Eval(RightFilter, t, null, _in2, null) == true)
+	  found.add(t);
+      }
+      return found;
+    }
+
+  /**
+   * @return the position of the inner tuple of an index entry
+   */
+  private int positionOf(RID rid)
+    throws Exception
+    {
+      if (positional)
+	return Columnarfile.ridToPosition(rid);
+      return reader.getPosition(rid, probeInnerFld);
+    }
+
+  /**
+   * Keep the tuples of a probe value, dropping the least recently used
+   * values while the cache is over amt_of_mem pages. A probe larger than
+   * the whole cache is not kept.
+   */
+  private void remember(Object key, ArrayList<Tuple> tuples)
+    {
+      long budget = (long) Math.max(1, n_buf_pgs) * GlobalConst.MINIBASE_PAGESIZE;
+      long bytes = 0;
+      for (Tuple t : tuples)
+	bytes += t.getLength();
+      if (bytes > budget)
+	return;
+      cache.put(key, tuples);
+      cacheBytes += bytes;
+      java.util.Iterator<Map.Entry<Object, ArrayList<Tuple>>> lru = cache.entrySet().iterator();
+      while (cacheBytes > budget) {
+	for (Tuple t : lru.next().getValue())
+	  cacheBytes -= t.getLength();
+	lru.remove();
+      }
+    }
+
+  /**
+   * @return the value of the probe field of t, as a cache key
+   */
+  private Object keyOf(Tuple t)
+    throws IOException, FieldNumberOutOfBoundException
+    {
+      switch (_in1[probeOuterFld-1].attrType) {
+      case AttrType.attrInteger:
+	return Integer.valueOf(t.getIntFld(probeOuterFld));
+      case AttrType.attrReal:
+	return Float.valueOf(t.getFloFld(probeOuterFld));
+      default:
+	return t.getStrFld(probeOuterFld);
+      }
+    }
+}
@@ -8,15 +8,21 @@ import diskmgr.*;
 import index.*;
 import java.lang.*;
 import java.io.*;
+import java.util.ArrayList;
 /** 
  *
- *  This file contains an implementation of the nested loops join
+ *  This file contains an implementation of the block nested loops join
  *  algorithm as described in the Shapiro paper.
  *  The algorithm is extremely simple:
  *
- *      foreach tuple r in R do
+ *      foreach block B of amt_of_mem - 2 pages of tuples of R do
  *          foreach tuple s in S do
- *              if (ri == sj) then add (r, s) to the result.
+ *              foreach tuple r in B do
+ *                  if (ri == sj) then add (r, s) to the result.
+ *
+ *  The two pages left over hold the current page of S and the joined
+ *  tuple, so S is scanned once per block instead of once per tuple of R.
+ *  Within a block the result comes out in the order of S.
  */
 
 public class NestedLoopsJoins  extends Iterator 
@@ -29,7 +35,11 @@ public class NestedLoopsJoins  extends Iterator
   private   CondExpr RightFilter[];
   private   int        n_buf_pgs;        // # of buffer pages available.
   private   boolean        done,         // Is the join complete
-    get_from_outer;                 // if TRUE, a tuple is got from outer
+    get_from_outer,                 // if TRUE, a block is got from outer
+    outer_done;                     // if TRUE, outer has no more tuples
+  private   ArrayList<Tuple> block;     // copies of the outer tuples of the block
+  private   int        block_bytes;      // size of a block
+  private   int        block_pos;        // next outer tuple to match inner_tuple with
   private   Tuple     outer_tuple, inner_tuple;
   private   Tuple     Jtuple;           // Joined tuple
   private   FldSpec   perm_mat[];
@@ -88,9 +98,12 @@ public class NestedLoopsJoins  extends Iterator
       RightFilter  = rightFilter;
       
       n_buf_pgs    = amt_of_mem;
+      block_bytes  = Math.max(1, n_buf_pgs - 2) * GlobalConst.MINIBASE_PAGESIZE;
+      block = new ArrayList<Tuple>();
       inner = null;
       done  = false;
       get_from_outer = true;
+      outer_done = false;
       
       AttrType[] Jtypes = new AttrType[n_out_flds];
       short[]    t_size;
@@ -149,7 +162,8 @@ public class NestedLoopsJoins  extends Iterator
 	   UnknownKeyTypeException,
 	   Exception
     {
-      // This is a DUMBEST form of a join, not making use of any key information...
+      // This is still a DUMB form of a join, not making use of any key
+      // information, but it reads S once per block of R.
       
       
       if (done)
@@ -157,52 +171,42 @@ public class NestedLoopsJoins  extends Iterator
       
       do
 	{
-	  // If get_from_outer is true, Get a tuple from the outer, delete
-	  // an existing scan on the file, and reopen a new scan on the file.
-	  // If a get_next on the outer returns DONE?, then the nested loops
-	  //join is done too.
+	  // If get_from_outer is true, fill a new block from the outer and
+	  // reopen a scan on the inner file. If the outer has no tuples
+	  // left, then the nested loops join is done too.
 	  
 	  if (get_from_outer == true)
 	    {
 	      get_from_outer = false;
-	      if (inner != null)     // If this not the first time,
+	      inner = null;
+	      inner_tuple = null;
+	      
+	      if (!fill_block())
 		{
-		  // close scan
-		  inner = null;
+		  done = true;
+		  return null;
 		}
-	    
+	      
 	      try {
 		inner = hf.openScan();
 	      }
 	      catch(Exception e){
 		throw new NestedLoopException(e, "openScan failed");
 	      }
-	      
-	      if ((outer_tuple=outer.get_next()) == null)
-		{
-		  done = true;
-		  if (inner != null) 
-		    {
-                      
-		      inner = null;
-		    }
-		  
-		  return null;
-		}   
 	    }  // ENDS: if (get_from_outer == TRUE)
-	 
 	  
-	  // The next step is to get a tuple from the inner,
-	  // while the inner is not completely scanned && there
-	  // is no match (with pred),get a tuple from the inner.
 	  
-	 
-	      RID rid = new RID();
-	      while ((inner_tuple = inner.getNext(rid)) != null)
+	  // Match the current inner tuple with the rest of the block, then
+	  // get the next inner tuple that passes RightFilter, until the
+	  // inner is completely scanned.
+	  
+	  do
+	    {
+	      if (inner_tuple != null)
 		{
-		  inner_tuple.setHdr((short)in2_len, _in2,t2_str_sizescopy);
-		  if (PredEval.Eval(RightFilter, inner_tuple, null, _in2, null) == true)
+		  while (block_pos < block.size())
 		    {
+		      outer_tuple = block.get(block_pos++);
 		      if (PredEval.Eval(OutputFilter, outer_tuple, inner_tuple, _in1, _in2) == true)
 			{
 			  // Apply a projection on the outer and inner tuples.
@@ -214,11 +218,20 @@ public class NestedLoopsJoins  extends Iterator
 		    }
 		}
 	      
-	      // There has been no match. (otherwise, we would have 
-	      //returned from t//he while loop. Hence, inner is 
-	      //exhausted, => set get_from_outer = TRUE, go to top of loop
-	      
-	      get_from_outer = true; // Loop back to top and get next outer tuple.	      
+	      RID rid = new RID();
+	      while ((inner_tuple = inner.getNext(rid)) != null)
+		{
+		  inner_tuple.setHdr((short)in2_len, _in2,t2_str_sizescopy);
+		  if (PredEval.Eval(RightFilter, inner_tuple, null, _in2, null) == true)
+		    break;
+		}
+	      block_pos = 0;
+	    } while (inner_tuple != null);
+	  
+	  // The inner is exhausted for this block, => set get_from_outer
+	  // = TRUE, go to top of loop
+	  
+	  get_from_outer = true; // Loop back to top and get next block.
 	} while (true);
     } 
  
@@ -241,6 +254,30 @@ public class NestedLoopsJoins  extends Iterator
 	closeFlag = true;
       }
     }
+  
+  /**
+   * Replace the block with copies of the next outer tuples, up to
+   * block_bytes of them.
+   *@return false if the outer has no tuples left
+   *@exception Exception error from the outer iterator
+   */
+  private boolean fill_block() throws Exception
+    {
+      block.clear();
+      int bytes = 0;
+      while (!outer_done && bytes < block_bytes)
+	{
+	  Tuple t = outer.get_next();
+	  if (t == null)
+	    {
+	      outer_done = true;
+	      break;
+	    }
+	  block.add(new Tuple(t));
+	  bytes += t.getLength();
+	}
+      return !block.isEmpty();
+    }
 }
 
 
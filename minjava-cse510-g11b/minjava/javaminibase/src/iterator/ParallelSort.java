@@ -0,0 +1,498 @@
+package iterator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import global.*;
+import heap.*;
+
+/**
+ * An external sort like Sort, whose runs are sorted by several threads.
+ * The input is read on the calling thread into memory slices, one per
+ * thread, of n_pages / n_threads pages worth of tuples each, but no
+ * more than RUN_PAGES: Heapfile.insertRecord() looks through the
+ * directory of the file for room, so a long run costs more to write
+ * than its fewer runs save in the merge. A slice never holds fewer
+ * tuples than a run of Sort, though, so that the runs are no more than
+ * Sort's and whatever Sort sorts in two passes this sorts too. A full
+ * slice is handed to a worker thread, which sorts it, and then to a
+ * writer thread, which writes it out as a run while the next slices
+ * are read and sorted. The runs are then merged on the calling thread,
+ * each read ahead into n_pages / (number of runs) pages, not one page
+ * as in Sort.
+ *
+ * The writer only inserts into the run files, whose pages it gets from
+ * the buffer manager; the run files are created, and the directory of
+ * the database changed, only on the calling thread. So the reads of
+ * the input are not held up by the writes of the runs. The merge needs
+ * a page per run, so at most n_pages runs.
+ *
+ * The operators that sort take their sort from <code>open()</code>,
+ * which gives a ParallelSort when more than one thread is set with
+ * <code>setThreads()</code> and a Sort otherwise.
+ */
+public class ParallelSort extends Iterator implements GlobalConst
+{
+  /** most pages of tuples in a slice, and so in a run */
+  private static final int RUN_PAGES = 16;
+
+  /** threads the operators sort with, see open() */
+  private static int threads = 1;
+
+  private AttrType[]  _in;
+  private short       n_cols;
+  private short[]     str_lens;
+  private Iterator    _am;
+  private int         _sort_fld;
+  private TupleOrder  order;
+  private int         _n_pages;
+  private int         n_threads;
+  private int         tuple_size;
+  private int         slice_tuples;     // tuples held by a slice
+  private byte[][]    bufs;
+  private PageId[]    bufs_pids;
+  private boolean     first_time;
+
+  private ExecutorService sorters, writer;
+  private ArrayList<Run> runs;
+
+  private pnodeHeapPQ  Q;
+  private SpoofIbuf[]  i_buf;
+  private Tuple        op_buf;
+
+  /** a sorted run, written by the writer thread */
+  private static class Run
+  {
+    Heapfile file;
+    int      n_tuples;
+  }
+
+  /** the tuples of one slice, sorted in place */
+  private static class Slice
+  {
+    pnode[] nodes;
+    int     count;
+  }
+
+  /**
+   * sets the number of threads the operators sort with. With one, the
+   * default, they use Sort.
+   * @param n_threads the number of threads, at least one
+   */
+  public static synchronized void setThreads(int n_threads)
+  {
+    threads = Math.max(1, n_threads);
+  }
+
+  /**
+   * @return the number of threads the operators sort with
+   */
+  public static synchronized int getThreads()
+  {
+    return threads;
+  }
+
+  /**
+   * Opens a sort of am with the number of threads set by
+   * <code>setThreads()</code>: a ParallelSort, or a Sort for one
+   * thread. The parameters are those of the Sort constructor.
+   * @return the sort, an iterator over the tuples in sorted order
+   * @exception IOException from lower layers
+   * @exception SortException something went wrong in the lower layer.
+   */
+  public static Iterator open(AttrType[] in,
+			      short      len_in,
+			      short[]    str_sizes,
+			      Iterator   am,
+			      int        sort_fld,
+			      TupleOrder sort_order,
+			      int        sort_fld_len,
+			      int        n_pages
+			      ) throws IOException, SortException
+  {
+    int n_threads = Math.min(getThreads(), n_pages);
+    if (n_threads > 1)
+      return new ParallelSort(in, len_in, str_sizes, am, sort_fld, sort_order,
+			      sort_fld_len, n_pages, n_threads);
+    return new Sort(in, len_in, str_sizes, am, sort_fld, sort_order,
+		    sort_fld_len, n_pages);
+  }
+
+  /**
+   * Whether the sort given by <code>open()</code> can sort n_tuples
+   * tuples in two passes with n_pages buffer pages, as
+   * Sort.fitsInTwoPasses(). A ParallelSort fits whenever a Sort does.
+   * @param in array containing attribute types of the relation
+   * @param len_in number of columns in the relation
+   * @param str_sizes array of sizes of string attributes
+   * @param n_tuples number of tuples to sort
+   * @param n_pages number of buffer pages given to the sort
+   * @return true if get_next() will not throw LowMemException
+   * @exception SortException the tuple header could not be set up
+   */
+  public static boolean fitsInTwoPasses(AttrType[] in, short len_in, short[] str_sizes,
+					int n_tuples, int n_pages)
+    throws SortException
+  {
+    int n_threads = Math.min(getThreads(), n_pages);
+    if (n_threads <= 1)
+      return Sort.fitsInTwoPasses(n_tuples, n_pages);
+    int per_slice = sliceTuples(tupleSize(in, len_in, str_sizes), n_pages, n_threads);
+    return (n_tuples + per_slice - 1) / per_slice <= n_pages;
+  }
+
+  /**
+   * Class constructor, take information about the tuples, and set up
+   * the sorting
+   * @param in array containing attribute types of the relation
+   * @param len_in number of columns in the relation
+   * @param str_sizes array of sizes of string attributes
+   * @param am an iterator for accessing the tuples
+   * @param sort_fld the field number of the field to sort on
+   * @param sort_order the sorting order (ASCENDING, DESCENDING)
+   * @param sort_field_len the length of the sort field
+   * @param n_pages amount of memory (in pages) available for sorting
+   * @param n_threads number of threads sorting the runs
+   * @exception IOException from lower layers
+   * @exception SortException something went wrong in the lower layer.
+   */
+  public ParallelSort(AttrType[] in,
+		      short      len_in,
+		      short[]    str_sizes,
+		      Iterator   am,
+		      int        sort_fld,
+		      TupleOrder sort_order,
+		      int        sort_field_len,
+		      int        n_pages,
+		      int        n_threads
+		      ) throws IOException, SortException
+  {
+    _in = new AttrType[len_in];
+    n_cols = len_in;
+    int n_strs = 0;
+    for (int i=0; i<len_in; i++) {
+      _in[i] = new AttrType(in[i].attrType);
+      if (in[i].attrType == AttrType.attrString)
+	n_strs ++;
+    }
+    str_lens = new short[n_strs];
+    for (int i=0; i<n_strs; i++)
+      str_lens[i] = str_sizes[i];
+
+    tuple_size = tupleSize(_in, len_in, str_lens);
+    _am = am;
+    _sort_fld = sort_fld;
+    order = sort_order;
+    _n_pages = n_pages;
+    this.n_threads = Math.max(1, Math.min(n_threads, n_pages));
+    slice_tuples = sliceTuples(tuple_size, _n_pages, this.n_threads);
+
+    bufs_pids = new PageId[_n_pages];
+    bufs = new byte[_n_pages][];
+    try {
+      get_buffer_pages(_n_pages, bufs_pids, bufs);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "ParallelSort.java: BUFmgr error");
+    }
+
+    first_time = true;
+    runs = new ArrayList<Run>();
+    Q = new pnodeHeapPQ(sort_fld, _in[sort_fld - 1], order);
+
+    op_buf = new Tuple(tuple_size);
+    try {
+      op_buf.setHdr(n_cols, _in, str_lens);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "ParallelSort.java: op_buf.setHdr() failed");
+    }
+  }
+
+  /**
+   * Returns the next tuple in sorted order.
+   * Note: You need to copy out the content of the tuple, otherwise it
+   *       will be overwritten by the next <code>get_next()</code> call.
+   * @return the next tuple, null if all tuples exhausted
+   * @exception IOException from lower layers
+   * @exception SortException something went wrong in the lower layer.
+   * @exception LowMemException more runs than pages to merge them in
+   * @exception Exception other exceptions
+   */
+  public Tuple get_next()
+    throws IOException,
+	   SortException,
+	   LowMemException,
+	   Exception
+  {
+    if (first_time) {
+      first_time = false;
+      generate_runs();
+      setup_for_merge();
+    }
+
+    if (Q.empty())
+      return null;
+
+    op_buf.tupleCopy(delete_min());
+    return op_buf;
+  }
+
+  /**
+   * Read the input into the slices and hand each full slice to a
+   * worker to sort and then to the writer, until the input ends; then
+   * wait for the last runs to be written.
+   * @exception SortException the input, a sort or a write failed
+   */
+  private void generate_runs()
+    throws SortException
+  {
+    sorters = Executors.newFixedThreadPool(n_threads);
+    writer = Executors.newSingleThreadExecutor();
+    ArrayBlockingQueue<Slice> free = new ArrayBlockingQueue<Slice>(n_threads);
+    for (int i=0; i<n_threads; i++) {
+      Slice s = new Slice();
+      s.nodes = new pnode[slice_tuples];
+      free.add(s);
+    }
+    ArrayList<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+
+    try {
+      boolean more = true;
+      while (more) {
+	Slice slice = free.take();
+	// stop at the first run that failed
+	for (CompletableFuture<Void> f : pending)
+	  if (f.isCompletedExceptionally())
+	    f.join();
+
+	slice.count = 0;
+	while (slice.count < slice_tuples) {
+	  Tuple t = _am.get_next();
+	  if (t == null) {
+	    more = false;
+	    break;
+	  }
+	  pnode node = new pnode();
+	  node.tuple = new Tuple(t);
+	  slice.nodes[slice.count++] = node;
+	}
+	if (slice.count == 0) {
+	  free.add(slice);
+	  break;
+	}
+
+	Run run = new Run();
+	run.file = new Heapfile(null);
+	runs.add(run);
+	pending.add(CompletableFuture
+		    .runAsync(() -> sortSlice(slice), sorters)
+		    .thenRunAsync(() -> writeRun(slice, run), writer)
+		    .whenComplete((v, e) -> free.add(slice)));
+      }
+      for (CompletableFuture<Void> f : pending)
+	f.join();
+    }
+    catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      throw new SortException(cause instanceof Exception ? (Exception) cause : e,
+			      "ParallelSort.java: a run could not be generated");
+    }
+    catch (Exception e) {
+      throw new SortException(e, "ParallelSort.java: get_next() failed");
+    }
+    finally {
+      // after a failure, the runs still being written must be done
+      // before close() deletes them
+      for (CompletableFuture<Void> f : pending) {
+	try {
+	  f.join();
+	}
+	catch (CompletionException e) {
+	}
+      }
+      sorters.shutdown();
+      writer.shutdown();
+    }
+  }
+
+  /**
+   * Sort the tuples of a slice, on a worker thread.
+   */
+  private void sortSlice(Slice slice)
+  {
+    pnodeHeapPQ keys = new pnodeHeapPQ(_sort_fld, _in[_sort_fld - 1], order);
+    try {
+      for (int i=0; i<slice.count; i++)
+	keys.set_key(slice.nodes[i]);
+    }
+    catch (Exception e) {
+      throw new CompletionException(e);
+    }
+    Arrays.sort(slice.nodes, 0, slice.count, keys::compare);
+  }
+
+  /**
+   * Write a sorted slice to its run, on the writer thread.
+   */
+  private void writeRun(Slice slice, Run run)
+  {
+    try {
+      for (int i=0; i<slice.count; i++) {
+	run.file.insertRecord(slice.nodes[i].tuple.getTupleByteArray());
+	slice.nodes[i] = null;
+      }
+    }
+    catch (Exception e) {
+      throw new CompletionException(e);
+    }
+    run.n_tuples = slice.count;
+  }
+
+  /**
+   * Set up for merging the runs: give each its share of the pages to
+   * read ahead into, and put its first tuple into the heap.
+   * @exception LowMemException more runs than pages
+   * @exception SortException something went wrong in the lower layer.
+   * @exception Exception other exceptions
+   */
+  private void setup_for_merge()
+    throws LowMemException,
+	   SortException,
+	   Exception
+  {
+    int n_runs = runs.size();
+    if (n_runs > _n_pages)
+      throw new LowMemException("ParallelSort.java: Not enough memory to sort in two passes.");
+
+    i_buf = new SpoofIbuf[n_runs];
+    int page = 0;
+    for (int i=0; i<n_runs; i++) {
+      // the first runs take the pages left over
+      int pages = _n_pages / n_runs + (i < _n_pages % n_runs ? 1 : 0);
+      byte[][] run_bufs = Arrays.copyOfRange(bufs, page, page + pages);
+      page += pages;
+
+      i_buf[i] = new SpoofIbuf();
+      i_buf[i].init(runs.get(i).file, run_bufs, pages, tuple_size, runs.get(i).n_tuples);
+
+      Tuple temp_tuple = new Tuple(tuple_size);
+      try {
+	temp_tuple.setHdr(n_cols, _in, str_lens);
+      }
+      catch (Exception e) {
+	throw new SortException(e, "ParallelSort.java: Tuple.setHdr() failed");
+      }
+      temp_tuple = i_buf[i].Get(temp_tuple);
+      if (temp_tuple != null) {
+	pnode cur_node = new pnode();
+	cur_node.run_num = i;
+	cur_node.tuple = temp_tuple;
+	Q.enq(cur_node);
+      }
+    }
+  }
+
+  /**
+   * Remove the minimum value among all the runs, and put the next
+   * tuple of its run into the heap.
+   * @return the minimum tuple removed
+   * @exception Exception from the runs
+   */
+  private Tuple delete_min()
+    throws Exception
+  {
+    pnode cur_node = Q.deq();
+    Tuple old_tuple = cur_node.tuple;
+
+    if (!i_buf[cur_node.run_num].empty()) {
+      Tuple new_tuple = new Tuple(tuple_size);
+      new_tuple.setHdr(n_cols, _in, str_lens);
+      new_tuple = i_buf[cur_node.run_num].Get(new_tuple);
+      if (new_tuple == null)
+	throw new SortException("ParallelSort.java: run " + cur_node.run_num + " ended early");
+      cur_node.tuple = new_tuple;
+      Q.enq(cur_node);
+    }
+    return old_tuple;
+  }
+
+  /**
+   * @return the size of a tuple of the given types
+   */
+  private static int tupleSize(AttrType[] in, short len_in, short[] str_sizes)
+    throws SortException
+  {
+    Tuple t = new Tuple();
+    try {
+      t.setHdr(len_in, in, str_sizes);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "ParallelSort.java: t.setHdr() failed");
+    }
+    return t.size();
+  }
+
+  /**
+   * @return the tuples a slice holds: its share of the pages, in tuples,
+   * but at least as many as a run of Sort
+   */
+  private static int sliceTuples(int tuple_size, int n_pages, int n_threads)
+  {
+    int t_per_pg = Math.max(1, MINIBASE_PAGESIZE / tuple_size);
+    int share = Math.max(1, Math.min(RUN_PAGES, n_pages / n_threads)) * t_per_pg;
+    return Math.max(Sort.MAX_ELEMS_IN_HEAP, share);
+  }
+
+  /**
+   * Cleaning up, including stopping the threads, releasing buffer
+   * pages from the buffer pool and removing temporary files from the
+   * database.
+   * @exception IOException from lower layers
+   * @exception SortException something went wrong in the lower layer.
+   */
+  public void close() throws SortException, IOException
+  {
+    if (!closeFlag) {
+      if (sorters != null) {
+	sorters.shutdownNow();
+	writer.shutdownNow();
+      }
+
+      try {
+	_am.close();
+      }
+      catch (Exception e) {
+	throw new SortException(e, "ParallelSort.java: error in closing iterator.");
+      }
+
+      try {
+	free_buffer_pages(_n_pages, bufs_pids);
+      }
+      catch (Exception e) {
+	throw new SortException(e, "ParallelSort.java: BUFmgr error");
+      }
+      for (int i=0; i<_n_pages; i++) bufs_pids[i].pid = INVALID_PAGE;
+
+      if (i_buf != null) {
+	for (int i = 0; i<i_buf.length; i++) i_buf[i].close();
+      }
+
+      for (Run run : runs) {
+	try {
+	  run.file.deleteFile();
+	}
+	catch (Exception e) {
+	  throw new SortException(e, "ParallelSort.java: Heapfile error");
+	}
+      }
+      runs.clear();
+      closeFlag = true;
+    }
+  }
+}
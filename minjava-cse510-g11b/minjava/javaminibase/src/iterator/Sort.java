@@ -18,22 +18,23 @@ import chainexception.*;
 public class Sort extends Iterator implements GlobalConst
 {
   private static final int ARBIT_RUNS = 10;
+  static final int MAX_ELEMS_IN_HEAP = 200;
   
   private AttrType[]  _in;         
   private short       n_cols;
   private short[]     str_lens;
   private Iterator    _am;
-  private int         _sort_fld;
-  private TupleOrder  order;
+  private int[]       _sort_flds;
+  private AttrType[]  _sort_types;
+  private TupleOrder[] orders;
   private int         _n_pages;
   private byte[][]    bufs;
   private boolean     first_time;
   private int         Nruns;
   private int         max_elems_in_heap;
-  private int         sortFldLen;
   private int         tuple_size;
   
-  private pnodeSplayPQ Q;
+  private pnodeHeapPQ  Q;
   private Heapfile[]   temp_files; 
   private int          n_tempfiles;
   private Tuple        output_tuple;  
@@ -123,16 +124,14 @@ public class Sort extends Iterator implements GlobalConst
   
   /**
    * Generate sorted runs.
-   * Using heap sort.
+   * Using replacement selection over two heaps (see pnodeHeapPQ).
    * @param  max_elems    maximum number of elements in heap
-   * @param  sortFldType  attribute type of the sort field
-   * @param  sortFldLen   length of the sort field
    * @return number of runs generated
    * @exception IOException from lower layers
    * @exception SortException something went wrong in the lower layer. 
    * @exception JoinsException from <code>Iterator.get_next()</code>
    */
-  private int generate_runs(int max_elems, AttrType sortFldType, int sortFldLen) 
+  private int generate_runs(int max_elems) 
     throws IOException, 
 	   SortException, 
 	   UnknowAttrType,
@@ -142,17 +141,12 @@ public class Sort extends Iterator implements GlobalConst
   {
     Tuple tuple; 
     pnode cur_node;
-    pnodeSplayPQ Q1 = new pnodeSplayPQ(_sort_fld, sortFldType, order);
-    pnodeSplayPQ Q2 = new pnodeSplayPQ(_sort_fld, sortFldType, order);
-    pnodeSplayPQ pcurr_Q = Q1;
-    pnodeSplayPQ pother_Q = Q2; 
-    Tuple lastElem = new Tuple(tuple_size);  // need tuple.java
-    try {
-      lastElem.setHdr(n_cols, _in, str_lens);
-    }
-    catch (Exception e) {
-      throw new SortException(e, "Sort.java: setHdr() failed");
-    }
+    pnodeHeapPQ Q1 = new pnodeHeapPQ(_sort_flds, _sort_types, orders);
+    pnodeHeapPQ Q2 = new pnodeHeapPQ(_sort_flds, _sort_types, orders);
+    pnodeHeapPQ pcurr_Q = Q1;
+    pnodeHeapPQ pother_Q = Q2; 
+    // the last element written to the current run, null when it is empty
+    pnode lastElem = null;
     
     int run_num = 0;  // keeps track of the number of runs
 
@@ -162,27 +156,6 @@ public class Sort extends Iterator implements GlobalConst
     int p_elems_curr_Q = 0;
     int p_elems_other_Q = 0;
     
-    int comp_res;
-    
-    // set the lastElem to be the minimum value for the sort field
-    if(order.tupleOrder == TupleOrder.Ascending) {
-      try {
-	MIN_VAL(lastElem, sortFldType);
-      } catch (UnknowAttrType e) {
-	throw new SortException(e, "Sort.java: UnknowAttrType caught from MIN_VAL()");
-      } catch (Exception e) {
-	throw new SortException(e, "MIN_VAL failed");
-      } 
-    }
-    else {
-      try {
-	MAX_VAL(lastElem, sortFldType);
-      } catch (UnknowAttrType e) {
-	throw new SortException(e, "Sort.java: UnknowAttrType caught from MAX_VAL()");
-      } catch (Exception e) {
-	throw new SortException(e, "MIN_VAL failed");
-      } 
-    }
     
     // maintain a fixed maximum number of elements in the heap
     while ((p_elems_curr_Q + p_elems_other_Q) < max_elems) {
@@ -211,9 +184,7 @@ public class Sort extends Iterator implements GlobalConst
       if (cur_node == null) break; 
       p_elems_curr_Q --;
       
-      comp_res = TupleUtils.CompareTupleWithValue(sortFldType, cur_node.tuple, _sort_fld, lastElem);  // need tuple_utils.java
-      
-      if ((comp_res < 0 && order.tupleOrder == TupleOrder.Ascending) || (comp_res > 0 && order.tupleOrder == TupleOrder.Descending)) {
+      if (lastElem != null && pcurr_Q.compare(cur_node, lastElem) < 0) {
 	// doesn't fit in current run, put into the other queue
 	try {
 	  pother_Q.enq(cur_node);
@@ -224,9 +195,8 @@ public class Sort extends Iterator implements GlobalConst
 	p_elems_other_Q ++;
       }
       else {
-	// set lastElem to have the value of the current tuple,
-	// need tuple_utils.java
-	TupleUtils.SetValue(lastElem, cur_node.tuple, _sort_fld, sortFldType);
+	// lastElem now has the key of the current tuple
+	lastElem = cur_node;
 	// write tuple to output file, need io_bufs.java, type cast???
 	//	System.out.println("Putting tuple into run " + (run_num + 1)); 
 	//	cur_node.tuple.print(_in);
@@ -267,28 +237,11 @@ public class Sort extends Iterator implements GlobalConst
 	// need io_bufs.java
 	o_buf.init(bufs, _n_pages, tuple_size, temp_files[run_num], false);
 	
-	// set the last Elem to be the minimum value for the sort field
-	if(order.tupleOrder == TupleOrder.Ascending) {
-	  try {
-	    MIN_VAL(lastElem, sortFldType);
-	  } catch (UnknowAttrType e) {
-	    throw new SortException(e, "Sort.java: UnknowAttrType caught from MIN_VAL()");
-	  } catch (Exception e) {
-	    throw new SortException(e, "MIN_VAL failed");
-	  } 
-	}
-	else {
-	  try {
-	    MAX_VAL(lastElem, sortFldType);
-	  } catch (UnknowAttrType e) {
-	    throw new SortException(e, "Sort.java: UnknowAttrType caught from MAX_VAL()");
-	  } catch (Exception e) {
-	    throw new SortException(e, "MIN_VAL failed");
-	  } 
-	}
+	// the new run is empty, any tuple fits in it
+	lastElem = null;
     
 	// switch the current heap and the other heap
-	pnodeSplayPQ tempQ = pcurr_Q;
+	pnodeHeapPQ tempQ = pcurr_Q;
 	pcurr_Q = pother_Q;
 	pother_Q = tempQ;
 	int tempelems = p_elems_curr_Q;
@@ -362,28 +315,11 @@ public class Sort extends Iterator implements GlobalConst
 	  // need io_bufs.java
 	  o_buf.init(bufs, _n_pages, tuple_size, temp_files[run_num], false);
 	  
-	  // set the last Elem to be the minimum value for the sort field
-	  if(order.tupleOrder == TupleOrder.Ascending) {
-	    try {
-	      MIN_VAL(lastElem, sortFldType);
-	    } catch (UnknowAttrType e) {
-	      throw new SortException(e, "Sort.java: UnknowAttrType caught from MIN_VAL()");
-	    } catch (Exception e) {
-	      throw new SortException(e, "MIN_VAL failed");
-	    } 
-	  }
-	  else {
-	    try {
-	      MAX_VAL(lastElem, sortFldType);
-	    } catch (UnknowAttrType e) {
-	      throw new SortException(e, "Sort.java: UnknowAttrType caught from MAX_VAL()");
-	    } catch (Exception e) {
-	      throw new SortException(e, "MIN_VAL failed");
-	    } 
-	  }
+	  // the new run is empty, any tuple fits in it
+	  lastElem = null;
 	
 	  // switch the current heap and the other heap
-	  pnodeSplayPQ tempQ = pcurr_Q;
+	  pnodeHeapPQ tempQ = pcurr_Q;
 	  pcurr_Q = pother_Q;
 	  pother_Q = tempQ;
 	  int tempelems = p_elems_curr_Q;
@@ -458,90 +394,6 @@ public class Sort extends Iterator implements GlobalConst
     return old_tuple; 
   }
   
-  /**
-   * Set lastElem to be the minimum value of the appropriate type
-   * @param lastElem the tuple
-   * @param sortFldType the sort field type
-   * @exception IOException from lower layers
-   * @exception UnknowAttrType attrSymbol or attrNull encountered
-   */
-  private void MIN_VAL(Tuple lastElem, AttrType sortFldType) 
-    throws IOException, 
-	   FieldNumberOutOfBoundException,
-	   UnknowAttrType {
-
-    //    short[] s_size = new short[Tuple.max_size]; // need Tuple.java
-    //    AttrType[] junk = new AttrType[1];
-    //    junk[0] = new AttrType(sortFldType.attrType);
-    char[] c = new char[1];
-    c[0] = Character.MIN_VALUE; 
-    String s = new String(c);
-    //    short fld_no = 1;
-    
-    switch (sortFldType.attrType) {
-    case AttrType.attrInteger: 
-      //      lastElem.setHdr(fld_no, junk, null);
-      lastElem.setIntFld(_sort_fld, Integer.MIN_VALUE);
-      break;
-    case AttrType.attrReal:
-      //      lastElem.setHdr(fld-no, junk, null);
-      lastElem.setFloFld(_sort_fld, Float.MIN_VALUE);
-      break;
-    case AttrType.attrString:
-      //      lastElem.setHdr(fld_no, junk, s_size);
-      lastElem.setStrFld(_sort_fld, s);
-      break;
-    default:
-      // don't know how to handle attrSymbol, attrNull
-      //System.err.println("error in sort.java");
-      throw new UnknowAttrType("Sort.java: don't know how to handle attrSymbol, attrNull");
-    }
-    
-    return;
-  }
-
-  /**
-   * Set lastElem to be the maximum value of the appropriate type
-   * @param lastElem the tuple
-   * @param sortFldType the sort field type
-   * @exception IOException from lower layers
-   * @exception UnknowAttrType attrSymbol or attrNull encountered
-   */
-  private void MAX_VAL(Tuple lastElem, AttrType sortFldType) 
-    throws IOException, 
-	   FieldNumberOutOfBoundException,
-	   UnknowAttrType {
-
-    //    short[] s_size = new short[Tuple.max_size]; // need Tuple.java
-    //    AttrType[] junk = new AttrType[1];
-    //    junk[0] = new AttrType(sortFldType.attrType);
-    char[] c = new char[1];
-    c[0] = Character.MAX_VALUE; 
-    String s = new String(c);
-    //    short fld_no = 1;
-    
-    switch (sortFldType.attrType) {
-    case AttrType.attrInteger: 
-      //      lastElem.setHdr(fld_no, junk, null);
-      lastElem.setIntFld(_sort_fld, Integer.MAX_VALUE);
-      break;
-    case AttrType.attrReal:
-      //      lastElem.setHdr(fld_no, junk, null);
-      lastElem.setFloFld(_sort_fld, Float.MAX_VALUE);
-      break;
-    case AttrType.attrString:
-      //      lastElem.setHdr(fld_no, junk, s_size);
-      lastElem.setStrFld(_sort_fld, s);
-      break;
-    default:
-      // don't know how to handle attrSymbol, attrNull
-      //System.err.println("error in sort.java");
-      throw new UnknowAttrType("Sort.java: don't know how to handle attrSymbol, attrNull");
-    }
-    
-    return;
-  }
-  
   /** 
    * Class constructor, take information about the tuples, and set up 
    * the sorting
@@ -566,6 +418,36 @@ public class Sort extends Iterator implements GlobalConst
 	      int        n_pages      
 	      ) throws IOException, SortException
   {
+    this(in, len_in, str_sizes, am, new int[] { sort_fld },
+	 new TupleOrder[] { sort_order }, n_pages);
+  }
+
+  /** 
+   * Class constructor for sorting on several fields, as in ORDER BY
+   * a, b DESC: tuples are in the order of the first field, those equal
+   * in it in the order of the second, and so on.
+   * @param in array containing attribute types of the relation
+   * @param len_in number of columns in the relation
+   * @param str_sizes array of sizes of string attributes
+   * @param am an iterator for accessing the tuples
+   * @param sort_flds the field numbers of the fields to sort on
+   * @param sort_orders the sorting order of each field (ASCENDING, DESCENDING)
+   * @param n_pages amount of memory (in pages) available for sorting
+   * @exception IOException from lower layers
+   * @exception SortException something went wrong in the lower layer. 
+   */
+  public Sort(AttrType[]   in,         
+	      short        len_in,             
+	      short[]      str_sizes,
+	      Iterator     am,                 
+	      int[]        sort_flds,          
+	      TupleOrder[] sort_orders,     
+	      int          n_pages      
+	      ) throws IOException, SortException
+  {
+    if (sort_flds.length == 0 || sort_flds.length != sort_orders.length)
+      throw new SortException("Sort.java: one order is needed for each sort field");
+
     _in = new AttrType[len_in];
     n_cols = len_in;
     int n_strs = 0;
@@ -597,8 +479,11 @@ public class Sort extends Iterator implements GlobalConst
     tuple_size = t.size();
     
     _am = am;
-    _sort_fld = sort_fld;
-    order = sort_order;
+    _sort_flds = sort_flds.clone();
+    orders = sort_orders.clone();
+    _sort_types = new AttrType[_sort_flds.length];
+    for (int i=0; i<_sort_flds.length; i++)
+      _sort_types[i] = _in[_sort_flds[i] - 1];
     _n_pages = n_pages;
     
     // this may need change, bufs ???  need io_bufs.java
@@ -639,10 +524,9 @@ public class Sort extends Iterator implements GlobalConst
     o_buf.init(bufs, _n_pages, tuple_size, temp_files[0], false);
     //    output_tuple = null;
     
-    max_elems_in_heap = 200;
-    sortFldLen = sort_fld_len;
+    max_elems_in_heap = MAX_ELEMS_IN_HEAP;
     
-    Q = new pnodeSplayPQ(sort_fld, in[sort_fld - 1], order);
+    Q = new pnodeHeapPQ(_sort_flds, _sort_types, orders);
 
     op_buf = new Tuple(tuple_size);   // need Tuple.java
     try {
@@ -678,7 +562,7 @@ public class Sort extends Iterator implements GlobalConst
       first_time = false;
       
       // generate runs
-      Nruns = generate_runs(max_elems_in_heap, _in[_sort_fld-1], sortFldLen);
+      Nruns = generate_runs(max_elems_in_heap);
       //      System.out.println("Generated " + Nruns + " runs");
       
       // setup state to perform merge of runs. 
@@ -700,6 +584,21 @@ public class Sort extends Iterator implements GlobalConst
       return null; 
   }
 
+  /**
+   * Whether n_tuples tuples can be sorted in two passes with n_pages
+   * buffer pages. Every run but the last holds at least as many tuples
+   * as the heap, and the merge needs one page per run. Callers can use
+   * this to pick another plan before any run is written.
+   * @param n_tuples number of tuples to sort
+   * @param n_pages number of buffer pages given to the sort
+   * @return true if get_next() will not throw LowMemException
+   */
+  public static boolean fitsInTwoPasses(int n_tuples, int n_pages)
+  {
+    int runs = (n_tuples + MAX_ELEMS_IN_HEAP - 1) / MAX_ELEMS_IN_HEAP;
+    return runs <= n_pages;
+  }
+
   /**
    * Cleaning up, including releasing buffer pages from the buffer pool
    * and removing temporary files from the database.
@@ -728,6 +627,10 @@ public class Sort extends Iterator implements GlobalConst
 	for (int i=0; i<_n_pages; i++) bufs_pids[i].pid = INVALID_PAGE;
       }
       
+      if (i_buf != null) {
+	for (int i = 0; i<i_buf.length; i++) i_buf[i].close();
+      }
+      
       for (int i = 0; i<temp_files.length; i++) {
 	if (temp_files[i] != null) {
 	  try {
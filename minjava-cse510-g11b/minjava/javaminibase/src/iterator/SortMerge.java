@@ -132,8 +132,8 @@ public class SortMerge extends Iterator implements GlobalConst
       
       if    (!in1_sorted){
 	try {
-	  p_i1 = new Sort(in1, (short)len_in1, s1_sizes, am1, join_col_in1,
-			  order, sortFld1Len, amt_of_mem / 2);
+	  p_i1 = ParallelSort.open(in1, (short)len_in1, s1_sizes, am1, join_col_in1,
+				  order, sortFld1Len, amt_of_mem / 2);
 	}catch(Exception e){
 	  throw new SortException (e, "Sort failed");
 	}
@@ -141,8 +141,8 @@ public class SortMerge extends Iterator implements GlobalConst
      
       if (! in2_sorted){
 	try {
-	  p_i2 = new Sort(in2, (short)len_in2, s2_sizes, am2, join_col_in2,
-			   order, sortFld2Len, amt_of_mem / 2);
+	  p_i2 = ParallelSort.open(in2, (short)len_in2, s2_sizes, am2, join_col_in2,
+				   order, sortFld2Len, amt_of_mem / 2);
 	}catch(Exception e){
 	  throw new SortException (e, "Sort failed");
 	}
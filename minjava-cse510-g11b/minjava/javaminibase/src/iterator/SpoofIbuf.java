@@ -71,7 +71,7 @@ public class SpoofIbuf implements GlobalConst  {
     {
       if (tot_t_proc == n_tuples) done = true;
       
-      if (done == true){buf = null; return null;}
+      if (done == true){close(); buf = null; return null;}
       if (t_proc == t_in_buf)
 	{
 	  try {
@@ -101,6 +101,18 @@ public class SpoofIbuf implements GlobalConst  {
     }
   
    
+  /**
+   * end the scan of the run file, which otherwise keeps its current
+   * page pinned when the run ends exactly at the end of a buffer
+   */
+  public  void close()
+    {
+      if (hf_scan != null) {
+	hf_scan.closescan();
+	hf_scan = null;
+      }
+    }
+  
   /**
    *@return if the buffer is empty,return true. otherwise false
    */
@@ -0,0 +1,257 @@
+package iterator;
+
+import java.io.*;
+import java.util.Arrays;
+import global.*;
+import heap.*;
+import columnar.Columnarfile;
+import columnar.PositionReader;
+
+/**
+ * The first K tuples of an input in the order of some fields, as in
+ * ORDER BY ... LIMIT K, without sorting the whole input. The K best
+ * tuples seen so far are kept in a heap whose top is the worst of
+ * them; a tuple that does not beat it is dropped after its key is
+ * looked at, without being copied. Nothing is written to temporary
+ * files, the K tuples are held in memory.
+ *
+ * Over a columnar file, only the sort column is scanned: the heap
+ * holds (value, position) pairs, and only once the input is read are
+ * the columns of the projection read, for the K winning positions.
+ * Deleted tuples are left out.
+ *
+ * Of tuples equal in the sort fields, those read first are kept when
+ * they tie for the K-th place, but they come out in no set order.
+ */
+public class TopK extends Iterator implements GlobalConst
+{
+  private Iterator     _am;
+  private int          k;
+  private pnodeHeapPQ  worst;       // the kept tuples, worst on top
+  private pnode        probe;       // the key of the tuple looked at
+  private Tuple[]      result;      // the kept tuples, best first
+  private int          next;
+  private boolean      first_time;
+
+  // over a columnar file
+  private Columnarfile cf;
+  private PositionReader reader;
+  private AttrType[]   _in;
+  private FldSpec[]    perm_mat;
+  private int          nOutFlds;
+  private Tuple        Jtuple;
+
+  /**
+   * Class constructor, for the first k tuples of an iterator in the
+   * order of one field.
+   * @param in array containing attribute types of the relation
+   * @param len_in number of columns in the relation
+   * @param str_sizes array of sizes of string attributes
+   * @param am an iterator for accessing the tuples
+   * @param sort_fld the field number of the field to order by
+   * @param sort_order the order (Ascending, Descending)
+   * @param k the number of tuples wanted
+   */
+  public TopK(AttrType[] in,
+	      short      len_in,
+	      short[]    str_sizes,
+	      Iterator   am,
+	      int        sort_fld,
+	      TupleOrder sort_order,
+	      int        k)
+  {
+    this(in, len_in, str_sizes, am, new int[] { sort_fld },
+	 new TupleOrder[] { sort_order }, k);
+  }
+
+  /**
+   * Class constructor, for the first k tuples of an iterator in the
+   * order of several fields, as in Sort.
+   * @param in array containing attribute types of the relation
+   * @param len_in number of columns in the relation
+   * @param str_sizes array of sizes of string attributes
+   * @param am an iterator for accessing the tuples
+   * @param sort_flds the field numbers of the fields to order by
+   * @param sort_orders the order of each field (Ascending, Descending)
+   * @param k the number of tuples wanted
+   */
+  public TopK(AttrType[]   in,
+	      short        len_in,
+	      short[]      str_sizes,
+	      Iterator     am,
+	      int[]        sort_flds,
+	      TupleOrder[] sort_orders,
+	      int          k)
+  {
+    AttrType[] types = new AttrType[sort_flds.length];
+    for (int i = 0; i < sort_flds.length; i++)
+      types[i] = in[sort_flds[i] - 1];
+    init(am, sort_flds, types, sort_orders, k);
+  }
+
+  /**
+   * Class constructor, for the first k tuples of a columnar file in
+   * the order of one column, projected.
+   * @param relName the columnar file
+   * @param in array containing the column types of the file
+   * @param str_sizes array of sizes of its string columns
+   * @param sort_col the column to order by
+   * @param sort_order the order (Ascending, Descending)
+   * @param k the number of tuples wanted
+   * @param proj_list shows what columns go where in the output tuple
+   * @param n_out_flds number of fields in the output tuple
+   * @exception IOException from lower layers
+   * @exception SortException the file or the scan could not be opened
+   */
+  public TopK(String     relName,
+	      AttrType[] in,
+	      short[]    str_sizes,
+	      int        sort_col,
+	      TupleOrder sort_order,
+	      int        k,
+	      FldSpec[]  proj_list,
+	      int        n_out_flds)
+    throws IOException, SortException
+  {
+    _in = in;
+    perm_mat = proj_list;
+    nOutFlds = n_out_flds;
+    Jtuple = new Tuple();
+    AttrType[] Jtypes = new AttrType[n_out_flds];
+    try {
+      TupleUtils.setup_op_tuple(Jtuple, Jtypes, in, (short) in.length, str_sizes,
+				proj_list, n_out_flds);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "TopK.java: setup_op_tuple() failed");
+    }
+
+    int[] columns = new int[n_out_flds];
+    for (int i = 0; i < n_out_flds; i++)
+      columns[i] = proj_list[i].offset;
+    Arrays.sort(columns);
+    int n = 0;
+    for (int i = 0; i < columns.length; i++)
+      if (n == 0 || columns[i] != columns[n - 1])
+	columns[n++] = columns[i];
+
+    ColumnarKeyScan keys;
+    try {
+      cf = new Columnarfile(relName);
+      reader = new PositionReader(cf, in.length, Arrays.copyOf(columns, n));
+      keys = new ColumnarKeyScan(cf, sort_col, true);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "TopK.java: could not open " + relName);
+    }
+    init(keys, new int[] { 1 }, new AttrType[] { keys.getOutputTypes()[0] },
+	 new TupleOrder[] { sort_order }, k);
+  }
+
+  private void init(Iterator am, int[] sort_flds, AttrType[] types,
+		    TupleOrder[] sort_orders, int k)
+  {
+    _am = am;
+    this.k = Math.max(0, k);
+    // the heap orders the other way, to have the worst kept on top
+    TupleOrder[] reversed = new TupleOrder[sort_orders.length];
+    for (int i = 0; i < reversed.length; i++)
+      reversed[i] = new TupleOrder(sort_orders[i].tupleOrder == TupleOrder.Ascending
+				   ? TupleOrder.Descending : TupleOrder.Ascending);
+    worst = new pnodeHeapPQ(sort_flds, types, reversed);
+    probe = new pnode();
+    first_time = true;
+  }
+
+  /**
+   * Returns the next of the first k tuples.
+   * Note: You need to copy out the content of the tuple, otherwise it
+   *       will be overwritten by the next <code>get_next()</code> call.
+   * @return the next tuple, null after the k-th
+   * @exception Exception from the input or the columnar file
+   */
+  public Tuple get_next()
+    throws Exception
+  {
+    if (first_time) {
+      first_time = false;
+      select();
+    }
+    if (next == result.length)
+      return null;
+    return result[next++];
+  }
+
+  /**
+   * Read the whole input, keeping the best k tuples, and put them in
+   * result in order.
+   */
+  private void select()
+    throws Exception
+  {
+    Tuple t;
+    while (k > 0 && (t = _am.get_next()) != null) {
+      if (cf != null && cf.isTupleDeleted(t.getIntFld(2)))
+	continue;
+      if (worst.length() == k) {
+	probe.tuple = t;
+	worst.set_key(probe);
+	// in the heap's order the better tuples come last; one equal to
+	// the worst kept is dropped, so the one read first stays
+	if (worst.compare(probe, worst.top()) <= 0)
+	  continue;
+	worst.deq();
+      }
+      pnode node = new pnode();
+      node.tuple = new Tuple(t);
+      worst.enq(node);
+    }
+
+    // the heap gives the worst first
+    result = new Tuple[worst.length()];
+    for (int i = result.length - 1; i >= 0; i--)
+      result[i] = worst.deq().tuple;
+
+    if (cf != null)
+      materialize();
+  }
+
+  /**
+   * Replace each (value, position) pair of result by the projection of
+   * the tuple at its position, reading the positions in ascending order.
+   */
+  private void materialize()
+    throws Exception
+  {
+    Integer[] order = new Integer[result.length];
+    int[] positions = new int[result.length];
+    for (int i = 0; i < result.length; i++) {
+      order[i] = i;
+      positions[i] = result[i].getIntFld(2);
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(positions[a], positions[b]));
+    for (int i : order) {
+      Tuple row = reader.read(positions[i]);
+      Projection.Project(row, _in, Jtuple, perm_mat, nOutFlds);
+      result[i] = new Tuple(Jtuple);
+    }
+  }
+
+  /**
+   * Cleaning up, closing the input.
+   * @exception IOException from lower layers
+   * @exception SortException the input could not be closed
+   */
+  public void close() throws IOException, SortException
+  {
+    if (!closeFlag) {
+      try {
+	_am.close();
+      }
+      catch (Exception e) {
+	throw new SortException(e, "TopK.java: error in closing iterator.");
+      }
+      closeFlag = true;
+    }
+  }
+}
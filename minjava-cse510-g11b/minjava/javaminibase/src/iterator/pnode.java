@@ -16,6 +16,19 @@ public class pnode {
   /** the tuple reference */
   public Tuple   tuple;
 
+  /** normalized sort key, set by <code>pnodeHeapPQ.enq()</code> */
+  public long    key_prefix;
+
+  /** the sort field when it is a string, which the prefix only begins */
+  public String  key_string;
+
+  /** normalized keys of the second and later sort fields, null if
+   * there is only one */
+  public long[]  key_more;
+
+  /** those of the second and later sort fields that are strings */
+  public String[] key_more_strings;
+
   /**
    * class constructor, sets <code>run_num</code> to 0 and <code>tuple</code>
    * to null.
@@ -0,0 +1,239 @@
+
+package iterator;
+
+import global.*;
+import heap.*;
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Implements a priority queue as a binary heap kept in an array.
+ * When an element is inserted, its sort fields are turned into
+ * normalized keys (see <code>set_key()</code>): a <code>long</code> per
+ * field whose signed order is the sorting order of the field, its
+ * direction included, and for strings, which only fit in part, the
+ * string itself. Comparisons are then compares of longs, and of two
+ * strings only when their first four characters are equal; the tuples
+ * are not read again. A second sort field is only looked at when the
+ * first ones are equal, so sorting on several fields costs about what
+ * sorting on the first one does.
+ */
+public class pnodeHeapPQ extends pnodePQ
+{
+  /** the elements, heap[0] the one that comes first */
+  private pnode[]  heap;
+
+  /** the sort fields, the first one deciding first */
+  private int[]      flds;
+  private AttrType[] types;
+
+  /** which of the sort fields are in Descending order */
+  private boolean[]  desc;
+
+  /** whether one of the second and later sort fields is a string */
+  private boolean    more_strings;
+
+  /**
+   * class constructor.
+   * @param fldNo   the field number for sorting
+   * @param fldType the type of the field for sorting
+   * @param order   the order of sorting (Ascending or Descending)
+   */
+  public pnodeHeapPQ(int fldNo, AttrType fldType, TupleOrder order)
+  {
+    this(new int[] { fldNo }, new AttrType[] { fldType }, new TupleOrder[] { order });
+  }
+
+  /**
+   * class constructor, for sorting on several fields.
+   * @param fldNos   the field numbers for sorting, the first one deciding first
+   * @param fldTypes the types of the fields for sorting
+   * @param orders   the order of sorting of each field (Ascending or Descending)
+   */
+  public pnodeHeapPQ(int[] fldNos, AttrType[] fldTypes, TupleOrder[] orders)
+  {
+    fld_no     = fldNos[0];
+    fld_type   = fldTypes[0];
+    sort_order = orders[0];
+    flds       = fldNos;
+    types      = fldTypes;
+    desc       = new boolean[flds.length];
+    for (int i = 0; i < flds.length; i++) {
+      desc[i] = orders[i].tupleOrder == TupleOrder.Descending;
+      if (i > 0 && types[i].attrType == AttrType.attrString)
+	more_strings = true;
+    }
+    heap       = new pnode[16];
+  }
+
+  /**
+   * inserts an element into the heap, setting its key.
+   * @param item the element to be inserted
+   * @exception IOException from lower layers
+   * @exception UnknowAttrType <code>attrSymbol</code> or
+   *                           <code>attrNull</code> encountered
+   * @exception TupleUtilsException error in tuple field access
+   */
+  public void enq(pnode item) throws IOException, UnknowAttrType, TupleUtilsException
+  {
+    set_key(item);
+    if (count == heap.length)
+      heap = Arrays.copyOf(heap, 2 * count);
+
+    int i = count++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (compare(heap[parent], item) <= 0)
+	break;
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = item;
+  }
+
+  /**
+   * removes the element that comes first in the sorting order from
+   * the heap.
+   * @return the element removed, null if the heap is empty
+   */
+  public pnode deq()
+  {
+    if (count == 0)
+      return null;
+
+    pnode top = heap[0];
+    pnode last = heap[--count];
+    heap[count] = null;
+    if (count == 0)
+      return top;
+
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= count)
+	break;
+      if (child + 1 < count && compare(heap[child + 1], heap[child]) < 0)
+	child++;
+      if (compare(last, heap[child]) <= 0)
+	break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = last;
+    return top;
+  }
+
+  /**
+   * @return the element that comes first, left in the heap; null if
+   * the heap is empty
+   */
+  public pnode top()
+  {
+    return count == 0 ? null : heap[0];
+  }
+
+  /**
+   * compares the keys of two elements in the sorting order.
+   * @param a one of the element for comparison
+   * @param b the other element for comparison
+   * @return a negative number if <code>a</code> comes first,
+   *         <code>0</code> if the two are equal, a positive number
+   *         if <code>b</code> comes first
+   */
+  public int compare(pnode a, pnode b)
+  {
+    int ans = Long.compare(a.key_prefix, b.key_prefix);
+    if (ans != 0)
+      return ans;
+    if (a.key_string != null) {
+      ans = a.key_string.compareTo(b.key_string);
+      if (ans != 0)
+	return desc[0] ? -ans : ans;
+    }
+    for (int i = 1; i < flds.length; i++) {
+      ans = Long.compare(a.key_more[i - 1], b.key_more[i - 1]);
+      if (ans != 0)
+	return ans;
+      if (more_strings && a.key_more_strings[i - 1] != null) {
+	ans = a.key_more_strings[i - 1].compareTo(b.key_more_strings[i - 1]);
+	if (ans != 0)
+	  return desc[i] ? -ans : ans;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * sets the normalized keys of an element from the sort fields of its
+   * tuple: integers as they are, reals by the bits of the float with
+   * the negative ones turned around (and -0.0 taken as 0.0), strings by
+   * their first four characters, 16 bits each, unsigned; each turned
+   * around again if its field is in Descending order.
+   * @param item the element
+   * @exception IOException from lower layers
+   * @exception UnknowAttrType <code>attrSymbol</code> or
+   *                           <code>attrNull</code> encountered
+   * @exception TupleUtilsException error in tuple field access
+   */
+  public void set_key(pnode item) throws IOException, UnknowAttrType, TupleUtilsException
+  {
+    try {
+      if (types[0].attrType == AttrType.attrString) {
+	item.key_string = item.tuple.getStrFld(flds[0]);
+	item.key_prefix = normalize(item.tuple, 0, item.key_string);
+      } else {
+	item.key_string = null;
+	item.key_prefix = normalize(item.tuple, 0, null);
+      }
+
+      if (flds.length == 1)
+	return;
+      if (item.key_more == null) {
+	item.key_more = new long[flds.length - 1];
+	if (more_strings)
+	  item.key_more_strings = new String[flds.length - 1];
+      }
+      for (int i = 1; i < flds.length; i++) {
+	String s = null;
+	if (types[i].attrType == AttrType.attrString) {
+	  s = item.tuple.getStrFld(flds[i]);
+	  item.key_more_strings[i - 1] = s;
+	}
+	item.key_more[i - 1] = normalize(item.tuple, i, s);
+      }
+    } catch (FieldNumberOutOfBoundException e) {
+      throw new TupleUtilsException(e, "FieldNumberOutOfBoundException is caught by pnodeHeapPQ.java");
+    }
+  }
+
+  /**
+   * @return the normalized key of the k-th sort field of a tuple
+   * @param s the field, when it is a string
+   */
+  private long normalize(Tuple t, int k, String s)
+    throws IOException, UnknowAttrType, FieldNumberOutOfBoundException
+  {
+    long key;
+    switch (types[k].attrType) {
+    case AttrType.attrInteger:
+      key = t.getIntFld(flds[k]);
+      break;
+    case AttrType.attrReal:
+      float f = t.getFloFld(flds[k]);
+      int bits = Float.floatToIntBits(f == 0.0f ? 0.0f : f);
+      key = bits ^ ((bits >> 31) & 0x7fffffff);
+      break;
+    case AttrType.attrString:
+      long prefix = 0;
+      for (int i = 0; i < 4; i++)
+	prefix = (prefix << 16) | (i < s.length() ? s.charAt(i) : 0);
+      // the complement of a string key turns it around, as the
+      // negation does a number
+      key = prefix ^ Long.MIN_VALUE;
+      return desc[k] ? ~key : key;
+    default:
+      throw new UnknowAttrType(null, "Don't know how to handle attrSymbol, attrNull");
+    }
+    return desc[k] ? -key : key;
+  }
+}
@@ -0,0 +1,479 @@
+package tests;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import btree.*;
+
+/**
+ * Readers scan a B+ tree while a writer inserts into and deletes from
+ * it. Readers take no latch, so they must see every entry that was in
+ * the tree for the whole scan, in key order and exactly once, no matter
+ * how the writer splits pages under them. Scans read a leaf at a time
+ * (get_next_batch) must do the same, and return what get_next does.
+ */
+class BTConcurrencyDriver extends TestDriver
+  implements GlobalConst {
+
+  private final static int KEYS = 3000;     // entries loaded up front
+  private final static int READERS = 3;
+  private final static int SPAN = 300;      // keys read by a range scan
+  private final static int BIG = 40000;     // entries of the batch test
+  private final static int ROUNDS = 5;      // timed scans of each kind
+
+  // set by any thread that finds a wrong answer
+  private volatile boolean failed;
+
+  public BTConcurrencyDriver() {
+    super("btconctest");
+  }
+
+  public boolean runTests () {
+
+    System.out.println ("\n" + "Running " + testName() + " tests...." + "\n");
+
+    SystemDefs sysdef = new SystemDefs(dbpath, 5000, 100, "Clock");
+
+    String remove_cmd = "/bin/rm -rf ";
+    try {
+      Runtime.getRuntime().exec(remove_cmd + logpath);
+    }
+    catch (IOException e) {
+      System.err.println (""+e);
+    }
+
+    boolean _pass = runAllTests();
+
+    try {
+      Runtime.getRuntime().exec(remove_cmd + logpath);
+      Runtime.getRuntime().exec(remove_cmd + dbpath);
+    }
+    catch (IOException e) {
+      System.err.println (""+e);
+    }
+
+    System.out.println ("\n" + "..." + testName() + " tests ");
+    System.out.print (_pass==OK ? "completely successfully" : "failed");
+    System.out.println (".\n\n");
+
+    return _pass;
+  }
+
+  // the rid an entry of the test trees holds for a key
+  private static RID ridOf(int key) {
+    return new RID(new PageId(key), 0);
+  }
+
+  /**
+   * Range scans by several readers while a writer inserts the odd keys
+   * between the even ones already there and deletes some of them again.
+   */
+  protected boolean test1()
+  {
+    System.out.println("------------------------ TEST 1 --------------------------");
+    System.out.println("  - readers scan while a writer splits pages\n");
+    failed = false;
+    try {
+      final BTreeFile btf = new BTreeFile("BTConcurrency1", AttrType.attrInteger,
+					  4, DeleteFashion.NAIVE_DELETE);
+      for (int i = 0; i < KEYS; i++)
+	btf.insert(new IntegerKey(2 * i), ridOf(2 * i));
+
+      final boolean[] writing = { true };
+      Thread writer = new Thread() {
+	  public void run() {
+	    try {
+	      // 7919 is prime to KEYS, so each odd key comes up once
+	      for (int i = 0; i < KEYS; i++) {
+		int key = 2 * (int) ((i * 7919L) % KEYS) + 1;
+		btf.insert(new IntegerKey(key), ridOf(key));
+		if (i % 3 == 0)
+		  btf.Delete(new IntegerKey(key), ridOf(key));
+	      }
+	    }
+	    catch (Exception e) {
+	      failed = true;
+	      e.printStackTrace();
+	    }
+	    writing[0] = false;
+	  }
+	};
+
+      Thread[] readers = new Thread[READERS];
+      final int[] scans = new int[READERS];
+      for (int r = 0; r < READERS; r++) {
+	final int reader = r;
+	readers[r] = new Thread() {
+	    public void run() {
+	      Random random = new Random(100 + reader);
+	      try {
+		while (writing[0] && !failed) {
+		  int lo = random.nextInt(2 * KEYS);
+		  if (!checkScan(btf, lo, lo + SPAN, false))
+		    failed = true;
+		  scans[reader]++;
+		}
+	      }
+	      catch (Exception e) {
+		failed = true;
+		e.printStackTrace();
+	      }
+	    }
+	  };
+      }
+
+      writer.start();
+      for (int r = 0; r < READERS; r++)
+	readers[r].start();
+      writer.join();
+      for (int r = 0; r < READERS; r++)
+	readers[r].join();
+
+      // once the writer is done every even key is still there
+      if (!checkScan(btf, 0, 2 * KEYS, false))
+	failed = true;
+      int total = 0;
+      for (int r = 0; r < READERS; r++)
+	total += scans[r];
+      System.out.println("  - range scans checked during the inserts: " + total);
+
+      btf.destroyFile();
+    }
+    catch (Exception e) {
+      failed = true;
+      e.printStackTrace();
+    }
+    if (failed)
+      System.err.println("*** concurrent scans returned a wrong result\n");
+    System.out.println("------------------- TEST 1 completed ---------------------\n");
+    return !failed;
+  }
+
+  /**
+   * Lookups per second by the readers alone, then with a writer
+   * inserting at the same time: readers never wait for the writer,
+   * they only retry a page it changed.
+   */
+  protected boolean test2()
+  {
+    System.out.println("------------------------ TEST 2 --------------------------");
+    System.out.println("  - lookup throughput with and without a writer\n");
+    failed = false;
+    try {
+      final BTreeFile btf = new BTreeFile("BTConcurrency2", AttrType.attrInteger,
+					  4, DeleteFashion.NAIVE_DELETE);
+      for (int i = 0; i < KEYS; i++)
+	btf.insert(new IntegerKey(2 * i), ridOf(2 * i));
+
+      for (int withWriter = 0; withWriter < 2; withWriter++) {
+	final boolean[] running = { true };
+	final int base = withWriter;
+	Thread writer = new Thread() {
+	    public void run() {
+	      try {
+		int key = 2 * KEYS + 1 + base * KEYS;
+		while (running[0])
+		  btf.insert(new IntegerKey(key), ridOf(key++));
+	      }
+	      catch (Exception e) {
+		failed = true;
+		e.printStackTrace();
+	      }
+	    }
+	  };
+	final int[] lookups = new int[READERS];
+	Thread[] readers = new Thread[READERS];
+	for (int r = 0; r < READERS; r++) {
+	  final int reader = r;
+	  readers[r] = new Thread() {
+	      public void run() {
+		Random random = new Random(reader);
+		try {
+		  while (running[0] && !failed) {
+		    int key = 2 * random.nextInt(KEYS);
+		    if (!checkScan(btf, key, key, false))
+		      failed = true;
+		    lookups[reader]++;
+		  }
+		}
+		catch (Exception e) {
+		  failed = true;
+		  e.printStackTrace();
+		}
+	      }
+	    };
+	}
+
+	long start = System.currentTimeMillis();
+	if (withWriter == 1)
+	  writer.start();
+	for (int r = 0; r < READERS; r++)
+	  readers[r].start();
+	Thread.sleep(1000);
+	running[0] = false;
+	if (withWriter == 1)
+	  writer.join();
+	for (int r = 0; r < READERS; r++)
+	  readers[r].join();
+	long millis = System.currentTimeMillis() - start;
+
+	int total = 0;
+	for (int r = 0; r < READERS; r++)
+	  total += lookups[r];
+	System.out.println("  - " + READERS + " readers" + (withWriter == 1 ? " and a writer: " : ": ")
+			   + (total * 1000L / millis) + " lookups/s");
+      }
+      btf.destroyFile();
+    }
+    catch (Exception e) {
+      failed = true;
+      e.printStackTrace();
+    }
+    if (failed)
+      System.err.println("*** concurrent lookups returned a wrong result\n");
+    System.out.println("------------------- TEST 2 completed ---------------------\n");
+    return !failed;
+  }
+
+  /**
+   * test1 with scans read a leaf at a time: a batch is read with the
+   * leaf pinned, and the next batch goes on from the leaf after it
+   * unless the writer split one of them in between.
+   */
+  protected boolean test3()
+  {
+    System.out.println("------------------------ TEST 3 --------------------------");
+    System.out.println("  - batched readers scan while a writer splits pages\n");
+    failed = false;
+    try {
+      final BTreeFile btf = new BTreeFile("BTConcurrency3", AttrType.attrInteger,
+					  4, DeleteFashion.NAIVE_DELETE);
+      for (int i = 0; i < KEYS; i++)
+	btf.insert(new IntegerKey(2 * i), ridOf(2 * i));
+
+      final boolean[] writing = { true };
+      Thread writer = new Thread() {
+	  public void run() {
+	    try {
+	      for (int i = 0; i < KEYS; i++) {
+		int key = 2 * (int) ((i * 7919L) % KEYS) + 1;
+		btf.insert(new IntegerKey(key), ridOf(key));
+		if (i % 3 == 0)
+		  btf.Delete(new IntegerKey(key), ridOf(key));
+	      }
+	    }
+	    catch (Exception e) {
+	      failed = true;
+	      e.printStackTrace();
+	    }
+	    writing[0] = false;
+	  }
+	};
+
+      Thread[] readers = new Thread[READERS];
+      final int[] scans = new int[READERS];
+      for (int r = 0; r < READERS; r++) {
+	final int reader = r;
+	readers[r] = new Thread() {
+	    public void run() {
+	      Random random = new Random(200 + reader);
+	      try {
+		while (writing[0] && !failed) {
+		  int lo = random.nextInt(2 * KEYS);
+		  if (!checkScan(btf, lo, lo + 3 * SPAN, true))
+		    failed = true;
+		  scans[reader]++;
+		}
+	      }
+	      catch (Exception e) {
+		failed = true;
+		e.printStackTrace();
+	      }
+	    }
+	  };
+      }
+
+      writer.start();
+      for (int r = 0; r < READERS; r++)
+	readers[r].start();
+      writer.join();
+      for (int r = 0; r < READERS; r++)
+	readers[r].join();
+
+      if (!checkScan(btf, 0, 2 * KEYS, true))
+	failed = true;
+      int total = 0;
+      for (int r = 0; r < READERS; r++)
+	total += scans[r];
+      System.out.println("  - batched range scans checked during the inserts: " + total);
+
+      btf.destroyFile();
+    }
+    catch (Exception e) {
+      failed = true;
+      e.printStackTrace();
+    }
+    if (failed)
+      System.err.println("*** concurrent batched scans returned a wrong result\n");
+    System.out.println("------------------- TEST 3 completed ---------------------\n");
+    return !failed;
+  }
+
+  /**
+   * Full scans of a tree loaded in random order, as BTTest loads it,
+   * and larger than the buffer pool: entry at a time and leaf at a
+   * time must return the same entries; the time of each is printed.
+   */
+  protected boolean test4()
+  {
+    System.out.println("------------------------ TEST 4 --------------------------");
+    System.out.println("  - scan " + BIG + " entries an entry and a leaf at a time\n");
+    failed = false;
+    try {
+      BTreeFile btf = new BTreeFile("BTConcurrency4", AttrType.attrInteger,
+				    4, DeleteFashion.NAIVE_DELETE);
+      int[] keys = new int[BIG];
+      for (int i = 0; i < BIG; i++)
+	keys[i] = i;
+      Random random = new Random(4);
+      for (int i = BIG - 1; i > 0; i--) {
+	int j = random.nextInt(i + 1);
+	int tmp = keys[i];
+	keys[i] = keys[j];
+	keys[j] = tmp;
+      }
+      for (int i = 0; i < BIG; i++)
+	btf.insert(new IntegerKey(keys[i]), ridOf(keys[i]));
+      // a run of duplicates over several leaves
+      for (int i = 0; i < 500; i++)
+	btf.insert(new IntegerKey(BIG / 2), new RID(new PageId(BIG / 2), i + 1));
+
+      // an entry at a time, a leaf at a time, and that with prefetching
+      String[] kinds = { "get_next", "get_next_batch", "prefetching" };
+      ArrayList<KeyDataEntry> single = scanAll(btf, 0);
+      if (single.size() != BIG + 500)
+	failed = true;
+      for (int kind = 1; kind < kinds.length; kind++) {
+	ArrayList<KeyDataEntry> batched = scanAll(btf, kind);
+	if (batched.size() != single.size())
+	  failed = true;
+	for (int i = 0; !failed && i < single.size(); i++)
+	  if (!single.get(i).equals(batched.get(i)))
+	    failed = true;
+      }
+
+      long[] millis = new long[kinds.length];
+      long[] reads = new long[kinds.length];
+      for (int round = 0; round < ROUNDS; round++)
+	for (int kind = 0; kind < kinds.length; kind++) {
+	  int before = PCounter.getReadCount();
+	  long start = System.nanoTime();
+	  scanAll(btf, kind);
+	  millis[kind] += (System.nanoTime() - start) / 1000000;
+	  reads[kind] += PCounter.getReadCount() - before;
+	}
+      for (int kind = 0; kind < kinds.length; kind++)
+	System.out.println("  - " + kinds[kind] + ": " + millis[kind] / ROUNDS + " ms, "
+			   + reads[kind] / ROUNDS + " pages read a scan");
+
+      btf.destroyFile();
+    }
+    catch (Exception e) {
+      failed = true;
+      e.printStackTrace();
+    }
+    if (failed)
+      System.err.println("*** batched scan differs from get_next\n");
+    System.out.println("------------------- TEST 4 completed ---------------------\n");
+    return !failed;
+  }
+
+  // every entry of the tree: an entry at a time for kind 0, else a
+  // leaf at a time, prefetching for kind 2
+  private static ArrayList<KeyDataEntry> scanAll(BTreeFile btf, int kind)
+    throws Exception
+  {
+    ArrayList<KeyDataEntry> entries = new ArrayList<KeyDataEntry>();
+    BTFileScan scan = btf.new_scan(null, null);
+    scan.setPrefetch(kind == 2);
+    readScan(scan, kind > 0, entries);
+    scan.DestroyBTreeFileScan();
+    return entries;
+  }
+
+  private static void readScan(BTFileScan scan, boolean batched,
+			       ArrayList<KeyDataEntry> entries)
+    throws Exception
+  {
+    if (batched) {
+      ArrayList<KeyDataEntry> batch;
+      while ((batch = scan.get_next_batch()) != null)
+	entries.addAll(batch);
+    }
+    else {
+      KeyDataEntry entry;
+      while ((entry = scan.get_next()) != null)
+	entries.add(entry);
+    }
+  }
+
+  /* Scans [lo, hi] and checks the result: keys ascend, each entry holds
+   * the rid of its key, no key appears twice and every even key in the
+   * range, which the writers never touch, is there.
+   */
+  private boolean checkScan(BTreeFile btf, int lo, int hi, boolean batched)
+    throws Exception
+  {
+    BTFileScan scan = btf.new_scan(new IntegerKey(lo), new IntegerKey(hi));
+    boolean ok = true;
+    int last = lo - 1;
+    int nextEven = lo + (lo & 1);
+    ArrayList<KeyDataEntry> entries = new ArrayList<KeyDataEntry>();
+    scan.setPrefetch(batched);
+    readScan(scan, batched, entries);
+    for (KeyDataEntry entry : entries) {
+      int key = ((IntegerKey) entry.key).getKey().intValue();
+      RID rid = ((LeafData) entry.data).getData();
+      if (key <= last || key > hi || rid.pageNo.pid != key)
+	ok = false;
+      if ((key & 1) == 0) {
+	if (key != nextEven)
+	  ok = false;
+	nextEven = key + 2;
+      }
+      last = key;
+    }
+    scan.DestroyBTreeFileScan();
+    int end = Math.min(hi, 2 * KEYS - 2);
+    if (nextEven <= end)
+      ok = false;
+    if (!ok)
+      System.err.println("*** wrong scan of [" + lo + ", " + hi + "]");
+    return ok;
+  }
+
+  protected String testName()
+  {
+    return "Concurrent B+ tree";
+  }
+}
+
+public class BTConcurrencyTest
+{
+  public static void main(String argv[])
+  {
+    BTConcurrencyDriver bttest = new BTConcurrencyDriver();
+
+    boolean dbstatus = bttest.runTests();
+    if (dbstatus != true) {
+      System.out.println("Error ocurred during concurrent B+ tree tests");
+      Runtime.getRuntime().exit(1);
+    }
+    else {
+      System.out.println("Concurrent B+ tree tests completed successfully");
+    }
+  }
+}
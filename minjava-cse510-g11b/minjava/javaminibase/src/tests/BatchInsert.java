@@ -11,8 +11,8 @@ import java.io.File;
 
 public class BatchInsert {
     public static void main(String[] args) {
-        if (args.length != 4) {
-            System.out.println("Usage: batchinsert DATAFILENAME COLUMNDBNAME COLUMNARFILENAME NUMCOLUMNS");
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: batchinsert DATAFILENAME COLUMNDBNAME COLUMNARFILENAME NUMCOLUMNS [BLOOMCOLUMNNAMES]");
             return;
         }
 
@@ -21,6 +21,8 @@ public class BatchInsert {
         String columnDBName = args[1]+".minibase-db";
         String columnarFileName = args[2];
         int numColumns = Integer.parseInt(args[3]);
+        // comma separated columns that get a Bloom filter for equality lookups
+        String[] bloomColumnNames = args.length == 5 ? args[4].split(",") : new String[0];
 
         // Get the current working directory
         String currentDirectory = System.getProperty("user.dir");
@@ -164,6 +166,15 @@ public class BatchInsert {
                 }
             }
             
+            for (String bloomColumnName : bloomColumnNames) {
+                int bloomColumn = java.util.Arrays.asList(columnarFile.columnNames).indexOf(bloomColumnName) + 1;
+                if (bloomColumn == 0) {
+                    System.out.println("No column " + bloomColumnName + " for a Bloom filter");
+                } else if (columnarFile.createBloomFilter(bloomColumn)) {
+                    System.out.println("Bloom filter built for column " + bloomColumnName);
+                }
+            }
+
             SystemDefs.JavabaseBM.flushAllPages();
             System.out.println("Batch Insert Read Count:- "+PCounter.rcounter);
             System.out.println("Batch Insert Write Count:- "+PCounter.wcounter);
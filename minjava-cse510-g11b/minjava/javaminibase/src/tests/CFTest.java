@@ -16,12 +16,28 @@ import diskmgr.*;
 import global.*;
 import chainexception.*;
 import columnar.*;
+import bitmap.BMFileScan;
+import bitmap.BMPage;
+import bitmap.BitMapFile;
+import btree.*;
+import hash.HashFile;
+import hash.HashFileScan;
 import heap.*;
 import index.ColumnarIndexScan;
+import index.IndexException;
 import iterator.ColumnarFileScan;
+import iterator.ColumnarNestedLoopJoins;
+import iterator.ColumnarSortMergeJoin;
 import iterator.CondExpr;
+import iterator.FileScan;
 import iterator.FldSpec;
+import iterator.HashAggregate;
+import iterator.HashJoin;
+import iterator.IndexNestedLoopJoin;
+import iterator.LowMemException;
+import iterator.NestedLoopException;
 import iterator.RelSpec;
+import iterator.TopK;
 
 class DummyRecord {
 
@@ -160,7 +176,7 @@ class CFDriver extends TestDriver implements GlobalConst {
 
     System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
 
-    SystemDefs sysdef = new SystemDefs(dbpath, 200, 100, "Clock");
+    SystemDefs sysdef = new SystemDefs(dbpath, 2000, 100, "Clock");
 
     // Kill anything that might be hanging around
     String newdbpath;
@@ -342,10 +358,36 @@ class CFDriver extends TestDriver implements GlobalConst {
       e.printStackTrace();
     }
 
+    try {
+      System.out.println("Tuple scan skips deleted:");
+      TupleScan tupleScan = f.openTupleScan();
+      int visible = 0;
+      Tuple t = tupleScan.getNext(tid);
+      while (t != null) {
+        if (f.isTupleDeleted(tid.position)) {
+          status = FAIL;
+          System.err.println("*** deleted position " + tid.position + " returned by scan\n");
+        }
+        visible++;
+        t = tupleScan.getNext(tid);
+      }
+      tupleScan.closetuplescan();
+      int expected = f.getTupleCnt() - f.getDeletionBitmap().count();
+      System.out.println("Visible tuples: " + visible + " expected: " + expected);
+      if (visible != expected)
+        status = FAIL;
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** TupleScan skip deleted Error\n");
+      e.printStackTrace();
+    }
+
     try {
       System.out.println("purgeAllDeletedTuples");
       f.markTupleDeleted(f.getTidFromPosition(1));
-      f.purgeAllDeletedTuples();
+      // purging moves the surviving tuples, so carry positionTID along
+      PositionRemap purgeRemap = new ColumnarCompactor(f, 1).run();
+      positionTID = purgeRemap.getNewTid(positionTID);
       TupleScan tupleScan = f.openTupleScan();
       System.out.println("Tuple scan getNext:");
       Tuple t = tupleScan.getNext(tid);
@@ -523,6 +565,1557 @@ class CFDriver extends TestDriver implements GlobalConst {
       e.printStackTrace();
     }
 
+    try {
+      System.out.println("ColumnarCompactor: purge ival 5 with queries between steps");
+      TupleScan tupleScan = f.openTupleScan();
+      Tuple t = tupleScan.getNext(tid);
+      while (t != null) {
+        t.setHdr((short) 3, attrType, Ssizes);
+        if (t.getIntFld(1) == 5)
+          f.markTupleDeleted(tid);
+        t = tupleScan.getNext(tid);
+      }
+      tupleScan.closetuplescan();
+
+      System.out.println("index scans skip deleted keys before the purge");
+      BitMapFile byName = new BitMapFile("test1.bitmap1", "test1", 1);
+      BMFileScan bmScan = byName.new_scan(new IntegerKey(5), new IntegerKey(5));
+      if (bmScan.get_next() != null) {
+        status = FAIL;
+        System.err.println("*** bitmap opened by name returned a deleted row\n");
+      }
+      byName.close();
+      String[][] keyIndexes = { { "test1.btree1", "test1.btree2", "test1.btree3" },
+          { "test1.bitmap1", "test1.bitmap2", "test1.bitmap3" } };
+      IndexType[] keyIndexTypes = { new IndexType(IndexType.B_Index), new IndexType(IndexType.Bitmap) };
+      FldSpec[] keyProj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+      for (int k = 0; k < keyIndexTypes.length; k++) {
+        ColumnarIndexScan kscan = new ColumnarIndexScan("test1", new int[] { 1 }, keyIndexTypes[k], keyIndexes[k],
+            attrType, Ssizes, 3, 1, keyProj, expr, true);
+        int keys = 0;
+        while ((t = kscan.get_next()) != null) {
+          if (t.getIntFld(1) == 5)
+            status = FAIL;
+          keys++;
+        }
+        kscan.close();
+        System.out.println("index only keys of " + keyIndexes[k][0] + ": " + keys);
+      }
+
+      ColumnarCompactor compactor = new ColumnarCompactor(f, 1);
+      while (compactor.step()) {
+        ColumnarFileScan scan = new ColumnarFileScan("test1", attrType, Ssizes, (short) 3, 3, projlist, null);
+        int rows = 0;
+        while (scan.get_next() != null)
+          rows++;
+        scan.close();
+        System.out.println("rows visible between steps: " + rows);
+      }
+      PositionRemap remap = compactor.finish();
+      System.out.println("old tuples: " + remap.oldTupleCount() + " new tuples: " + remap.newTupleCount());
+
+      String[][] indexSets = { { "test1.btree1", "test1.btree2", "test1.btree3" },
+          { "test1.bitmap1", "test1.bitmap2", "test1.bitmap3" } };
+      IndexType[] indexTypes = { new IndexType(IndexType.B_Index), new IndexType(IndexType.Bitmap) };
+      for (int k = 0; k < indexTypes.length; k++) {
+        expr = new CondExpr[2];
+        expr[0] = new CondExpr();
+        expr[0].op = new AttrOperator(AttrOperator.aopGE);
+        expr[0].type1 = new AttrType(AttrType.attrSymbol);
+        expr[0].type2 = new AttrType(AttrType.attrInteger);
+        expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+        expr[0].operand2.integer = 3;
+        expr[0].next = null;
+        expr[1] = null;
+        int[] fldNum = { 1 };
+        ColumnarIndexScan iscan = new ColumnarIndexScan("test1", fldNum, indexTypes[k], indexSets[k], attrType,
+            Ssizes, 3, 3, projlist, expr, false);
+        int hits = 0;
+        t = iscan.get_next();
+        while (t != null) {
+          t.print(attrType);
+          if (t.getIntFld(1) == 5)
+            status = FAIL;
+          hits++;
+          t = iscan.get_next();
+        }
+        iscan.close();
+        if (hits != 4) {
+          status = FAIL;
+          System.err.println("*** index " + indexSets[k][0] + " returned " + hits + " rows after compaction\n");
+        }
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** ColumnarCompactor\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Zone maps: pruned scans over a sorted column");
+      Columnarfile zf = new Columnarfile("zonetest", 3, attrType, Ssizes, columnNames);
+      int zoneRows = 1500;
+      for (int i = 0; i < zoneRows; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, i);
+        t.setFloFld(2, (float) (i * 2.5));
+        t.setStrFld(3, "record" + i);
+        zf.insertTuple(t.getTupleByteArray());
+      }
+      zf.markTupleDeleted(zf.getTidFromPosition(zoneRows - 5));
+
+      expr = new CondExpr[2];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopGE);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrInteger);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[0].operand2.integer = zoneRows - 10;
+      expr[0].next = null;
+      expr[1] = null;
+
+      Scan colScan = zf.openColumnScan(1, expr);
+      RID rid = new RID();
+      int colHits = 0;
+      Tuple t = colScan.getNext(rid);
+      while (t != null) {
+        if (Convert.getIntValue(0, t.getTupleByteArray()) >= zoneRows - 10)
+          colHits++;
+        t = colScan.getNext(rid);
+      }
+      int skipped = colScan.getSkippedCount();
+      colScan.closescan();
+      System.out.println("column scan hits: " + colHits + " records on skipped pages: " + skipped);
+      if (colHits != 10 || skipped == 0) {
+        status = FAIL;
+        System.err.println("*** zone map column scan\n");
+      }
+
+      ColumnarFileScan scan = new ColumnarFileScan("zonetest", attrType, Ssizes, (short) 3, 3, projlist, expr);
+      int hits = 0;
+      t = scan.get_next();
+      while (t != null) {
+        t.print(attrType);
+        if (t.getIntFld(1) < zoneRows - 10 || t.getIntFld(1) == zoneRows - 5
+            || !t.getStrFld(3).equals("record" + t.getIntFld(1)))
+          status = FAIL;
+        hits++;
+        t = scan.get_next();
+      }
+      scan.close();
+      if (hits != 9) {
+        status = FAIL;
+        System.err.println("*** zone map file scan returned " + hits + " rows\n");
+      }
+
+      // pages both before and after the match are pruned
+      expr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      expr[0].operand2.integer = 700;
+      scan = new ColumnarFileScan("zonetest", attrType, Ssizes, (short) 3, 3, projlist, expr);
+      hits = 0;
+      t = scan.get_next();
+      while (t != null) {
+        t.print(attrType);
+        if (t.getIntFld(1) != 700 || !t.getStrFld(3).equals("record700"))
+          status = FAIL;
+        hits++;
+        t = scan.get_next();
+      }
+      scan.close();
+      if (hits != 1) {
+        status = FAIL;
+        System.err.println("*** zone map equality scan returned " + hits + " rows\n");
+      }
+
+      System.out.println("Bloom filter on column3");
+      zf.createBloomFilter(3);
+      byte[] present = new byte[32];
+      Convert.setStrValue("record42", 0, present);
+      byte[] absent = new byte[32];
+      Convert.setStrValue("no such record", 0, absent);
+      if (!zf.mayContain(3, present) || zf.mayContain(3, absent)) {
+        status = FAIL;
+        System.err.println("*** Bloom filter membership\n");
+      }
+      // a value stored on a page the filter has never seen may be there
+      Columnarfile gap = new Columnarfile("bloomgap", 3, attrType, Ssizes, columnNames);
+      gap.createBloomFilter(3);
+      new Heapfile("bloomgap.3").insertRecord(absent);
+      if (!gap.mayContain(3, absent)) {
+        status = FAIL;
+        System.err.println("*** Bloom filter ruled out a page without a filter\n");
+      }
+      gap.deleteColumnarFile();
+      expr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      expr[0].type2 = new AttrType(AttrType.attrString);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 3);
+      expr[0].operand2.string = "record42";
+      Scan strScan = zf.openColumnScan(3, expr);
+      int strHits = 0;
+      t = strScan.getNext(rid);
+      while (t != null) {
+        byte[] data = t.getTupleByteArray();
+        if (Convert.getStrValue(0, data, data.length).equals("record42"))
+          strHits++;
+        t = strScan.getNext(rid);
+      }
+      int strSkipped = strScan.getSkippedCount();
+      strScan.closescan();
+      System.out.println("string scan hits: " + strHits + " records on skipped pages: " + strSkipped);
+      if (strHits != 1 || strSkipped < zoneRows / 2) {
+        status = FAIL;
+        System.err.println("*** Bloom filter column scan\n");
+      }
+
+      System.out.println("ColumnarNestedLoopJoins: test1.column1 = zonetest.column1");
+      CondExpr[] joinExpr = new CondExpr[2];
+      joinExpr[0] = new CondExpr();
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      joinExpr[0].type1 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].type2 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      joinExpr[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 1);
+      joinExpr[1] = null;
+      FldSpec[] joinProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.innerRel), 3) };
+      AttrType[] joinTypes = { new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+      ColumnarFileScan outerScan = new ColumnarFileScan("test1", attrType, Ssizes, (short) 3, 3, projlist, null);
+      int outerRows = 0;
+      while (outerScan.get_next() != null)
+        outerRows++;
+      outerScan.close();
+      outerScan = new ColumnarFileScan("test1", attrType, Ssizes, (short) 3, 3, projlist, null);
+      ColumnarNestedLoopJoins join = new ColumnarNestedLoopJoins(attrType, 3, Ssizes, attrType, 3, Ssizes, 10,
+          outerScan, "zonetest", joinExpr, null, joinProj, 2);
+      int joined = 0;
+      t = join.get_next();
+      while (t != null) {
+        t.print(joinTypes);
+        if (!t.getStrFld(2).equals("record" + t.getIntFld(1)))
+          status = FAIL;
+        joined++;
+        t = join.get_next();
+      }
+      join.close();
+      if (joined != outerRows) {
+        status = FAIL;
+        System.err.println("*** join returned " + joined + " rows for " + outerRows + " outer rows\n");
+      }
+
+      // a non-equi join of zonetest rows 0..199 with rows 0..99 gives
+      // 0 + 1 + ... + 99 pairs, whether the 200 outer rows take several
+      // one-page blocks or a single block
+      System.out.println("ColumnarNestedLoopJoins: zonetest.column1 < zonetest.column1 by blocks");
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopLT);
+      expr[0].op = new AttrOperator(AttrOperator.aopLT);
+      expr[0].type2 = new AttrType(AttrType.attrInteger);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[0].operand2.integer = 200;
+      CondExpr[] rightExpr = new CondExpr[2];
+      rightExpr[0] = new CondExpr();
+      rightExpr[0].op = new AttrOperator(AttrOperator.aopLT);
+      rightExpr[0].type1 = new AttrType(AttrType.attrSymbol);
+      rightExpr[0].type2 = new AttrType(AttrType.attrInteger);
+      rightExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      rightExpr[0].operand2.integer = 100;
+      rightExpr[1] = null;
+      int[] blockMem = { 3, 10 };
+      for (int k = 0; k < blockMem.length; k++) {
+        outerScan = new ColumnarFileScan("zonetest", attrType, Ssizes, (short) 3, 3, projlist, expr);
+        join = new ColumnarNestedLoopJoins(attrType, 3, Ssizes, attrType, 3, Ssizes, blockMem[k],
+            outerScan, "zonetest", joinExpr, rightExpr, joinProj, 2);
+        joined = 0;
+        t = join.get_next();
+        while (t != null) {
+          if (t.getIntFld(1) >= Integer.parseInt(t.getStrFld(2).substring(6)))
+            status = FAIL;
+          joined++;
+          t = join.get_next();
+        }
+        join.close();
+        System.out.println("amt_of_mem " + blockMem[k] + ": " + joined + " rows");
+        if (joined != 100 * 99 / 2) {
+          status = FAIL;
+          System.err.println("*** block join returned " + joined + " rows\n");
+        }
+      }
+      zf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Zone maps\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("B-tree bulk load from an unsorted column");
+      Columnarfile lf = new Columnarfile("loadtest", 3, attrType, Ssizes, columnNames);
+      int loadRows = 600;
+      for (int i = 0; i < loadRows; i++) {
+        int ival = (i * 7919) % loadRows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (float) (ival * 2.5));
+        t.setStrFld(3, "record" + ival);
+        lf.insertTuple(t.getTupleByteArray());
+      }
+      lf.createBTreeIndex(1);
+      lf.createBTreeIndex(3, 1.0f);
+
+      BTreeFile btf = new BTreeFile("loadtest.btree1");
+      BTFileScan bscan = btf.new_scan(null, null);
+      int count = 0;
+      int last = -1;
+      KeyDataEntry entry = bscan.get_next();
+      while (entry != null) {
+        int key = ((IntegerKey) entry.key).getKey().intValue();
+        if (key <= last)
+          status = FAIL;
+        last = key;
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != loadRows || last != loadRows - 1) {
+        status = FAIL;
+        System.err.println("*** int index has " + count + " entries, last key " + last + "\n");
+      }
+
+      // the pages were left 10% free, inserts still land in key order
+      btf.insert(new IntegerKey(150), new RID(new PageId(1), 0));
+      bscan = btf.new_scan(new IntegerKey(100), new IntegerKey(199));
+      count = 0;
+      entry = bscan.get_next();
+      while (entry != null) {
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != 101) {
+        status = FAIL;
+        System.err.println("*** int index range scan returned " + count + " entries\n");
+      }
+      btf.destroyFile();
+
+      btf = new BTreeFile("loadtest.btree3");
+      bscan = btf.new_scan(null, null);
+      count = 0;
+      String lastStr = "";
+      entry = bscan.get_next();
+      while (entry != null) {
+        String key = ((StringKey) entry.key).getKey();
+        if (key.compareTo(lastStr) < 0)
+          status = FAIL;
+        lastStr = key;
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != loadRows) {
+        status = FAIL;
+        System.err.println("*** string index has " + count + " entries\n");
+      }
+      btf.destroyFile();
+      lf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** B-tree bulk load\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Purge: rebuilt B-tree leaves no page pinned");
+      Columnarfile gf = new Columnarfile("pintest", 3, attrType, Ssizes, columnNames);
+      int rows = 5000;
+      for (int i = 0; i < rows; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, (i * 7919) % rows);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "record" + i);
+        gf.insertTuple(t.getTupleByteArray());
+      }
+      // enough keys for index pages above the leaves
+      gf.createBTreeIndex(1);
+      for (int pass = 0; pass < 3; pass++) {
+        int live = gf.getTupleCnt();
+        for (int i = pass; i < live; i += 50)
+          gf.markTupleDeleted(gf.getTidFromPosition(i));
+        int before = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+        gf.purgeAllDeletedTuples();
+        int after = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+        if (after != before) {
+          status = FAIL;
+          System.err.println("*** purge " + pass + " left " + (before - after) + " pages pinned\n");
+        }
+      }
+      System.out.println("tuples after purges: " + gf.getTupleCnt());
+      new BTreeFile("pintest.btree1").destroyFile();
+      gf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Purge pins\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("B-tree bulk load: a failed load leaves nothing behind");
+      AttrType[] longTypes = { new AttrType(AttrType.attrString), new AttrType(AttrType.attrInteger) };
+      short[] longSizes = { 60 };
+      String[] longNames = { "name", "id" };
+      Columnarfile ff = new Columnarfile("failtest", 2, longTypes, longSizes, longNames);
+      int rows = 1500;
+      for (int i = 0; i < rows; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 2, longTypes, longSizes);
+        // the last keys in order are longer than a B-tree key may be, so
+        // the load fails after it has written many leaves
+        t.setStrFld(1, i % 500 == 499 ? "z" + String.format("%054d", i) : "name" + (100000 + i));
+        t.setIntFld(2, i);
+        ff.insertTuple(t.getTupleByteArray());
+      }
+      int before = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+      try {
+        ff.createBTreeIndex(1);
+        status = FAIL;
+        System.err.println("*** B-tree took keys longer than its key size\n");
+      } catch (CFException e) {
+      }
+      int after = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+      if (after != before || SystemDefs.JavabaseDB.get_file_entry("failtest.btree1") != null) {
+        status = FAIL;
+        System.err.println("*** failed load left " + (before - after) + " pages pinned\n");
+      }
+      // the pages are free again: the int column still loads
+      ff.createBTreeIndex(2);
+      new BTreeFile("failtest.btree2").destroyFile();
+      System.out.println("unpinned after the failed load: " + after + " of " + before);
+      ff.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Failed bulk load\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("B-tree binary search and truncated separators");
+      BTreeFile btf = new BTreeFile("prefixtest", AttrType.attrString, GlobalConst.MAX_NAME, 1);
+      int keys = 800;
+      for (int i = 0; i < keys; i++) {
+        int k = (i * 7919) % keys;
+        btf.insert(new StringKey("customer-" + (100000 + k) + "-account"), new RID(new PageId(k), k));
+      }
+      for (int k = 0; k < keys; k += 4) {
+        if (!btf.Delete(new StringKey("customer-" + (100000 + k) + "-account"), new RID(new PageId(k), k))) {
+          status = FAIL;
+          System.err.println("*** could not delete key " + k + "\n");
+        }
+      }
+      BTFileScan bscan = btf.new_scan(new StringKey("customer-100200"), new StringKey("customer-100299-zzz"));
+      int count = 0;
+      String last = "";
+      KeyDataEntry entry = bscan.get_next();
+      while (entry != null) {
+        String key = ((StringKey) entry.key).getKey();
+        int k = Integer.parseInt(key.substring(9, 15)) - 100000;
+        if (key.compareTo(last) <= 0 || k % 4 == 0 || ((LeafData) entry.data).getData().slotNo != k)
+          status = FAIL;
+        last = key;
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != 75) {
+        status = FAIL;
+        System.err.println("*** string range scan returned " + count + " entries\n");
+      }
+      btf.destroyFile();
+
+      btf = new BTreeFile("signtest", AttrType.attrInteger, 5, 1);
+      int[] ints = { Integer.MAX_VALUE, 5, Integer.MIN_VALUE + 1, -7, 0, Integer.MIN_VALUE };
+      for (int i = 0; i < ints.length; i++)
+        btf.insert(new IntegerKey(ints[i]), new RID(new PageId(1), i));
+      bscan = btf.new_scan(new IntegerKey(Integer.MIN_VALUE + 1), new IntegerKey(5));
+      count = 0;
+      entry = bscan.get_next();
+      while (entry != null) {
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != 4) {
+        status = FAIL;
+        System.err.println("*** int range across signs returned " + count + " entries\n");
+      }
+      btf.destroyFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** B-tree search\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("B-tree packed int and real leaf entries");
+      BTreeFile btf = new BTreeFile("packtest", AttrType.attrInteger, 4, 1);
+      int keys = 2000;
+      // every third rid has a slot number too big for a packed entry
+      for (int i = 0; i < keys; i++) {
+        int k = (i * 7919) % keys;
+        btf.insert(new IntegerKey(k - keys / 2), new RID(new PageId(k * 100003), k % 3 == 0 ? 70000 + k : k));
+      }
+      for (int k = 0; k < keys; k += 5) {
+        if (!btf.Delete(new IntegerKey(k - keys / 2), new RID(new PageId(k * 100003), k % 3 == 0 ? 70000 + k : k))) {
+          status = FAIL;
+          System.err.println("*** could not delete packed key " + k + "\n");
+        }
+      }
+      BTFileScan bscan = btf.new_scan(null, null);
+      int count = 0;
+      int last = Integer.MIN_VALUE;
+      KeyDataEntry entry = bscan.get_next();
+      while (entry != null) {
+        int k = ((IntegerKey) entry.key).getKey().intValue() + keys / 2;
+        RID rid = ((LeafData) entry.data).getData();
+        if (k <= last || k % 5 == 0 || rid.pageNo.pid != k * 100003
+            || rid.slotNo != (k % 3 == 0 ? 70000 + k : k))
+          status = FAIL;
+        last = k;
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != keys - keys / 5) {
+        status = FAIL;
+        System.err.println("*** packed int scan returned " + count + " entries\n");
+      }
+      btf.destroyFile();
+
+      btf = new BTreeFile("packreal", AttrType.attrReal, 4, 1);
+      float[] reals = { 2.5f, -0.5f, Float.MAX_VALUE, -Float.MAX_VALUE, 0.0f, -3.25f };
+      for (int i = 0; i < reals.length; i++)
+        btf.insert(new RealKey(reals[i]), new RID(new PageId(i + 1), 65535 - i));
+      bscan = btf.new_scan(new RealKey(-3.25f), new RealKey(2.5f));
+      count = 0;
+      entry = bscan.get_next();
+      while (entry != null) {
+        float r = ((RealKey) entry.key).getKey().floatValue();
+        RID rid = ((LeafData) entry.data).getData();
+        int i = 0;
+        while (reals[i] != r)
+          i++;
+        if (rid.pageNo.pid != i + 1 || rid.slotNo != 65535 - i)
+          status = FAIL;
+        count++;
+        entry = bscan.get_next();
+      }
+      bscan.DestroyBTreeFileScan();
+      if (count != 4) {
+        status = FAIL;
+        System.err.println("*** packed real range returned " + count + " entries\n");
+      }
+      btf.destroyFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** B-tree packed leaf entries\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Position B-tree: hits fetched by position");
+      Columnarfile pf = new Columnarfile("postest", 3, attrType, Ssizes, columnNames);
+      int rows = 300;
+      TID[] tids = new TID[rows];
+      for (int i = 0; i < rows; i++) {
+        int ival = (i * 7919) % rows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (float) (ival * 2.5));
+        t.setStrFld(3, "record" + ival);
+        tids[i] = pf.insertTuple(t.getTupleByteArray());
+      }
+      for (int i = 0; i < rows; i++) {
+        if ((i * 7919) % rows % 5 == 0)
+          pf.markTupleDeleted(tids[i]);
+      }
+      pf.createPositionBTreeIndex(1);
+
+      String[] indNames = { "postest.pbtree1", null, null };
+      expr = new CondExpr[3];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopGE);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrInteger);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[0].operand2.integer = 100;
+      expr[1] = new CondExpr();
+      expr[1].op = new AttrOperator(AttrOperator.aopLE);
+      expr[1].type1 = new AttrType(AttrType.attrSymbol);
+      expr[1].type2 = new AttrType(AttrType.attrInteger);
+      expr[1].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[1].operand2.integer = 199;
+      expr[2] = null;
+      int[] fldNum = { 1 };
+      FldSpec[] posProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 3) };
+
+      // key order
+      ColumnarIndexScan iscan = new ColumnarIndexScan("postest", fldNum, new IndexType(IndexType.B_Position),
+          indNames, attrType, Ssizes, 3, 2, posProj, expr, false);
+      int count = 0;
+      int last = -1;
+      Tuple t = iscan.get_next();
+      while (t != null) {
+        int ival = t.getIntFld(1);
+        if (ival < last || ival < 100 || ival > 199 || ival % 5 == 0
+            || !t.getStrFld(2).equals("record" + ival))
+          status = FAIL;
+        last = ival;
+        count++;
+        t = iscan.get_next();
+      }
+      iscan.close();
+      if (count != 80) {
+        status = FAIL;
+        System.err.println("*** position index returned " + count + " tuples in key order\n");
+      }
+
+      // the rid B-tree in position order goes through the same fetch
+      pf.createBTreeIndex(1);
+      String[] ridIndNames = { "postest.btree1", null, null };
+      iscan = new ColumnarIndexScan("postest", fldNum, new IndexType(IndexType.B_Index),
+          ridIndNames, attrType, Ssizes, 3, 2, posProj, expr, false, true);
+      count = 0;
+      last = -1;
+      TID hit = iscan.get_next_TID();
+      while (hit != null) {
+        if (hit.position <= last || (hit.position * 7919) % rows < 100 || (hit.position * 7919) % rows > 199)
+          status = FAIL;
+        last = hit.position;
+        count++;
+        hit = iscan.get_next_TID();
+      }
+      iscan.close();
+      new BTreeFile("postest.btree1").destroyFile();
+      if (count != 80) {
+        status = FAIL;
+        System.err.println("*** rid index returned " + count + " tuples in position order\n");
+      }
+
+      // every 7th position, deleted ones included, read in one pass
+      BitSet wanted = new BitSet();
+      for (int i = 0; i < rows; i += 7)
+        wanted.set(i);
+      PositionFetchScan fetch = pf.openPositionFetchScan(wanted);
+      count = 0;
+      hit = new TID(3);
+      t = fetch.getNext(hit);
+      while (t != null) {
+        t.setHdr((short) 3, attrType, Ssizes);
+        int ival = t.getIntFld(1);
+        if (hit.position % 7 != 0 || ival != (hit.position * 7919) % rows || ival % 5 == 0)
+          status = FAIL;
+        count++;
+        t = fetch.getNext(hit);
+      }
+      fetch.closescan();
+      if (count != 34) {
+        status = FAIL;
+        System.err.println("*** position fetch returned " + count + " tuples\n");
+      }
+
+      // position order, before and after a purge renumbers the positions
+      for (int pass = 0; pass < 2; pass++) {
+        if (pass == 1)
+          pf.purgeAllDeletedTuples();
+        iscan = new ColumnarIndexScan("postest", fldNum, new IndexType(IndexType.B_Position),
+            indNames, attrType, Ssizes, 3, 2, posProj, expr, false, true);
+        count = 0;
+        last = -1;
+        hit = iscan.get_next_TID();
+        while (hit != null) {
+          int ival = pf.getTuple(hit).getIntFld(1);
+          if (hit.position <= last || ival < 100 || ival > 199 || ival % 5 == 0)
+            status = FAIL;
+          last = hit.position;
+          count++;
+          hit = iscan.get_next_TID();
+        }
+        iscan.close();
+        if (count != 80) {
+          status = FAIL;
+          System.err.println("*** position index returned " + count + " tuples in position order\n");
+        }
+      }
+      System.out.println("hits: " + count + " last position: " + last);
+      new BTreeFile("postest.pbtree1").destroyFile();
+      pf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Position B-tree\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Float keys: B-tree and bitmap range scans");
+      Columnarfile rf = new Columnarfile("realtest", 3, attrType, Ssizes, columnNames);
+      int rows = 200;
+      for (int i = 0; i < rows; i++) {
+        int ival = (i * 37) % rows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (ival - 100) * 0.75f);
+        t.setStrFld(3, "record" + ival);
+        rf.insertTuple(t.getTupleByteArray());
+      }
+      rf.createBTreeIndex(2);
+      rf.createBitMapIndex(2, new FloatValueClass());
+
+      // -30.0 <= column2 <= 15.0, so ival in [60, 120]
+      String[] indNames = { null, "realtest.btree2", null };
+      expr = new CondExpr[3];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopGE);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrReal);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 2);
+      expr[0].operand2.real = -30.0f;
+      expr[1] = new CondExpr();
+      expr[1].op = new AttrOperator(AttrOperator.aopLE);
+      expr[1].type1 = new AttrType(AttrType.attrSymbol);
+      expr[1].type2 = new AttrType(AttrType.attrReal);
+      expr[1].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 2);
+      expr[1].operand2.real = 15.0f;
+      expr[2] = null;
+      int[] fldNum = { 2 };
+      FldSpec[] realProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 2) };
+
+      ColumnarIndexScan iscan = new ColumnarIndexScan("realtest", fldNum, new IndexType(IndexType.B_Index),
+          indNames, attrType, Ssizes, 3, 2, realProj, expr, false);
+      int count = 0;
+      float last = -Float.MAX_VALUE;
+      Tuple t = iscan.get_next();
+      while (t != null) {
+        int ival = t.getIntFld(1);
+        float fval = t.getFloFld(2);
+        if (fval < last || ival < 60 || ival > 120 || fval != (ival - 100) * 0.75f)
+          status = FAIL;
+        last = fval;
+        count++;
+        t = iscan.get_next();
+      }
+      iscan.close();
+      if (count != 61) {
+        status = FAIL;
+        System.err.println("*** float B-tree returned " + count + " tuples\n");
+      }
+
+      indNames[1] = "realtest.bitmap2";
+      iscan = new ColumnarIndexScan("realtest", fldNum, new IndexType(IndexType.Bitmap),
+          indNames, attrType, Ssizes, 3, 2, realProj, expr, false);
+      int bitmapCount = 0;
+      t = iscan.get_next();
+      while (t != null) {
+        int ival = t.getIntFld(1);
+        if (ival < 60 || ival > 120 || t.getFloFld(2) != (ival - 100) * 0.75f)
+          status = FAIL;
+        bitmapCount++;
+        t = iscan.get_next();
+      }
+      iscan.close();
+      if (bitmapCount != 61) {
+        status = FAIL;
+        System.err.println("*** float bitmap returned " + bitmapCount + " tuples\n");
+      }
+      System.out.println("B-tree hits: " + count + " bitmap hits: " + bitmapCount);
+      new BTreeFile("realtest.btree2").destroyFile();
+      rf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Float keys\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Composite B-tree: equality on column3, range on column1");
+      Columnarfile cf = new Columnarfile("comptest", 3, attrType, Ssizes, columnNames);
+      int rows = 300;
+      TID[] tids = new TID[rows];
+      for (int i = 0; i < rows; i++) {
+        int ival = (i * 7919) % rows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (float) (ival * 2.5));
+        t.setStrFld(3, "t" + (ival % 6));
+        tids[i] = cf.insertTuple(t.getTupleByteArray());
+      }
+      int[] keyCols = { 3, 1 };
+      cf.createCompositeBTreeIndex(keyCols);
+
+      // column3 = "t2" and 104 < column1 <= 199
+      expr = new CondExpr[4];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrString);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 3);
+      expr[0].operand2.string = "t2";
+      expr[1] = new CondExpr();
+      expr[1].op = new AttrOperator(AttrOperator.aopGT);
+      expr[1].type1 = new AttrType(AttrType.attrSymbol);
+      expr[1].type2 = new AttrType(AttrType.attrInteger);
+      expr[1].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[1].operand2.integer = 104;
+      expr[2] = new CondExpr();
+      expr[2].op = new AttrOperator(AttrOperator.aopGE);
+      expr[2].type1 = new AttrType(AttrType.attrInteger);
+      expr[2].type2 = new AttrType(AttrType.attrSymbol);
+      expr[2].operand1.integer = 199;
+      expr[2].operand2.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[3] = null;
+      String[] indNames = { null, null, null };
+      FldSpec[] keyProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 3) };
+      AttrType[] keyProjTypes = { new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+
+      int[] counts = new int[3];
+      for (int pass = 0; pass < 3; pass++) {
+        if (pass == 2) {
+          for (int i = 0; i < rows; i++) {
+            if ((i * 7919) % rows % 5 == 0)
+              cf.markTupleDeleted(tids[i]);
+          }
+          cf.purgeAllDeletedTuples();
+        }
+        // pass 1 answers from the key alone
+        ColumnarIndexScan iscan = new ColumnarIndexScan("comptest", keyCols, new IndexType(IndexType.B_Position),
+            indNames, attrType, Ssizes, 3, 2, keyProj, expr, pass == 1);
+        int last = -1;
+        Tuple t = iscan.get_next();
+        while (t != null) {
+          t.setHdr((short) 2, keyProjTypes, Ssizes);
+          int ival = t.getIntFld(1);
+          if (ival <= last || ival <= 104 || ival > 199 || ival % 6 != 2
+              || !t.getStrFld(2).equals("t2") || (pass == 2 && ival % 5 == 0))
+            status = FAIL;
+          last = ival;
+          counts[pass]++;
+          t = iscan.get_next();
+        }
+        iscan.close();
+      }
+      if (counts[0] != 15 || counts[1] != 15 || counts[2] != 12) {
+        status = FAIL;
+        System.err.println("*** composite index returned " + counts[0] + ", " + counts[1]
+            + " and " + counts[2] + " tuples\n");
+      }
+
+      // a select on a column outside the key cannot be answered from the key
+      FldSpec[] allProj = { new FldSpec(new RelSpec(RelSpec.outer), 2) };
+      try {
+        new ColumnarIndexScan("comptest", keyCols, new IndexType(IndexType.B_Position),
+            indNames, attrType, Ssizes, 3, 1, allProj, expr, true);
+        status = FAIL;
+        System.err.println("*** index only scan accepted an uncovered column\n");
+      } catch (IndexException e) {
+      }
+      System.out.println("composite hits: " + counts[0] + " covering: " + counts[1]
+          + " after purge: " + counts[2]);
+      new BTreeFile(cf.getCompositeBTreeName(keyCols)).destroyFile();
+      cf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Composite B-tree\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Covering B-tree: key column1 including column3 and column2");
+      Columnarfile cf = new Columnarfile("covtest", 3, attrType, Ssizes, columnNames);
+      int rows = 2000;
+      for (int i = 0; i < rows; i++) {
+        int ival = (i * 7919) % rows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (float) (ival * 2.5));
+        t.setStrFld(3, "row" + ival);
+        cf.insertTuple(t.getTupleByteArray());
+      }
+      int[] keyCols = { 1 };
+      int[] includeCols = { 3, 2 };
+      cf.createCoveringBTreeIndex(keyCols, includeCols);
+      if (cf.findCoveringIndex(keyCols, new int[] { 1, 2, 3 }) == null
+          || cf.findCoveringIndex(new int[] { 3 }, new int[] { 3 }) != null) {
+        status = FAIL;
+        System.err.println("*** covering index not found in the catalog\n");
+      }
+
+      // change "row550" in the column file behind the index's back: a scan
+      // answered from the index alone still returns the indexed value
+      Heapfile col3 = new Heapfile("covtest.3");
+      Scan scan = col3.openScan();
+      RID rid = new RID();
+      Tuple ct;
+      while ((ct = scan.getNext(rid)) != null) {
+        byte[] data = ct.getTupleByteArray();
+        if (Convert.getStrValue(0, data, data.length).equals("row550")) {
+          Convert.setStrValue("ROW550", 0, data);
+          break;
+        }
+      }
+      scan.closescan();
+      col3.updateRecord(rid, new Tuple(ct.getTupleByteArray(), 0, ct.getLength()));
+
+      // 500 <= column1 <= 599, not index only: the planner still reads the index alone
+      expr = new CondExpr[3];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopGE);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrInteger);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[0].operand2.integer = 500;
+      expr[1] = new CondExpr();
+      expr[1].op = new AttrOperator(AttrOperator.aopLE);
+      expr[1].type1 = new AttrType(AttrType.attrSymbol);
+      expr[1].type2 = new AttrType(AttrType.attrInteger);
+      expr[1].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      expr[1].operand2.integer = 599;
+      expr[2] = null;
+      String[] indNames = { null, null, null };
+      FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 3),
+          new FldSpec(new RelSpec(RelSpec.outer), 2) };
+      AttrType[] projTypes = { new AttrType(AttrType.attrString), new AttrType(AttrType.attrReal) };
+      ColumnarIndexScan iscan = new ColumnarIndexScan("covtest", keyCols, new IndexType(IndexType.B_Position),
+          indNames, attrType, Ssizes, 3, 2, proj, expr, false);
+      int hits = 0;
+      int next = 500;
+      Tuple t = iscan.get_next();
+      while (t != null) {
+        t.setHdr((short) 2, projTypes, Ssizes);
+        if (!t.getStrFld(1).equals("row" + next) || t.getFloFld(2) != (float) (next * 2.5))
+          status = FAIL;
+        next++;
+        hits++;
+        t = iscan.get_next();
+      }
+      iscan.close();
+      if (hits != 100) {
+        status = FAIL;
+        System.err.println("*** covering index returned " + hits + " tuples\n");
+      }
+      System.out.println("covering hits: " + hits);
+      new BTreeFile(cf.findCoveringIndex(keyCols, includeCols).getName()).destroyFile();
+      cf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Covering B-tree\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Hash index: equality lookups, splits and purge");
+      Columnarfile cf = new Columnarfile("hashtest", 3, attrType, Ssizes, columnNames);
+      int rows = 3000;
+      for (int i = 0; i < rows; i++) {
+        int ival = (i * 7919) % rows;
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, ival);
+        t.setFloFld(2, (float) (ival * 2.5));
+        t.setStrFld(3, "row" + (ival % 1000));
+        cf.insertTuple(t.getTupleByteArray());
+      }
+      if (!cf.createHashIndex(1) || !cf.createHashIndex(3) || cf.createHashIndex(1)) {
+        status = FAIL;
+        System.err.println("*** hash index created twice\n");
+      }
+
+      String[] indNames = { cf.getHashIndexName(1), null, cf.getHashIndexName(3) };
+      FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 3) };
+      AttrType[] projTypes = { new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+      int[] lookups = { 1234, 0, 2999 };
+      int hits = 0;
+      for (int k = 0; k < lookups.length; k++) {
+        expr = new CondExpr[2];
+        expr[0] = new CondExpr();
+        expr[0].op = new AttrOperator(AttrOperator.aopEQ);
+        expr[0].type1 = new AttrType(AttrType.attrSymbol);
+        expr[0].type2 = new AttrType(AttrType.attrInteger);
+        expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+        expr[0].operand2.integer = lookups[k];
+        expr[1] = null;
+        ColumnarIndexScan iscan = new ColumnarIndexScan("hashtest", new int[] { 1 }, new IndexType(IndexType.Hash),
+            indNames, attrType, Ssizes, 3, 2, proj, expr, false);
+        Tuple t;
+        while ((t = iscan.get_next()) != null) {
+          t.setHdr((short) 2, projTypes, Ssizes);
+          if (t.getIntFld(1) != lookups[k] || !t.getStrFld(2).equals("row" + (lookups[k] % 1000)))
+            status = FAIL;
+          hits++;
+        }
+        iscan.close();
+      }
+      // string key with three rows per value
+      expr = new CondExpr[2];
+      expr[0] = new CondExpr();
+      expr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      expr[0].type1 = new AttrType(AttrType.attrSymbol);
+      expr[0].type2 = new AttrType(AttrType.attrString);
+      expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 3);
+      expr[0].operand2.string = "row77";
+      expr[1] = null;
+      ColumnarIndexScan iscan = new ColumnarIndexScan("hashtest", new int[] { 3 }, new IndexType(IndexType.Hash),
+          indNames, attrType, Ssizes, 3, 2, proj, expr, false);
+      int strHits = 0;
+      Tuple t;
+      while ((t = iscan.get_next()) != null) {
+        t.setHdr((short) 2, projTypes, Ssizes);
+        if (t.getIntFld(1) % 1000 != 77)
+          status = FAIL;
+        strHits++;
+      }
+      iscan.close();
+      if (hits != 3 || strHits != 3) {
+        status = FAIL;
+        System.err.println("*** hash lookups returned " + hits + " and " + strHits + " tuples\n");
+      }
+
+      // a hash index has no key order to answer a range with
+      expr[0].op = new AttrOperator(AttrOperator.aopGE);
+      try {
+        new ColumnarIndexScan("hashtest", new int[] { 3 }, new IndexType(IndexType.Hash),
+            indNames, attrType, Ssizes, 3, 2, proj, expr, false);
+        status = FAIL;
+        System.err.println("*** range scan of a hash index\n");
+      } catch (IndexException e) {
+      }
+
+      // grow a file from one bucket, then delete every other entry
+      HashFile hf = new HashFile("hashstress", AttrType.attrInteger, 4, 0);
+      int keys = 6000;
+      for (int i = 0; i < keys; i++)
+        hf.insert(new IntegerKey(i), new RID(new PageId(i), i % 7));
+      int buckets = hf.getBucketCount();
+      for (int i = 0; i < keys; i += 2)
+        if (!hf.Delete(new IntegerKey(i), new RID(new PageId(i), i % 7)))
+          status = FAIL;
+      int found = 0;
+      for (int i = 0; i < keys; i += 97) {
+        ArrayList<RID> rids = hf.lookup(new IntegerKey(i));
+        if (rids.size() != i % 2 || (i % 2 == 1 && rids.get(0).slotNo != i % 7))
+          status = FAIL;
+        found += rids.size();
+      }
+      int scanned = 0;
+      HashFileScan hscan = hf.new_scan(null);
+      while (hscan.get_next() != null)
+        scanned++;
+      hscan.DestroyHashFileScan();
+      if (scanned != keys / 2 || hf.getEntryCount() != keys / 2) {
+        status = FAIL;
+        System.err.println("*** hash file holds " + scanned + " entries\n");
+      }
+      hf.destroyFile();
+
+      // purging renumbers the positions the index holds
+      cf.markTupleDeleted(cf.getTidFromPosition(0));
+      cf.purgeAllDeletedTuples();
+      hf = new HashFile(cf.getHashIndexName(1));
+      ArrayList<RID> gone = hf.lookup(new IntegerKey(0));
+      ArrayList<RID> moved = hf.lookup(new IntegerKey(2999));
+      int patched = hf.getEntryCount();
+      hf.close();
+      if (gone.size() != 0 || moved.size() != 1 || patched != rows - 1
+          || cf.getTuple(cf.getTidFromPosition(Columnarfile.ridToPosition(moved.get(0)))).getIntFld(1) != 2999) {
+        status = FAIL;
+        System.err.println("*** hash index not patched by the purge\n");
+      }
+      System.out.println("hash hits: " + hits + " string hits: " + strHits + " buckets: " + buckets
+          + " sampled: " + found + " after purge: " + moved.size());
+      new HashFile(cf.getHashIndexName(1)).destroyFile();
+      new HashFile(cf.getHashIndexName(3)).destroyFile();
+      cf.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Hash index\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Hash join: columnar facts with a heap dimension");
+      Columnarfile facts = new Columnarfile("factjoin", 3, attrType, Ssizes, columnNames);
+      int factRows = 2000;
+      for (int i = 0; i < factRows; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        // the last quarter all refer to dimension 7
+        t.setIntFld(1, i < 1500 ? (i * 7919) % 100 : 7);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "fact" + i);
+        facts.insertTuple(t.getTupleByteArray());
+      }
+      Heapfile dims = new Heapfile("dimjoin");
+      for (int i = 0; i < 150; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, i);
+        t.setFloFld(2, (float) (i * 2.5));
+        t.setStrFld(3, "dim" + i);
+        dims.insertRecord(t.getTupleByteArray());
+      }
+
+      // facts.column1 = dims.column1, building on the dimension
+      CondExpr[] joinExpr = new CondExpr[3];
+      joinExpr[0] = new CondExpr();
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      joinExpr[0].type1 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].type2 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      joinExpr[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 1);
+      joinExpr[1] = null;
+      FldSpec[] joinProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 2), new FldSpec(new RelSpec(RelSpec.innerRel), 3) };
+      HashJoin join = new HashJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1, 20,
+          new ColumnarFileScan("factjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          new FileScan("dimjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          joinExpr, joinProj, 3);
+      int joined = 0;
+      Tuple t;
+      while ((t = join.get_next()) != null) {
+        if (!t.getStrFld(3).equals("dim" + t.getIntFld(1)))
+          status = FAIL;
+        joined++;
+      }
+      int inMemory = join.getPartitionCount();
+      join.close();
+      if (joined != factRows || inMemory != 0) {
+        status = FAIL;
+        System.err.println("*** hash join returned " + joined + " rows, " + inMemory + " partitions\n");
+      }
+
+      // building on the facts in 4 pages: partitioned, and the partition
+      // of dimension 7 joined a memory load at a time; only facts below 1800
+      joinExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 1);
+      joinExpr[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      joinExpr[1] = new CondExpr();
+      joinExpr[1].op = new AttrOperator(AttrOperator.aopLT);
+      joinExpr[1].type1 = new AttrType(AttrType.attrSymbol);
+      joinExpr[1].type2 = new AttrType(AttrType.attrReal);
+      joinExpr[1].operand1.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 2);
+      joinExpr[1].operand2.real = 1800;
+      joinExpr[2] = null;
+      joinProj = new FldSpec[] { new FldSpec(new RelSpec(RelSpec.innerRel), 1),
+          new FldSpec(new RelSpec(RelSpec.innerRel), 2), new FldSpec(new RelSpec(RelSpec.outer), 3) };
+      join = new HashJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1, 4,
+          new FileScan("dimjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          new ColumnarFileScan("factjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          joinExpr, joinProj, 3);
+      int spilled = 0;
+      BitSet seen = new BitSet();
+      while ((t = join.get_next()) != null) {
+        int fact = (int) t.getFloFld(2);
+        if (!t.getStrFld(3).equals("dim" + t.getIntFld(1)) || fact >= 1800 || seen.get(fact))
+          status = FAIL;
+        seen.set(fact);
+        spilled++;
+      }
+      int partitions = join.getPartitionCount();
+      join.close();
+      if (spilled != 1800 || partitions == 0) {
+        status = FAIL;
+        System.err.println("*** partitioned hash join returned " + spilled + " rows\n");
+      }
+
+      // the facts with themselves, each with its own row only: both sides
+      // too big, and the 500 rows of dimension 7 never fit
+      joinExpr[1].op = new AttrOperator(AttrOperator.aopEQ);
+      joinExpr[1].type2 = new AttrType(AttrType.attrSymbol);
+      joinExpr[1].operand2.symbol = new FldSpec(new RelSpec(RelSpec.outer), 2);
+      join = new HashJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1, 4,
+          new ColumnarFileScan("factjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          new ColumnarFileScan("factjoin", attrType, Ssizes, (short) 3, 3, projlist, null),
+          joinExpr, joinProj, 3);
+      int self = 0;
+      seen.clear();
+      while ((t = join.get_next()) != null) {
+        int fact = (int) t.getFloFld(2);
+        if (!t.getStrFld(3).equals("fact" + fact) || seen.get(fact))
+          status = FAIL;
+        seen.set(fact);
+        self++;
+      }
+      int selfPartitions = join.getPartitionCount();
+      join.close();
+      System.out.println("hash join rows: " + joined + " spilled: " + spilled + " partitions: " + partitions
+          + " self join: " + self + " partitions: " + selfPartitions);
+      if (self != factRows) {
+        status = FAIL;
+        System.err.println("*** hash self join returned " + self + " rows\n");
+      }
+      dims.deleteFile();
+      facts.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Hash join\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Index nested loop join: heap facts with an indexed columnar dimension");
+      Columnarfile dims = new Columnarfile("dimindex", 3, attrType, Ssizes, columnNames);
+      for (int i = 0; i < 150; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, i);
+        t.setFloFld(2, (float) (i * 2.5));
+        t.setStrFld(3, "dim" + i);
+        dims.insertTuple(t.getTupleByteArray());
+      }
+      dims.markTupleDeleted(dims.getTidFromPosition(5));
+      dims.createBTreeIndex(1);
+      dims.createHashIndex(1);
+      dims.createBitMapIndex(1, new IntegerValueClass());
+      // each of the keys 0..99 six times
+      Heapfile facts = new Heapfile("factindex");
+      for (int i = 0; i < 600; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, (i * 7919) % 100);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "fact" + i);
+        facts.insertRecord(t.getTupleByteArray());
+      }
+
+      // facts.column1 = dims.column1, without dimension 5
+      CondExpr[] joinExpr = new CondExpr[2];
+      joinExpr[0] = new CondExpr();
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      joinExpr[0].type1 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].type2 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      joinExpr[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 1);
+      joinExpr[1] = null;
+      FldSpec[] joinProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.innerRel), 3) };
+      IndexType[] indexTypes = { new IndexType(IndexType.B_Index), new IndexType(IndexType.Hash),
+          new IndexType(IndexType.Bitmap) };
+      String[][] indexNames = { { "dimindex.btree1", null, null }, { dims.getHashIndexName(1), null, null },
+          { "dimindex.bitmap1", null, null } };
+      for (int k = 0; k < indexTypes.length; k++) {
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 10,
+            new FileScan("factindex", attrType, Ssizes, (short) 3, 3, projlist, null),
+            "dimindex", indexTypes[k], indexNames[k], joinExpr, null, joinProj, 2);
+        int joined = 0;
+        Tuple t;
+        while ((t = join.get_next()) != null) {
+          if (t.getIntFld(1) == 5 || !t.getStrFld(2).equals("dim" + t.getIntFld(1)))
+            status = FAIL;
+          joined++;
+        }
+        int probes = join.getProbeCount();
+        int cacheHits = join.getCacheHits();
+        join.close();
+        System.out.println("index join on " + indexTypes[k] + ": " + joined + " rows, probes: " + probes
+            + " cache hits: " + cacheHits);
+        if (joined != 594 || probes != 100 || cacheHits != 500) {
+          status = FAIL;
+          System.err.println("*** index join on " + indexTypes[k] + " returned " + joined + " rows\n");
+        }
+      }
+
+      // dims.column1 < facts.column1 by B-tree range probes, in a one
+      // page cache that only holds the smaller probes
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopGT);
+      IndexNestedLoopJoin join = new IndexNestedLoopJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1,
+          new FileScan("factindex", attrType, Ssizes, (short) 3, 3, projlist, null),
+          "dimindex", indexTypes[0], indexNames[0], joinExpr, null, joinProj, 2);
+      int ranged = 0;
+      Tuple t;
+      while ((t = join.get_next()) != null) {
+        int dim = Integer.parseInt(t.getStrFld(2).substring(3));
+        if (dim >= t.getIntFld(1) || dim == 5)
+          status = FAIL;
+        ranged++;
+      }
+      join.close();
+      System.out.println("index range join: " + ranged + " rows");
+      if (ranged != 6 * (99 * 100 / 2 - 94)) {
+        status = FAIL;
+        System.err.println("*** index range join returned " + ranged + " rows\n");
+      }
+
+      // no index on the join column
+      FileScan factScan = new FileScan("factindex", attrType, Ssizes, (short) 3, 3, projlist, null);
+      try {
+        new IndexNestedLoopJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 10,
+            factScan, "dimindex", indexTypes[0], new String[3], joinExpr, null, joinProj, 2);
+        status = FAIL;
+        System.err.println("*** index join without an index\n");
+      } catch (NestedLoopException e) {
+      }
+      factScan.close();
+      facts.deleteFile();
+      dims.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Index nested loop join\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Columnar sort-merge join on the join column and positions");
+      Columnarfile facts = new Columnarfile("smfacts", 3, attrType, Ssizes, columnNames);
+      int factRows = 2000;
+      for (int i = 0; i < factRows; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        // the last quarter all refer to dimension 7
+        t.setIntFld(1, i < 1500 ? (i * 7919) % 100 : 7);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "fact" + i);
+        facts.insertTuple(t.getTupleByteArray());
+      }
+      Columnarfile dims = new Columnarfile("smdims", 3, attrType, Ssizes, columnNames);
+      for (int i = 149; i >= 0; i--) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, i);
+        t.setFloFld(2, (float) (i * 2.5));
+        t.setStrFld(3, "dim" + i);
+        dims.insertTuple(t.getTupleByteArray());
+      }
+      // fact 0 and dimension 9 are deleted
+      facts.markTupleDeleted(facts.getTidFromPosition(0));
+      dims.markTupleDeleted(dims.getTidFromPosition(149 - 9));
+      int expected = 0;
+      for (int i = 1; i < factRows; i++)
+        if ((i < 1500 ? (i * 7919) % 100 : 7) != 9)
+          expected++;
+
+      CondExpr[] joinExpr = new CondExpr[2];
+      joinExpr[0] = new CondExpr();
+      joinExpr[0].op = new AttrOperator(AttrOperator.aopEQ);
+      joinExpr[0].type1 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].type2 = new AttrType(AttrType.attrSymbol);
+      joinExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+      joinExpr[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 1);
+      joinExpr[1] = null;
+      FldSpec[] joinProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 3), new FldSpec(new RelSpec(RelSpec.innerRel), 3) };
+      ColumnarSortMergeJoin join = new ColumnarSortMergeJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1,
+          "smfacts", "smdims", 20, joinExpr, joinProj, 3);
+      int joined = 0;
+      int lastKey = -1;
+      BitSet seen = new BitSet();
+      Tuple t;
+      while ((t = join.get_next()) != null) {
+        int key = t.getIntFld(1);
+        int fact = Integer.parseInt(t.getStrFld(2).substring(4));
+        if (key < lastKey || key == 9 || fact == 0 || seen.get(fact)
+            || !t.getStrFld(3).equals("dim" + key))
+          status = FAIL;
+        lastKey = key;
+        seen.set(fact);
+        joined++;
+      }
+      join.close();
+      System.out.println("sort-merge join rows: " + joined);
+      if (joined != expected) {
+        status = FAIL;
+        System.err.println("*** sort-merge join returned " + joined + " rows for " + expected + "\n");
+      }
+      facts.deleteColumnarFile();
+      dims.deleteColumnarFile();
+
+      // one join value on every row, too many tuples of S to keep in one page
+      Columnarfile skewR = new Columnarfile("skewr", 3, attrType, Ssizes, columnNames);
+      Columnarfile skewS = new Columnarfile("skews", 3, attrType, Ssizes, columnNames);
+      for (int i = 0; i < 300; i++) {
+        t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, 1);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "s" + i);
+        skewS.insertTuple(t.getTupleByteArray());
+        if (i < 4) {
+          t.setStrFld(3, "r" + i);
+          skewR.insertTuple(t.getTupleByteArray());
+        }
+      }
+      join = new ColumnarSortMergeJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1,
+          "skewr", "skews", ColumnarSortMergeJoin.MIN_MEM, joinExpr, joinProj, 3);
+      HashSet<String> pairs = new HashSet<String>();
+      while ((t = join.get_next()) != null)
+        if (t.getIntFld(1) != 1 || !pairs.add(t.getStrFld(2) + t.getStrFld(3)))
+          status = FAIL;
+      join.close();
+      System.out.println("skewed sort-merge join rows: " + pairs.size());
+      if (pairs.size() != 1200) {
+        status = FAIL;
+        System.err.println("*** skewed sort-merge join returned " + pairs.size() + " rows\n");
+      }
+      // less memory than the two sorts and one page for S need
+      try {
+        new ColumnarSortMergeJoin(attrType, 3, Ssizes, attrType, 3, Ssizes, 1, 1,
+            "skewr", "skews", ColumnarSortMergeJoin.MIN_MEM - 1, joinExpr, joinProj, 3);
+        status = FAIL;
+        System.err.println("*** sort-merge join ran below its memory minimum\n");
+      } catch (LowMemException e) {
+        System.out.println("sort-merge join below " + ColumnarSortMergeJoin.MIN_MEM + " pages refused");
+      }
+      skewR.deleteColumnarFile();
+      skewS.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Columnar sort-merge join\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Top-K with a bounded heap");
+      Columnarfile top = new Columnarfile("topk", 3, attrType, Ssizes, columnNames);
+      // column 1 is a permutation of 0..999
+      for (int i = 0; i < 1000; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, (i * 7919) % 1000);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "row" + i);
+        top.insertTuple(t.getTupleByteArray());
+      }
+      // the row holding 595
+      top.markTupleDeleted(top.getTidFromPosition(5));
+
+      FldSpec[] topProj = { new FldSpec(new RelSpec(RelSpec.outer), 3),
+          new FldSpec(new RelSpec(RelSpec.outer), 1) };
+      TopK topk = new TopK("topk", attrType, Ssizes, 1,
+          new TupleOrder(TupleOrder.Descending), 405, topProj, 2);
+      int rows = 0;
+      int expect = 999;
+      Tuple t;
+      while ((t = topk.get_next()) != null) {
+        int value = t.getIntFld(2);
+        int row = Integer.parseInt(t.getStrFld(1).substring(3));
+        if (value != expect || (row * 7919) % 1000 != value)
+          status = FAIL;
+        expect = expect == 596 ? 594 : expect - 1;
+        rows++;
+      }
+      topk.close();
+
+      // the same over whole tuples from an iterator
+      FldSpec[] allProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 2), new FldSpec(new RelSpec(RelSpec.outer), 3) };
+      ColumnarFileScan scan = new ColumnarFileScan("topk", attrType, Ssizes, (short) 3, 3, allProj, null);
+      TopK topScan = new TopK(attrType, (short) 3, Ssizes, scan, 1,
+          new TupleOrder(TupleOrder.Ascending), 10);
+      int smallest = 0;
+      while ((t = topScan.get_next()) != null) {
+        int row = Integer.parseInt(t.getStrFld(3).substring(3));
+        if (t.getIntFld(1) != smallest || t.getFloFld(2) != (float) row)
+          status = FAIL;
+        smallest++;
+      }
+      topScan.close();
+      System.out.println("top-k rows: " + rows + " ascending: " + smallest);
+      if (rows != 405 || smallest != 10) {
+        status = FAIL;
+        System.err.println("*** top-k returned " + rows + " and " + smallest + " rows\n");
+      }
+      top.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Top-K\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("Hash aggregation");
+      Columnarfile agg = new Columnarfile("hagg", 3, attrType, Ssizes, columnNames);
+      for (int i = 0; i < 2000; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 3, attrType, Ssizes);
+        t.setIntFld(1, i % 100);
+        t.setFloFld(2, (float) i);
+        t.setStrFld(3, "g" + (i % 7));
+        agg.insertTuple(t.getTupleByteArray());
+      }
+      // the row 0 of group 0
+      agg.markTupleDeleted(agg.getTidFromPosition(0));
+
+      // 100 groups of 20 rows, read from columns 1 and 2 alone
+      AggType[] fns = { new AggType(AggType.aggCount), new AggType(AggType.aggSum),
+          new AggType(AggType.aggMin), new AggType(AggType.aggMax), new AggType(AggType.aggAvg) };
+      HashAggregate byCol = new HashAggregate("hagg", new int[] { 1 }, fns,
+          new int[] { 0, 2, 2, 2, 2 }, 50);
+      int groups = 0;
+      Tuple t;
+      while ((t = byCol.get_next()) != null) {
+        int g = t.getIntFld(1);
+        int count = g == 0 ? 19 : 20;
+        float sum = 20 * g + 19000;
+        if (t.getIntFld(2) != count || t.getFloFld(3) != sum
+            || t.getFloFld(4) != (g == 0 ? 100 : g) || t.getFloFld(5) != g + 1900
+            || t.getFloFld(6) != sum / count)
+          status = FAIL;
+        groups++;
+      }
+      byCol.close();
+
+      // 700 groups in 2 pages, from whole tuples
+      FldSpec[] aggProj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+          new FldSpec(new RelSpec(RelSpec.outer), 2), new FldSpec(new RelSpec(RelSpec.outer), 3) };
+      ColumnarFileScan scan = new ColumnarFileScan("hagg", attrType, Ssizes, (short) 3, 3, aggProj, null);
+      HashAggregate spilled = new HashAggregate(attrType, (short) 3, Ssizes, scan,
+          new int[] { 3, 1 }, new AggType[] { new AggType(AggType.aggCount), new AggType(AggType.aggSum) },
+          new int[] { 0, 1 }, 2);
+      HashSet<String> seen = new HashSet<String>();
+      int rows = 0;
+      while ((t = spilled.get_next()) != null) {
+        int g = t.getIntFld(2);
+        int count = t.getIntFld(3);
+        if (!seen.add(t.getStrFld(1) + "/" + g) || t.getIntFld(4) != count * g)
+          status = FAIL;
+        rows += count;
+      }
+      spilled.close();
+      System.out.println("hash aggregate groups: " + groups + " spilled: " + seen.size()
+          + " rows: " + rows);
+      if (groups != 100 || seen.size() != 700 || rows != 1999 || spilled.getPartitionCount() == 0) {
+        status = FAIL;
+        System.err.println("*** hash aggregate returned " + groups + " and " + seen.size()
+            + " groups\n");
+      }
+      agg.deleteColumnarFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Hash aggregation\n");
+      e.printStackTrace();
+    }
+
+    try {
+      System.out.println("BMPage: page ids above 32K");
+      BMPage bmPage = new BMPage();
+      bmPage.init(new PageId(1), new Page());
+      int ptr = bmPage.insertRecord(new IntegerValueClass(7), 40000, 3);
+      if (bmPage.getPtrPage(ptr) != 40000 || bmPage.getPtrSlot(ptr) != 3
+          || bmPage.checkPairExistence(40000 - 65536, 3) != -1
+          || bmPage.checkPairExistence(40000, 3) != ptr) {
+        status = FAIL;
+        System.err.println("*** BMPage page id aliased\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** BMPage: page ids above 32K\n");
+      e.printStackTrace();
+    }
+
     try {
       f.deleteColumnarFile();
       f = new Columnarfile("test1", 3, attrType, Ssizes, columnNames);
@@ -544,12 +2137,98 @@ class CFDriver extends TestDriver implements GlobalConst {
     return status;
   }
 
+  /*
+   * Run the batchinsert and query programs on a table with a float
+   * column and return what the query printed. The programs open their
+   * own database in the working directory, so this runs after test1.
+   */
+  private String runQuery(String[] args) {
+    PrintStream stdout = System.out;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(captured));
+    try {
+      QueryProgram.main(args);
+    } finally {
+      System.setOut(stdout);
+    }
+    return captured.toString();
+  }
+
+  // values of the float column F in the tuples a query printed
+  private ArrayList<Float> printedFloats(String output) {
+    ArrayList<Float> values = new ArrayList<Float>();
+    for (String line : output.split("\n")) {
+      if (line.startsWith("[")) {
+        String[] fields = line.substring(1, line.indexOf(']')).split(",");
+        values.add(Float.parseFloat(fields[1].trim()));
+      }
+    }
+    return values;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  ------------------Test 2: Query program on a float column\n");
+    boolean status = OK;
+    String dbName = "cftest_float";
+    String dataFile = "cftest_float.txt";
+    File db = new File(System.getProperty("user.dir"), dbName + ".minibase-db");
+    db.delete();
+
+    try {
+      // F takes the values 0.0, 0.5, ..., 99.5
+      PrintWriter out = new PrintWriter(new FileWriter(dataFile));
+      out.println("A:char(25)\tF:float\tC:int");
+      for (int i = 0; i < 200; i++) {
+        out.println("row" + i + "\t" + (i * 0.5f) + "\t" + i);
+      }
+      out.close();
+      PrintStream stdout = System.out;
+      System.setOut(new PrintStream(new ByteArrayOutputStream()));
+      try {
+        BatchInsert.main(new String[] { dataFile, dbName, "floats", "3" });
+      } finally {
+        System.setOut(stdout);
+      }
+
+      String[][] queries = {
+        { "=", "42.5" }, { "<", "10.0" }, { ">", "90.0" }, { "!=", "42.5" }, { "<=", "10.0" }
+      };
+      int[] expected = { 1, 20, 19, 199, 21 };
+      for (int q = 0; q < queries.length; q++) {
+        String op = queries[q][0];
+        float value = Float.parseFloat(queries[q][1]);
+        ArrayList<Float> hits = printedFloats(runQuery(new String[] {
+          dbName, "floats", "[A,F,C]", "{F", op, queries[q][1] + "}", "50", "BTREE" }));
+        boolean ok = hits.size() == expected[q];
+        for (float f : hits) {
+          int cmp = Float.compare(f, value);
+          ok &= op.equals("=") ? cmp == 0 : op.equals("<") ? cmp < 0 : op.equals(">") ? cmp > 0
+              : op.equals("<=") ? cmp <= 0 : cmp != 0;
+        }
+        System.out.println("BTREE F " + op + " " + queries[q][1] + ": " + hits.size() + " rows");
+        if (!ok) {
+          status = FAIL;
+          System.err.println("*** BTREE query F " + op + " " + queries[q][1] + " returned " + hits + "\n");
+        }
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Query program on a float column\n");
+      e.printStackTrace();
+    } finally {
+      new File(dataFile).delete();
+      db.delete();
+    }
+    return status;
+  }
+
   protected boolean runAllTests() {
 
     boolean _passAll = OK;
 
     if (!test1()) { _passAll = FAIL; }
-    // if (!test2()) { _passAll = FAIL; }
+    if (!test2()) { _passAll = FAIL; }
     // if (!test3()) { _passAll = FAIL; }
     // if (!test4()) { _passAll = FAIL; }
     // if (!test5()) { _passAll = FAIL; }
@@ -12,7 +12,7 @@ import global.ValueClass;
 
 
 /**
- * This class is responsible for creating indexes (either B+ tree or bitmap) on a specified column of a columnar file.
+ * This class is responsible for creating indexes (B+ tree, bitmap or hash) on a specified column of a columnar file.
  */
 public class Index {
 
@@ -54,11 +54,13 @@ public class Index {
     /**
      * Main method to execute the index creation process.
      *
-     * @param args Command-line arguments: COLUMNDBNAME COLUMNARFILENAME COLUMNNAME INDEXTYPE
+     * @param args Command-line arguments: COLUMNDBNAME COLUMNARFILENAME COLUMNNAME INDEXTYPE,
+     *             and for a COVERING index the comma separated INCLUDECOLUMNS it also holds
      */
     public static void main(String[] args) {
-        if (args.length != 4) {
+        if (args.length != 4 && !(args.length == 5 && args[3].equals("COVERING"))) {
             System.out.println("Usage: index COLUMNDBNAME COLUMNARFILENAME COLUMNNAME INDEXTYPE");
+            System.out.println("       index COLUMNDBNAME COLUMNARFILENAME COLUMNNAME COVERING INCLUDECOLUMNS");
             return;
         }
 
@@ -111,6 +113,25 @@ public class Index {
                 indexCreated = columnarFile.createBTreeIndex(columnIndex);
             } else if (indexType.equals("BITMAP")) {
                 indexCreated = columnarFile.createBitMapIndex(columnIndex, valueClass);
+            } else if (indexType.equals("HASH")) {
+                // equality lookups on the column read a single bucket
+                indexCreated = columnarFile.createHashIndex(columnIndex);
+                if (!indexCreated) {
+                    System.err.println("Hash index on " + columnName + " already exists.");
+                }
+            } else if (indexType.equals("COVERING")) {
+                // B-tree on the column that also holds the included columns,
+                // so queries reading only these columns skip the column files
+                String[] includeNames = args[4].split(",");
+                int[] includeColumns = new int[includeNames.length];
+                for (int i = 0; i < includeNames.length; i++) {
+                    includeColumns[i] = java.util.Arrays.asList(columnarFile.columnNames).indexOf(includeNames[i]) + 1;
+                    if (includeColumns[i] == 0) {
+                        System.err.println("Column " + includeNames[i] + " Doesn't Exist.");
+                        return;
+                    }
+                }
+                indexCreated = columnarFile.createCoveringBTreeIndex(new int[] { columnIndex }, includeColumns);
             }
 
             // Print whether the index was successfully created or not
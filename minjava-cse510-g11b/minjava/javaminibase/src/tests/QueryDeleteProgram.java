@@ -408,7 +408,7 @@ public class QueryDeleteProgram {
                 System.out.println("BitMap Index for column " + columnName + " already exists");
             }
 
-            BitMapFile bitMap = new BitMapFile(columnarFileName + ".bitMap" + Integer.toString(columnNumber));//, columnarFile, columnNumber, valueClass);
+            BitMapFile bitMap = new BitMapFile(columnarFileName + ".bitmap" + Integer.toString(columnNumber), columnarFileName, columnNumber);
 
             
             IntegerKey intKey = null;
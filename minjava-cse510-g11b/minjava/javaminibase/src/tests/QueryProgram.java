@@ -9,6 +9,7 @@ import bufmgr.*;
 import global.*;
 import heap.*;
 import bitmap.*;
+import hash.*;
 import index.*;
 import columnar.*;
 import heap.Tuple;
@@ -107,6 +108,10 @@ public class QueryProgram {
                         System.out.println("Executing Btreescan query...");
                         executeBTreeQuery(columnDBName, columnarFileName, targetColumnNames, valueConstraintsParts);
                         break;
+                    case "HASH":
+                        System.out.println("Executing Hash index query...");
+                        executeHashQuery(columnarfile, columnDBName, columnarFileName, targetColumnNames, valueConstraintsParts);
+                        break;
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -120,6 +125,100 @@ public class QueryProgram {
     }
 
 
+    // An equality query on a column with a Bloom filter that does not hold the
+    // value has no result; report it without reading any data page.
+    private static boolean bloomRulesOut(Columnarfile columnarFile, int columnNumber, String operator, String value)
+        throws Exception
+    {
+        if (!operator.equals("=") && !operator.equals("aopEQ")) {
+            return false;
+        }
+        byte[] data;
+        switch (columnarFile.type[columnNumber-1].attrType) {
+        case AttrType.attrInteger:
+            data = new byte[4];
+            Convert.setIntValue(Integer.parseInt(value), 0, data);
+            break;
+        case AttrType.attrReal:
+            data = new byte[4];
+            Convert.setFloValue(Float.parseFloat(value), 0, data);
+            break;
+        default:
+            data = new byte[3 * value.length() + 2];
+            Convert.setStrValue(value, 0, data);
+            break;
+        }
+        if (columnarFile.mayContain(columnNumber, data)) {
+            return false;
+        }
+        System.out.println("No tuples match (ruled out by the Bloom filter)");
+        System.out.println("Number of disk pages read: " + PCounter.getReadCount());
+        System.out.println("Number of disk pages written: " + PCounter.getWriteCount());
+        return true;
+    }
+
+    // The value constraint "column operator value" as a selection on the
+    // outer relation, with the constant parsed to the column type.
+    private static CondExpr[] selection(Columnarfile columnarFile, int columnNumber, String operator, String value)
+    {
+        CondExpr[] expr = new CondExpr[2];
+        expr[0] = new CondExpr();
+        expr[0].op = new AttrOperator(operator);
+        expr[0].type1 = new AttrType(AttrType.attrSymbol);
+        expr[0].type2 = columnarFile.type[columnNumber-1];
+        expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), columnNumber);
+        expr[0].next = null;
+        expr[1] = null;
+        switch (expr[0].type2.attrType) {
+        case AttrType.attrInteger:
+            expr[0].operand2.integer = Integer.parseInt(value);
+            break;
+        case AttrType.attrReal:
+            expr[0].operand2.real = Float.parseFloat(value);
+            break;
+        default:
+            expr[0].operand2.string = value;
+            break;
+        }
+        return expr;
+    }
+
+    // True if a value read from a column file satisfies the selection
+    // built by selection().
+    private static boolean satisfies(CondExpr[] expr, byte[] data)
+        throws IOException
+    {
+        int cmp;
+        switch (expr[0].type2.attrType) {
+        case AttrType.attrInteger:
+            cmp = Integer.compare(Convert.getIntValue(0, data), expr[0].operand2.integer);
+            break;
+        case AttrType.attrReal:
+            cmp = Float.compare(Convert.getFloValue(0, data), expr[0].operand2.real);
+            break;
+        default:
+            cmp = Convert.getStrValue(0, data, data.length).compareTo(expr[0].operand2.string);
+            break;
+        }
+        switch (expr[0].op.attrOperator) {
+        case AttrOperator.aopEQ:
+            return cmp == 0;
+        case AttrOperator.aopLT:
+            return cmp < 0;
+        case AttrOperator.aopGT:
+            return cmp > 0;
+        case AttrOperator.aopLE:
+            return cmp <= 0;
+        case AttrOperator.aopGE:
+            return cmp >= 0;
+        case AttrOperator.aopNE:
+        case AttrOperator.aopNOT:
+            return cmp != 0;
+        default:
+            return true;
+        }
+    }
+
     private static void executeFileScanQuery(Columnarfile columnarFile, String columnDBName, String columnarFileName, String[] targetColumns, String[] valueConstraints)
     {
         PCounter.initialize();
@@ -129,7 +228,10 @@ public class QueryProgram {
             String value = valueConstraints[2]; 
 
             int columnNumber = Arrays.asList(columnarFile.columnNames).indexOf(columnName)+1;
-            
+
+            if (bloomRulesOut(columnarFile, columnNumber, operator, value)) {
+                return;
+            }
 
             // Columnar Attribute Types
             AttrType[] types = columnarFile.type;
@@ -144,23 +246,9 @@ public class QueryProgram {
             short[] strSizes = columnarFile.strSizes;        
             
             // Query Condition Expression
-            CondExpr[] expr = new CondExpr[2];
-            expr[0] = new CondExpr();
-            expr[0].op = new AttrOperator(operator);
-            expr[0].type1 = new AttrType(AttrType.attrSymbol);
-            expr[0].type2 = types[columnNumber-1];
-            expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), columnNumber);
-            expr[0].next = null;
-            expr[1] = null;
-            
+            CondExpr[] expr = selection(columnarFile, columnNumber, operator, value);
 
             System.out.println(value);
-            // Fidn the Type of the real value and set the operand2
-            if (expr[0].type2.attrType == AttrType.attrString) {
-                expr[0].operand2.string = value;
-            } else {
-                expr[0].operand2.integer = Integer.parseInt(value);
-            }
             
             
             // Create the file scan
@@ -189,6 +277,8 @@ public class QueryProgram {
         PCounter.initialize();
        try {
             String columnName = valueConstraints[0];
+            String operator = valueConstraints[1];
+            String value = valueConstraints[2];
 
             // Create a ColumnarFile object
             Columnarfile columnarFile = new Columnarfile(columnarFileName);
@@ -198,8 +288,9 @@ public class QueryProgram {
             // System.out.println("Column Num: "+ columnNumber);
             //String columnFileName = columnarFileName+"."+Integer.toString(columnNumber);
             
-            // Create a ColumnarFileScan object
-            Scan scan = columnarFile.openColumnScan(columnNumber); 
+            // Scan the column, skipping the pages its zone map rules out
+            CondExpr[] expr = selection(columnarFile, columnNumber, operator, value);
+            Scan scan = columnarFile.openColumnScan(columnNumber, expr); 
 
             // Open File to get PageID of the column page
             //PageId pageId = SystemDefs.JavabaseDB.get_file_entry(columnFileName);
@@ -214,6 +305,9 @@ public class QueryProgram {
                 // Print the tuple
                 //tuple.print(type);
                 byte[] data = tuple.getTupleByteArray();
+                if (!satisfies(expr, data)) {
+                    continue;
+                }
                 switch (columnarFile.type[columnNumber-1].attrType) {
                 case AttrType.attrInteger:
                     System.out.println(Convert.getIntValue(0, data));
@@ -249,12 +343,19 @@ public class QueryProgram {
             String columnName = valueConstraints[0];
             String operator = valueConstraints[1];
             String value = valueConstraints[2]; 
-            boolean isStringKey = false;
 
             
             Columnarfile columnarFile = new Columnarfile(columnarFileName);
             int columnNumber = Arrays.asList(columnarFile.columnNames).indexOf(columnName)+1;
 
+            if (bloomRulesOut(columnarFile, columnNumber, operator, value)) {
+                return;
+            }
+
+            if (answerFromCoveringIndex(columnarFile, columnNumber, operator, value, targetColumns)) {
+                return;
+            }
+
             if(!columnarFile.createBTreeIndex(columnNumber)){
                 System.out.println("BTree Index for column " + columnName + " already exists");
             }
@@ -265,119 +366,272 @@ public class QueryProgram {
             // Create a ColumnarIndexScan
             //ColumnarIndexScan columnarIndexScan = new ColumnarIndexScan(columnName, columnNumber, 1, columnName, columnarFile.type, columnarFile.strSizes, columnarFile.numColumns, targetColumns.length, null, null, true);
 
-            // Creates a BTreeFile object using the index column name
-            IntegerKey intKey = null;
-            StringKey strKey = null;
-            
-            //If value is a string, create a BTree with a string key, if its an integer, create a BTree with an integer key
-            if (columnarFile.type[columnNumber-1].attrType == AttrType.attrInteger) {
-                intKey = new IntegerKey(Integer.parseInt(value));
-            } else if (columnarFile.type[columnNumber-1].attrType == AttrType.attrString) {
-                // Create a key for the search value
-                isStringKey = true;
-                strKey = new StringKey(value);
-            } 
+            // Key for the search value, in the key type of the index
+            int keyType = columnarFile.type[columnNumber-1].attrType;
+            KeyClass key;
+            if (keyType == AttrType.attrInteger) {
+                key = new IntegerKey(Integer.parseInt(value));
+            } else if (keyType == AttrType.attrReal) {
+                key = new RealKey(Float.parseFloat(value));
+            } else {
+                key = new StringKey(value);
+            }
 
-            // Create a BTreeFileScan object
-            BTFileScan btfScan = null;
+            // Key ranges [low, high] to read from the index, null for an open end
+            ArrayList<KeyClass[]> ranges = new ArrayList<KeyClass[]>();
+            // Only int keys have a successor to start a range after, so for
+            // float and string keys the strict operators read ranges that
+            // include the value and leave out the entries equal to it
+            boolean hasSuccessor = keyType == AttrType.attrInteger;
+            KeyClass excludedKey = null;
             // System.out.println(operator);
             //if operator = range, use the range scan method
             if (operator.equals("RANGE")) {
-                btfScan = btf.new_scan(null, null);
+                ranges.add(new KeyClass[] { null, null });
             }
             // If operator is less than or equal to, use the range scan method
             else if (operator.equals("<=")) {
-                if (isStringKey) {
-                    btfScan = btf.new_scan(null, strKey);
-                } else {
-                    btfScan = btf.new_scan(null, intKey);
-                }
+                ranges.add(new KeyClass[] { null, key });
             } // If operator is greater than or equal to, use the range scan method
             else if (operator.equals(">=")) {
-                if (isStringKey) {
-                    btfScan = btf.new_scan(strKey, null);
-                } else {
-                    btfScan = btf.new_scan(intKey, null);
-                }
+                ranges.add(new KeyClass[] { key, null });
             } // If operator is Not equal to, use the range scan method
             else if (operator.equals("!=") || operator.equals("NOT")) {
-                if (isStringKey) {
-                    btfScan = btf.new_scan(null, strKey);
-                    KeyDataEntry entry;
-                    while ((entry = btfScan.get_next()) != null) {
-                        // Print the tuple
-                        int pos = columnarFile.getPositionFromRid(((LeafData)entry.data).getData(), columnNumber);
-                        TID tid1 = columnarFile.getTidFromPosition(pos);
-                        Tuple tuple = columnarFile.getTuple(tid1);
-                        tuple.print(columnarFile.type);
-                    }
-                    btfScan.DestroyBTreeFileScan();
-                    btfScan = btf.new_scan(strKey, null);
+                if (hasSuccessor) {
+                    ranges.add(new KeyClass[] { null, new IntegerKey(Integer.parseInt(value)-1) });
+                    ranges.add(new KeyClass[] { new IntegerKey(Integer.parseInt(value)+1), null });
                 } else {
-                    intKey = new IntegerKey(Integer.parseInt(value)-1);
-                    btfScan = btf.new_scan(null, intKey);
-                    KeyDataEntry entry;
-                    while ((entry = btfScan.get_next()) != null) {
-                        // Print the tuple
-                        int pos = columnarFile.getPositionFromRid(((LeafData)entry.data).getData(), columnNumber);
-                        TID tid1 = columnarFile.getTidFromPosition(pos);
-                        Tuple tuple = columnarFile.getTuple(tid1);
-                        tuple.print(columnarFile.type);
-                    }
-                    btfScan.DestroyBTreeFileScan();
-                    intKey = new IntegerKey(Integer.parseInt(value)+1);
-                    btfScan = btf.new_scan(intKey, null);
+                    ranges.add(new KeyClass[] { null, key });
+                    ranges.add(new KeyClass[] { key, null });
+                    excludedKey = key;
                 }
             } else if (operator.equals(">")){
-                if (isStringKey) {
-                    //Figure out how to increment string key
-                    btfScan = btf.new_scan(strKey, null);
+                if (hasSuccessor) {
+                    ranges.add(new KeyClass[] { new IntegerKey(Integer.parseInt(value)+1), null });
                 } else {
-                    intKey = new IntegerKey(Integer.parseInt(value)+1);
-                    btfScan = btf.new_scan(intKey, null);
+                    ranges.add(new KeyClass[] { key, null });
+                    excludedKey = key;
                 }
             } else if (operator.equals("<")){
-                if (isStringKey) {
-                    btfScan = btf.new_scan(null, strKey);
+                if (hasSuccessor) {
+                    ranges.add(new KeyClass[] { null, new IntegerKey(Integer.parseInt(value)-1) });
                 } else {
-                    intKey = new IntegerKey(Integer.parseInt(value)-1);
-                    btfScan = btf.new_scan(null, intKey);
+                    ranges.add(new KeyClass[] { null, key });
+                    excludedKey = key;
                 }
             }
             // If operator is equal to, use the point scan method 
             else {
-                // Create a point scan
-                if (isStringKey) {
-                    btfScan = btf.new_scan(strKey, strKey);
-                } else {
-                    btfScan = btf.new_scan(intKey, intKey);
+                ranges.add(new KeyClass[] { key, key });
+            }
+
+            // Phase 1: collect the qualifying positions from the B-tree. Once
+            // they spread over too many pages for the index to pay off, read
+            // the key column sequentially instead.
+            PositionMap positionMap = columnarFile.getPositionMap();
+            BitSet hits = new BitSet();
+            HashSet<Integer> pagesHit = new HashSet<Integer>();
+            boolean plainScan = false;
+            for (KeyClass[] range : ranges) {
+                BTFileScan btfScan = btf.new_scan(range[0], range[1]);
+                KeyDataEntry entry;
+                while (!plainScan && (entry = btfScan.get_next()) != null) {
+                    if (excludedKey != null && BT.keyCompare(entry.key, excludedKey) == 0) {
+                        continue;
+                    }
+                    RID rid = ((LeafData)entry.data).getData();
+                    int pos = positionMap.getPosition(rid, columnNumber);
+                    hits.set(pos >= 0 ? pos : columnarFile.getPositionFromRid(rid, columnNumber));
+                    pagesHit.add(rid.pageNo.pid);
+                    plainScan = PositionFetchScan.scanIsCheaper(pagesHit.size(), positionMap, columnNumber);
+                }
+                btfScan.DestroyBTreeFileScan();
+                if (plainScan) {
+                    break;
                 }
             }
+            btf.close();
+            if (plainScan) {
+                System.out.println("Too many matches for the index, scanning the column instead");
+                hits = scanKeyColumn(columnarFile, columnNumber, ranges, excludedKey);
+            }
 
-            // Iterate through B-Tree index entires
-            KeyDataEntry entry;
-            while ((entry = btfScan.get_next()) != null) {
+            // Phase 2: fetch the tuples in position order
+            PositionFetchScan fetch = columnarFile.openPositionFetchScan(hits);
+            TID tid1 = new TID(columnarFile.numColumns);
+            Tuple tuple;
+            while ((tuple = fetch.getNext(tid1)) != null) {
                 // Print the tuple
-                int pos = columnarFile.getPositionFromRid(((LeafData)entry.data).getData(), columnNumber);
-                TID tid1 = columnarFile.getTidFromPosition(pos);
-                Tuple tuple = columnarFile.getTuple(tid1);
                 tuple.print(columnarFile.type);
-                //System.out.println(entry.data.toString());
             }
+            fetch.closescan();
 
             // Print the number of disk pages read and written
             System.out.println("Number of disk pages read: " + PCounter.getReadCount());
             System.out.println("Number of disk pages written: " + PCounter.getWriteCount());
 
-            // Close the BTreeFileScan
-            btfScan.DestroyBTreeFileScan();
-            btf.close();
-
         } catch (Exception e){
             e.printStackTrace();
         } 
 
     }
+
+    // An equality query through the hash index on the column, built on first
+    // use: the lookup reads the one bucket of the value and the matching
+    // tuples are fetched in position order. A hash index has no key order,
+    // so any other operator is answered by a file scan.
+    private static void executeHashQuery(Columnarfile columnarFile, String columnDBName, String columnarFileName, String[] targetColumns, String[] valueConstraints)
+    {
+        PCounter.initialize();
+        try {
+            String columnName = valueConstraints[0];
+            String operator = valueConstraints[1];
+            String value = valueConstraints[2];
+
+            if (new AttrOperator(operator).attrOperator != AttrOperator.aopEQ) {
+                System.out.println("A hash index answers equality only, scanning the file instead");
+                executeFileScanQuery(columnarFile, columnDBName, columnarFileName, targetColumns, valueConstraints);
+                return;
+            }
+
+            int columnNumber = Arrays.asList(columnarFile.columnNames).indexOf(columnName)+1;
+
+            if (bloomRulesOut(columnarFile, columnNumber, operator, value)) {
+                return;
+            }
+
+            if (!columnarFile.createHashIndex(columnNumber)) {
+                System.out.println("Hash Index for column " + columnName + " already exists");
+            }
+
+            KeyClass key;
+            switch (columnarFile.type[columnNumber-1].attrType) {
+            case AttrType.attrInteger:
+                key = new IntegerKey(Integer.parseInt(value));
+                break;
+            case AttrType.attrReal:
+                key = new RealKey(Float.parseFloat(value));
+                break;
+            default:
+                key = new StringKey(value);
+                break;
+            }
+
+            HashFile hashFile = new HashFile(columnarFile.getHashIndexName(columnNumber));
+            BitSet hits = new BitSet();
+            for (RID rid : hashFile.lookup(key)) {
+                hits.set(Columnarfile.ridToPosition(rid));
+            }
+            hashFile.close();
+
+            PositionFetchScan fetch = columnarFile.openPositionFetchScan(hits);
+            TID tid = new TID(columnarFile.numColumns);
+            Tuple tuple;
+            while ((tuple = fetch.getNext(tid)) != null) {
+                tuple.print(columnarFile.type);
+            }
+            fetch.closescan();
+
+            System.out.println("Number of disk pages read: " + PCounter.getReadCount());
+            System.out.println("Number of disk pages written: " + PCounter.getWriteCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // A B-tree query whose column leads the key of a composite B-tree that
+    // also holds every target column is answered from that index alone,
+    // without reading a column file.
+    private static boolean answerFromCoveringIndex(Columnarfile columnarFile, int columnNumber, String operator, String value, String[] targetColumns)
+        throws Exception
+    {
+        AttrOperator op = new AttrOperator(operator);
+        if (op.attrOperator == AttrOperator.aopNOT || op.attrOperator == AttrOperator.opRANGE) {
+            return false;
+        }
+        int[] columns = new int[targetColumns.length + 1];
+        FldSpec[] projection = new FldSpec[targetColumns.length];
+        AttrType[] outTypes = new AttrType[targetColumns.length];
+        for (int i = 0; i < targetColumns.length; i++) {
+            columns[i] = Arrays.asList(columnarFile.columnNames).indexOf(targetColumns[i])+1;
+            if (columns[i] == 0) {
+                return false;
+            }
+            projection[i] = new FldSpec(new RelSpec(RelSpec.outer), columns[i]);
+            outTypes[i] = columnarFile.type[columns[i]-1];
+        }
+        columns[targetColumns.length] = columnNumber;
+        CompositeIndex index = columnarFile.findCoveringIndex(new int[] { columnNumber }, columns);
+        if (index == null) {
+            return false;
+        }
+        System.out.println("Answering from the covering index " + index.getName());
+
+        CondExpr[] expr = new CondExpr[2];
+        expr[0] = new CondExpr();
+        expr[0].op = op;
+        expr[0].type1 = new AttrType(AttrType.attrSymbol);
+        expr[0].type2 = columnarFile.type[columnNumber-1];
+        expr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), columnNumber);
+        expr[0].next = null;
+        expr[1] = null;
+        if (expr[0].type2.attrType == AttrType.attrString) {
+            expr[0].operand2.string = value;
+        } else if (expr[0].type2.attrType == AttrType.attrReal) {
+            expr[0].operand2.real = Float.parseFloat(value);
+        } else {
+            expr[0].operand2.integer = Integer.parseInt(value);
+        }
+
+        ColumnarIndexScan scan = new ColumnarIndexScan(columnarFile.get_fileName(), new int[] { columnNumber },
+            new IndexType(IndexType.B_Position), new String[columnarFile.numColumns], columnarFile.type,
+            columnarFile.strSizes, columnarFile.numColumns, targetColumns.length, projection, expr, false);
+        Tuple tuple;
+        while ((tuple = scan.get_next()) != null) {
+            tuple.print(outTypes);
+        }
+        scan.close();
+
+        System.out.println("Number of disk pages read: " + PCounter.getReadCount());
+        System.out.println("Number of disk pages written: " + PCounter.getWriteCount());
+        return true;
+    }
+
+    // Positions of the key column values that fall in one of the ranges,
+    // leaving out those equal to excludedKey (null for none)
+    private static BitSet scanKeyColumn(Columnarfile columnarFile, int columnNumber, ArrayList<KeyClass[]> ranges, KeyClass excludedKey)
+        throws Exception
+    {
+        BitSet hits = new BitSet();
+        Scan scan = columnarFile.openColumnScan(columnNumber);
+        RID rid = new RID();
+        Tuple tuple;
+        int position = 0;
+        while ((tuple = scan.getNext(rid)) != null) {
+            byte[] data = tuple.getTupleByteArray();
+            KeyClass key;
+            if (columnarFile.type[columnNumber-1].attrType == AttrType.attrString) {
+                key = new StringKey(Convert.getStrValue(0, data, data.length));
+            } else if (columnarFile.type[columnNumber-1].attrType == AttrType.attrReal) {
+                key = new RealKey(Convert.getFloValue(0, data));
+            } else {
+                key = new IntegerKey(Convert.getIntValue(0, data));
+            }
+            for (KeyClass[] range : ranges) {
+                if (excludedKey != null && BT.keyCompare(key, excludedKey) == 0) {
+                    break;
+                }
+                if ((range[0] == null || BT.keyCompare(key, range[0]) >= 0)
+                    && (range[1] == null || BT.keyCompare(key, range[1]) <= 0)) {
+                    hits.set(position);
+                    break;
+                }
+            }
+            position++;
+        }
+        scan.closescan();
+        return hits;
+    }
     
 
     private static void executeBitMapQuery(String columnDBName, String columnarFileName, String[] targetColumns, String[] valueConstraints)//, BufMgr bufMgr )
@@ -401,7 +655,7 @@ public class QueryProgram {
                 System.out.println("BitMap Index for column " + columnName + " already exists");
             }
 
-            BitMapFile bitMap = new BitMapFile(columnarFileName + ".bitMap" + Integer.toString(columnNumber));//, columnarFile, columnNumber, valueClass);
+            BitMapFile bitMap = new BitMapFile(columnarFileName + ".bitmap" + Integer.toString(columnNumber), columnarFileName, columnNumber);
 
             
             IntegerKey intKey = null;
@@ -957,12 +957,299 @@ class SORTDriver extends TestDriver
     
   protected boolean test5()
   {
-    return true;
+    
+	//reset read/write for test case
+	PCounter.initialize();
+	
+    System.out.println("------------------------ TEST 5 --------------------------");
+    
+    boolean status = OK;
+    int N = 600;
+
+    AttrType[] attrType = new AttrType[2];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrString);
+    short[] attrSize = new short[1];
+    attrSize[0] = REC_LEN1;
+    TupleOrder order = new TupleOrder(TupleOrder.Ascending);
+
+    Tuple t = new Tuple();
+    try {
+      t.setHdr((short) 2, attrType, attrSize);
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    int size = t.size();
+
+    // Create unsorted data file "test5.in", the int field with repeats
+    Heapfile f = null;
+    long sum = 0;
+    java.util.HashSet<Integer> distinct = new java.util.HashSet<Integer>();
+    Random random = new Random((long) 510);
+    try {
+      f = new Heapfile("test5.in");
+      t = new Tuple(size);
+      t.setHdr((short) 2, attrType, attrSize);
+      for (int i=0; i<N; i++) {
+	int inum = random.nextInt(500);
+	t.setIntFld(1, inum);
+	t.setStrFld(2, data1[i%NUM_RECORDS]);
+	f.insertRecord(t.returnTupleByteArray());
+	sum += inum;
+	distinct.add(inum);
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    FldSpec[] projlist = new FldSpec[2];
+    RelSpec rel = new RelSpec(RelSpec.outer); 
+    projlist[0] = new FldSpec(rel, 1);
+    projlist[1] = new FldSpec(rel, 2);
+
+    // Sort "test5.in" on the int field with four threads
+    System.out.println(" -- Sorting on the int field with four threads -- ");
+    ParallelSort.setThreads(4);
+    Iterator sort = null;
+    try {
+      if (!ParallelSort.fitsInTwoPasses(attrType, (short) 2, attrSize, N, SORTPGNUM)) {
+	System.err.println("Test5 -- OOPS! " + N + " tuples should fit in " + SORTPGNUM + " pages");
+	status = FAIL;
+      }
+      FileScan fscan = new FileScan("test5.in", attrType, attrSize, (short) 2, 2, projlist, null);
+      sort = ParallelSort.open(attrType, (short) 2, attrSize, fscan, 1, order, 4, SORTPGNUM);
+      if (!(sort instanceof ParallelSort)) {
+	System.err.println("Test5 -- OOPS! open() did not give a ParallelSort");
+	status = FAIL;
+      }
+
+      int count = 0;
+      long outsum = 0;
+      int ival = Integer.MIN_VALUE;
+      while ((t = sort.get_next()) != null) {
+	int iout = t.getIntFld(1);
+	if (iout < ival) {
+	  System.err.println("Test5 -- OOPS! not sorted at " + count);
+	  status = FAIL;
+	  break;
+	}
+	ival = iout;
+	outsum += iout;
+	count++;
+      }
+      if (status && (count != N || outsum != sum)) {
+	System.err.println("Test5 -- OOPS! " + count + " records, expected " + N);
+	status = FAIL;
+      }
+      else if (status) {
+	System.err.println("Test5 -- Parallel sorting of int field OK\n");
+      }
+      sort.close();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    // Eliminate the duplicates of the int field, sorting with four threads
+    System.out.println(" -- Eliminating duplicates with four threads -- ");
+    AttrType[] intType = { new AttrType(AttrType.attrInteger) };
+    FldSpec[] intproj = { new FldSpec(rel, 1) };
+    try {
+      FileScan fscan = new FileScan("test5.in", attrType, attrSize, (short) 2, 1, intproj, null);
+      DuplElim elim = new DuplElim(intType, (short) 1, new short[0], fscan, SORTPGNUM, false);
+      int count = 0;
+      while (elim.get_next() != null)
+	count++;
+      elim.close();
+      if (count != distinct.size()) {
+	System.err.println("Test5 -- OOPS! " + count + " distinct values, expected " + distinct.size());
+	status = FAIL;
+      }
+      else {
+	System.err.println("Test5 -- Duplicate elimination OK\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    ParallelSort.setThreads(1);
+
+    // The same with a hash table, in memory and then in 2 pages
+    System.out.println(" -- Eliminating duplicates with a hash table -- ");
+    try {
+      FileScan fscan = new FileScan("test5.in", attrType, attrSize, (short) 2, 1, intproj, null);
+      Iterator elim = HashDuplElim.open(intType, (short) 1, new short[0], fscan,
+					SORTPGNUM, distinct.size());
+      if (!(elim instanceof HashDuplElim)) {
+	System.err.println("Test5 -- OOPS! open() did not give a HashDuplElim");
+	status = FAIL;
+      }
+      int count = 0;
+      while ((t = elim.get_next()) != null)
+	if (distinct.contains(t.getIntFld(1)))
+	  count++;
+      elim.close();
+
+      fscan = new FileScan("test5.in", attrType, attrSize, (short) 2, 1, intproj, null);
+      elim = HashDuplElim.open(intType, (short) 1, new short[0], fscan, 2, distinct.size());
+      if (!(elim instanceof DuplElim)) {
+	System.err.println("Test5 -- OOPS! open() did not give a DuplElim for 2 pages");
+	status = FAIL;
+      }
+      elim.close();
+
+      fscan = new FileScan("test5.in", attrType, attrSize, (short) 2, 1, intproj, null);
+      HashDuplElim spilled = new HashDuplElim(intType, (short) 1, new short[0], fscan, 2);
+      java.util.HashSet<Integer> seen = new java.util.HashSet<Integer>();
+      while ((t = spilled.get_next()) != null)
+	if (!distinct.contains(t.getIntFld(1)) || !seen.add(t.getIntFld(1)))
+	  status = FAIL;
+      spilled.close();
+
+      if (count != distinct.size() || seen.size() != distinct.size()
+	  || spilled.getPartitionCount() == 0) {
+	System.err.println("Test5 -- OOPS! " + count + " and " + seen.size()
+			   + " distinct values, expected " + distinct.size());
+	status = FAIL;
+      }
+      else if (status) {
+	System.err.println("Test5 -- Hash duplicate elimination OK\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    try {
+      f.deleteFile();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+	printReadWriteStats();
+    
+    System.err.println("------------------- TEST 5 completed ---------------------\n");
+        
+    return status;
   }
     
   protected boolean test6()
   {
-    return true;
+    
+	//reset read/write for test case
+	PCounter.initialize();
+	
+    System.out.println("------------------------ TEST 6 --------------------------");
+    
+    boolean status = OK;
+    int N = 300;
+
+    AttrType[] attrType = new AttrType[2];
+    attrType[0] = new AttrType(AttrType.attrString);
+    attrType[1] = new AttrType(AttrType.attrInteger);
+    short[] attrSize = new short[1];
+    attrSize[0] = REC_LEN1;
+
+    Tuple t = new Tuple();
+    try {
+      t.setHdr((short) 2, attrType, attrSize);
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+    int size = t.size();
+
+    // Create unsorted data file "test6.in", each string many times
+    Heapfile f = null;
+    Random random = new Random((long) 1000);
+    try {
+      f = new Heapfile("test6.in");
+      t = new Tuple(size);
+      t.setHdr((short) 2, attrType, attrSize);
+      for (int i=0; i<N; i++) {
+	t.setStrFld(1, data1[i%NUM_RECORDS]);
+	t.setIntFld(2, random.nextInt());
+	f.insertRecord(t.returnTupleByteArray());
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    FldSpec[] projlist = new FldSpec[2];
+    RelSpec rel = new RelSpec(RelSpec.outer); 
+    projlist[0] = new FldSpec(rel, 1);
+    projlist[1] = new FldSpec(rel, 2);
+
+    // Sort "test6.in" on the string field, then the int field descending
+    System.out.println(" -- Sorting on the string field, then the int field descending -- ");
+    int[] flds = { 1, 2 };
+    TupleOrder[] orders = { new TupleOrder(TupleOrder.Ascending),
+			    new TupleOrder(TupleOrder.Descending) };
+    Sort sort = null;
+    try {
+      FileScan fscan = new FileScan("test6.in", attrType, attrSize, (short) 2, 2, projlist, null);
+      sort = new Sort(attrType, (short) 2, attrSize, fscan, flds, orders, SORTPGNUM);
+
+      int count = 0;
+      String sval = null;
+      int ival = 0;
+      while ((t = sort.get_next()) != null) {
+	String sout = t.getStrFld(1);
+	int iout = t.getIntFld(2);
+	if (sval != null) {
+	  int c = sout.compareTo(sval);
+	  if (c < 0 || (c == 0 && iout > ival)) {
+	    System.err.println("count = " + count + " sout = " + sout + " iout = " + iout);
+	    System.err.println("Test6 -- OOPS! test6.in not sorted on (string, int desc)");
+	    status = FAIL;
+	    break;
+	  }
+	}
+	sval = sout;
+	ival = iout;
+	count++;
+      }
+      if (status && count != N) {
+	System.err.println("Test6 -- OOPS! " + count + " records, expected " + N);
+	status = FAIL;
+      }
+      else if (status) {
+	System.err.println("Test6 -- Sorting on two fields OK\n");
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+    // clean up
+    try {
+      if (sort != null)
+	sort.close();
+      f.deleteFile();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      e.printStackTrace();
+    }
+
+	printReadWriteStats();
+    
+    System.err.println("------------------- TEST 6 completed ---------------------\n");
+        
+    return status;
   }
     
   protected String testName()